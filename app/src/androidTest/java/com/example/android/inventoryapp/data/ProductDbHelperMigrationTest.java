@@ -0,0 +1,226 @@
+package com.example.android.inventoryapp.data;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.example.android.inventoryapp.data.ProductContract.ProductEntry;
+import com.example.android.inventoryapp.data.ProductContract.StatsEntry;
+import com.example.android.inventoryapp.data.ProductContract.SupplierEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Upgrades a database as the first version of the app created it to the current version, and
+ * checks that no product, id or AUTOINCREMENT counter is lost on the way.
+ */
+@RunWith(AndroidJUnit4.class)
+public class ProductDbHelperMigrationTest {
+
+    private static final String DATABASE_NAME = "migration_test.db";
+
+    /** The products table of version 1, as it shipped. */
+    private static final String SQL_CREATE_V1 = "CREATE TABLE books (_id INTEGER PRIMARY KEY AUTOINCREMENT,"
+            + " product_name TEXT NOT NULL, price INTEGER NOT NULL, quantity INTEGER NOT NULL DEFAULT 0,"
+            + " supplier_name TEXT NOT NULL, supplier_phone TEXT)";
+
+    private Context mContext;
+    private ProductDbHelper mHelper;
+
+    @Before
+    public void setUp() {
+        mContext = InstrumentationRegistry.getTargetContext();
+        mContext.deleteDatabase(DATABASE_NAME);
+    }
+
+    @After
+    public void tearDown() {
+        if (mHelper != null) {
+            mHelper.close();
+        }
+        mContext.deleteDatabase(DATABASE_NAME);
+    }
+
+    @Test
+    public void upgradeFromVersion1KeepsProducts() {
+        SQLiteDatabase v1 = createVersion1();
+        insertV1(v1, 1, "Dune", 12, 4, "Acme", "555-0100");
+        insertV1(v1, 2, "Emma", 8, 0, " Acme ", null);
+        insertV1(v1, 5, "Ulysses", 15, 7, "Books Ltd", "555-0199");
+        // The highest id is deleted, so the counter is ahead of every id left
+        insertV1(v1, 9, "Deleted", 1, 1, "Books Ltd", null);
+        v1.delete("books", "_id = 9", null);
+        v1.close();
+
+        SQLiteDatabase db = upgrade();
+
+        Cursor cursor = db.query(ProductEntry.VIEW_NAME, new String[]{ProductEntry._ID,
+                        ProductEntry.COLUMN_PRODUCT_NAME, ProductEntry.COLUMN_PRICE, ProductEntry.COLUMN_QUANTITY,
+                        ProductEntry.COLUMN_SUPPLIER_NAME, ProductEntry.COLUMN_SUPPLIER_PHONE},
+                null, null, null, null, ProductEntry._ID);
+        try {
+            assertEquals(3, cursor.getCount());
+            assertProduct(cursor, 1, "Dune", 12, 4, "Acme", "555-0100");
+            // Suppliers differing in surrounding blanks are merged, and keep the known phone number
+            assertProduct(cursor, 2, "Emma", 8, 0, "Acme", "555-0100");
+            assertProduct(cursor, 5, "Ulysses", 15, 7, "Books Ltd", "555-0199");
+        } finally {
+            cursor.close();
+        }
+        assertEquals(2, DatabaseUtils.queryNumEntries(db, SupplierEntry.TABLE_NAME));
+
+        // The next id continues after the deleted product, not after the highest one left
+        assertEquals(9, sequence(db));
+        assertEquals(10, insertProduct(db));
+
+        // Totals and search are filled from the upgraded rows
+        assertEquals(4, DatabaseUtils.longForQuery(db,
+                "SELECT " + StatsEntry.COLUMN_PRODUCT_COUNT + " FROM " + StatsEntry.TABLE_NAME, null));
+        assertEquals(1, DatabaseUtils.longForQuery(db, "SELECT COUNT(*) FROM " + ProductEntry.FTS_TABLE_NAME
+                + " WHERE " + ProductEntry.FTS_TABLE_NAME + " MATCH 'ulysses'", null));
+    }
+
+    @Test
+    public void upgradeFromVersion1WithoutProducts() {
+        SQLiteDatabase v1 = createVersion1();
+        v1.close();
+
+        SQLiteDatabase db = upgrade();
+
+        assertEquals(0, DatabaseUtils.queryNumEntries(db, ProductEntry.TABLE_NAME));
+        assertEquals(1, insertProduct(db));
+    }
+
+    @Test
+    public void upgradeFromVersion1EmptiedKeepsCounter() {
+        SQLiteDatabase v1 = createVersion1();
+        // Every product deleted: the table copy has no rows, only the counter knows about id 7
+        insertV1(v1, 7, "Deleted", 1, 1, "Acme", null);
+        v1.delete("books", null, null);
+        v1.close();
+
+        SQLiteDatabase db = upgrade();
+
+        assertEquals(7, sequence(db));
+        assertEquals(8, insertProduct(db));
+    }
+
+    @Test
+    public void supplierChangeStampsItsProducts() {
+        SQLiteDatabase v1 = createVersion1();
+        insertV1(v1, 1, "Dune", 12, 4, "Acme", "555-0100");
+        insertV1(v1, 2, "Ulysses", 15, 7, "Books Ltd", "555-0199");
+        v1.close();
+        SQLiteDatabase db = upgrade();
+        db.execSQL("UPDATE " + ProductEntry.TABLE_NAME + " SET " + ProductEntry.COLUMN_LAST_MODIFIED + " = 0");
+
+        // The phone number is only in the supplier's row, yet incremental exports must see it
+        db.execSQL("UPDATE " + SupplierEntry.TABLE_NAME + " SET " + SupplierEntry.COLUMN_SUPPLIER_PHONE
+                + " = '555-0101' WHERE " + SupplierEntry.COLUMN_SUPPLIER_NAME + " = 'Acme'");
+        assertTrue(lastModified(db, 1) > 0);
+        assertEquals(0, lastModified(db, 2));
+
+        db.execSQL("UPDATE " + SupplierEntry.TABLE_NAME + " SET " + SupplierEntry.COLUMN_SUPPLIER_NAME
+                + " = 'Books Limited' WHERE " + SupplierEntry.COLUMN_SUPPLIER_NAME + " = 'Books Ltd'");
+        assertTrue(lastModified(db, 2) > 0);
+    }
+
+    @Test
+    public void newDatabaseMatchesUpgradedOne() {
+        SQLiteDatabase v1 = createVersion1();
+        v1.close();
+        String upgraded = schema(upgrade());
+        mHelper.close();
+        mContext.deleteDatabase(DATABASE_NAME);
+
+        mHelper = new ProductDbHelper(mContext, DATABASE_NAME);
+        assertEquals(upgraded, schema(mHelper.getWritableDatabase()));
+    }
+
+    private SQLiteDatabase createVersion1() {
+        SQLiteDatabase db = SQLiteDatabase.openOrCreateDatabase(mContext.getDatabasePath(DATABASE_NAME), null);
+        db.execSQL(SQL_CREATE_V1);
+        db.setVersion(1);
+        return db;
+    }
+
+    private static void insertV1(SQLiteDatabase db, long id, String name, int price, int quantity,
+                                 String supplierName, String supplierPhone) {
+        db.execSQL("INSERT INTO books (_id, product_name, price, quantity, supplier_name, supplier_phone)"
+                + " VALUES (?, ?, ?, ?, ?, ?)", new Object[]{id, name, price, quantity, supplierName, supplierPhone});
+    }
+
+    private SQLiteDatabase upgrade() {
+        mHelper = new ProductDbHelper(mContext, DATABASE_NAME);
+        SQLiteDatabase db = mHelper.getWritableDatabase();
+        assertEquals(ProductDbHelper.DATABASE_VERSION, db.getVersion());
+        return db;
+    }
+
+    private static void assertProduct(Cursor cursor, long id, String name, int price, int quantity,
+                                      String supplierName, String supplierPhone) {
+        assertTrue(cursor.moveToNext());
+        assertEquals(id, cursor.getLong(0));
+        assertEquals(name, cursor.getString(1));
+        assertEquals(price, cursor.getInt(2));
+        assertEquals(quantity, cursor.getInt(3));
+        assertEquals(supplierName, cursor.getString(4));
+        assertEquals(supplierPhone, cursor.getString(5));
+    }
+
+    private static long sequence(SQLiteDatabase db) {
+        return DatabaseUtils.longForQuery(db, "SELECT seq FROM sqlite_sequence WHERE name = ?",
+                new String[]{ProductEntry.TABLE_NAME});
+    }
+
+    private static long lastModified(SQLiteDatabase db, long id) {
+        return DatabaseUtils.longForQuery(db, "SELECT " + ProductEntry.COLUMN_LAST_MODIFIED + " FROM "
+                + ProductEntry.TABLE_NAME + " WHERE " + ProductEntry._ID + " = ?", new String[]{String.valueOf(id)});
+    }
+
+    /**
+     * Insert a product of the first supplier and return its id.
+     */
+    private static long insertProduct(SQLiteDatabase db) {
+        db.execSQL("INSERT OR IGNORE INTO " + SupplierEntry.TABLE_NAME + " (" + SupplierEntry._ID + ", "
+                + SupplierEntry.COLUMN_SUPPLIER_NAME + ") VALUES (1, 'Acme')");
+        // Through a statement, which runs on the connection that writes
+        SQLiteStatement insert = db.compileStatement("INSERT INTO " + ProductEntry.TABLE_NAME + " ("
+                + ProductEntry.COLUMN_PRODUCT_NAME + ", " + ProductEntry.COLUMN_PRICE + ", "
+                + ProductEntry.COLUMN_QUANTITY + ", " + ProductEntry.COLUMN_SUPPLIER_ID + ") VALUES ('New', 1, 1, 1)");
+        try {
+            return insert.executeInsert();
+        } finally {
+            insert.close();
+        }
+    }
+
+    /**
+     * Return the definitions of all tables, indexes, views and triggers, in name order.
+     */
+    private static String schema(SQLiteDatabase db) {
+        Cursor cursor = db.rawQuery("SELECT type, name, sql FROM sqlite_master ORDER BY name", null);
+        try {
+            StringBuilder schema = new StringBuilder();
+            while (cursor.moveToNext()) {
+                schema.append(cursor.getString(0)).append(' ').append(cursor.getString(1)).append(": ")
+                        .append(cursor.getString(2)).append('\n');
+            }
+            assertFalse(schema.length() == 0);
+            return schema.toString();
+        } finally {
+            cursor.close();
+        }
+    }
+}
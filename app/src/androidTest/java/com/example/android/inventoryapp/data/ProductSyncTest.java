@@ -0,0 +1,272 @@
+package com.example.android.inventoryapp.data;
+
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.os.Bundle;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.test.mock.MockContentResolver;
+
+import com.example.android.inventoryapp.data.ProductContract.ProductEntry;
+import com.example.android.inventoryapp.data.ProductContract.SyncEntry;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.IOException;
+
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Runs {@link ProductSync} against a mock inventory server, with a provider of its own on a
+ * database apart from the app's.
+ */
+@RunWith(AndroidJUnit4.class)
+public class ProductSyncTest {
+
+    private Context mContext;
+    private ProductProvider mProvider;
+    private MockContentResolver mResolver;
+    private MockWebServer mServer;
+    private ProductSync mSync;
+
+    @Before
+    public void setUp() throws IOException {
+        mContext = new TestDatabaseContext(InstrumentationRegistry.getTargetContext(), "sync_test_");
+        mContext.deleteDatabase(ProductDbHelper.DATABASE_NAME);
+        mProvider = new ProductProvider();
+        mProvider.attachInfo(mContext, null);
+        mResolver = new MockContentResolver();
+        mResolver.addProvider(ProductContract.CONTENT_AUTHORITY, mProvider);
+
+        mServer = new MockWebServer();
+        mServer.start();
+        mSync = new ProductSync(mResolver, mServer.url("/sync").url());
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        mServer.shutdown();
+        mProvider.shutdown();
+        mContext.deleteDatabase(ProductDbHelper.DATABASE_NAME);
+    }
+
+    @Test
+    public void sendsLocalChangesAndReceivesTheServers() throws Exception {
+        insertProduct("Dune", 4);
+        mServer.enqueue(answer(7, new JSONObject()
+                .put(ProductEntry.COLUMN_SYNC_ID, "remote-1")
+                .put(ProductEntry.COLUMN_PRODUCT_NAME, "Emma")
+                .put(ProductEntry.COLUMN_PRICE, 8)
+                .put(ProductEntry.COLUMN_QUANTITY, 3)
+                .put(ProductEntry.COLUMN_SUPPLIER_NAME, "Books Ltd")
+                .put(ProductEntry.COLUMN_REORDER_LEVEL, 0)));
+
+        ProductSync.Result result = mSync.sync();
+
+        assertEquals(1, result.sent);
+        assertEquals(1, result.received);
+        JSONObject request = takeRequest();
+        assertEquals(0, request.getLong(SyncStore.KEY_SINCE));
+        assertTrue(request.has(SyncStore.KEY_REQUEST_ID));
+        JSONObject change = onlyChange(request);
+        assertTrue(change.getBoolean(SyncStore.KEY_CREATED));
+        assertEquals("Dune", change.getString(ProductEntry.COLUMN_PRODUCT_NAME));
+        assertEquals(4, change.getInt(SyncEntry.COLUMN_QUANTITY_DELTA));
+        assertProduct("remote-1", "Emma", 3);
+
+        // Nothing left to send, the server's changes are fetched from its new cursor
+        mServer.enqueue(answer(7));
+        assertEquals(0, mSync.sync().sent);
+        request = takeRequest();
+        assertEquals(7, request.getLong(SyncStore.KEY_SINCE));
+        assertFalse(request.has(SyncStore.KEY_REQUEST_ID));
+        assertEquals(0, request.getJSONArray(SyncStore.KEY_CHANGES).length());
+    }
+
+    @Test
+    public void localChangeMadeDuringTheRoundWins() throws Exception {
+        final long id = insertProduct("Dune", 10);
+        final String syncId = syncId(id);
+        mServer.enqueue(answer(1));
+        mSync.sync();
+        takeRequest();
+
+        // The product is edited and sold while the request is on its way
+        mServer.setDispatcher(new Dispatcher() {
+            @Override
+            public MockResponse dispatch(RecordedRequest request) {
+                ContentValues values = new ContentValues();
+                values.put(ProductEntry.COLUMN_PRODUCT_NAME, "Dune, 2nd edition");
+                values.put(ProductEntry.COLUMN_QUANTITY, 9);
+                mResolver.update(ContentUris.withAppendedId(ProductEntry.CONTENT_URI, id), values, null, null);
+                try {
+                    return answer(2, product(syncId, "Dune by Herbert", 7));
+                } catch (JSONException e) {
+                    throw new AssertionError(e);
+                }
+            }
+        });
+        mSync.sync();
+        takeRequest();
+
+        // The unsent name wins, the unsent sale is taken off the server's quantity
+        assertProduct(syncId, "Dune, 2nd edition", 6);
+
+        mServer.setDispatcher(new AnswerDispatcher(answer(3)));
+        mSync.sync();
+        JSONObject change = onlyChange(takeRequest());
+        assertEquals("Dune, 2nd edition", change.getString(ProductEntry.COLUMN_PRODUCT_NAME));
+        assertEquals(-1, change.getInt(SyncEntry.COLUMN_QUANTITY_DELTA));
+    }
+
+    @Test
+    public void quantitiesChangedOnTwoDevicesAddUp() throws Exception {
+        long id = insertProduct("Dune", 10);
+        String syncId = syncId(id);
+        mServer.enqueue(answer(1));
+        mSync.sync();
+        takeRequest();
+
+        sell(id, 2);
+        // Another device sold 3 meanwhile: 10 - 3 - 2 on the server
+        mServer.enqueue(answer(2, product(syncId, "Dune", 5)));
+        mSync.sync();
+
+        JSONObject change = onlyChange(takeRequest());
+        assertEquals(-2, change.getInt(SyncEntry.COLUMN_QUANTITY_DELTA));
+        assertFalse(change.has(ProductEntry.COLUMN_QUANTITY));
+        assertProduct(syncId, "Dune", 5);
+    }
+
+    @Test
+    public void unansweredRequestIsRepeatedWithItsId() throws Exception {
+        long id = insertProduct("Dune", 10);
+        mServer.enqueue(new MockResponse().setResponseCode(500));
+        try {
+            mSync.sync();
+            fail("Sync succeeded without an answer");
+        } catch (IOException expected) {
+            // The server may or may not have applied the request
+        }
+        JSONObject lost = takeRequest();
+
+        sell(id, 1);
+        mServer.enqueue(answer(1));
+        mServer.enqueue(answer(2));
+        mSync.sync();
+
+        // The same changes under the same id, then the sale made since
+        JSONObject repeated = takeRequest();
+        assertEquals(lost.getString(SyncStore.KEY_REQUEST_ID), repeated.getString(SyncStore.KEY_REQUEST_ID));
+        assertEquals(10, onlyChange(repeated).getInt(SyncEntry.COLUMN_QUANTITY_DELTA));
+        JSONObject next = takeRequest();
+        assertNotEquals(lost.getString(SyncStore.KEY_REQUEST_ID), next.getString(SyncStore.KEY_REQUEST_ID));
+        assertEquals(-1, onlyChange(next).getInt(SyncEntry.COLUMN_QUANTITY_DELTA));
+    }
+
+    private long insertProduct(String name, int quantity) {
+        ContentValues values = new ContentValues();
+        values.put(ProductEntry.COLUMN_PRODUCT_NAME, name);
+        values.put(ProductEntry.COLUMN_PRICE, 12);
+        values.put(ProductEntry.COLUMN_QUANTITY, quantity);
+        values.put(ProductEntry.COLUMN_SUPPLIER_NAME, "Acme");
+        return ContentUris.parseId(mResolver.insert(ProductEntry.CONTENT_URI, values));
+    }
+
+    private void sell(long id, int quantity) {
+        Bundle extras = new Bundle();
+        extras.putInt(ProductEntry.EXTRA_QUANTITY_DELTA, -quantity);
+        mResolver.call(ProductEntry.CONTENT_URI, ProductEntry.METHOD_ADJUST_QUANTITY, String.valueOf(id), extras);
+    }
+
+    private String syncId(long id) {
+        Cursor cursor = mResolver.query(ContentUris.withAppendedId(ProductEntry.CONTENT_URI, id),
+                new String[]{ProductEntry.COLUMN_SYNC_ID}, null, null, null);
+        try {
+            assertTrue(cursor.moveToFirst());
+            return cursor.getString(0);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private void assertProduct(String syncId, String name, int quantity) {
+        Cursor cursor = mResolver.query(ProductEntry.CONTENT_URI, new String[]{ProductEntry.COLUMN_PRODUCT_NAME,
+                        ProductEntry.COLUMN_QUANTITY}, ProductEntry.COLUMN_SYNC_ID + "=?", new String[]{syncId}, null);
+        try {
+            assertTrue(cursor.moveToFirst());
+            assertEquals(name, cursor.getString(0));
+            assertEquals(quantity, cursor.getInt(1));
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private JSONObject takeRequest() throws InterruptedException, JSONException {
+        return new JSONObject(mServer.takeRequest().getBody().readUtf8());
+    }
+
+    private static JSONObject onlyChange(JSONObject request) throws JSONException {
+        JSONArray changes = request.getJSONArray(SyncStore.KEY_CHANGES);
+        assertEquals(1, changes.length());
+        return changes.getJSONObject(0);
+    }
+
+    private static JSONObject product(String syncId, String name, int quantity) throws JSONException {
+        return new JSONObject()
+                .put(ProductEntry.COLUMN_SYNC_ID, syncId)
+                .put(ProductEntry.COLUMN_PRODUCT_NAME, name)
+                .put(ProductEntry.COLUMN_PRICE, 12)
+                .put(ProductEntry.COLUMN_QUANTITY, quantity)
+                .put(ProductEntry.COLUMN_SUPPLIER_NAME, "Acme")
+                .put(ProductEntry.COLUMN_REORDER_LEVEL, 0);
+    }
+
+    /**
+     * Return the server's answer with the given cursor and products.
+     */
+    private static MockResponse answer(long cursor, JSONObject... products) throws JSONException {
+        JSONArray array = new JSONArray();
+        for (JSONObject product : products) {
+            array.put(product);
+        }
+        JSONObject body = new JSONObject()
+                .put(SyncStore.KEY_CURSOR, cursor)
+                .put(SyncStore.KEY_MORE, false)
+                .put(SyncStore.KEY_PRODUCTS, array);
+        return new MockResponse().setBody(body.toString());
+    }
+
+    /**
+     * Answers every request the same way.
+     */
+    private static class AnswerDispatcher extends Dispatcher {
+        private final MockResponse mAnswer;
+
+        AnswerDispatcher(MockResponse answer) {
+            mAnswer = answer;
+        }
+
+        @Override
+        public MockResponse dispatch(RecordedRequest request) {
+            return mAnswer;
+        }
+    }
+}
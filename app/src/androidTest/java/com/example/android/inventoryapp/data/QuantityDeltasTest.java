@@ -0,0 +1,132 @@
+package com.example.android.inventoryapp.data;
+
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.Bundle;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.test.mock.MockContentResolver;
+
+import com.example.android.inventoryapp.data.ProductContract.MovementEntry;
+import com.example.android.inventoryapp.data.ProductContract.ProductEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Batches of {@link ProductEntry#METHOD_APPLY_QUANTITY_DELTAS} as the {@link QuantityWriteBuffer}
+ * sends them: the deltas of a product by movement type, sales before receipts.
+ */
+@RunWith(AndroidJUnit4.class)
+public class QuantityDeltasTest {
+
+    private Context mContext;
+    private ProductProvider mProvider;
+    private MockContentResolver mResolver;
+
+    @Before
+    public void setUp() {
+        mContext = new TestDatabaseContext(InstrumentationRegistry.getTargetContext(), "quantity_test_");
+        mContext.deleteDatabase(ProductDbHelper.DATABASE_NAME);
+        mProvider = new ProductProvider();
+        mProvider.attachInfo(mContext, null);
+        mResolver = new MockContentResolver();
+        mResolver.addProvider(ProductContract.CONTENT_AUTHORITY, mProvider);
+    }
+
+    @After
+    public void tearDown() {
+        mProvider.shutdown();
+        mContext.deleteDatabase(ProductDbHelper.DATABASE_NAME);
+    }
+
+    @Test
+    public void receiptCoversSaleOfTheSameFlush() {
+        // Out of stock, then 10 received in the editor and 1 sold from the list
+        long id = insertProduct(0);
+
+        Bundle result = applyDeltas(id, new int[]{-1, 10},
+                new int[]{MovementEntry.TYPE_SALE, MovementEntry.TYPE_RECEIPT});
+
+        assertEquals(9, quantity(id));
+        assertArrayEquals(new long[0], result.getLongArray(ProductEntry.EXTRA_SHORT_PRODUCT_IDS));
+        assertMovements(id, new int[][]{{MovementEntry.TYPE_RECEIPT, 10}, {MovementEntry.TYPE_SALE, -1}});
+    }
+
+    @Test
+    public void netChangeLargerThanStockEmptiesIt() {
+        long id = insertProduct(2);
+
+        Bundle result = applyDeltas(id, new int[]{-5, 1},
+                new int[]{MovementEntry.TYPE_SALE, MovementEntry.TYPE_RECEIPT});
+
+        assertEquals(0, quantity(id));
+        assertArrayEquals(new long[]{id}, result.getLongArray(ProductEntry.EXTRA_SHORT_PRODUCT_IDS));
+        assertMovements(id, new int[][]{{MovementEntry.TYPE_RECEIPT, 2}, {MovementEntry.TYPE_RECEIPT, 1},
+                {MovementEntry.TYPE_SALE, -3}});
+    }
+
+    private long insertProduct(int quantity) {
+        ContentValues values = new ContentValues();
+        values.put(ProductEntry.COLUMN_PRODUCT_NAME, "Dune");
+        values.put(ProductEntry.COLUMN_PRICE, 12);
+        values.put(ProductEntry.COLUMN_QUANTITY, quantity);
+        values.put(ProductEntry.COLUMN_SUPPLIER_NAME, "Acme");
+        return ContentUris.parseId(mResolver.insert(ProductEntry.CONTENT_URI, values));
+    }
+
+    private Bundle applyDeltas(long id, int[] deltas, int[] types) {
+        Bundle extras = new Bundle();
+        long[] ids = new long[deltas.length];
+        Arrays.fill(ids, id);
+        extras.putLongArray(ProductEntry.EXTRA_PRODUCT_IDS, ids);
+        extras.putIntArray(ProductEntry.EXTRA_QUANTITY_DELTAS, deltas);
+        extras.putIntArray(ProductEntry.EXTRA_MOVEMENT_TYPES, types);
+        return mResolver.call(ProductEntry.CONTENT_URI, ProductEntry.METHOD_APPLY_QUANTITY_DELTAS, "batch", extras);
+    }
+
+    private int quantity(long id) {
+        Cursor cursor = mResolver.query(ContentUris.withAppendedId(ProductEntry.CONTENT_URI, id),
+                new String[]{ProductEntry.COLUMN_QUANTITY}, null, null, null);
+        try {
+            assertTrue(cursor.moveToFirst());
+            return cursor.getInt(0);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Check the product's ledger, as type and delta of each movement in the order they were made.
+     * The ledger can't be queried through the provider, so it's read from the database file.
+     */
+    private void assertMovements(long id, int[][] expected) {
+        SQLiteDatabase db = SQLiteDatabase.openDatabase(
+                mContext.getDatabasePath(ProductDbHelper.DATABASE_NAME).getPath(), null, SQLiteDatabase.OPEN_READONLY);
+        Cursor cursor = db.query(MovementEntry.TABLE_NAME, new String[]{MovementEntry.COLUMN_MOVEMENT_TYPE,
+                        MovementEntry.COLUMN_QUANTITY_DELTA}, MovementEntry.COLUMN_PRODUCT_ID + "=?",
+                new String[]{String.valueOf(id)}, null, null, MovementEntry._ID);
+        try {
+            assertEquals(expected.length, cursor.getCount());
+            for (int[] movement : expected) {
+                assertTrue(cursor.moveToNext());
+                assertEquals(movement[0], cursor.getInt(0));
+                assertEquals(movement[1], cursor.getInt(1));
+            }
+        } finally {
+            cursor.close();
+            db.close();
+        }
+    }
+}
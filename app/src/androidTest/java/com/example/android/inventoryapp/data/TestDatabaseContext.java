@@ -0,0 +1,36 @@
+package com.example.android.inventoryapp.data;
+
+import android.content.Context;
+import android.content.ContextWrapper;
+import android.database.DatabaseErrorHandler;
+import android.database.sqlite.SQLiteDatabase;
+
+import java.io.File;
+
+/**
+ * Keeps the databases of a provider under test apart from the app's, under names of their own.
+ */
+class TestDatabaseContext extends ContextWrapper {
+    private final String mPrefix;
+
+    TestDatabaseContext(Context base, String prefix) {
+        super(base);
+        mPrefix = prefix;
+    }
+
+    @Override
+    public File getDatabasePath(String name) {
+        return super.getDatabasePath(mPrefix + name);
+    }
+
+    @Override
+    public SQLiteDatabase openOrCreateDatabase(String name, int mode, SQLiteDatabase.CursorFactory factory,
+                                               DatabaseErrorHandler errorHandler) {
+        return super.openOrCreateDatabase(mPrefix + name, mode, factory, errorHandler);
+    }
+
+    @Override
+    public boolean deleteDatabase(String name) {
+        return super.deleteDatabase(mPrefix + name);
+    }
+}
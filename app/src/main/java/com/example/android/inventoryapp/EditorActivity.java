@@ -2,7 +2,9 @@ package com.example.android.inventoryapp;
 
 import android.app.AlertDialog;
 import android.app.LoaderManager;
+import android.content.ContentUris;
 import android.content.ContentValues;
+import android.content.Context;
 import android.content.CursorLoader;
 import android.content.DialogInterface;
 import android.content.Intent;
@@ -21,7 +23,10 @@ import android.widget.Button;
 import android.widget.EditText;
 import android.widget.TextView;
 import android.widget.Toast;
+import com.example.android.inventoryapp.data.ProductContract.MovementEntry;
 import com.example.android.inventoryapp.data.ProductContract.ProductEntry;
+import com.example.android.inventoryapp.data.ProductWriter;
+import com.example.android.inventoryapp.data.QuantityWriteBuffer;
 
 /**
  * Created by wawr1 on 25.07.2018.
@@ -36,7 +41,19 @@ public class EditorActivity extends AppCompatActivity implements LoaderManager.L
     private Button mPlusButton;
     private EditText mSupplierEditText;
     private EditText mSupplierPhoneEditText;
+    private EditText mReorderLevelEditText;
     private int mQuantity;
+    /**
+     * Quantity of the product when it was loaded, including changes still waiting in the
+     * {@link QuantityWriteBuffer}. Saving an existing product only writes the difference to it,
+     * so sales made elsewhere in the meantime aren't overwritten.
+     */
+    private int mQuantityBase;
+    /**
+     * The save being written, so tapping save again doesn't save twice. Static so that a save
+     * that finishes after a configuration change reports to the new editor.
+     */
+    private static PendingSave sPendingSave;
     private static final int CURRENT_PRODUCT_LOADER = 0;
     private Uri mCurrentProductUri;
     private Button mCallSupplier;
@@ -83,6 +100,7 @@ public class EditorActivity extends AppCompatActivity implements LoaderManager.L
         mPlusButton = findViewById(R.id.plus_button);
         mSupplierEditText = findViewById(R.id.edit_supplier);
         mSupplierPhoneEditText = findViewById(R.id.edit_supplier_phone);
+        mReorderLevelEditText = findViewById(R.id.edit_reorder_level);
         mCallSupplier = findViewById(R.id.call_supplier);
 
 
@@ -92,6 +110,7 @@ public class EditorActivity extends AppCompatActivity implements LoaderManager.L
         mPriceEditText.setOnTouchListener(mTouchListener);
         mSupplierEditText.setOnTouchListener(mTouchListener);
         mSupplierPhoneEditText.setOnTouchListener(mTouchListener);
+        mReorderLevelEditText.setOnTouchListener(mTouchListener);
 
         mCallSupplier.setOnClickListener(new View.OnClickListener() {
             @Override
@@ -103,6 +122,11 @@ public class EditorActivity extends AppCompatActivity implements LoaderManager.L
             }
         });
 
+        // Pick up a save started before a configuration change
+        if (savedInstanceState != null && sPendingSave != null) {
+            sPendingSave.attach(this);
+        }
+
         mMinusButton.setOnClickListener(new View.OnClickListener() {
             @Override
             public void onClick(View view) {
@@ -124,16 +148,40 @@ public class EditorActivity extends AppCompatActivity implements LoaderManager.L
 
     }
 
+    @Override
+    protected void onPause() {
+        super.onPause();
+        // Don't leave buffered quantity changes behind when the app goes to the background
+        QuantityWriteBuffer.getInstance(this).flush();
+    }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        if (sPendingSave != null && sPendingSave.mActivity == this) {
+            sPendingSave.attach(null);
+            if (!isChangingConfigurations()) {
+                // The editor was left; the write still completes, unreported
+                sPendingSave = null;
+            }
+        }
+    }
+
     /**
      * Get user input from editor and save product into database.
      */
     private void saveProduct() {
+        if (sPendingSave != null) {
+            // Still waiting for the previous save
+            return;
+        }
         // Read from input fields
         // Use trim to eliminate leading or trailing white space
         String nameString = mProductNameEditText.getText().toString().trim();
         String priceString = mPriceEditText.getText().toString().trim();
         String supplierString = mSupplierEditText.getText().toString().trim();
         String supplierPhoneString = mSupplierPhoneEditText.getText().toString().trim();
+        String reorderLevelString = mReorderLevelEditText.getText().toString().trim();
         int quantity = mQuantity;
 
         if (TextUtils.isEmpty(nameString) || TextUtils.isEmpty(priceString) || TextUtils.isEmpty(supplierString) || TextUtils.isEmpty(supplierPhoneString) || quantity < 0){
@@ -146,61 +194,52 @@ public class EditorActivity extends AppCompatActivity implements LoaderManager.L
             ContentValues values = new ContentValues();
             values.put(ProductEntry.COLUMN_PRODUCT_NAME, nameString);
             values.put(ProductEntry.COLUMN_PRICE, price);
-            values.put(ProductEntry.COLUMN_QUANTITY, quantity);
+            if (mCurrentProductUri == null) {
+                values.put(ProductEntry.COLUMN_QUANTITY, quantity);
+            }
             values.put(ProductEntry.COLUMN_SUPPLIER_NAME, supplierString);
             values.put(ProductEntry.COLUMN_SUPPLIER_PHONE, supplierPhoneString);
+            // Optional, an empty field means the default of 0
+            values.put(ProductEntry.COLUMN_REORDER_LEVEL,
+                    TextUtils.isEmpty(reorderLevelString) ? 0 : Integer.parseInt(reorderLevelString));
 
 
-            // Show a toast message depending on whether or not the insertion was successful
+            // The write runs in the background; the toasts and finish() wait for its outcome
+            sPendingSave = new PendingSave(this);
             if (mCurrentProductUri == null) {
                 // This is a NEW product, so insert a new product into the provider,
                 // returning the content URI for the new product.
-                Uri newUri = null;
-                try {
-                    newUri = getContentResolver().insert(ProductEntry.CONTENT_URI, values);
-                } catch(IllegalArgumentException e) {
-                    Toast.makeText(this, e.getMessage(), Toast.LENGTH_SHORT).show();
-                }
-
-                // Show a toast message depending on whether or not the insertion was successful.
-                if (newUri == null) {
-                    // If the new content URI is null, then there was an error with insertion.
-                    Toast.makeText(this, getString(R.string.editor_insert_product_failed),
-                            Toast.LENGTH_SHORT).show();
-                } else {
-                    // Otherwise, the insertion was successful and we can display a toast.
-                    Toast.makeText(this, getString(R.string.editor_insert_product_successful),
-                            Toast.LENGTH_SHORT).show();
-                    // Exit activity
-                    finish();
-                }
+                ProductWriter.getInstance(this).insert(ProductEntry.CONTENT_URI, values,
+                        sPendingSave.insertCallback());
             } else {
                 // Otherwise this is an EXISTING product, so update the product with content URI: mCurrentPetUri
                 // and pass in the new ContentValues. Pass in null for the selection and selection args
                 // because mCurrentPetUri will already identify the correct row in the database that
                 // we want to modify.
-                int rowsAffected = 0;
-                try {
-                    rowsAffected = getContentResolver().update(mCurrentProductUri, values, null, null);
-                } catch(IllegalArgumentException e) {
-                    Toast.makeText(this, e.getMessage(), Toast.LENGTH_SHORT).show();
-                }
-                // Show a toast message depending on whether or not the update was successful.
-                if (rowsAffected == 0) {
-                    // If no rows were affected, then there was an error with the update.
-                    Toast.makeText(this, getString(R.string.editor_insert_product_failed),
-                            Toast.LENGTH_SHORT).show();
-                } else {
-                    // Otherwise, the update was successful and we can display a toast.
-                    Toast.makeText(this, getString(R.string.editor_insert_product_successful),
-                            Toast.LENGTH_SHORT).show();
-                    // Exit activity
-                    finish();
-                }
+                ProductWriter.getInstance(this).update(mCurrentProductUri, values, null, null,
+                        sPendingSave.updateCallback(ContentUris.parseId(mCurrentProductUri), quantity - mQuantityBase));
             }
         }
     }
 
+    /**
+     * Tell the user how saving went, and leave the editor if the product was saved. The error
+     * is the provider's reason for rejecting the product, if it gave one.
+     */
+    private void onSaveFinished(boolean saved, String error) {
+        if (!saved) {
+            // If no row was inserted or updated, then there was an error with the save.
+            Toast.makeText(this, error != null ? error : getString(R.string.editor_insert_product_failed),
+                    Toast.LENGTH_SHORT).show();
+        } else {
+            // Otherwise, the save was successful and we can display a toast.
+            Toast.makeText(this, getString(R.string.editor_insert_product_successful),
+                    Toast.LENGTH_SHORT).show();
+            // Exit activity
+            finish();
+        }
+    }
+
     @Override
     public boolean onCreateOptionsMenu(Menu menu) {
         // Inflate the menu options from the res/menu/menu_editor.xml file.
@@ -333,7 +372,8 @@ public class EditorActivity extends AppCompatActivity implements LoaderManager.L
                 ProductEntry.COLUMN_PRICE,
                 ProductEntry.COLUMN_QUANTITY,
                 ProductEntry.COLUMN_SUPPLIER_NAME,
-                ProductEntry.COLUMN_SUPPLIER_PHONE
+                ProductEntry.COLUMN_SUPPLIER_PHONE,
+                ProductEntry.COLUMN_REORDER_LEVEL
         };
 
         // This loader will execute the ContentProvider's query method on a background thread
@@ -358,10 +398,13 @@ public class EditorActivity extends AppCompatActivity implements LoaderManager.L
             int quantityColumnIndex = cursor.getColumnIndex(ProductEntry.COLUMN_QUANTITY);
             int supplierColumnIndex = cursor.getColumnIndex(ProductEntry.COLUMN_SUPPLIER_NAME);
             int supplierPhoneColumnIndex = cursor.getColumnIndex(ProductEntry.COLUMN_SUPPLIER_PHONE);
+            int reorderLevelColumnIndex = cursor.getColumnIndex(ProductEntry.COLUMN_REORDER_LEVEL);
             // Extract out the value from the Cursor for the given column index
             String name = cursor.getString(nameColumnIndex);
             int price = cursor.getInt(priceColumnIndex);
-            mQuantity = cursor.getInt(quantityColumnIndex);
+            mQuantityBase = cursor.getInt(quantityColumnIndex)
+                    + QuantityWriteBuffer.getInstance(this).getPendingDelta(ContentUris.parseId(mCurrentProductUri));
+            mQuantity = mQuantityBase;
             String supplier = cursor.getString(supplierColumnIndex);
             String supplierPhone = cursor.getString(supplierPhoneColumnIndex);
 
@@ -371,6 +414,7 @@ public class EditorActivity extends AppCompatActivity implements LoaderManager.L
             mQuantityTextView.setText(Integer.toString(mQuantity));
             mSupplierEditText.setText(supplier);
             mSupplierPhoneEditText.setText(supplierPhone);
+            mReorderLevelEditText.setText(Integer.toString(cursor.getInt(reorderLevelColumnIndex)));
 
         }
 
@@ -384,6 +428,7 @@ public class EditorActivity extends AppCompatActivity implements LoaderManager.L
         mQuantityTextView.setText(Integer.toString(0));
         mSupplierEditText.setText("");
         mSupplierPhoneEditText.setText("");
+        mReorderLevelEditText.setText("");
 
     }
 
@@ -395,8 +440,8 @@ public class EditorActivity extends AppCompatActivity implements LoaderManager.L
         builder.setPositiveButton(R.string.delete, new DialogInterface.OnClickListener() {
             public void onClick(DialogInterface dialog, int id) {
                 // User clicked the "Delete" button, so delete the product.
+                // The editor closes once the delete has finished.
                 deleteProduct();
-                finish();
             }
         });
         builder.setNegativeButton(R.string.cancel, new DialogInterface.OnClickListener() {
@@ -419,22 +464,94 @@ public class EditorActivity extends AppCompatActivity implements LoaderManager.L
      */
     private void deleteProduct() {
         if (mCurrentProductUri != null) {
-            int rowsDeleted = getContentResolver().delete(
-                    mCurrentProductUri,
-                    null,
-                    null);
-
-            // Show a toast message depending on whether or not the delete was successful.
-            if (rowsDeleted == 0) {
-                // If no rows were deleted, then there was an error with the delete.
-                Toast.makeText(this, getString(R.string.editor_delete_product_failed),
-                        Toast.LENGTH_SHORT).show();
-            } else {
-                // Otherwise, the delete was successful and we can display a toast.
-                Toast.makeText(this, getString(R.string.editor_delete_product_successful),
-                        Toast.LENGTH_SHORT).show();
-            }
+            ProductWriter.getInstance(this).delete(mCurrentProductUri, null, null, new ProductWriter.Callback<Integer>() {
+                @Override
+                public void onSuccess(Integer rowsDeleted) {
+                    onDeleteFinished(rowsDeleted != 0);
+                }
+
+                @Override
+                public void onFailure(RuntimeException error) {
+                    onDeleteFinished(false);
+                }
+            });
+        }
+
+    }
+
+    private void onDeleteFinished(boolean deleted) {
+        // Show a toast message depending on whether or not the delete was successful.
+        if (!deleted) {
+            // If no rows were deleted, then there was an error with the delete.
+            Toast.makeText(this, getString(R.string.editor_delete_product_failed),
+                    Toast.LENGTH_SHORT).show();
+        } else {
+            // Otherwise, the delete was successful and we can display a toast.
+            Toast.makeText(this, getString(R.string.editor_delete_product_successful),
+                    Toast.LENGTH_SHORT).show();
+        }
+        finish();
+    }
+
+    /**
+     * Receives the outcome of a save and reports to whichever editor is attached at the time.
+     * Holds no editor while none is attached, so the write can outlive a configuration change.
+     */
+    private static class PendingSave {
+        private final Context mContext;
+        /** Only touched on the main thread. */
+        private EditorActivity mActivity;
+
+        PendingSave(EditorActivity activity) {
+            mContext = activity.getApplicationContext();
+            mActivity = activity;
+        }
+
+        void attach(EditorActivity activity) {
+            mActivity = activity;
+        }
+
+        ProductWriter.Callback<Uri> insertCallback() {
+            return new ProductWriter.Callback<Uri>() {
+                @Override
+                public void onSuccess(Uri newUri) {
+                    finished(newUri != null, null);
+                }
+
+                @Override
+                public void onFailure(RuntimeException error) {
+                    finished(false, error.getMessage());
+                }
+            };
         }
 
+        ProductWriter.Callback<Integer> updateCallback(final long productId, final int quantityDelta) {
+            return new ProductWriter.Callback<Integer>() {
+                @Override
+                public void onSuccess(Integer rowsAffected) {
+                    if (rowsAffected != 0) {
+                        // The quantity goes through the buffer as a delta, like the list's sales.
+                        // Stock added in the editor was received, stock taken away was lost
+                        QuantityWriteBuffer.getInstance(mContext).add(productId, quantityDelta,
+                                quantityDelta > 0 ? MovementEntry.TYPE_RECEIPT : MovementEntry.TYPE_ADJUSTMENT);
+                    }
+                    finished(rowsAffected != 0, null);
+                }
+
+                @Override
+                public void onFailure(RuntimeException error) {
+                    finished(false, error.getMessage());
+                }
+            };
+        }
+
+        private void finished(boolean saved, String error) {
+            if (sPendingSave == this) {
+                sPendingSave = null;
+            }
+            if (mActivity != null) {
+                mActivity.onSaveFinished(saved, error);
+            }
+        }
     }
 }
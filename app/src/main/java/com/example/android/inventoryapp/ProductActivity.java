@@ -1,40 +1,171 @@
 package com.example.android.inventoryapp;
 
-import android.app.Activity;
+import android.app.AlertDialog;
 import android.app.LoaderManager;
 import android.content.ContentUris;
-import android.content.ContentValues;
-import android.content.CursorLoader;
 import android.content.Intent;
+import android.content.CursorLoader;
 import android.content.Loader;
 import android.database.Cursor;
-import android.database.sqlite.SQLiteDatabase;
+import android.content.ContentResolver;
+import android.content.Context;
 import android.net.Uri;
+import android.os.AsyncTask;
 import android.support.design.widget.FloatingActionButton;
+import android.support.design.widget.Snackbar;
 import android.support.v7.app.AppCompatActivity;
 import android.os.Bundle;
+import android.os.Handler;
+import android.support.v7.widget.LinearLayoutManager;
+import android.support.v7.widget.RecyclerView;
+import android.support.v7.widget.SearchView;
+import android.support.v7.widget.SimpleItemAnimator;
+import android.text.TextUtils;
 import android.util.Log;
 import android.view.Menu;
 import android.view.MenuItem;
 import android.view.View;
-import android.widget.AdapterView;
-import android.widget.ListView;
 import android.widget.TextView;
+import android.widget.Toast;
 
+import com.example.android.inventoryapp.data.LedgerCompactionService;
+import com.example.android.inventoryapp.data.Product;
+import com.example.android.inventoryapp.data.ProductContract.ProductEntry;
+import com.example.android.inventoryapp.data.ProductContract.StatsEntry;
+import com.example.android.inventoryapp.data.ProductContract.SupplierStatsEntry;
+import com.example.android.inventoryapp.data.ProductImporter;
+import com.example.android.inventoryapp.data.ProductSync;
+import com.example.android.inventoryapp.data.ProductWriter;
+import com.example.android.inventoryapp.data.QuantityWriteBuffer;
 
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
 
+public class ProductActivity extends AppCompatActivity implements LoaderManager.LoaderCallbacks<List<Product>> {
 
-import com.example.android.inventoryapp.data.ProductDbHelper;
-import com.example.android.inventoryapp.data.ProductContract.ProductEntry;
-import com.example.android.inventoryapp.data.ProductProvider;
 
-import static java.lang.Boolean.TRUE;
+    private static final int PRODUCT_LOADER = 0;
+    private static final int STATS_LOADER = 1;
+    private static final int SUPPLIER_STATS_LOADER = 2;
+    private static final int REQUEST_IMPORT = 1;
+    /** MIME types offered when picking a catalog to import. */
+    private static final String[] IMPORT_MIME_TYPES = {
+            "text/csv", "text/comma-separated-values", "text/tab-separated-values", "text/plain"
+    };
+    /** The running import, kept across configuration changes. */
+    private static ImportTask sImportTask;
+    /** The running sync, so the menu can't start a second one. */
+    private static SyncTask sSyncTask;
+    /** Number of products loaded at a time. */
+    private static final int PAGE_SIZE = 50;
+    /** How many rows before the end of the loaded ones the next page is requested. */
+    private static final int PREFETCH_DISTANCE = 20;
+    /**
+     * Window in which the loaders coalesce change notifications. During an import or a sync the
+     * provider notifies many times a second; the loaders query at most once per window.
+     */
+    private static final long UPDATE_THROTTLE_MS = 250;
+    ProductAdapter mAdapter;
+    private View mEmptyView;
+    private View mDisplayView;
+    private TextView mStatsHeader;
+    private Snackbar mImportSnackbar;
+
+    /** True if the delivered list doesn't have all products yet, so there are more to page in. */
+    private boolean mHasMoreProducts = false;
+
+    /** True while the list only shows products that are low on stock. */
+    private boolean mLowStockOnly = false;
+    /** Number of low-stock products shown on the filter's menu item, -1 until it's loaded. */
+    private int mLowStockCount = -1;
+    /** One line per supplier with its totals, shown on demand. */
+    private final List<String> mSupplierTotals = new ArrayList<>();
+
+    /**
+     * Loads the statistics row. It is kept up to date by the database, so reading it after every
+     * change costs the same however many products there are.
+     */
+    private final LoaderManager.LoaderCallbacks<Cursor> mStatsLoaderCallbacks = new LoaderManager.LoaderCallbacks<Cursor>() {
+        @Override
+        public Loader<Cursor> onCreateLoader(int id, Bundle args) {
+            CursorLoader loader = new CursorLoader(ProductActivity.this, StatsEntry.CONTENT_URI,
+                    new String[]{StatsEntry.COLUMN_LOW_STOCK_COUNT, StatsEntry.COLUMN_PRODUCT_COUNT,
+                            StatsEntry.COLUMN_TOTAL_UNITS, StatsEntry.COLUMN_STOCK_VALUE}, null, null, null);
+            loader.setUpdateThrottle(UPDATE_THROTTLE_MS);
+            return loader;
+        }
 
-public class ProductActivity extends AppCompatActivity implements LoaderManager.LoaderCallbacks<Cursor> {
+        @Override
+        public void onLoadFinished(Loader<Cursor> loader, Cursor cursor) {
+            int count = -1;
+            if (cursor != null && cursor.moveToFirst()) {
+                count = cursor.getInt(0);
+                mStatsHeader.setText(getString(R.string.stats_header,
+                        cursor.getInt(1), cursor.getLong(2), cursor.getLong(3)));
+                mStatsHeader.setVisibility(View.VISIBLE);
+            } else {
+                mStatsHeader.setVisibility(View.GONE);
+            }
+            if (count != mLowStockCount) {
+                mLowStockCount = count;
+                invalidateOptionsMenu();
+            }
+        }
 
+        @Override
+        public void onLoaderReset(Loader<Cursor> loader) {
+            mLowStockCount = -1;
+        }
+    };
+
+    /**
+     * Loads the totals of every supplier. There is one row per supplier, not per product, so
+     * they are kept loaded and ready to show.
+     */
+    private final LoaderManager.LoaderCallbacks<Cursor> mSupplierStatsLoaderCallbacks = new LoaderManager.LoaderCallbacks<Cursor>() {
+        @Override
+        public Loader<Cursor> onCreateLoader(int id, Bundle args) {
+            CursorLoader loader = new CursorLoader(ProductActivity.this, SupplierStatsEntry.CONTENT_URI,
+                    new String[]{SupplierStatsEntry.COLUMN_SUPPLIER_NAME, SupplierStatsEntry.COLUMN_PRODUCT_COUNT,
+                            SupplierStatsEntry.COLUMN_TOTAL_UNITS, SupplierStatsEntry.COLUMN_STOCK_VALUE},
+                    null, null, null);
+            loader.setUpdateThrottle(UPDATE_THROTTLE_MS);
+            return loader;
+        }
 
-    private static final int PRODUCT_LOADER = 0;
-    ProductCursorAdapter mCursorAdapter;
+        @Override
+        public void onLoadFinished(Loader<Cursor> loader, Cursor cursor) {
+            mSupplierTotals.clear();
+            while (cursor != null && cursor.moveToNext()) {
+                mSupplierTotals.add(getString(R.string.supplier_totals, cursor.getString(0),
+                        cursor.getInt(1), cursor.getLong(2), cursor.getLong(3)));
+            }
+        }
+
+        @Override
+        public void onLoaderReset(Loader<Cursor> loader) {
+            mSupplierTotals.clear();
+        }
+    };
+
+    /** How long the search text has to stay unchanged before the list is searched. */
+    private static final long SEARCH_DEBOUNCE_MS = 300;
+    /** Text typed into the search box, empty to list all products. */
+    private String mSearchQuery = "";
+    private final Handler mSearchHandler = new Handler();
+    private String mPendingSearchQuery;
+    private final Runnable mSearchRunnable = new Runnable() {
+        @Override
+        public void run() {
+            if (!mPendingSearchQuery.equals(mSearchQuery)) {
+                mSearchQuery = mPendingSearchQuery;
+                getLoaderManager().restartLoader(PRODUCT_LOADER, null, ProductActivity.this);
+            }
+        }
+    };
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -50,76 +181,115 @@ public class ProductActivity extends AppCompatActivity implements LoaderManager.
             }
         });
 
-        ListView displayView =  findViewById(R.id.display);
-        View emptyView = findViewById(R.id.empty_view);
-        displayView.setEmptyView(emptyView);
-
-        mCursorAdapter = new ProductCursorAdapter(this, null);
-        displayView.setAdapter(mCursorAdapter);
+        RecyclerView displayView =  findViewById(R.id.display);
+        mDisplayView = displayView;
+        mEmptyView = findViewById(R.id.empty_view);
+        mStatsHeader = findViewById(R.id.stats_header);
+        final LinearLayoutManager layoutManager = new LinearLayoutManager(this);
+        displayView.setLayoutManager(layoutManager);
+        // Rows are rebound in place when a product changes, without a cross-fade
+        ((SimpleItemAnimator) displayView.getItemAnimator()).setSupportsChangeAnimations(false);
 
-
-        displayView.setOnItemClickListener(new AdapterView.OnItemClickListener() {
+        mAdapter = new ProductAdapter(this, new ProductAdapter.OnProductClickListener() {
             @Override
-            public void onItemClick(AdapterView<?> adapterView, View view, int position, long id) {
-                Uri uri = ContentUris.withAppendedId(ProductEntry.CONTENT_URI, id);
+            public void onProductClick(Product product) {
+                Uri uri = ContentUris.withAppendedId(ProductEntry.CONTENT_URI, product.getId());
                 Intent intent = new Intent(ProductActivity.this, EditorActivity.class);
                 intent.setData(uri);
                 startActivity(intent);
             }
         });
+        displayView.setAdapter(mAdapter);
 
-        getLoaderManager().initLoader(PRODUCT_LOADER, null, this);
-
+        // Page in more products before the user reaches the end of the ones already loaded
+        displayView.addOnScrollListener(new RecyclerView.OnScrollListener() {
+            @Override
+            public void onScrolled(RecyclerView recyclerView, int dx, int dy) {
+                if (mHasMoreProducts
+                        && layoutManager.findLastVisibleItemPosition() >= mAdapter.getItemCount() - PREFETCH_DISTANCE) {
+                    loadNextPage();
+                }
+            }
+        });
 
+        getLoaderManager().initLoader(PRODUCT_LOADER, null, this);
+        getLoaderManager().initLoader(STATS_LOADER, null, mStatsLoaderCallbacks);
+        getLoaderManager().initLoader(SUPPLIER_STATS_LOADER, null, mSupplierStatsLoaderCallbacks);
+
+        // Keeps the stock ledger short, only schedules it the first time
+        LedgerCompactionService.schedule(this);
+
+        // Sales the stock couldn't cover were already shown as done, say that they weren't
+        QuantityWriteBuffer.getInstance(this).setStockShortageListener(
+                new QuantityWriteBuffer.StockShortageListener() {
+                    @Override
+                    public void onStockShortage(long[] productIds) {
+                        Snackbar.make(mDisplayView, getString(R.string.stock_shortage, productIds.length),
+                                Snackbar.LENGTH_LONG).show();
+                    }
+                });
+
+        // Pick up an import started before a configuration change
+        if (sImportTask != null) {
+            sImportTask.attach(this);
+            showImportProgress(sImportTask.mRowsRead);
+        }
     }
+
     @Override
-    protected void onStart() {
-        super.onStart();
+    protected void onPause() {
+        super.onPause();
+        // Don't leave buffered sales behind when the app goes to the background
+        QuantityWriteBuffer.getInstance(this).flush();
     }
 
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        mSearchHandler.removeCallbacks(mSearchRunnable);
+        QuantityWriteBuffer.getInstance(this).setStockShortageListener(null);
+        if (sImportTask != null) {
+            sImportTask.attach(null);
+        }
+    }
 
-    private void queryData() {
-
-        String[] projection = {
-                ProductEntry._ID,
-                ProductEntry.COLUMN_PRODUCT_NAME,
-                ProductEntry.COLUMN_PRICE,
-                ProductEntry.COLUMN_QUANTITY,
-                ProductEntry.COLUMN_SUPPLIER_NAME};
-
-        /**
-        Cursor cursor = db.query(
-                ProductEntry.TABLE_NAME,   // The table to query
-                projection,            // The columns to return
-                null,                  // The columns for the WHERE clause
-                null,                  // The values for the WHERE clause
-                null,                  // Don't group the rows
-                null,                  // Don't filter by row groups
-                null);                   // The sort order
-
-         */
-
-        Cursor cursor = getContentResolver().query(
-                ProductEntry.CONTENT_URI,
-                projection,
-                null,
-                null,
-                null
-        );
 
+    @Override
+    public boolean onCreateOptionsMenu(Menu menu) {
+        // Inflate the menu options from the res/menu/menu_catalog.xml file.
+        // This adds menu items to the app bar.
+        getMenuInflater().inflate(R.menu.menu_product, menu);
 
-        ListView displayView =  findViewById(R.id.display);
-        ProductCursorAdapter adapter = new ProductCursorAdapter(this, cursor);
-        displayView.setAdapter(adapter);
+        // Search as the user types, but only once they pause, not on every key stroke
+        SearchView searchView = (SearchView) menu.findItem(R.id.action_search).getActionView();
+        searchView.setQueryHint(getString(R.string.search_hint));
+        searchView.setOnQueryTextListener(new SearchView.OnQueryTextListener() {
+            @Override
+            public boolean onQueryTextSubmit(String query) {
+                search(query, 0);
+                return true;
+            }
 
+            @Override
+            public boolean onQueryTextChange(String newText) {
+                search(newText, SEARCH_DEBOUNCE_MS);
+                return true;
+            }
+        });
 
+        // Builds without an inventory server have nothing to sync with
+        menu.findItem(R.id.action_sync).setVisible(!TextUtils.isEmpty(BuildConfig.SYNC_SERVER_URL));
+        return true;
     }
 
     @Override
-    public boolean onCreateOptionsMenu(Menu menu) {
-        // Inflate the menu options from the res/menu/menu_catalog.xml file.
-        // This adds menu items to the app bar.
-        getMenuInflater().inflate(R.menu.menu_product, menu);
+    public boolean onPrepareOptionsMenu(Menu menu) {
+        super.onPrepareOptionsMenu(menu);
+        MenuItem lowStockItem = menu.findItem(R.id.action_low_stock);
+        lowStockItem.setChecked(mLowStockOnly);
+        lowStockItem.setTitle(mLowStockCount < 0
+                ? getString(R.string.action_low_stock)
+                : getString(R.string.action_low_stock_count, mLowStockCount));
         return true;
     }
 
@@ -127,12 +297,30 @@ public class ProductActivity extends AppCompatActivity implements LoaderManager.
     public boolean onOptionsItemSelected(MenuItem item) {
         // User clicked on a menu option in the app bar overflow menu
         switch (item.getItemId()) {
-            // Respond to a click on the "Insert dummy data" menu option
-            case R.id.action_insert_dummy_data:
+            // Respond to a click on the "Low stock" filter
+            case R.id.action_low_stock:
+                mLowStockOnly = !mLowStockOnly;
+                item.setChecked(mLowStockOnly);
+                getLoaderManager().restartLoader(PRODUCT_LOADER, null, this);
+                return true;
+            // Respond to a click on the "Supplier totals" menu option
+            case R.id.action_supplier_totals:
+                showSupplierTotals();
+                return true;
+            // Respond to a click on the "Recheck totals" menu option
+            case R.id.action_recheck_totals:
+                recheckTotals();
+                return true;
+            // Respond to a click on the "Import catalog" menu option
+            case R.id.action_import:
+                pickCatalog();
+                return true;
+            // Respond to a click on the "Sync with server" menu option
+            case R.id.action_sync:
+                syncProducts();
                 return true;
             // Respond to a click on the "Delete all entries" menu option
             case R.id.action_delete_all_entries:
-                // Do nothing for now
                 deleteAllProducts();
                 return true;
         }
@@ -140,37 +328,301 @@ public class ProductActivity extends AppCompatActivity implements LoaderManager.
     }
 
     @Override
-    public Loader<Cursor> onCreateLoader(int i, Bundle bundle) {
-        String[] projection = {
-                ProductEntry._ID,
-                ProductEntry.COLUMN_PRODUCT_NAME,
-                ProductEntry.COLUMN_PRICE,
-                ProductEntry.COLUMN_QUANTITY
-        };
-
-        return new CursorLoader(this,
-                ProductEntry.CONTENT_URI,
-                projection,
-                null,
-                null,
-                null);
+    protected void onActivityResult(int requestCode, int resultCode, Intent data) {
+        if (requestCode == REQUEST_IMPORT) {
+            if (resultCode == RESULT_OK && data != null && data.getData() != null) {
+                importCatalog(data.getData());
+            }
+            return;
+        }
+        super.onActivityResult(requestCode, resultCode, data);
+    }
+
+    private void showSupplierTotals() {
+        AlertDialog.Builder builder = new AlertDialog.Builder(this)
+                .setTitle(R.string.action_supplier_totals)
+                .setPositiveButton(android.R.string.ok, null);
+        if (mSupplierTotals.isEmpty()) {
+            builder.setMessage(R.string.no_suppliers);
+        } else {
+            builder.setItems(mSupplierTotals.toArray(new String[mSupplierTotals.size()]), null);
+        }
+        builder.show();
+    }
+
+    /**
+     * Have the provider compare the stored totals with the products and correct them if needed.
+     * Runs on the writer thread, as it reads the whole catalog.
+     */
+    private void recheckTotals() {
+        ProductWriter.getInstance(this).call(StatsEntry.CONTENT_URI, StatsEntry.METHOD_REBUILD, null, null,
+                new ProductWriter.Callback<Bundle>() {
+                    @Override
+                    public void onSuccess(Bundle result) {
+                        boolean repaired = result != null && result.getBoolean(StatsEntry.EXTRA_REPAIRED);
+                        Toast.makeText(ProductActivity.this,
+                                repaired ? R.string.totals_repaired : R.string.totals_correct,
+                                Toast.LENGTH_SHORT).show();
+                    }
+
+                    @Override
+                    public void onFailure(RuntimeException error) {
+                        Log.e("ProductActivity", "Unable to check totals", error);
+                        Toast.makeText(ProductActivity.this, R.string.unable_to_check_totals,
+                                Toast.LENGTH_SHORT).show();
+                    }
+                });
+    }
+
+    /**
+     * Let the user pick a CSV or TSV file to import.
+     */
+    private void pickCatalog() {
+        if (sImportTask != null) {
+            Snackbar.make(mDisplayView, R.string.import_running, Snackbar.LENGTH_SHORT).show();
+            return;
+        }
+        Intent intent = new Intent(Intent.ACTION_OPEN_DOCUMENT);
+        intent.addCategory(Intent.CATEGORY_OPENABLE);
+        intent.setType("*/*");
+        intent.putExtra(Intent.EXTRA_MIME_TYPES, IMPORT_MIME_TYPES);
+        startActivityForResult(intent, REQUEST_IMPORT);
+    }
+
+    /**
+     * Import the catalog at the given URI in the background. The list picks the new products
+     * up through the provider notifications, once per imported chunk.
+     */
+    private void importCatalog(Uri uri) {
+        sImportTask = new ImportTask(getContentResolver());
+        sImportTask.attach(this);
+        showImportProgress(0);
+        sImportTask.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR, uri);
+    }
+
+    private void showImportProgress(int rowsRead) {
+        String text = rowsRead == 0
+                ? getString(R.string.import_started)
+                : getString(R.string.import_progress, rowsRead);
+        if (mImportSnackbar == null) {
+            mImportSnackbar = Snackbar.make(mDisplayView, text, Snackbar.LENGTH_INDEFINITE);
+            mImportSnackbar.show();
+        } else {
+            mImportSnackbar.setText(text);
+        }
+    }
+
+    private void showImportResult(final ProductImporter.Result result) {
+        String text = result == null
+                ? getString(R.string.import_failed)
+                : getString(R.string.import_finished, result.imported, result.rejected);
+        if (mImportSnackbar != null) {
+            mImportSnackbar.dismiss();
+            mImportSnackbar = null;
+        }
+        Snackbar snackbar = Snackbar.make(mDisplayView, text, Snackbar.LENGTH_LONG);
+        if (result != null && !result.rejections.isEmpty()) {
+            snackbar.setAction(R.string.action_details, new View.OnClickListener() {
+                @Override
+                public void onClick(View view) {
+                    showRejections(result.rejections);
+                }
+            });
+        }
+        snackbar.show();
+    }
+
+    /**
+     * List the rows an import rejected, with the line each was on and why.
+     */
+    private void showRejections(List<ProductImporter.Rejection> rejections) {
+        String[] items = new String[rejections.size()];
+        for (int i = 0; i < items.length; i++) {
+            ProductImporter.Rejection rejection = rejections.get(i);
+            items[i] = getString(R.string.import_rejection, rejection.line, rejection.reason);
+        }
+        new AlertDialog.Builder(this)
+                .setTitle(R.string.import_rejections)
+                .setItems(items, null)
+                .setPositiveButton(android.R.string.ok, null)
+                .show();
+    }
+
+    /**
+     * Runs a {@link ProductImporter} off the main thread and reports to whichever activity is
+     * attached at the time.
+     */
+    private static class ImportTask extends AsyncTask<Uri, Integer, ProductImporter.Result> {
+        private final ContentResolver mResolver;
+        /** Only touched on the main thread. */
+        private ProductActivity mActivity;
+        private int mRowsRead;
+
+        ImportTask(ContentResolver resolver) {
+            mResolver = resolver;
+        }
+
+        void attach(ProductActivity activity) {
+            mActivity = activity;
+        }
+
+        @Override
+        protected ProductImporter.Result doInBackground(Uri... uris) {
+            try {
+                return new ProductImporter(mResolver).importFrom(uris[0], new ProductImporter.ProgressListener() {
+                    @Override
+                    public void onProgress(int rowsRead) {
+                        publishProgress(rowsRead);
+                    }
+                });
+            } catch (IOException | SecurityException e) {
+                Log.e("ProductActivity", "Unable to import " + uris[0], e);
+                return null;
+            }
+        }
+
+        @Override
+        protected void onProgressUpdate(Integer... values) {
+            mRowsRead = values[0];
+            if (mActivity != null) {
+                mActivity.showImportProgress(mRowsRead);
+            }
+        }
+
+        @Override
+        protected void onPostExecute(ProductImporter.Result result) {
+            sImportTask = null;
+            if (mActivity != null) {
+                mActivity.showImportResult(result);
+            }
+        }
+    }
+
+    /**
+     * Exchange product changes with the inventory server in the background. The list picks up
+     * the products received through the provider notifications.
+     */
+    private void syncProducts() {
+        if (sSyncTask != null) {
+            Snackbar.make(mDisplayView, R.string.sync_running, Snackbar.LENGTH_SHORT).show();
+            return;
+        }
+        URL endpoint;
+        try {
+            endpoint = new URL(BuildConfig.SYNC_SERVER_URL);
+        } catch (MalformedURLException e) {
+            throw new IllegalStateException(e);
+        }
+        sSyncTask = new SyncTask(getApplicationContext(), endpoint);
+        sSyncTask.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
+    }
+
+    /**
+     * Runs a {@link ProductSync} off the main thread. Reports with a toast, so it needs no
+     * activity and the result is shown even if the user left.
+     */
+    private static class SyncTask extends AsyncTask<Void, Void, ProductSync.Result> {
+        private final Context mContext;
+        private final URL mEndpoint;
+
+        SyncTask(Context context, URL endpoint) {
+            mContext = context;
+            mEndpoint = endpoint;
+        }
+
+        @Override
+        protected ProductSync.Result doInBackground(Void... params) {
+            try {
+                return new ProductSync(mContext.getContentResolver(), mEndpoint).sync();
+            } catch (IOException e) {
+                Log.e("ProductActivity", "Unable to sync with " + mEndpoint, e);
+                return null;
+            }
+        }
+
+        @Override
+        protected void onPostExecute(ProductSync.Result result) {
+            sSyncTask = null;
+            String text = result == null
+                    ? mContext.getString(R.string.sync_failed)
+                    : mContext.getString(R.string.sync_done, result.sent, result.received);
+            Toast.makeText(mContext, text, Toast.LENGTH_LONG).show();
+        }
     }
 
     @Override
-    public void onLoadFinished(Loader<Cursor> loader, Cursor cursor) {
-        mCursorAdapter.swapCursor(cursor);
+    public Loader<List<Product>> onCreateLoader(int i, Bundle bundle) {
+        Uri baseUri;
+        String selection = null;
+        String sortOrder;
+        if (TextUtils.isEmpty(mSearchQuery)) {
+            baseUri = mLowStockOnly ? ProductEntry.CONTENT_LOW_STOCK_URI : ProductEntry.CONTENT_URI;
+            sortOrder = ProductListLoader.SORT_ORDER_BY_ID;
+        } else {
+            // Let the provider rank the search results
+            baseUri = ProductEntry.buildSearchUri(mSearchQuery);
+            if (mLowStockOnly) {
+                selection = ProductEntry.LOW_STOCK_SELECTION;
+            }
+            sortOrder = null;
+        }
+
+        // Only ask for the products that are (about to be) shown, the rest is paged in on scroll
+        Uri pageUri = baseUri.buildUpon()
+                .appendQueryParameter(ProductEntry.QUERY_PARAMETER_LIMIT, String.valueOf(PAGE_SIZE))
+                .build();
+
+        ProductListLoader loader = new ProductListLoader(this, pageUri, selection, sortOrder);
+        loader.setUpdateThrottle(UPDATE_THROTTLE_MS);
+        return loader;
+    }
 
+    /**
+     * Show the products matching the given text after the given delay. A newer call before
+     * the delay has passed replaces this one.
+     */
+    private void search(String query, long delayMs) {
+        mPendingSearchQuery = query.trim();
+        mSearchHandler.removeCallbacks(mSearchRunnable);
+        mSearchHandler.postDelayed(mSearchRunnable, delayMs);
+    }
+
+    /**
+     * Have the loader append the next page to the loaded products. Only the new page is read;
+     * the list keeps showing the current rows until it's delivered.
+     */
+    private void loadNextPage() {
+        Loader<List<Product>> loader = getLoaderManager().getLoader(PRODUCT_LOADER);
+        if (loader != null) {
+            ((ProductListLoader) loader).loadNextPage();
+        }
     }
 
     @Override
-    public void onLoaderReset(Loader<Cursor> loader) {
-        mCursorAdapter.swapCursor(null);
+    public void onLoadFinished(Loader<List<Product>> loader, List<Product> products) {
+        mHasMoreProducts = ((ProductListLoader) loader).hasMoreProducts();
+        mEmptyView.setVisibility(products.isEmpty() ? View.VISIBLE : View.GONE);
+        mAdapter.submitList(products);
 
+    }
 
+    @Override
+    public void onLoaderReset(Loader<List<Product>> loader) {
+        // Snapshots don't hold a cursor, so there is nothing to release
     }
 
     private void deleteAllProducts() {
-        int rowsDeleted = getContentResolver().delete(ProductEntry.CONTENT_URI, null, null);
-        Log.v("CatalogActivity", rowsDeleted + " rows deleted from pet database");
+        // The list empties itself through the provider's change notification
+        ProductWriter.getInstance(this).delete(ProductEntry.CONTENT_URI, null, null, new ProductWriter.Callback<Integer>() {
+            @Override
+            public void onSuccess(Integer rowsDeleted) {
+                Log.v("ProductActivity", rowsDeleted + " rows deleted from product database");
+            }
+
+            @Override
+            public void onFailure(RuntimeException error) {
+                Log.e("ProductActivity", "Unable to delete all products", error);
+            }
+        });
     }
 }
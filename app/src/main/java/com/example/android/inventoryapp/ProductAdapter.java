@@ -0,0 +1,241 @@
+package com.example.android.inventoryapp;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.support.v7.util.DiffUtil;
+import android.support.v7.widget.RecyclerView;
+import android.util.SparseArray;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.Button;
+import android.widget.TextView;
+import android.widget.Toast;
+
+import com.example.android.inventoryapp.data.Product;
+import com.example.android.inventoryapp.data.ProductContract.MovementEntry;
+import com.example.android.inventoryapp.data.QuantityWriteBuffer;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+
+/**
+ * RecyclerView adapter for the product list. It is backed by immutable {@link Product}
+ * snapshots; a new snapshot is compared with the current one on a background thread and only
+ * the rows that actually changed are rebound.
+ */
+public class ProductAdapter extends RecyclerView.Adapter<ProductAdapter.ProductViewHolder> {
+
+    /**
+     * Called when a product in the list is clicked.
+     */
+    public interface OnProductClickListener {
+        void onProductClick(Product product);
+    }
+
+    /** Computes the differences between snapshots, one at a time. */
+    private static final Executor DIFF_EXECUTOR = Executors.newSingleThreadExecutor();
+
+    /** Maximum number of formatted labels kept per kind before the cache starts over. */
+    private static final int MAX_CACHED_LABELS = 1024;
+
+    private final Context mContext;
+    private final OnProductClickListener mClickListener;
+    /** Sales that aren't written yet; rows show the quantity with them taken off. */
+    private final QuantityWriteBuffer mQuantityBuffer;
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    private List<Product> mProducts = Collections.emptyList();
+    /** Incremented by every submitted list, so results of outdated diffs can be dropped. */
+    private int mGeneration;
+
+    /**
+     * "In stock" and price labels by value. Many rows share the same quantity or price, so
+     * binding a row usually doesn't need to format (and allocate) a new string.
+     */
+    private final SparseArray<String> mQuantityLabels = new SparseArray<>();
+    private final SparseArray<String> mPriceLabels = new SparseArray<>();
+
+    /**
+     * Click listeners shared by all rows. Each row's views carry their view holder as tag,
+     * which tells the listener which product was clicked.
+     */
+    private final View.OnClickListener mItemClickListener = new View.OnClickListener() {
+        @Override
+        public void onClick(View view) {
+            Product product = getProduct(view);
+            if (product != null) {
+                mClickListener.onProductClick(product);
+            }
+        }
+    };
+
+    private final View.OnClickListener mSellClickListener = new View.OnClickListener() {
+        @Override
+        public void onClick(View view) {
+            Product product = getProduct(view);
+            if (product == null) {
+                return;
+            }
+            // Only buffer the sale: the row shows it right away and the buffer writes it
+            // together with other taps, instead of one write and list reload per tap
+            if (product.getQuantity() + mQuantityBuffer.getPendingDelta(product.getId()) <= 0) {
+                Toast.makeText(mContext, view.getResources().getString(R.string.quantity_equal_zero), Toast.LENGTH_SHORT).show();
+                return;
+            }
+            mQuantityBuffer.add(product.getId(), -1, MovementEntry.TYPE_SALE);
+            notifyItemChanged(((ProductViewHolder) view.getTag()).getAdapterPosition());
+            Toast.makeText(mContext, view.getResources().getString(R.string.product_sold),
+                    Toast.LENGTH_SHORT).show();
+        }
+    };
+
+    public ProductAdapter(Context context, OnProductClickListener clickListener) {
+        mContext = context;
+        mClickListener = clickListener;
+        mQuantityBuffer = QuantityWriteBuffer.getInstance(context);
+        setHasStableIds(true);
+    }
+
+    /**
+     * Replace the displayed products with a new snapshot. Must be called on the main thread.
+     * The differences are computed in the background and dispatched once they are known,
+     * unless a newer snapshot has been submitted by then.
+     */
+    public void submitList(final List<Product> products) {
+        final int generation = ++mGeneration;
+        final List<Product> oldProducts = mProducts;
+        if (oldProducts.isEmpty() || products.isEmpty()) {
+            // Nothing to compare, swap right away
+            mProducts = products;
+            notifyDataSetChanged();
+            return;
+        }
+        DIFF_EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                final DiffUtil.DiffResult result = DiffUtil.calculateDiff(new DiffUtil.Callback() {
+                    @Override
+                    public int getOldListSize() {
+                        return oldProducts.size();
+                    }
+
+                    @Override
+                    public int getNewListSize() {
+                        return products.size();
+                    }
+
+                    @Override
+                    public boolean areItemsTheSame(int oldPosition, int newPosition) {
+                        return oldProducts.get(oldPosition).getId() == products.get(newPosition).getId();
+                    }
+
+                    @Override
+                    public boolean areContentsTheSame(int oldPosition, int newPosition) {
+                        return oldProducts.get(oldPosition).hasSameContents(products.get(newPosition));
+                    }
+                }, false);
+
+                mMainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (generation != mGeneration) {
+                            // A newer list has been submitted in the meantime
+                            return;
+                        }
+                        mProducts = products;
+                        result.dispatchUpdatesTo(ProductAdapter.this);
+                    }
+                });
+            }
+        });
+    }
+
+    @Override
+    public ProductViewHolder onCreateViewHolder(ViewGroup parent, int viewType) {
+        View view = LayoutInflater.from(parent.getContext()).inflate(R.layout.list_item, parent, false);
+        ProductViewHolder holder = new ProductViewHolder(view);
+        view.setTag(holder);
+        view.setOnClickListener(mItemClickListener);
+        holder.sellButton.setTag(holder);
+        holder.sellButton.setOnClickListener(mSellClickListener);
+        return holder;
+    }
+
+    /**
+     * Bind a product to a row. Views are looked up once per holder and listeners are shared,
+     * so unless a label has to be formatted for the first time this doesn't allocate.
+     */
+    @Override
+    public void onBindViewHolder(ProductViewHolder holder, int position) {
+        Product product = mProducts.get(position);
+        holder.nameTextView.setText(product.getName());
+        holder.quantityTextView.setText(getQuantityLabel(
+                product.getQuantity() + mQuantityBuffer.getPendingDelta(product.getId())));
+        holder.priceTextView.setText(getPriceLabel(product.getPrice()));
+    }
+
+    private String getQuantityLabel(int quantity) {
+        String label = mQuantityLabels.get(quantity);
+        if (label == null) {
+            if (mQuantityLabels.size() >= MAX_CACHED_LABELS) {
+                mQuantityLabels.clear();
+            }
+            label = mContext.getResources().getString(R.string.in_stock, quantity);
+            mQuantityLabels.put(quantity, label);
+        }
+        return label;
+    }
+
+    private String getPriceLabel(int price) {
+        String label = mPriceLabels.get(price);
+        if (label == null) {
+            if (mPriceLabels.size() >= MAX_CACHED_LABELS) {
+                mPriceLabels.clear();
+            }
+            label = mContext.getResources().getString(R.string.price_currency, price);
+            mPriceLabels.put(price, label);
+        }
+        return label;
+    }
+
+    /**
+     * Return the product shown in the row the given view belongs to, or null if the row
+     * is being removed.
+     */
+    private Product getProduct(View view) {
+        ProductViewHolder holder = (ProductViewHolder) view.getTag();
+        int position = holder.getAdapterPosition();
+        if (position == RecyclerView.NO_POSITION) {
+            return null;
+        }
+        return mProducts.get(position);
+    }
+
+    @Override
+    public int getItemCount() {
+        return mProducts.size();
+    }
+
+    @Override
+    public long getItemId(int position) {
+        return mProducts.get(position).getId();
+    }
+
+    static class ProductViewHolder extends RecyclerView.ViewHolder {
+        final TextView nameTextView;
+        final TextView quantityTextView;
+        final TextView priceTextView;
+        final Button sellButton;
+
+        ProductViewHolder(View itemView) {
+            super(itemView);
+            nameTextView = itemView.findViewById(R.id.name);
+            quantityTextView = itemView.findViewById(R.id.quantity);
+            priceTextView = itemView.findViewById(R.id.price);
+            sellButton = itemView.findViewById(R.id.sell_button);
+        }
+    }
+}
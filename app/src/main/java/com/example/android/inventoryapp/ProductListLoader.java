@@ -0,0 +1,540 @@
+package com.example.android.inventoryapp;
+
+import android.content.AsyncTaskLoader;
+import android.content.ContentUris;
+import android.content.Context;
+import android.database.ContentObserver;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.net.Uri;
+import android.os.CancellationSignal;
+import android.os.Handler;
+import android.os.OperationCanceledException;
+import android.os.SystemClock;
+import android.text.TextUtils;
+
+import com.example.android.inventoryapp.data.Product;
+import com.example.android.inventoryapp.data.ProductContract;
+import com.example.android.inventoryapp.data.ProductContract.ProductEntry;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Loads a list of immutable {@link Product} snapshots on a background thread, and keeps it up
+ * to date. The cursor is read and closed in the background, so the UI only ever sees plain
+ * objects it can compare with the previous list.
+ * <p>
+ * The provider notifies the URI of every product it changes. Only those products are read
+ * again and patched into the loaded list, so a sale costs a one row query instead of a reload;
+ * the whole list is only loaded again when the provider reports that all products changed, or
+ * when a product would move in a ranked list.
+ * <p>
+ * The URI's {@link ProductEntry#QUERY_PARAMETER_LIMIT} is the page size: the first load reads
+ * one page, {@link #loadNextPage} appends the next one. A list in id order reads it with
+ * {@link ProductEntry#QUERY_PARAMETER_AFTER_ID} after the last id read, so a page costs the same
+ * however deep the list is scrolled. A ranked list has no key to continue from, it's read again
+ * with a bigger limit.
+ * <p>
+ * A change cancels the running load, whose result would be out of date, through its
+ * {@link CancellationSignal}. With {@link #setUpdateThrottle}, changes are coalesced: the first
+ * one after a quiet period is loaded at once, those that follow within the window are loaded
+ * together at its end. A load is let finish when the list has been out of date for
+ * {@link #MAX_STALE_MS}, so a storm of writes can't keep canceling every load.
+ */
+public class ProductListLoader extends AsyncTaskLoader<List<Product>> {
+
+    /** Sort order of lists that are in id order, and can have products added and removed in place. */
+    public static final String SORT_ORDER_BY_ID = ProductEntry._ID + " ASC";
+
+    /** Columns needed to build a {@link Product}. */
+    private static final String[] PROJECTION = {
+            ProductEntry._ID,
+            ProductEntry.COLUMN_PRODUCT_NAME,
+            ProductEntry.COLUMN_PRICE,
+            ProductEntry.COLUMN_QUANTITY
+    };
+
+    /** Most changed products read one by one; past that, the list is loaded again. */
+    private static final int MAX_PATCHED_PRODUCTS = 100;
+
+    /** Longest time the list is left out of date by canceling loads for newer changes. */
+    private static final long MAX_STALE_MS = 1000;
+
+    private final Uri mUri;
+    private final String mSelection;
+    private final String mSortOrder;
+    private final boolean mOrderedById;
+    /** Number of products read per page. */
+    private final int mPageSize;
+    private final ProductObserver mObserver = new ProductObserver();
+    private boolean mObserving;
+    /** Last delivered list, read by the background thread as the base of a patch. */
+    private volatile List<Product> mProducts;
+    /**
+     * Of the delivered list: in id order, the highest id the read pages cover, or
+     * {@link Long#MAX_VALUE} once the last page has been read; ranked, the number of products
+     * asked for. Set along with {@link #mProducts}.
+     */
+    private volatile long mExtent;
+    /** {@link #mExtent} of the list the running load returns. */
+    private long mLoadExtent;
+
+    /** Guards the changes below, which are collected on the main thread and applied in the background. */
+    private final Object mLock = new Object();
+    /** Products changed since the last load started. */
+    private Set<Long> mChangedIds = new HashSet<>();
+    /** Set when the list has to be loaded again as a whole. */
+    private boolean mReloadAll;
+    /** Set when the next page has been asked for. */
+    private boolean mPageRequested;
+    /** Changes applied by the running load, put back if it's canceled. */
+    private Set<Long> mLoadingIds = Collections.emptySet();
+    private boolean mLoadingAll;
+    private boolean mLoadingPage;
+
+    /** Cancels the query of the running load, guarded by this like in CursorLoader. */
+    private CancellationSignal mCancellationSignal;
+    /** Set while a load runs in the background. */
+    private volatile boolean mLoadRunning;
+    /** Uptime of the first change the delivered list doesn't have, 0 if none; on the main thread. */
+    private long mStaleSince;
+    /** Set when a change waits for the running load to finish instead of canceling it. */
+    private boolean mChangeDeferred;
+
+    public ProductListLoader(Context context, Uri uri, String selection, String sortOrder) {
+        super(context);
+        mUri = uri;
+        mSelection = selection;
+        mSortOrder = sortOrder;
+        mOrderedById = SORT_ORDER_BY_ID.equals(sortOrder);
+        String limit = uri.getQueryParameter(ProductEntry.QUERY_PARAMETER_LIMIT);
+        mPageSize = limit == null ? Integer.MAX_VALUE : Integer.parseInt(limit);
+    }
+
+    /**
+     * Return true if the delivered list doesn't have all products yet. Main thread only.
+     */
+    public boolean hasMoreProducts() {
+        List<Product> products = mProducts;
+        if (products == null) {
+            return false;
+        }
+        return mOrderedById ? mExtent != Long.MAX_VALUE : products.size() >= mExtent;
+    }
+
+    /**
+     * Append the next page to the list, along with any changes. Does nothing while a page is
+     * being loaded. Main thread only.
+     */
+    public void loadNextPage() {
+        synchronized (mLock) {
+            if (mPageRequested || mLoadingPage || !hasMoreProducts()) {
+                return;
+            }
+            mPageRequested = true;
+        }
+        onContentChanged();
+    }
+
+    @Override
+    public List<Product> loadInBackground() {
+        synchronized (this) {
+            if (isLoadInBackgroundCanceled()) {
+                throw new OperationCanceledException();
+            }
+            mCancellationSignal = new CancellationSignal();
+        }
+        mLoadRunning = true;
+        try {
+            return load();
+        } finally {
+            mLoadRunning = false;
+            synchronized (this) {
+                mCancellationSignal = null;
+            }
+        }
+    }
+
+    @Override
+    public void cancelLoadInBackground() {
+        super.cancelLoadInBackground();
+        synchronized (this) {
+            if (mCancellationSignal != null) {
+                mCancellationSignal.cancel();
+            }
+        }
+    }
+
+    /**
+     * Apply the changes since the last load to the list, or load it again, then append the next
+     * page if it was asked for.
+     */
+    private List<Product> load() {
+        List<Product> products = mProducts;
+        long extent = mExtent;
+        Set<Long> changedIds;
+        boolean reloadAll;
+        boolean nextPage;
+        synchronized (mLock) {
+            changedIds = mChangedIds;
+            mChangedIds = new HashSet<>();
+            reloadAll = mReloadAll || products == null;
+            mReloadAll = false;
+            nextPage = mPageRequested && products != null;
+            mPageRequested = false;
+            mLoadingIds = changedIds;
+            mLoadingAll = reloadAll;
+            mLoadingPage = nextPage;
+        }
+
+        if (products == null) {
+            return firstPage();
+        }
+        if (!mOrderedById) {
+            long limit = nextPage ? extent + mPageSize : extent;
+            List<Product> patched = null;
+            if (!reloadAll && !nextPage && changedIds.size() <= MAX_PATCHED_PRODUCTS) {
+                patched = patch(products, changedIds, extent);
+            }
+            mLoadExtent = limit;
+            return Collections.unmodifiableList(patched != null ? patched : query(
+                    withParameter(mUri, ProductEntry.QUERY_PARAMETER_LIMIT, limit), mSelection, mSortOrder));
+        }
+
+        if (reloadAll || changedIds.size() > MAX_PATCHED_PRODUCTS) {
+            products = reload(products, extent);
+            extent = mLoadExtent;
+        } else {
+            products = patch(products, changedIds, extent);
+        }
+        if (nextPage && extent != Long.MAX_VALUE) {
+            products = appendPage(products, extent);
+            extent = mLoadExtent;
+        }
+        mLoadExtent = extent;
+        return Collections.unmodifiableList(products);
+    }
+
+    /**
+     * Read the first page of the list.
+     */
+    private List<Product> firstPage() {
+        List<Product> products = query(mUri, mSelection, mSortOrder);
+        if (mOrderedById) {
+            mLoadExtent = extentOf(products, products);
+        } else {
+            mLoadExtent = mPageSize;
+        }
+        return Collections.unmodifiableList(products);
+    }
+
+    /**
+     * Read the page after the given id and append it to a list in id order. Sets
+     * {@link #mLoadExtent} to the extent of the result.
+     */
+    private List<Product> appendPage(List<Product> products, long afterId) {
+        Uri pageUri = withParameter(mUri, ProductEntry.QUERY_PARAMETER_AFTER_ID, afterId);
+        List<Product> page = query(pageUri, mSelection, mSortOrder);
+        List<Product> appended = new ArrayList<>(products.size() + page.size());
+        appended.addAll(products);
+        appended.addAll(page);
+        mLoadExtent = extentOf(page, appended);
+        return appended;
+    }
+
+    /**
+     * Read a list in id order again, as far as it was read before: the pages it covered, and a
+     * page past its end if it had all products, to find those added since. Sets
+     * {@link #mLoadExtent} to the extent of the result.
+     */
+    private List<Product> reload(List<Product> products, long extent) {
+        long through = extent;
+        if (through == Long.MAX_VALUE) {
+            through = products.isEmpty() ? 0 : products.get(products.size() - 1).getId();
+        }
+        String selection = DatabaseUtils.concatenateWhere(mSelection, ProductEntry._ID + "<=" + through);
+        List<Product> reloaded = query(mUri.buildUpon().clearQuery().build(), selection, mSortOrder);
+        if (extent != Long.MAX_VALUE) {
+            mLoadExtent = extent;
+            return reloaded;
+        }
+        return appendPage(reloaded, through);
+    }
+
+    /**
+     * Return the extent of a list in id order whose last read page is the given one.
+     */
+    private long extentOf(List<Product> page, List<Product> products) {
+        if (page.size() < mPageSize) {
+            return Long.MAX_VALUE;
+        }
+        return products.get(products.size() - 1).getId();
+    }
+
+    /**
+     * Return the URI with the given query parameter set, the page size kept where it applies.
+     */
+    private Uri withParameter(Uri uri, String name, long value) {
+        Uri.Builder builder = uri.buildUpon().clearQuery();
+        if (!ProductEntry.QUERY_PARAMETER_LIMIT.equals(name) && mPageSize != Integer.MAX_VALUE) {
+            builder.appendQueryParameter(ProductEntry.QUERY_PARAMETER_LIMIT, String.valueOf(mPageSize));
+        }
+        return builder.appendQueryParameter(name, String.valueOf(value)).build();
+    }
+
+    /**
+     * Read the changed products again and apply them to the given list of the given extent:
+     * replace them, remove those that aren't part of it any more and add those that are now.
+     * A list in id order only gets the products within the pages it read, the others are read
+     * with their page. Return null if a ranked list has to be loaded again instead: a product
+     * left it while it was full, so the next one has to fill it, or would move.
+     */
+    private List<Product> patch(List<Product> products, Set<Long> changedIds, long extent) {
+        Map<Long, Product> changed = new HashMap<>();
+        if (!changedIds.isEmpty()) {
+            // The list's own URI and selection, so only products that belong in it are found;
+            // without the limit, the changed ones may be anywhere in the list
+            String selection = DatabaseUtils.concatenateWhere(mSelection,
+                    ProductEntry._ID + " IN (" + TextUtils.join(",", changedIds) + ")");
+            for (Product product : query(mUri.buildUpon().clearQuery().build(), selection, null)) {
+                changed.put(product.getId(), product);
+            }
+        }
+
+        List<Product> patched = new ArrayList<>(products);
+        for (long id : changedIds) {
+            Product product = changed.get(id);
+            int index = indexOf(patched, id);
+            if (index >= 0) {
+                if (product == null) {
+                    if (!mOrderedById && products.size() >= extent) {
+                        return null;
+                    }
+                    patched.remove(index);
+                } else if (mOrderedById || TextUtils.equals(product.getName(), patched.get(index).getName())) {
+                    // Ranked lists are ordered by name, so the product stays where it is
+                    patched.set(index, product);
+                } else {
+                    return null;
+                }
+            } else if (product != null) {
+                if (!mOrderedById) {
+                    return null;
+                }
+                if (id <= extent) {
+                    patched.add(-index - 1, product);
+                }
+            }
+        }
+        return patched;
+    }
+
+    /**
+     * Return the index of the product in the list. If it isn't there, return -1 for a ranked
+     * list, and (-(insertion point) - 1) for a list in id order.
+     */
+    private int indexOf(List<Product> products, long id) {
+        if (!mOrderedById) {
+            for (int i = 0; i < products.size(); i++) {
+                if (products.get(i).getId() == id) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+        int low = 0;
+        int high = products.size() - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            long middleId = products.get(middle).getId();
+            if (middleId < id) {
+                low = middle + 1;
+            } else if (middleId > id) {
+                high = middle - 1;
+            } else {
+                return middle;
+            }
+        }
+        return -(low + 1);
+    }
+
+    private List<Product> query(Uri uri, String selection, String sortOrder) {
+        Cursor cursor = getContext().getContentResolver().query(uri, PROJECTION, selection, null, sortOrder,
+                mCancellationSignal);
+        if (cursor == null) {
+            return Collections.emptyList();
+        }
+        try {
+            // Look the columns up once per cursor, not once per row
+            int idColumnIndex = cursor.getColumnIndexOrThrow(ProductEntry._ID);
+            int nameColumnIndex = cursor.getColumnIndexOrThrow(ProductEntry.COLUMN_PRODUCT_NAME);
+            int priceColumnIndex = cursor.getColumnIndexOrThrow(ProductEntry.COLUMN_PRICE);
+            int quantityColumnIndex = cursor.getColumnIndexOrThrow(ProductEntry.COLUMN_QUANTITY);
+
+            List<Product> products = new ArrayList<>(cursor.getCount());
+            while (cursor.moveToNext()) {
+                products.add(new Product(
+                        cursor.getLong(idColumnIndex),
+                        cursor.getString(nameColumnIndex),
+                        cursor.getInt(priceColumnIndex),
+                        cursor.getInt(quantityColumnIndex)));
+            }
+            return products;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    @Override
+    public void onCanceled(List<Product> products) {
+        // The changes this load took weren't delivered, the next load applies them again. A
+        // load canceled before it ran puts back those of the last one, which costs a query at most
+        synchronized (mLock) {
+            mChangedIds.addAll(mLoadingIds);
+            mReloadAll |= mLoadingAll;
+            mPageRequested |= mLoadingPage;
+            mLoadingIds = Collections.emptySet();
+            mLoadingAll = false;
+            mLoadingPage = false;
+        }
+        mChangeDeferred = false;
+        if (!isStarted()) {
+            onContentChanged();
+        }
+    }
+
+    @Override
+    public void deliverResult(List<Product> products) {
+        if (isReset()) {
+            return;
+        }
+        if (products != mProducts) {
+            mProducts = products;
+            mExtent = mLoadExtent;
+            synchronized (mLock) {
+                mLoadingPage = false;
+            }
+        }
+        mStaleSince = 0;
+        if (isStarted()) {
+            super.deliverResult(products);
+        }
+        if (mChangeDeferred) {
+            // The changes that came in while this load ran
+            mChangeDeferred = false;
+            mStaleSince = SystemClock.uptimeMillis();
+            onContentChanged();
+        }
+    }
+
+    /**
+     * Remember what changed for the next load: a single product for the URI of a product,
+     * everything for anything else. The collection URI is notified along with the products,
+     * which tell more. Then start a load, which cancels the running one, unless that one has
+     * to be let finish first.
+     */
+    private void onProductsChanged(Uri uri) {
+        if (ProductEntry.CONTENT_COLLECTION_URI.equals(uri)) {
+            return;
+        }
+        synchronized (mLock) {
+            if (isProductUri(uri)) {
+                mChangedIds.add(ContentUris.parseId(uri));
+            } else {
+                mReloadAll = true;
+            }
+        }
+        long now = SystemClock.uptimeMillis();
+        if (mStaleSince == 0) {
+            mStaleSince = now;
+        }
+        if (mChangeDeferred) {
+            return;
+        }
+        if (mLoadRunning && now - mStaleSince > MAX_STALE_MS) {
+            // Canceling would keep the list out of date even longer
+            mChangeDeferred = true;
+            return;
+        }
+        onContentChanged();
+    }
+
+    private static boolean isProductUri(Uri uri) {
+        if (uri == null) {
+            return false;
+        }
+        List<String> segments = uri.getPathSegments();
+        return segments.size() == 2 && ProductContract.PATH_PRODUCTS.equals(segments.get(0))
+                && TextUtils.isDigitsOnly(segments.get(1));
+    }
+
+    @Override
+    protected void onStartLoading() {
+        if (!mObserving) {
+            // Every product, and the products as a whole, are notified below the products URI
+            getContext().getContentResolver().registerContentObserver(ProductEntry.CONTENT_URI, true, mObserver);
+            mObserving = true;
+        }
+        if (mProducts != null) {
+            deliverResult(mProducts);
+        }
+        if (takeContentChanged() || mProducts == null) {
+            forceLoad();
+        }
+    }
+
+    @Override
+    protected void onStopLoading() {
+        cancelLoad();
+    }
+
+    @Override
+    protected void onReset() {
+        super.onReset();
+        onStopLoading();
+        mProducts = null;
+        synchronized (mLock) {
+            mChangedIds.clear();
+            mReloadAll = false;
+            mPageRequested = false;
+            mLoadingPage = false;
+        }
+        mChangeDeferred = false;
+        mStaleSince = 0;
+        if (mObserving) {
+            getContext().getContentResolver().unregisterContentObserver(mObserver);
+            mObserving = false;
+        }
+    }
+
+    /**
+     * Passes the URI of every change to {@link #onProductsChanged}, on the main thread.
+     */
+    private final class ProductObserver extends ContentObserver {
+
+        ProductObserver() {
+            super(new Handler());
+        }
+
+        @Override
+        public boolean deliverSelfNotifications() {
+            return true;
+        }
+
+        @Override
+        public void onChange(boolean selfChange) {
+            onChange(selfChange, null);
+        }
+
+        @Override
+        public void onChange(boolean selfChange, Uri uri) {
+            onProductsChanged(uri);
+        }
+    }
+}
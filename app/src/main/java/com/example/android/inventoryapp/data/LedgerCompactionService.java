@@ -0,0 +1,83 @@
+package com.example.android.inventoryapp.data;
+
+import android.app.job.JobInfo;
+import android.app.job.JobParameters;
+import android.app.job.JobScheduler;
+import android.app.job.JobService;
+import android.content.ComponentName;
+import android.content.Context;
+import android.os.Bundle;
+import android.util.Log;
+
+import com.example.android.inventoryapp.data.ProductContract.MovementEntry;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compacts the stock movement ledger once a day, while the device is idle and charging. Each
+ * provider call does a bounded amount of work in its own transaction, so sales are never held
+ * up for long, and a job stopped half way continues where it left off the next time.
+ */
+public class LedgerCompactionService extends JobService {
+
+    private static final String LOG_TAG = LedgerCompactionService.class.getSimpleName();
+
+    private static final int JOB_ID = 1;
+
+    /** How often the ledger is compacted, and so how many movements a snapshot is behind at most. */
+    private static final long INTERVAL_MS = TimeUnit.DAYS.toMillis(1);
+
+    /** Set when the system stops the job; the worker checks it between calls. */
+    private volatile boolean mStopped;
+
+    /**
+     * Schedule the compaction, unless it already is. Survives reboots.
+     */
+    public static void schedule(Context context) {
+        JobScheduler scheduler = (JobScheduler) context.getSystemService(Context.JOB_SCHEDULER_SERVICE);
+        for (JobInfo job : scheduler.getAllPendingJobs()) {
+            if (job.getId() == JOB_ID) {
+                return;
+            }
+        }
+        scheduler.schedule(new JobInfo.Builder(JOB_ID, new ComponentName(context, LedgerCompactionService.class))
+                .setPeriodic(INTERVAL_MS)
+                .setRequiresDeviceIdle(true)
+                .setRequiresCharging(true)
+                .setPersisted(true)
+                .build());
+    }
+
+    @Override
+    public boolean onStartJob(final JobParameters params) {
+        mStopped = false;
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                boolean failed = false;
+                try {
+                    boolean more = true;
+                    while (more && !mStopped) {
+                        Bundle result = getContentResolver().call(MovementEntry.CONTENT_URI,
+                                MovementEntry.METHOD_COMPACT, null, null);
+                        more = result.getBoolean(MovementEntry.EXTRA_MORE);
+                    }
+                } catch (RuntimeException e) {
+                    Log.e(LOG_TAG, "Unable to compact the stock ledger", e);
+                    failed = true;
+                }
+                if (!mStopped) {
+                    jobFinished(params, failed);
+                }
+            }
+        }, "LedgerCompaction").start();
+        return true;
+    }
+
+    @Override
+    public boolean onStopJob(JobParameters params) {
+        mStopped = true;
+        // Run again soon, the compaction isn't finished
+        return true;
+    }
+}
@@ -0,0 +1,44 @@
+package com.example.android.inventoryapp.data;
+
+/**
+ * Immutable snapshot of the product columns shown in the product list.
+ */
+public final class Product {
+
+    private final long mId;
+    private final String mName;
+    private final int mPrice;
+    private final int mQuantity;
+
+    public Product(long id, String name, int price, int quantity) {
+        mId = id;
+        mName = name;
+        mPrice = price;
+        mQuantity = quantity;
+    }
+
+    public long getId() {
+        return mId;
+    }
+
+    public String getName() {
+        return mName;
+    }
+
+    public int getPrice() {
+        return mPrice;
+    }
+
+    public int getQuantity() {
+        return mQuantity;
+    }
+
+    /**
+     * Return true if both snapshots would be displayed the same way.
+     */
+    public boolean hasSameContents(Product other) {
+        return mPrice == other.mPrice
+                && mQuantity == other.mQuantity
+                && (mName == null ? other.mName == null : mName.equals(other.mName));
+    }
+}
@@ -0,0 +1,180 @@
+package com.example.android.inventoryapp.data;
+
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.util.LruCache;
+
+import com.example.android.inventoryapp.data.ProductContract.ProductEntry;
+
+/**
+ * Bounded in-memory cache of complete product rows, keyed by product id. The
+ * {@link ProductProvider} serves single product queries from it instead of going to SQLite.
+ * The bound is an estimate of the memory taken by the cached rows, in bytes.
+ */
+class ProductCache {
+
+    /** Columns stored for every cached product, in this order. */
+    static final String[] COLUMNS = {
+            ProductEntry._ID,
+            ProductEntry.COLUMN_PRODUCT_NAME,
+            ProductEntry.COLUMN_PRICE,
+            ProductEntry.COLUMN_QUANTITY,
+            ProductEntry.COLUMN_SUPPLIER_NAME,
+            ProductEntry.COLUMN_SUPPLIER_PHONE,
+            ProductEntry.COLUMN_REORDER_LEVEL,
+            ProductEntry.COLUMN_LAST_MODIFIED
+    };
+
+    private final LruCache<Long, Object[]> mRows;
+
+    /**
+     * Incremented by every invalidation. A row read from the database is only cached if no
+     * invalidation happened since the read started, otherwise it may already be stale.
+     */
+    private long mGeneration;
+
+    ProductCache(int maxSizeBytes) {
+        mRows = new LruCache<Long, Object[]>(maxSizeBytes) {
+            @Override
+            protected int sizeOf(Long id, Object[] row) {
+                return estimateSize(row);
+            }
+        };
+    }
+
+    /**
+     * Return the cached row of the product, or null if it isn't cached.
+     */
+    Object[] get(long id) {
+        return mRows.get(id);
+    }
+
+    /**
+     * Return the current generation. Read it before querying a row that will be put in the cache.
+     */
+    synchronized long generation() {
+        return mGeneration;
+    }
+
+    /**
+     * Cache the row of the product, unless the cache was invalidated since the given generation.
+     */
+    synchronized void put(long id, Object[] row, long generation) {
+        if (generation == mGeneration) {
+            mRows.put(id, row);
+        }
+    }
+
+    /**
+     * Forget the product with the given id. Call after the change has been committed.
+     */
+    synchronized void invalidate(long id) {
+        mGeneration++;
+        mRows.remove(id);
+    }
+
+    /**
+     * Forget all products. Used when a change can't be narrowed down to single ids.
+     */
+    synchronized void invalidateAll() {
+        mGeneration++;
+        mRows.evictAll();
+    }
+
+    int hitCount() {
+        return mRows.hitCount();
+    }
+
+    int missCount() {
+        return mRows.missCount();
+    }
+
+    int evictionCount() {
+        return mRows.evictionCount();
+    }
+
+    /** Estimated size of all cached rows, in bytes. */
+    int size() {
+        return mRows.size();
+    }
+
+    int maxSize() {
+        return mRows.maxSize();
+    }
+
+    /**
+     * Return true if every column of the projection is stored in the cache.
+     */
+    static boolean canServe(String[] projection) {
+        if (projection == null) {
+            return true;
+        }
+        for (String column : projection) {
+            if (indexOf(column) == -1) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Read the current row of a cursor that was queried with {@link #COLUMNS}.
+     */
+    static Object[] readRow(Cursor cursor) {
+        Object[] row = new Object[COLUMNS.length];
+        for (int i = 0; i < COLUMNS.length; i++) {
+            switch (cursor.getType(i)) {
+                case Cursor.FIELD_TYPE_NULL:
+                    row[i] = null;
+                    break;
+                case Cursor.FIELD_TYPE_INTEGER:
+                    row[i] = cursor.getLong(i);
+                    break;
+                default:
+                    row[i] = cursor.getString(i);
+                    break;
+            }
+        }
+        return row;
+    }
+
+    /**
+     * Return a cursor holding the given columns of a cached row, or no row if it is null.
+     */
+    static Cursor toCursor(Object[] row, String[] projection) {
+        if (projection == null) {
+            projection = COLUMNS;
+        }
+        MatrixCursor cursor = new MatrixCursor(projection, 1);
+        if (row != null) {
+            Object[] values = new Object[projection.length];
+            for (int i = 0; i < projection.length; i++) {
+                values[i] = row[indexOf(projection[i])];
+            }
+            cursor.addRow(values);
+        }
+        return cursor;
+    }
+
+    private static int indexOf(String column) {
+        for (int i = 0; i < COLUMNS.length; i++) {
+            if (COLUMNS[i].equals(column)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static int estimateSize(Object[] row) {
+        // Array header plus a reference per column
+        int size = 16 + 4 * row.length;
+        for (Object value : row) {
+            if (value instanceof String) {
+                size += 40 + 2 * ((String) value).length();
+            } else if (value != null) {
+                size += 16;
+            }
+        }
+        return size;
+    }
+}
@@ -23,11 +23,115 @@ public final class ProductContract {
      */
     public static final String PATH_PRODUCTS = "books";
 
+    /**
+     * Path (appended to the products path) for full text search over product and supplier names.
+     */
+    public static final String PATH_SEARCH = "search";
+
+    /**
+     * Path (appended to the products path) for streaming the whole catalog out as a file.
+     */
+    public static final String PATH_EXPORT = "export";
+
+    /**
+     * Path (appended to the products path) for the products that are low on stock.
+     */
+    public static final String PATH_LOW_STOCK = "low_stock";
+
+    /**
+     * Path (appended to the products path) notified once for every write to the products.
+     */
+    public static final String PATH_COLLECTION = "collection";
+
+    /**
+     * Path (appended to base content URI) for the inventory statistics.
+     */
+    public static final String PATH_STATS = "stats";
+
+    /**
+     * Path (appended to base content URI) for the suppliers, and (appended to the stats path)
+     * for the totals of every supplier.
+     */
+    public static final String PATH_SUPPLIERS = "suppliers";
+
+    /**
+     * Path (appended to base content URI) for synchronization with the inventory server.
+     */
+    public static final String PATH_SYNC = "sync";
+
+    /**
+     * Path (appended to base content URI) for the stock movement ledger.
+     */
+    public static final String PATH_MOVEMENTS = "movements";
+
 
     private ProductContract(){}
 
     public static final class ProductEntry implements BaseColumns {
         public static final Uri CONTENT_URI = Uri.withAppendedPath(BASE_CONTENT_URI, PATH_PRODUCTS);
+
+        /**
+         * Base URI for searching products. Append the search text as the last path segment,
+         * see {@link #buildSearchUri}. Every word matches as a prefix, results are ranked with
+         * products whose name starts with the first word on top.
+         */
+        public static final Uri CONTENT_SEARCH_URI = Uri.withAppendedPath(CONTENT_URI, PATH_SEARCH);
+        /**
+         * URI for the products whose {@link #COLUMN_QUANTITY} is at or below their
+         * {@link #COLUMN_REORDER_LEVEL}, in id order. Accepts the same selection and
+         * {@link #QUERY_PARAMETER_LIMIT} as {@link #CONTENT_URI}. Served from an index that only
+         * holds the low-stock products, so it costs the same however big the catalog is.
+         */
+        public static final Uri CONTENT_LOW_STOCK_URI = Uri.withAppendedPath(CONTENT_URI, PATH_LOW_STOCK);
+
+        /**
+         * URI that is notified once for every write that changed products, after the URIs of
+         * the single products it changed. Aggregates over many products - totals, searches,
+         * filtered lists - observe this one, so a write costs them one notification however many
+         * rows it touched, and it can be throttled. Observing {@link #CONTENT_URI} with
+         * descendants reports every changed row as well; a write that changes too many products
+         * to name each one notifies {@link #CONTENT_URI} itself, which reaches every observer of
+         * a product. Can't be queried.
+         */
+        public static final Uri CONTENT_COLLECTION_URI = Uri.withAppendedPath(CONTENT_URI, PATH_COLLECTION);
+
+        /**
+         * URI to open with {@link ContentResolver#openInputStream} to read the catalog as a file.
+         * The format is picked with {@link #QUERY_PARAMETER_FORMAT}, CSV by default; an incremental
+         * export only has the products changed or deleted since {@link #QUERY_PARAMETER_SINCE}.
+         * Rows are streamed as they are read, so exports of any size take the same memory.
+         */
+        public static final Uri CONTENT_EXPORT_URI = Uri.withAppendedPath(CONTENT_URI, PATH_EXPORT);
+
+        /**
+         * Optional query parameter for {@link #CONTENT_EXPORT_URI}: {@link #FORMAT_CSV} or
+         * {@link #FORMAT_JSON}.
+         */
+        public static final String QUERY_PARAMETER_FORMAT = "format";
+        public static final String FORMAT_CSV = "csv";
+        public static final String FORMAT_JSON = "json";
+
+        /**
+         * Optional query parameter for {@link #CONTENT_EXPORT_URI}: only export products whose
+         * {@link #COLUMN_LAST_MODIFIED} is at or after this time, in milliseconds since the epoch,
+         * followed by the products deleted since then. Those rows only have their {@link #_ID},
+         * the time of the delete as {@link #COLUMN_LAST_MODIFIED}, and {@link #COLUMN_DELETED} set.
+         * Deletes are kept for {@link #DELETED_RETENTION_MS}; an older time misses some of them.
+         */
+        public static final String QUERY_PARAMETER_SINCE = "since";
+
+        /**
+         * Column of incremental exports: 1 (true in JSON) for a deleted product, otherwise 0.
+         */
+        public static final String COLUMN_DELETED = "deleted";
+
+        /** How long deletes are kept for incremental exports, 90 days. */
+        public static final long DELETED_RETENTION_MS = 90L * 24 * 60 * 60 * 1000;
+
+        /** The MIME types of the {@link #CONTENT_EXPORT_URI} in each format. */
+        public static final String CSV_TYPE = "text/csv";
+        public static final String JSON_TYPE = "application/json";
+
         /**
          * The MIME type of the {@link #CONTENT_URI} for a list of products.
          */
@@ -41,13 +145,475 @@ public final class ProductContract {
                 ContentResolver.CURSOR_ITEM_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_PRODUCTS;
 
 
+        /**
+         * Optional query parameter for bulk inserts on {@link #CONTENT_URI}. When set, the
+         * provider commits the batch every that many rows instead of in one transaction.
+         */
+        public static final String QUERY_PARAMETER_CHUNK_SIZE = "chunk_size";
+
+        /**
+         * Provider method that inserts the products in {@link #EXTRA_VALUES}, an array of
+         * {@link android.content.ContentValues}, like a bulk insert on {@link #CONTENT_URI}, and
+         * reports the rows it rejected. The call argument is an optional chunk size, see
+         * {@link #QUERY_PARAMETER_CHUNK_SIZE}. The returned bundle holds the number of inserted
+         * products under {@link #EXTRA_ROW_COUNT}, the indexes of the rejected rows under
+         * {@link #EXTRA_REJECTED_ROWS} and why each was rejected under
+         * {@link #EXTRA_REJECTED_REASONS}, at the same index.
+         */
+        public static final String METHOD_BULK_INSERT = "bulk_insert";
+        public static final String EXTRA_VALUES = "values";
+        public static final String EXTRA_REJECTED_ROWS = "rejected_rows";
+        public static final String EXTRA_REJECTED_REASONS = "rejected_reasons";
+
+        /**
+         * Optional query parameter for queries on {@link #CONTENT_URI}: the maximum number of
+         * rows to return.
+         */
+        public static final String QUERY_PARAMETER_LIMIT = "limit";
+
+        /**
+         * Optional query parameter for queries on {@link #CONTENT_URI} and
+         * {@link #CONTENT_LOW_STOCK_URI}: only return products with an id greater than this one, in
+         * id order. Together with {@link #QUERY_PARAMETER_LIMIT} this reads the table page by page
+         * without skipping over the rows already seen.
+         */
+        public static final String QUERY_PARAMETER_AFTER_ID = "after_id";
+
+        /**
+         * Provider method (see {@link ContentResolver#call}) that atomically adds
+         * {@link #EXTRA_QUANTITY_DELTA} to the quantity of the product whose id is passed as the
+         * call argument. The quantity can't drop below 0. On success the returned bundle holds
+         * the new quantity under {@link #EXTRA_QUANTITY}; if the product doesn't exist or there
+         * isn't enough stock, the call returns null. The change is recorded in the ledger as
+         * {@link #EXTRA_MOVEMENT_TYPE}, an adjustment if it's missing.
+         */
+        public static final String METHOD_ADJUST_QUANTITY = "adjust_quantity";
+        public static final String EXTRA_QUANTITY_DELTA = "quantity_delta";
+        public static final String EXTRA_QUANTITY = "quantity";
+        public static final String EXTRA_MOVEMENT_TYPE = "movement_type";
+
+        /**
+         * Provider method that adds a delta to the quantity of each of several products in one
+         * transaction: {@link #EXTRA_PRODUCT_IDS} holds the ids and {@link #EXTRA_QUANTITY_DELTAS}
+         * the deltas at the same index. The deltas of a product are added up before they are
+         * checked against its stock: a quantity they would take below 0 ends up at 0, and the
+         * product's id is returned under {@link #EXTRA_SHORT_PRODUCT_IDS}, as is the id of a
+         * product that was already out of stock. The call argument is an optional token identifying
+         * the batch: a batch whose token was already applied is ignored, so a batch can safely be
+         * sent again if it isn't known whether it got through. The returned bundle holds the number
+         * of updated products under {@link #EXTRA_ROW_COUNT}. The optional
+         * {@link #EXTRA_MOVEMENT_TYPES} holds the ledger type of each delta, they are adjustments
+         * without it. A product may appear more than once, with a different type.
+         */
+        public static final String METHOD_APPLY_QUANTITY_DELTAS = "apply_quantity_deltas";
+        public static final String EXTRA_PRODUCT_IDS = "product_ids";
+        public static final String EXTRA_QUANTITY_DELTAS = "quantity_deltas";
+        public static final String EXTRA_MOVEMENT_TYPES = "movement_types";
+        public static final String EXTRA_ROW_COUNT = "row_count";
+        public static final String EXTRA_SHORT_PRODUCT_IDS = "short_product_ids";
+
+        /**
+         * Provider method that returns the counters of the provider's single product cache:
+         * hits, misses, evictions, and the current and maximum size in bytes.
+         */
+        public static final String METHOD_CACHE_STATS = "cache_stats";
+        public static final String EXTRA_CACHE_HITS = "cache_hits";
+        public static final String EXTRA_CACHE_MISSES = "cache_misses";
+        public static final String EXTRA_CACHE_EVICTIONS = "cache_evictions";
+        public static final String EXTRA_CACHE_SIZE = "cache_size";
+        public static final String EXTRA_CACHE_MAX_SIZE = "cache_max_size";
+
+        /**
+         * Provider method that returns the provider's operation metrics as text under
+         * {@link #EXTRA_METRICS}: per operation and URI, or call method, the count, rows, latency
+         * percentiles and change notifications. With {@link #ARG_RESET} as argument the metrics are
+         * reset after being read. The same table is printed by dumpsys.
+         */
+        public static final String METHOD_METRICS = "metrics";
+        public static final String EXTRA_METRICS = "metrics";
+        public static final String ARG_RESET = "reset";
+
+        /**
+         * Full text index over {@link #COLUMN_PRODUCT_NAME} and {@link #COLUMN_SUPPLIER_NAME}.
+         * Its docid is the product's {@link #_ID}; triggers keep it in sync with {@link #TABLE_NAME}.
+         */
+        public final static String FTS_TABLE_NAME = "books_fts";
+
+        /**
+         * Tokens of the batches applied through {@link #METHOD_APPLY_QUANTITY_DELTAS}, with the
+         * time they were applied. Old tokens are dropped after a day.
+         */
+        public final static String QUANTITY_BATCHES_TABLE_NAME = "quantity_batches";
+        public final static String COLUMN_BATCH_TOKEN = "token";
+        public final static String COLUMN_BATCH_APPLIED = "applied";
+
         public final static String TABLE_NAME = "books";
+
+        /**
+         * The {@link #_ID} of every deleted product, with the time of the delete as
+         * {@link #COLUMN_LAST_MODIFIED}, for incremental exports. Written by a trigger; rows older
+         * than {@link #DELETED_RETENTION_MS} are dropped by {@link MovementEntry#METHOD_COMPACT}.
+         */
+        public final static String DELETED_TABLE_NAME = "books_deleted";
+
+        /**
+         * The products joined with their suppliers, with all columns below. Products are read
+         * from here and written to {@link #TABLE_NAME}.
+         */
+        public final static String VIEW_NAME = "books_view";
+
         public final static String _ID = BaseColumns._ID;
         public final static String COLUMN_PRODUCT_NAME = "product_name";
         public final static String COLUMN_PRICE = "price";
         public final static String COLUMN_QUANTITY = "quantity";
+
+        /**
+         * The {@link SupplierEntry#_ID} of the product's supplier.
+         */
+        public final static String COLUMN_SUPPLIER_ID = "supplier_id";
+
+        /**
+         * Name of the product's supplier, from {@link SupplierEntry}. Writing it points the product
+         * to the supplier of that name (compared ignoring case and surrounding blanks), which is
+         * created if there is none yet.
+         */
         public final static String COLUMN_SUPPLIER_NAME = "supplier_name";
+
+        /**
+         * Phone number of the product's supplier, from {@link SupplierEntry}. Writing it changes
+         * the supplier's number, and so the number shown for all of its products.
+         */
         public final static String COLUMN_SUPPLIER_PHONE = "supplier_phone";
 
+        /**
+         * Quantity at or below which the product is low on stock and should be reordered.
+         * Optional, 0 by default: then a product is low on stock once it's sold out.
+         */
+        public final static String COLUMN_REORDER_LEVEL = "reorder_level";
+
+        /**
+         * SQL condition that is true for products low on stock.
+         */
+        public final static String LOW_STOCK_SELECTION = COLUMN_QUANTITY + " <= " + COLUMN_REORDER_LEVEL;
+
+        /**
+         * Time of the last insert or change of the product, in milliseconds since the epoch.
+         * Maintained by the database, values written by clients are overwritten.
+         */
+        public final static String COLUMN_LAST_MODIFIED = "last_modified";
+
+        /**
+         * Identifies the product on every device and on the inventory server, where the
+         * {@link #_ID} is only known locally. Random; set by the database if a new product
+         * doesn't have one.
+         */
+        public final static String COLUMN_SYNC_ID = "sync_id";
+
+        /**
+         * Return the URI that searches products for the given text.
+         */
+        public static Uri buildSearchUri(String query) {
+            return Uri.withAppendedPath(CONTENT_SEARCH_URI, query);
+        }
+
+        /**
+         * Return the URI that exports the products changed since the given time in the given
+         * format. A time of 0 exports every product.
+         */
+        public static Uri buildExportUri(String format, long sinceMillis) {
+            Uri.Builder builder = CONTENT_EXPORT_URI.buildUpon()
+                    .appendQueryParameter(QUERY_PARAMETER_FORMAT, format);
+            if (sinceMillis > 0) {
+                builder.appendQueryParameter(QUERY_PARAMETER_SINCE, String.valueOf(sinceMillis));
+            }
+            return builder.build();
+        }
+
+    }
+
+    /**
+     * The suppliers of the products. Every supplier name is stored once, the products refer to
+     * it by {@link ProductEntry#COLUMN_SUPPLIER_ID}. A supplier that still has products can't be
+     * deleted.
+     */
+    public static final class SupplierEntry implements BaseColumns {
+        public static final Uri CONTENT_URI = Uri.withAppendedPath(BASE_CONTENT_URI, PATH_SUPPLIERS);
+
+        /**
+         * The MIME type of the {@link #CONTENT_URI} for a list of suppliers.
+         */
+        public static final String CONTENT_LIST_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_SUPPLIERS;
+
+        /**
+         * The MIME type of the {@link #CONTENT_URI} for a single supplier.
+         */
+        public static final String CONTENT_ITEM_TYPE =
+                ContentResolver.CURSOR_ITEM_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_SUPPLIERS;
+
+        public final static String TABLE_NAME = "suppliers";
+        public final static String _ID = BaseColumns._ID;
+
+        /**
+         * Unique, ignoring case.
+         */
+        public final static String COLUMN_SUPPLIER_NAME = ProductEntry.COLUMN_SUPPLIER_NAME;
+        public final static String COLUMN_SUPPLIER_PHONE = ProductEntry.COLUMN_SUPPLIER_PHONE;
+    }
+
+    /**
+     * Totals over the whole catalog, in a single row. Triggers keep it up to date on every write
+     * to the products table, so reading it costs the same however many products there are.
+     */
+    public static final class StatsEntry implements BaseColumns {
+        /**
+         * URI of the statistics row. Its cursor is notified whenever any product changes.
+         */
+        public static final Uri CONTENT_URI = Uri.withAppendedPath(BASE_CONTENT_URI, PATH_STATS);
+
+        /**
+         * The MIME type of the {@link #CONTENT_URI}.
+         */
+        public static final String CONTENT_ITEM_TYPE =
+                ContentResolver.CURSOR_ITEM_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_STATS;
+
+        /**
+         * {@link ContentResolver#call} method, on {@link #CONTENT_URI}, that recomputes all totals
+         * (this row and {@link SupplierStatsEntry}) from the products and compares them with the
+         * stored ones. Returns {@link #EXTRA_REPAIRED}, true if they differed and were replaced.
+         * Reads the whole catalog, so it's meant to be run on demand, not after every change.
+         */
+        public static final String METHOD_REBUILD = "rebuild_stats";
+        public static final String EXTRA_REPAIRED = "repaired";
+
+        public final static String TABLE_NAME = "inventory_stats";
+        public final static String _ID = BaseColumns._ID;
+
+        /**
+         * Number of products that are low on stock, see {@link ProductEntry#LOW_STOCK_SELECTION}.
+         */
+        public final static String COLUMN_LOW_STOCK_COUNT = "low_stock_count";
+
+        /**
+         * Number of products.
+         */
+        public final static String COLUMN_PRODUCT_COUNT = "product_count";
+
+        /**
+         * Sum of the quantities of all products.
+         */
+        public final static String COLUMN_TOTAL_UNITS = "total_units";
+
+        /**
+         * Sum of price times quantity over all products.
+         */
+        public final static String COLUMN_STOCK_VALUE = "stock_value";
+    }
+
+    /**
+     * Totals per supplier, one row for every supplier that has products. Maintained by the
+     * same triggers as {@link StatsEntry}. The {@link #_ID} is the {@link SupplierEntry#_ID}.
+     */
+    public static final class SupplierStatsEntry implements BaseColumns {
+        /**
+         * URI of the supplier totals. Its cursor is notified whenever any product changes.
+         */
+        public static final Uri CONTENT_URI = Uri.withAppendedPath(StatsEntry.CONTENT_URI, PATH_SUPPLIERS);
+
+        /**
+         * The MIME type of the {@link #CONTENT_URI}.
+         */
+        public static final String CONTENT_LIST_TYPE = ContentResolver.CURSOR_DIR_BASE_TYPE + "/"
+                + CONTENT_AUTHORITY + "/" + PATH_STATS + "/" + PATH_SUPPLIERS;
+
+        public final static String TABLE_NAME = "supplier_stats";
+
+        /**
+         * The totals joined with the supplier names, with all columns below.
+         */
+        public final static String VIEW_NAME = "supplier_stats_view";
+
+        public final static String _ID = BaseColumns._ID;
+        public final static String COLUMN_SUPPLIER_NAME = ProductEntry.COLUMN_SUPPLIER_NAME;
+        public final static String COLUMN_PRODUCT_COUNT = StatsEntry.COLUMN_PRODUCT_COUNT;
+        public final static String COLUMN_TOTAL_UNITS = StatsEntry.COLUMN_TOTAL_UNITS;
+        public final static String COLUMN_STOCK_VALUE = StatsEntry.COLUMN_STOCK_VALUE;
+    }
+
+    /**
+     * Synchronization with the inventory server, see {@link ProductSync}. Triggers record every
+     * product change in the change log, and the log is sent to the server instead of the
+     * catalog. Changes received from the server aren't logged again.
+     */
+    public static final class SyncEntry implements BaseColumns {
+        /**
+         * URI to {@link ContentResolver#call} the methods below on.
+         */
+        public static final Uri CONTENT_URI = Uri.withAppendedPath(BASE_CONTENT_URI, PATH_SYNC);
+
+        /**
+         * Provider method that returns the oldest logged changes, merged per product, as the
+         * JSON body of a sync request under {@link #EXTRA_REQUEST}. Also returns the id of the
+         * newest log entry included under {@link #EXTRA_THROUGH}, the number of products under
+         * {@link #EXTRA_CHANGE_COUNT} and whether more changes are left under {@link #EXTRA_MORE}.
+         * Until they are applied with {@link #METHOD_APPLY_CHANGES}, the same log entries are
+         * collected again, so a request that may or may not have reached the server is repeated
+         * with the same id.
+         */
+        public static final String METHOD_COLLECT_CHANGES = "sync_collect";
+
+        /**
+         * Provider method that applies the server's answer to a sync request, passed as JSON
+         * under {@link #EXTRA_RESPONSE}, and drops the log entries up to {@link #EXTRA_THROUGH}
+         * that were sent with it. All in one transaction. Returns the number of products
+         * changed under {@link #EXTRA_CHANGE_COUNT}, and whether the server has more changes
+         * under {@link #EXTRA_MORE}.
+         */
+        public static final String METHOD_APPLY_CHANGES = "sync_apply";
+        public static final String EXTRA_REQUEST = "request";
+        public static final String EXTRA_RESPONSE = "response";
+        public static final String EXTRA_THROUGH = "through";
+        public static final String EXTRA_CHANGE_COUNT = "change_count";
+        public static final String EXTRA_MORE = "more";
+
+        /**
+         * The change log: one row per insert, change or delete of a product, written by triggers.
+         */
+        public final static String TABLE_NAME = "change_log";
+        public final static String _ID = BaseColumns._ID;
+        public final static String COLUMN_SYNC_ID = ProductEntry.COLUMN_SYNC_ID;
+
+        /**
+         * One of {@link #OPERATION_INSERT}, {@link #OPERATION_UPDATE} and {@link #OPERATION_DELETE}.
+         */
+        public final static String COLUMN_OPERATION = "operation";
+        public final static int OPERATION_INSERT = 1;
+        public final static int OPERATION_UPDATE = 2;
+        public final static int OPERATION_DELETE = 3;
+
+        /**
+         * Change of the quantity: the new quantity for an insert, minus the old one for a delete.
+         * Quantities are exchanged with the server as the sum of these, so stock moved on two
+         * devices at the same time adds up instead of one count overwriting the other.
+         */
+        public final static String COLUMN_QUANTITY_DELTA = "quantity_delta";
+
+        /**
+         * The state of synchronization, in a single row.
+         */
+        public final static String STATE_TABLE_NAME = "sync_state";
+
+        /**
+         * Random id of this installation, sent with every request.
+         */
+        public final static String COLUMN_DEVICE_ID = "device_id";
+
+        /**
+         * Position in the server's changes up to which they have been applied here, as given by
+         * the server. 0 before the first sync.
+         */
+        public final static String COLUMN_SERVER_CURSOR = "server_cursor";
+
+        /**
+         * 1 while changes from the server are being written, which the triggers don't log.
+         */
+        public final static String COLUMN_APPLYING = "applying";
+
+        /**
+         * Id of the last log entry of the request sent to the server and not answered yet, 0 if
+         * there is none. The next request sends the same entries again.
+         */
+        public final static String COLUMN_SENT_THROUGH = "sent_through";
+    }
+
+    /**
+     * The stock movement ledger. Triggers append a movement for every change of a product's
+     * quantity, in the same transaction, so it can't be skipped by any write path. Snapshots of
+     * the stock are taken when the ledger is compacted, so the stock at any time is the last
+     * snapshot before it plus the few movements after that.
+     */
+    public static final class MovementEntry implements BaseColumns {
+        /**
+         * URI to {@link ContentResolver#call} the methods below on.
+         */
+        public static final Uri CONTENT_URI = Uri.withAppendedPath(BASE_CONTENT_URI, PATH_MOVEMENTS);
+
+        /**
+         * Provider method that returns the stock of the product whose id is the call argument,
+         * at the time in {@link #EXTRA_TIME} (milliseconds since the epoch), under
+         * {@link ProductEntry#EXTRA_QUANTITY}. Exact within the retention of the movements, and
+         * as of the last snapshot before that. 0 for a product that didn't exist yet.
+         */
+        public static final String METHOD_STOCK_AT = "stock_at";
+        public static final String EXTRA_TIME = "time";
+
+        /**
+         * Provider method that takes a snapshot of the stock moved since the last one and deletes
+         * movements older than their retention, a bounded amount of work per call. Also drops the
+         * deleted products older than {@link ProductEntry#DELETED_RETENTION_MS}. Returns
+         * whether there's more to do under {@link #EXTRA_MORE}.
+         */
+        public static final String METHOD_COMPACT = "ledger_compact";
+        public static final String EXTRA_MORE = "more";
+
+        /**
+         * The movements, append-only until they're compacted.
+         */
+        public final static String TABLE_NAME = "stock_movements";
+        public final static String _ID = BaseColumns._ID;
+
+        /**
+         * Id of the product. Not a foreign key: the movements of a deleted product stay until
+         * they are compacted.
+         */
+        public final static String COLUMN_PRODUCT_ID = "product_id";
+
+        /**
+         * One of {@link #TYPE_SALE}, {@link #TYPE_RECEIPT} and {@link #TYPE_ADJUSTMENT}.
+         */
+        public final static String COLUMN_MOVEMENT_TYPE = "movement_type";
+        public final static int TYPE_SALE = 1;
+        public final static int TYPE_RECEIPT = 2;
+        public final static int TYPE_ADJUSTMENT = 3;
+
+        /**
+         * Change of the quantity, negative for stock that left.
+         */
+        public final static String COLUMN_QUANTITY_DELTA = "quantity_delta";
+
+        /**
+         * Time of the movement in milliseconds since the epoch. Never earlier than the movement
+         * before it, even if the clock is set back.
+         */
+        public final static String COLUMN_CREATED = "created";
+
+        /**
+         * Stock of each product at the time of a compaction, for the products moved since the
+         * one before.
+         */
+        public final static String SNAPSHOTS_TABLE_NAME = "stock_snapshots";
+
+        /**
+         * Id of the last movement included in a snapshot.
+         */
+        public final static String COLUMN_MOVEMENT_ID = "movement_id";
+        public final static String COLUMN_QUANTITY = "quantity";
+
+        /**
+         * The state of the ledger, in a single row.
+         */
+        public final static String STATE_TABLE_NAME = "ledger_state";
+
+        /**
+         * Type recorded for the quantity changes being written, set by the provider inside the
+         * transaction. Null for the default: receipts for new products, adjustments otherwise.
+         * Shares its name with the column of the movements.
+         */
+        public final static String COLUMN_CURRENT_TYPE = COLUMN_MOVEMENT_TYPE;
+
+        /**
+         * Id of the last movement included in the snapshots.
+         */
+        public final static String COLUMN_SNAPSHOT_THROUGH = "snapshot_through";
     }
 }
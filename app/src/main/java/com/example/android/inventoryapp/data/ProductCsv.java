@@ -0,0 +1,190 @@
+package com.example.android.inventoryapp.data;
+
+import com.example.android.inventoryapp.data.ProductContract.ProductEntry;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reading and writing of product catalogs in CSV or TSV format: one product per record, fields
+ * optionally quoted with double quotes (a quote inside a quoted field is written twice).
+ */
+public final class ProductCsv {
+
+    /** Product columns of a catalog file, in the order expected when the file has no header. */
+    public static final String[] COLUMNS = {
+            ProductEntry.COLUMN_PRODUCT_NAME,
+            ProductEntry.COLUMN_PRICE,
+            ProductEntry.COLUMN_QUANTITY,
+            ProductEntry.COLUMN_SUPPLIER_NAME,
+            ProductEntry.COLUMN_SUPPLIER_PHONE,
+            ProductEntry.COLUMN_REORDER_LEVEL
+    };
+
+    /**
+     * Write a field, quoted if it contains the delimiter, a quote or a line break. A null value
+     * is written as an empty field.
+     */
+    static void writeField(Writer out, String value) throws IOException {
+        if (value == null) {
+            return;
+        }
+        boolean needsQuotes = false;
+        for (int i = 0; i < value.length() && !needsQuotes; i++) {
+            char c = value.charAt(i);
+            needsQuotes = c == ',' || c == '"' || c == '\n' || c == '\r';
+        }
+        if (!needsQuotes) {
+            out.write(value);
+            return;
+        }
+        out.write('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"') {
+                out.write('"');
+            }
+            out.write(c);
+        }
+        out.write('"');
+    }
+
+    /** Number of characters looked at to guess the delimiter. */
+    private static final int DETECT_LIMIT = 8 * 1024;
+
+    private ProductCsv() {}
+
+    /**
+     * Guess the delimiter from the first line: tab if it has more tabs than commas, comma
+     * otherwise. The reader is reset, so nothing is consumed.
+     */
+    static char detectDelimiter(BufferedReader reader) throws IOException {
+        reader.mark(DETECT_LIMIT);
+        int tabs = 0;
+        int commas = 0;
+        for (int i = 0; i < DETECT_LIMIT; i++) {
+            int c = reader.read();
+            if (c == -1 || c == '\n' || c == '\r') {
+                break;
+            } else if (c == '\t') {
+                tabs++;
+            } else if (c == ',') {
+                commas++;
+            }
+        }
+        reader.reset();
+        return tabs > commas ? '\t' : ',';
+    }
+
+    /**
+     * Return, for every entry of {@link #COLUMNS}, the index of the field holding it, or -1 if the
+     * record doesn't have it. Return null if the record isn't a header, i.e. names none of the
+     * columns.
+     */
+    static int[] mapColumns(List<String> header) {
+        int[] indices = new int[COLUMNS.length];
+        boolean isHeader = false;
+        for (int i = 0; i < COLUMNS.length; i++) {
+            indices[i] = -1;
+            for (int field = 0; field < header.size(); field++) {
+                if (COLUMNS[i].equalsIgnoreCase(header.get(field).trim())) {
+                    indices[i] = field;
+                    isHeader = true;
+                    break;
+                }
+            }
+        }
+        return isHeader ? indices : null;
+    }
+
+    /**
+     * Return the column indices of a file without header: all columns in {@link #COLUMNS} order.
+     */
+    static int[] defaultColumns() {
+        int[] indices = new int[COLUMNS.length];
+        for (int i = 0; i < indices.length; i++) {
+            indices[i] = i;
+        }
+        return indices;
+    }
+
+    /**
+     * Reads records one at a time, so a file of any size only needs memory for one record.
+     * Quoted fields may span several lines.
+     */
+    static final class RecordReader {
+        private final BufferedReader mReader;
+        private final char mDelimiter;
+        private final List<String> mFields = new ArrayList<>();
+        private final StringBuilder mField = new StringBuilder();
+        private int mLineNumber;
+
+        RecordReader(BufferedReader reader, char delimiter) {
+            mReader = reader;
+            mDelimiter = delimiter;
+        }
+
+        /** Number of the line the last record ended on, starting at 1. */
+        int getLineNumber() {
+            return mLineNumber;
+        }
+
+        /**
+         * Return the fields of the next record, or null at the end of the input. The returned
+         * list is reused by the next call. Empty lines are skipped.
+         */
+        List<String> readRecord() throws IOException {
+            mFields.clear();
+            mField.setLength(0);
+            boolean quoted = false;
+            boolean empty = true;
+            int c;
+            while ((c = mReader.read()) != -1) {
+                if (quoted) {
+                    if (c == '"') {
+                        mReader.mark(1);
+                        if (mReader.read() == '"') {
+                            mField.append('"');
+                        } else {
+                            mReader.reset();
+                            quoted = false;
+                        }
+                    } else {
+                        if (c == '\n') {
+                            mLineNumber++;
+                        }
+                        mField.append((char) c);
+                    }
+                } else if (c == '"') {
+                    quoted = true;
+                    empty = false;
+                } else if (c == mDelimiter) {
+                    mFields.add(mField.toString());
+                    mField.setLength(0);
+                    empty = false;
+                } else if (c == '\r') {
+                    // Part of a \r\n line break, the \n ends the record
+                } else if (c == '\n') {
+                    mLineNumber++;
+                    if (!empty || mField.length() > 0) {
+                        break;
+                    }
+                } else {
+                    mField.append((char) c);
+                    empty = false;
+                }
+            }
+            if (c == -1 && empty && mField.length() == 0) {
+                return null;
+            }
+            if (c == -1) {
+                mLineNumber++;
+            }
+            mFields.add(mField.toString());
+            return mFields;
+        }
+    }
+}
@@ -1,9 +1,18 @@
 package com.example.android.inventoryapp.data;
 
 import android.content.Context;
+import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.text.TextUtils;
+import android.util.Log;
+
+import com.example.android.inventoryapp.data.ProductContract.MovementEntry;
 import com.example.android.inventoryapp.data.ProductContract.ProductEntry;
+import com.example.android.inventoryapp.data.ProductContract.StatsEntry;
+import com.example.android.inventoryapp.data.ProductContract.SupplierEntry;
+import com.example.android.inventoryapp.data.ProductContract.SupplierStatsEntry;
+import com.example.android.inventoryapp.data.ProductContract.SyncEntry;
 
 /**
  * Created by wawr1 on 23.07.2018.
@@ -11,11 +20,716 @@ import com.example.android.inventoryapp.data.ProductContract.ProductEntry;
 
 public class ProductDbHelper extends SQLiteOpenHelper {
 
-    private static final String DATABASE_NAME = "storage.db";
-    private static final int DATABASE_VERSION = 1;
+    private static final String LOG_TAG = ProductDbHelper.class.getSimpleName();
+
+    static final String DATABASE_NAME = "storage.db";
+
+    /** Partial index over the products that are low on stock only. */
+    static final String LOW_STOCK_INDEX_NAME = "idx_" + ProductEntry.TABLE_NAME + "_low_stock";
+
+    /** SQL expression for the current time in milliseconds since the epoch. */
+    static final String SQL_NOW_MILLIS = "CAST((julianday('now') - 2440587.5) * 86400000 AS INTEGER)";
+
+    /**
+     * Keys of the supplier totals: until version 8 the supplier name, the column of the same
+     * name in both tables; since then the supplier id, which is the row id of the totals.
+     * Declared before the migrations, which need them initialized.
+     */
+    private static final String[] BY_SUPPLIER_NAME = {
+            SupplierStatsEntry.COLUMN_SUPPLIER_NAME, ProductEntry.COLUMN_SUPPLIER_NAME
+    };
+    private static final String[] BY_SUPPLIER_ID = {SupplierStatsEntry._ID, ProductEntry.COLUMN_SUPPLIER_ID};
+
+    /** SQL expression for a new random sync id: 128 random bits as hex. */
+    static final String SQL_RANDOM_ID = "lower(hex(randomblob(16)))";
+
+    /** SQL condition of the change log triggers: false while changes from the server are applied. */
+    private static final String SQL_NOT_APPLYING_SYNC = "(SELECT " + SyncEntry.COLUMN_APPLYING + " FROM "
+            + SyncEntry.STATE_TABLE_NAME + ") = 0";
+
+    /** Product columns that the server knows; changing any of them is logged. */
+    private static final String[] SYNCED_COLUMNS = {
+            ProductEntry.COLUMN_PRODUCT_NAME, ProductEntry.COLUMN_PRICE, ProductEntry.COLUMN_QUANTITY,
+            ProductEntry.COLUMN_SUPPLIER_ID, ProductEntry.COLUMN_REORDER_LEVEL
+    };
+
+    /**
+     * SQL expression for the time of a new stock movement: now, unless that is before the last
+     * movement because the clock was set back. Snapshots and point in time queries rely on the
+     * times going up with the ids.
+     */
+    private static final String SQL_MOVEMENT_TIME = "MAX(" + SQL_NOW_MILLIS + ", IFNULL((SELECT "
+            + MovementEntry.COLUMN_CREATED + " FROM " + MovementEntry.TABLE_NAME + " ORDER BY "
+            + MovementEntry._ID + " DESC LIMIT 1), 0))";
+
+    /**
+     * Schema migrations, in order. The statements at index i upgrade the database from version
+     * i + 1 to version i + 2. A migration that has shipped must never be edited, add a new one
+     * to the end instead.
+     */
+    private static final String[][] MIGRATIONS = {
+            // Version 2: indexes for name lookups, supplier grouping and low stock scans.
+            // The supplier index also carries quantity and price, so per supplier totals
+            // can be computed from the index alone.
+            {
+                    "CREATE INDEX IF NOT EXISTS idx_" + ProductEntry.TABLE_NAME + "_name ON "
+                            + ProductEntry.TABLE_NAME + " (" + ProductEntry.COLUMN_PRODUCT_NAME + ")",
+                    "CREATE INDEX IF NOT EXISTS idx_" + ProductEntry.TABLE_NAME + "_supplier ON "
+                            + ProductEntry.TABLE_NAME + " (" + ProductEntry.COLUMN_SUPPLIER_NAME + ", "
+                            + ProductEntry.COLUMN_QUANTITY + ", " + ProductEntry.COLUMN_PRICE + ")",
+                    "CREATE INDEX IF NOT EXISTS idx_" + ProductEntry.TABLE_NAME + "_quantity ON "
+                            + ProductEntry.TABLE_NAME + " (" + ProductEntry.COLUMN_QUANTITY + ")"
+            },
+            // Version 3: full text index over product and supplier names, filled from the
+            // existing rows and kept in sync by triggers
+            {
+                    "CREATE VIRTUAL TABLE " + ProductEntry.FTS_TABLE_NAME + " USING fts4("
+                            + ProductEntry.COLUMN_PRODUCT_NAME + ", " + ProductEntry.COLUMN_SUPPLIER_NAME + ")",
+                    "INSERT INTO " + ProductEntry.FTS_TABLE_NAME + " (docid, "
+                            + ProductEntry.COLUMN_PRODUCT_NAME + ", " + ProductEntry.COLUMN_SUPPLIER_NAME + ")"
+                            + " SELECT " + ProductEntry._ID + ", " + ProductEntry.COLUMN_PRODUCT_NAME + ", "
+                            + ProductEntry.COLUMN_SUPPLIER_NAME + " FROM " + ProductEntry.TABLE_NAME,
+                    "CREATE TRIGGER " + ProductEntry.FTS_TABLE_NAME + "_insert AFTER INSERT ON "
+                            + ProductEntry.TABLE_NAME + " BEGIN"
+                            + " INSERT INTO " + ProductEntry.FTS_TABLE_NAME + " (docid, "
+                            + ProductEntry.COLUMN_PRODUCT_NAME + ", " + ProductEntry.COLUMN_SUPPLIER_NAME + ")"
+                            + " VALUES (NEW." + ProductEntry._ID + ", NEW." + ProductEntry.COLUMN_PRODUCT_NAME
+                            + ", NEW." + ProductEntry.COLUMN_SUPPLIER_NAME + "); END",
+                    "CREATE TRIGGER " + ProductEntry.FTS_TABLE_NAME + "_update AFTER UPDATE OF "
+                            + ProductEntry.COLUMN_PRODUCT_NAME + ", " + ProductEntry.COLUMN_SUPPLIER_NAME
+                            + " ON " + ProductEntry.TABLE_NAME + " BEGIN"
+                            + " UPDATE " + ProductEntry.FTS_TABLE_NAME + " SET "
+                            + ProductEntry.COLUMN_PRODUCT_NAME + " = NEW." + ProductEntry.COLUMN_PRODUCT_NAME + ", "
+                            + ProductEntry.COLUMN_SUPPLIER_NAME + " = NEW." + ProductEntry.COLUMN_SUPPLIER_NAME
+                            + " WHERE docid = NEW." + ProductEntry._ID + "; END",
+                    "CREATE TRIGGER " + ProductEntry.FTS_TABLE_NAME + "_delete AFTER DELETE ON "
+                            + ProductEntry.TABLE_NAME + " BEGIN"
+                            + " DELETE FROM " + ProductEntry.FTS_TABLE_NAME
+                            + " WHERE docid = OLD." + ProductEntry._ID + "; END"
+            },
+            // Version 4: modification time of every product for incremental exports, stamped
+            // by triggers. The index serves both the since filter and the export's key order
+            // (last_modified, _id), since SQLite appends the row id to every index.
+            {
+                    "ALTER TABLE " + ProductEntry.TABLE_NAME + " ADD COLUMN "
+                            + ProductEntry.COLUMN_LAST_MODIFIED + " INTEGER NOT NULL DEFAULT 0",
+                    "UPDATE " + ProductEntry.TABLE_NAME + " SET "
+                            + ProductEntry.COLUMN_LAST_MODIFIED + " = " + SQL_NOW_MILLIS,
+                    "CREATE INDEX IF NOT EXISTS idx_" + ProductEntry.TABLE_NAME + "_last_modified ON "
+                            + ProductEntry.TABLE_NAME + " (" + ProductEntry.COLUMN_LAST_MODIFIED + ")",
+                    "CREATE TRIGGER " + ProductEntry.TABLE_NAME + "_stamp_insert AFTER INSERT ON "
+                            + ProductEntry.TABLE_NAME + " BEGIN"
+                            + " UPDATE " + ProductEntry.TABLE_NAME + " SET "
+                            + ProductEntry.COLUMN_LAST_MODIFIED + " = " + SQL_NOW_MILLIS
+                            + " WHERE " + ProductEntry._ID + " = NEW." + ProductEntry._ID + "; END",
+                    // Not fired by its own update of last_modified, which isn't in the column list
+                    "CREATE TRIGGER " + ProductEntry.TABLE_NAME + "_stamp_update AFTER UPDATE OF "
+                            + ProductEntry.COLUMN_PRODUCT_NAME + ", " + ProductEntry.COLUMN_PRICE + ", "
+                            + ProductEntry.COLUMN_QUANTITY + ", " + ProductEntry.COLUMN_SUPPLIER_NAME + ", "
+                            + ProductEntry.COLUMN_SUPPLIER_PHONE + " ON " + ProductEntry.TABLE_NAME + " BEGIN"
+                            + " UPDATE " + ProductEntry.TABLE_NAME + " SET "
+                            + ProductEntry.COLUMN_LAST_MODIFIED + " = " + SQL_NOW_MILLIS
+                            + " WHERE " + ProductEntry._ID + " = NEW." + ProductEntry._ID + "; END"
+            },
+            // Version 5: tokens of applied quantity batches, so a batch repeated after a crash
+            // isn't counted twice
+            {
+                    "CREATE TABLE " + ProductEntry.QUANTITY_BATCHES_TABLE_NAME + " ("
+                            + ProductEntry.COLUMN_BATCH_TOKEN + " TEXT PRIMARY KEY, "
+                            + ProductEntry.COLUMN_BATCH_APPLIED + " INTEGER NOT NULL)"
+            },
+            // Version 6: reorder level per product. Low-stock products get a partial index of
+            // their own, and their count is kept in the statistics row by triggers. The stamp
+            // trigger is recreated so reorder level changes count as modifications.
+            {
+                    "ALTER TABLE " + ProductEntry.TABLE_NAME + " ADD COLUMN "
+                            + ProductEntry.COLUMN_REORDER_LEVEL + " INTEGER NOT NULL DEFAULT 0",
+                    "CREATE INDEX IF NOT EXISTS " + LOW_STOCK_INDEX_NAME + " ON " + ProductEntry.TABLE_NAME
+                            + " (" + ProductEntry._ID + ") WHERE " + ProductEntry.LOW_STOCK_SELECTION,
+                    "DROP TRIGGER IF EXISTS " + ProductEntry.TABLE_NAME + "_stamp_update",
+                    "CREATE TRIGGER " + ProductEntry.TABLE_NAME + "_stamp_update AFTER UPDATE OF "
+                            + ProductEntry.COLUMN_PRODUCT_NAME + ", " + ProductEntry.COLUMN_PRICE + ", "
+                            + ProductEntry.COLUMN_QUANTITY + ", " + ProductEntry.COLUMN_SUPPLIER_NAME + ", "
+                            + ProductEntry.COLUMN_SUPPLIER_PHONE + ", " + ProductEntry.COLUMN_REORDER_LEVEL
+                            + " ON " + ProductEntry.TABLE_NAME + " BEGIN"
+                            + " UPDATE " + ProductEntry.TABLE_NAME + " SET "
+                            + ProductEntry.COLUMN_LAST_MODIFIED + " = " + SQL_NOW_MILLIS
+                            + " WHERE " + ProductEntry._ID + " = NEW." + ProductEntry._ID + "; END",
+                    "CREATE TABLE " + StatsEntry.TABLE_NAME + " ("
+                            + StatsEntry._ID + " INTEGER PRIMARY KEY CHECK (" + StatsEntry._ID + " = 1), "
+                            + StatsEntry.COLUMN_LOW_STOCK_COUNT + " INTEGER NOT NULL DEFAULT 0)",
+                    "INSERT INTO " + StatsEntry.TABLE_NAME + " (" + StatsEntry._ID + ", "
+                            + StatsEntry.COLUMN_LOW_STOCK_COUNT + ") SELECT 1, COUNT(*) FROM "
+                            + ProductEntry.TABLE_NAME + " WHERE " + ProductEntry.LOW_STOCK_SELECTION,
+                    // A comparison is 1 if true and 0 if false, so each trigger adds the new row's
+                    // state and takes away the old one's
+                    "CREATE TRIGGER " + ProductEntry.TABLE_NAME + "_low_stock_insert AFTER INSERT ON "
+                            + ProductEntry.TABLE_NAME + " BEGIN"
+                            + " UPDATE " + StatsEntry.TABLE_NAME + " SET " + StatsEntry.COLUMN_LOW_STOCK_COUNT
+                            + " = " + StatsEntry.COLUMN_LOW_STOCK_COUNT + " + (" + lowStock("NEW") + "); END",
+                    "CREATE TRIGGER " + ProductEntry.TABLE_NAME + "_low_stock_update AFTER UPDATE OF "
+                            + ProductEntry.COLUMN_QUANTITY + ", " + ProductEntry.COLUMN_REORDER_LEVEL
+                            + " ON " + ProductEntry.TABLE_NAME + " BEGIN"
+                            + " UPDATE " + StatsEntry.TABLE_NAME + " SET " + StatsEntry.COLUMN_LOW_STOCK_COUNT
+                            + " = " + StatsEntry.COLUMN_LOW_STOCK_COUNT + " + (" + lowStock("NEW") + ") - ("
+                            + lowStock("OLD") + "); END",
+                    "CREATE TRIGGER " + ProductEntry.TABLE_NAME + "_low_stock_delete AFTER DELETE ON "
+                            + ProductEntry.TABLE_NAME + " BEGIN"
+                            + " UPDATE " + StatsEntry.TABLE_NAME + " SET " + StatsEntry.COLUMN_LOW_STOCK_COUNT
+                            + " = " + StatsEntry.COLUMN_LOW_STOCK_COUNT + " - (" + lowStock("OLD") + "); END"
+            },
+            // Version 7: product count, units and stock value, over the catalog and per supplier.
+            // The totals are filled once from the existing rows, then the low stock triggers are
+            // replaced by ones that adjust all totals by the row that changed. The supplier
+            // totals are filled from the supplier index, which covers quantity and price.
+            {
+                    "ALTER TABLE " + StatsEntry.TABLE_NAME + " ADD COLUMN "
+                            + StatsEntry.COLUMN_PRODUCT_COUNT + " INTEGER NOT NULL DEFAULT 0",
+                    "ALTER TABLE " + StatsEntry.TABLE_NAME + " ADD COLUMN "
+                            + StatsEntry.COLUMN_TOTAL_UNITS + " INTEGER NOT NULL DEFAULT 0",
+                    "ALTER TABLE " + StatsEntry.TABLE_NAME + " ADD COLUMN "
+                            + StatsEntry.COLUMN_STOCK_VALUE + " INTEGER NOT NULL DEFAULT 0",
+                    "UPDATE " + StatsEntry.TABLE_NAME + " SET "
+                            + StatsEntry.COLUMN_PRODUCT_COUNT + " = (SELECT COUNT(*) FROM "
+                            + ProductEntry.TABLE_NAME + "), "
+                            + StatsEntry.COLUMN_TOTAL_UNITS + " = (SELECT IFNULL(SUM("
+                            + ProductEntry.COLUMN_QUANTITY + "), 0) FROM " + ProductEntry.TABLE_NAME + "), "
+                            + StatsEntry.COLUMN_STOCK_VALUE + " = (SELECT IFNULL(SUM("
+                            + ProductEntry.COLUMN_PRICE + " * " + ProductEntry.COLUMN_QUANTITY + "), 0) FROM "
+                            + ProductEntry.TABLE_NAME + ")",
+                    "CREATE TABLE " + SupplierStatsEntry.TABLE_NAME + " ("
+                            + SupplierStatsEntry._ID + " INTEGER PRIMARY KEY, "
+                            + SupplierStatsEntry.COLUMN_SUPPLIER_NAME + " TEXT NOT NULL UNIQUE, "
+                            + SupplierStatsEntry.COLUMN_PRODUCT_COUNT + " INTEGER NOT NULL DEFAULT 0, "
+                            + SupplierStatsEntry.COLUMN_TOTAL_UNITS + " INTEGER NOT NULL DEFAULT 0, "
+                            + SupplierStatsEntry.COLUMN_STOCK_VALUE + " INTEGER NOT NULL DEFAULT 0)",
+                    "INSERT INTO " + SupplierStatsEntry.TABLE_NAME + " ("
+                            + SupplierStatsEntry.COLUMN_SUPPLIER_NAME + ", " + SupplierStatsEntry.COLUMN_PRODUCT_COUNT
+                            + ", " + SupplierStatsEntry.COLUMN_TOTAL_UNITS + ", " + SupplierStatsEntry.COLUMN_STOCK_VALUE
+                            + ") SELECT " + ProductEntry.COLUMN_SUPPLIER_NAME + ", COUNT(*), SUM("
+                            + ProductEntry.COLUMN_QUANTITY + "), SUM(" + ProductEntry.COLUMN_PRICE + " * "
+                            + ProductEntry.COLUMN_QUANTITY + ") FROM " + ProductEntry.TABLE_NAME
+                            + " GROUP BY " + ProductEntry.COLUMN_SUPPLIER_NAME,
+                    "DROP TRIGGER IF EXISTS " + ProductEntry.TABLE_NAME + "_low_stock_insert",
+                    "DROP TRIGGER IF EXISTS " + ProductEntry.TABLE_NAME + "_low_stock_update",
+                    "DROP TRIGGER IF EXISTS " + ProductEntry.TABLE_NAME + "_low_stock_delete",
+                    "CREATE TRIGGER " + ProductEntry.TABLE_NAME + "_stats_insert AFTER INSERT ON "
+                            + ProductEntry.TABLE_NAME + " BEGIN"
+                            + " UPDATE " + StatsEntry.TABLE_NAME + " SET " + addTotals("+", "NEW") + ", "
+                            + StatsEntry.COLUMN_LOW_STOCK_COUNT + " = " + StatsEntry.COLUMN_LOW_STOCK_COUNT
+                            + " + (" + lowStock("NEW") + ");"
+                            + addSupplierTotals("+", "NEW", BY_SUPPLIER_NAME) + " END",
+                    // A supplier's row goes away with its last product, so renaming a supplier
+                    // doesn't leave an empty row behind
+                    "CREATE TRIGGER " + ProductEntry.TABLE_NAME + "_stats_update AFTER UPDATE OF "
+                            + ProductEntry.COLUMN_PRICE + ", " + ProductEntry.COLUMN_QUANTITY + ", "
+                            + ProductEntry.COLUMN_SUPPLIER_NAME + ", " + ProductEntry.COLUMN_REORDER_LEVEL
+                            + " ON " + ProductEntry.TABLE_NAME + " BEGIN"
+                            + " UPDATE " + StatsEntry.TABLE_NAME + " SET "
+                            + StatsEntry.COLUMN_TOTAL_UNITS + " = " + StatsEntry.COLUMN_TOTAL_UNITS
+                            + " + NEW." + ProductEntry.COLUMN_QUANTITY + " - OLD." + ProductEntry.COLUMN_QUANTITY + ", "
+                            + StatsEntry.COLUMN_STOCK_VALUE + " = " + StatsEntry.COLUMN_STOCK_VALUE
+                            + " + " + stockValue("NEW") + " - " + stockValue("OLD") + ", "
+                            + StatsEntry.COLUMN_LOW_STOCK_COUNT + " = " + StatsEntry.COLUMN_LOW_STOCK_COUNT
+                            + " + (" + lowStock("NEW") + ") - (" + lowStock("OLD") + ");"
+                            + addSupplierTotals("-", "OLD", BY_SUPPLIER_NAME)
+                            + addSupplierTotals("+", "NEW", BY_SUPPLIER_NAME)
+                            + dropEmptySupplier("OLD", BY_SUPPLIER_NAME) + " END",
+                    "CREATE TRIGGER " + ProductEntry.TABLE_NAME + "_stats_delete AFTER DELETE ON "
+                            + ProductEntry.TABLE_NAME + " BEGIN"
+                            + " UPDATE " + StatsEntry.TABLE_NAME + " SET " + addTotals("-", "OLD") + ", "
+                            + StatsEntry.COLUMN_LOW_STOCK_COUNT + " = " + StatsEntry.COLUMN_LOW_STOCK_COUNT
+                            + " - (" + lowStock("OLD") + ");"
+                            + addSupplierTotals("-", "OLD", BY_SUPPLIER_NAME)
+                            + dropEmptySupplier("OLD", BY_SUPPLIER_NAME) + " END"
+            },
+            // Version 8: suppliers in a table of their own, referenced by id from the products.
+            // Supplier names are deduplicated ignoring case and surrounding blanks; a merged
+            // supplier keeps the spelling and phone number of its most recently changed product.
+            // SQLite can't drop columns, so the products table is copied into a new one without
+            // the supplier text. Its indexes and triggers go with the old table and are created
+            // again for supplier ids, as are the supplier totals. Row ids and the AUTOINCREMENT
+            // counter are carried over, so no product id is ever given out twice.
+            {
+                    "CREATE TABLE " + SupplierEntry.TABLE_NAME + " ("
+                            + SupplierEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT, "
+                            + SupplierEntry.COLUMN_SUPPLIER_NAME + " TEXT NOT NULL UNIQUE COLLATE NOCASE, "
+                            + SupplierEntry.COLUMN_SUPPLIER_PHONE + " TEXT)",
+                    "INSERT OR IGNORE INTO " + SupplierEntry.TABLE_NAME + " ("
+                            + SupplierEntry.COLUMN_SUPPLIER_NAME + ", " + SupplierEntry.COLUMN_SUPPLIER_PHONE
+                            + ") SELECT TRIM(" + ProductEntry.COLUMN_SUPPLIER_NAME + "), "
+                            + ProductEntry.COLUMN_SUPPLIER_PHONE + " FROM " + ProductEntry.TABLE_NAME
+                            + " ORDER BY " + ProductEntry.COLUMN_LAST_MODIFIED + " DESC",
+                    "UPDATE " + SupplierEntry.TABLE_NAME + " SET " + SupplierEntry.COLUMN_SUPPLIER_PHONE
+                            + " = (SELECT " + ProductEntry.COLUMN_SUPPLIER_PHONE + " FROM " + ProductEntry.TABLE_NAME
+                            + " WHERE TRIM(" + ProductEntry.COLUMN_SUPPLIER_NAME + ") = "
+                            + SupplierEntry.TABLE_NAME + "." + SupplierEntry.COLUMN_SUPPLIER_NAME
+                            + " AND " + ProductEntry.COLUMN_SUPPLIER_PHONE + " IS NOT NULL ORDER BY "
+                            + ProductEntry.COLUMN_LAST_MODIFIED + " DESC LIMIT 1) WHERE "
+                            + SupplierEntry.COLUMN_SUPPLIER_PHONE + " IS NULL",
+                    "CREATE TABLE " + ProductEntry.TABLE_NAME + "_new ("
+                            + ProductEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT, "
+                            + ProductEntry.COLUMN_PRODUCT_NAME + " TEXT NOT NULL, "
+                            + ProductEntry.COLUMN_PRICE + " INTEGER NOT NULL, "
+                            + ProductEntry.COLUMN_QUANTITY + " INTEGER NOT NULL DEFAULT 0, "
+                            + ProductEntry.COLUMN_SUPPLIER_ID + " INTEGER NOT NULL REFERENCES "
+                            + SupplierEntry.TABLE_NAME + " (" + SupplierEntry._ID + "), "
+                            + ProductEntry.COLUMN_REORDER_LEVEL + " INTEGER NOT NULL DEFAULT 0, "
+                            + ProductEntry.COLUMN_LAST_MODIFIED + " INTEGER NOT NULL DEFAULT 0)",
+                    "INSERT INTO " + ProductEntry.TABLE_NAME + "_new (" + ProductEntry._ID + ", "
+                            + ProductEntry.COLUMN_PRODUCT_NAME + ", " + ProductEntry.COLUMN_PRICE + ", "
+                            + ProductEntry.COLUMN_QUANTITY + ", " + ProductEntry.COLUMN_SUPPLIER_ID + ", "
+                            + ProductEntry.COLUMN_REORDER_LEVEL + ", " + ProductEntry.COLUMN_LAST_MODIFIED + ")"
+                            + " SELECT " + ProductEntry._ID + ", " + ProductEntry.COLUMN_PRODUCT_NAME + ", "
+                            + ProductEntry.COLUMN_PRICE + ", " + ProductEntry.COLUMN_QUANTITY + ", (SELECT "
+                            + SupplierEntry._ID + " FROM " + SupplierEntry.TABLE_NAME + " WHERE "
+                            + SupplierEntry.COLUMN_SUPPLIER_NAME + " = TRIM(" + ProductEntry.TABLE_NAME + "."
+                            + ProductEntry.COLUMN_SUPPLIER_NAME + ")), " + ProductEntry.COLUMN_REORDER_LEVEL + ", "
+                            + ProductEntry.COLUMN_LAST_MODIFIED + " FROM " + ProductEntry.TABLE_NAME,
+                    // Carry the AUTOINCREMENT counter over, also when the copy didn't create one for
+                    // the new table. sqlite_sequence has no key to replace on, so the new row is
+                    // added and the one it replaces deleted.
+                    "INSERT INTO sqlite_sequence (name, seq) SELECT * FROM (SELECT '" + ProductEntry.TABLE_NAME
+                            + "_new', MAX(seq) AS seq FROM sqlite_sequence WHERE name IN ('" + ProductEntry.TABLE_NAME
+                            + "', '" + ProductEntry.TABLE_NAME + "_new')) WHERE seq IS NOT NULL",
+                    "DELETE FROM sqlite_sequence WHERE name = '" + ProductEntry.TABLE_NAME + "_new' AND rowid < (SELECT"
+                            + " MAX(rowid) FROM sqlite_sequence WHERE name = '" + ProductEntry.TABLE_NAME + "_new')",
+                    "DROP TABLE " + ProductEntry.TABLE_NAME,
+                    "ALTER TABLE " + ProductEntry.TABLE_NAME + "_new RENAME TO " + ProductEntry.TABLE_NAME,
+                    "CREATE INDEX idx_" + ProductEntry.TABLE_NAME + "_name ON "
+                            + ProductEntry.TABLE_NAME + " (" + ProductEntry.COLUMN_PRODUCT_NAME + ")",
+                    "CREATE INDEX idx_" + ProductEntry.TABLE_NAME + "_supplier ON "
+                            + ProductEntry.TABLE_NAME + " (" + ProductEntry.COLUMN_SUPPLIER_ID + ", "
+                            + ProductEntry.COLUMN_QUANTITY + ", " + ProductEntry.COLUMN_PRICE + ")",
+                    "CREATE INDEX idx_" + ProductEntry.TABLE_NAME + "_quantity ON "
+                            + ProductEntry.TABLE_NAME + " (" + ProductEntry.COLUMN_QUANTITY + ")",
+                    "CREATE INDEX idx_" + ProductEntry.TABLE_NAME + "_last_modified ON "
+                            + ProductEntry.TABLE_NAME + " (" + ProductEntry.COLUMN_LAST_MODIFIED + ")",
+                    "CREATE INDEX " + LOW_STOCK_INDEX_NAME + " ON " + ProductEntry.TABLE_NAME
+                            + " (" + ProductEntry._ID + ") WHERE " + ProductEntry.LOW_STOCK_SELECTION,
+                    // The full text index keeps its rows, the ids didn't change
+                    "CREATE TRIGGER " + ProductEntry.FTS_TABLE_NAME + "_insert AFTER INSERT ON "
+                            + ProductEntry.TABLE_NAME + " BEGIN"
+                            + " INSERT INTO " + ProductEntry.FTS_TABLE_NAME + " (docid, "
+                            + ProductEntry.COLUMN_PRODUCT_NAME + ", " + ProductEntry.COLUMN_SUPPLIER_NAME + ")"
+                            + " VALUES (NEW." + ProductEntry._ID + ", NEW." + ProductEntry.COLUMN_PRODUCT_NAME
+                            + ", " + supplierName("NEW") + "); END",
+                    "CREATE TRIGGER " + ProductEntry.FTS_TABLE_NAME + "_update AFTER UPDATE OF "
+                            + ProductEntry.COLUMN_PRODUCT_NAME + ", " + ProductEntry.COLUMN_SUPPLIER_ID
+                            + " ON " + ProductEntry.TABLE_NAME + " BEGIN"
+                            + " UPDATE " + ProductEntry.FTS_TABLE_NAME + " SET "
+                            + ProductEntry.COLUMN_PRODUCT_NAME + " = NEW." + ProductEntry.COLUMN_PRODUCT_NAME + ", "
+                            + ProductEntry.COLUMN_SUPPLIER_NAME + " = " + supplierName("NEW")
+                            + " WHERE docid = NEW." + ProductEntry._ID + "; END",
+                    "CREATE TRIGGER " + ProductEntry.FTS_TABLE_NAME + "_delete AFTER DELETE ON "
+                            + ProductEntry.TABLE_NAME + " BEGIN"
+                            + " DELETE FROM " + ProductEntry.FTS_TABLE_NAME
+                            + " WHERE docid = OLD." + ProductEntry._ID + "; END",
+                    // Renaming a supplier is the one change that rewrites a row per product, and
+                    // only in the full text index
+                    "CREATE TRIGGER " + SupplierEntry.TABLE_NAME + "_fts_update AFTER UPDATE OF "
+                            + SupplierEntry.COLUMN_SUPPLIER_NAME + " ON " + SupplierEntry.TABLE_NAME + " BEGIN"
+                            + " UPDATE " + ProductEntry.FTS_TABLE_NAME + " SET "
+                            + ProductEntry.COLUMN_SUPPLIER_NAME + " = NEW." + SupplierEntry.COLUMN_SUPPLIER_NAME
+                            + " WHERE docid IN (SELECT " + ProductEntry._ID + " FROM " + ProductEntry.TABLE_NAME
+                            + " WHERE " + ProductEntry.COLUMN_SUPPLIER_ID + " = NEW." + SupplierEntry._ID + "); END",
+                    "CREATE TRIGGER " + ProductEntry.TABLE_NAME + "_stamp_insert AFTER INSERT ON "
+                            + ProductEntry.TABLE_NAME + " BEGIN"
+                            + " UPDATE " + ProductEntry.TABLE_NAME + " SET "
+                            + ProductEntry.COLUMN_LAST_MODIFIED + " = " + SQL_NOW_MILLIS
+                            + " WHERE " + ProductEntry._ID + " = NEW." + ProductEntry._ID + "; END",
+                    "CREATE TRIGGER " + ProductEntry.TABLE_NAME + "_stamp_update AFTER UPDATE OF "
+                            + ProductEntry.COLUMN_PRODUCT_NAME + ", " + ProductEntry.COLUMN_PRICE + ", "
+                            + ProductEntry.COLUMN_QUANTITY + ", " + ProductEntry.COLUMN_SUPPLIER_ID + ", "
+                            + ProductEntry.COLUMN_REORDER_LEVEL + " ON " + ProductEntry.TABLE_NAME + " BEGIN"
+                            + " UPDATE " + ProductEntry.TABLE_NAME + " SET "
+                            + ProductEntry.COLUMN_LAST_MODIFIED + " = " + SQL_NOW_MILLIS
+                            + " WHERE " + ProductEntry._ID + " = NEW." + ProductEntry._ID + "; END",
+                    "DROP TABLE " + SupplierStatsEntry.TABLE_NAME,
+                    "CREATE TABLE " + SupplierStatsEntry.TABLE_NAME + " ("
+                            + SupplierStatsEntry._ID + " INTEGER PRIMARY KEY, "
+                            + SupplierStatsEntry.COLUMN_PRODUCT_COUNT + " INTEGER NOT NULL DEFAULT 0, "
+                            + SupplierStatsEntry.COLUMN_TOTAL_UNITS + " INTEGER NOT NULL DEFAULT 0, "
+                            + SupplierStatsEntry.COLUMN_STOCK_VALUE + " INTEGER NOT NULL DEFAULT 0)",
+                    "INSERT INTO " + SupplierStatsEntry.TABLE_NAME + " ("
+                            + SupplierStatsEntry._ID + ", " + SupplierStatsEntry.COLUMN_PRODUCT_COUNT
+                            + ", " + SupplierStatsEntry.COLUMN_TOTAL_UNITS + ", " + SupplierStatsEntry.COLUMN_STOCK_VALUE
+                            + ") SELECT " + ProductEntry.COLUMN_SUPPLIER_ID + ", COUNT(*), SUM("
+                            + ProductEntry.COLUMN_QUANTITY + "), SUM(" + ProductEntry.COLUMN_PRICE + " * "
+                            + ProductEntry.COLUMN_QUANTITY + ") FROM " + ProductEntry.TABLE_NAME
+                            + " GROUP BY " + ProductEntry.COLUMN_SUPPLIER_ID,
+                    "CREATE TRIGGER " + ProductEntry.TABLE_NAME + "_stats_insert AFTER INSERT ON "
+                            + ProductEntry.TABLE_NAME + " BEGIN"
+                            + " UPDATE " + StatsEntry.TABLE_NAME + " SET " + addTotals("+", "NEW") + ", "
+                            + StatsEntry.COLUMN_LOW_STOCK_COUNT + " = " + StatsEntry.COLUMN_LOW_STOCK_COUNT
+                            + " + (" + lowStock("NEW") + ");"
+                            + addSupplierTotals("+", "NEW", BY_SUPPLIER_ID) + " END",
+                    "CREATE TRIGGER " + ProductEntry.TABLE_NAME + "_stats_update AFTER UPDATE OF "
+                            + ProductEntry.COLUMN_PRICE + ", " + ProductEntry.COLUMN_QUANTITY + ", "
+                            + ProductEntry.COLUMN_SUPPLIER_ID + ", " + ProductEntry.COLUMN_REORDER_LEVEL
+                            + " ON " + ProductEntry.TABLE_NAME + " BEGIN"
+                            + " UPDATE " + StatsEntry.TABLE_NAME + " SET "
+                            + StatsEntry.COLUMN_TOTAL_UNITS + " = " + StatsEntry.COLUMN_TOTAL_UNITS
+                            + " + NEW." + ProductEntry.COLUMN_QUANTITY + " - OLD." + ProductEntry.COLUMN_QUANTITY + ", "
+                            + StatsEntry.COLUMN_STOCK_VALUE + " = " + StatsEntry.COLUMN_STOCK_VALUE
+                            + " + " + stockValue("NEW") + " - " + stockValue("OLD") + ", "
+                            + StatsEntry.COLUMN_LOW_STOCK_COUNT + " = " + StatsEntry.COLUMN_LOW_STOCK_COUNT
+                            + " + (" + lowStock("NEW") + ") - (" + lowStock("OLD") + ");"
+                            + addSupplierTotals("-", "OLD", BY_SUPPLIER_ID)
+                            + addSupplierTotals("+", "NEW", BY_SUPPLIER_ID)
+                            + dropEmptySupplier("OLD", BY_SUPPLIER_ID) + " END",
+                    "CREATE TRIGGER " + ProductEntry.TABLE_NAME + "_stats_delete AFTER DELETE ON "
+                            + ProductEntry.TABLE_NAME + " BEGIN"
+                            + " UPDATE " + StatsEntry.TABLE_NAME + " SET " + addTotals("-", "OLD") + ", "
+                            + StatsEntry.COLUMN_LOW_STOCK_COUNT + " = " + StatsEntry.COLUMN_LOW_STOCK_COUNT
+                            + " - (" + lowStock("OLD") + ");"
+                            + addSupplierTotals("-", "OLD", BY_SUPPLIER_ID)
+                            + dropEmptySupplier("OLD", BY_SUPPLIER_ID) + " END",
+                    // Queries read the joined views, so projections and selections naming the
+                    // supplier columns keep working. SQLite flattens them into plain joins, which
+                    // use the indexes of the tables.
+                    "CREATE VIEW " + ProductEntry.VIEW_NAME + " AS SELECT "
+                            + ProductEntry.TABLE_NAME + "." + ProductEntry._ID + " AS " + ProductEntry._ID + ", "
+                            + ProductEntry.COLUMN_PRODUCT_NAME + ", " + ProductEntry.COLUMN_PRICE + ", "
+                            + ProductEntry.COLUMN_QUANTITY + ", " + ProductEntry.COLUMN_SUPPLIER_ID + ", "
+                            + SupplierEntry.TABLE_NAME + "." + SupplierEntry.COLUMN_SUPPLIER_NAME + " AS "
+                            + ProductEntry.COLUMN_SUPPLIER_NAME + ", "
+                            + SupplierEntry.TABLE_NAME + "." + SupplierEntry.COLUMN_SUPPLIER_PHONE + " AS "
+                            + ProductEntry.COLUMN_SUPPLIER_PHONE + ", "
+                            + ProductEntry.COLUMN_REORDER_LEVEL + ", " + ProductEntry.COLUMN_LAST_MODIFIED
+                            + " FROM " + ProductEntry.TABLE_NAME + " JOIN " + SupplierEntry.TABLE_NAME + " ON "
+                            + SupplierEntry.TABLE_NAME + "." + SupplierEntry._ID + " = "
+                            + ProductEntry.TABLE_NAME + "." + ProductEntry.COLUMN_SUPPLIER_ID,
+                    "CREATE VIEW " + SupplierStatsEntry.VIEW_NAME + " AS SELECT "
+                            + SupplierStatsEntry.TABLE_NAME + "." + SupplierStatsEntry._ID + " AS "
+                            + SupplierStatsEntry._ID + ", "
+                            + SupplierEntry.TABLE_NAME + "." + SupplierEntry.COLUMN_SUPPLIER_NAME + " AS "
+                            + SupplierStatsEntry.COLUMN_SUPPLIER_NAME + ", "
+                            + SupplierStatsEntry.COLUMN_PRODUCT_COUNT + ", " + SupplierStatsEntry.COLUMN_TOTAL_UNITS
+                            + ", " + SupplierStatsEntry.COLUMN_STOCK_VALUE
+                            + " FROM " + SupplierStatsEntry.TABLE_NAME + " JOIN " + SupplierEntry.TABLE_NAME + " ON "
+                            + SupplierEntry.TABLE_NAME + "." + SupplierEntry._ID + " = "
+                            + SupplierStatsEntry.TABLE_NAME + "." + SupplierStatsEntry._ID
+            },
+            // Version 9: change log for synchronization with the inventory server. Products get
+            // an id that is the same everywhere, and triggers log every change that didn't come
+            // from the server. The existing products are logged as inserts, so the first sync
+            // sends the whole catalog and later ones only what changed since.
+            {
+                    "ALTER TABLE " + ProductEntry.TABLE_NAME + " ADD COLUMN " + ProductEntry.COLUMN_SYNC_ID + " TEXT",
+                    "UPDATE " + ProductEntry.TABLE_NAME + " SET " + ProductEntry.COLUMN_SYNC_ID + " = " + SQL_RANDOM_ID,
+                    "CREATE UNIQUE INDEX idx_" + ProductEntry.TABLE_NAME + "_sync_id ON "
+                            + ProductEntry.TABLE_NAME + " (" + ProductEntry.COLUMN_SYNC_ID + ")",
+                    "CREATE TABLE " + SyncEntry.STATE_TABLE_NAME + " ("
+                            + SyncEntry._ID + " INTEGER PRIMARY KEY CHECK (" + SyncEntry._ID + " = 1), "
+                            + SyncEntry.COLUMN_DEVICE_ID + " TEXT NOT NULL, "
+                            + SyncEntry.COLUMN_SERVER_CURSOR + " INTEGER NOT NULL DEFAULT 0, "
+                            + SyncEntry.COLUMN_APPLYING + " INTEGER NOT NULL DEFAULT 0)",
+                    "INSERT INTO " + SyncEntry.STATE_TABLE_NAME + " (" + SyncEntry._ID + ", "
+                            + SyncEntry.COLUMN_DEVICE_ID + ") VALUES (1, " + SQL_RANDOM_ID + ")",
+                    "CREATE TABLE " + SyncEntry.TABLE_NAME + " ("
+                            + SyncEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT, "
+                            + SyncEntry.COLUMN_SYNC_ID + " TEXT NOT NULL, "
+                            + SyncEntry.COLUMN_OPERATION + " INTEGER NOT NULL, "
+                            + SyncEntry.COLUMN_QUANTITY_DELTA + " INTEGER NOT NULL DEFAULT 0)",
+                    // Also ordered by log id, as SQLite appends the row id to every index
+                    "CREATE INDEX idx_" + SyncEntry.TABLE_NAME + "_sync_id ON "
+                            + SyncEntry.TABLE_NAME + " (" + SyncEntry.COLUMN_SYNC_ID + ")",
+                    "INSERT INTO " + SyncEntry.TABLE_NAME + " (" + SyncEntry.COLUMN_SYNC_ID + ", "
+                            + SyncEntry.COLUMN_OPERATION + ", " + SyncEntry.COLUMN_QUANTITY_DELTA + ") SELECT "
+                            + ProductEntry.COLUMN_SYNC_ID + ", " + SyncEntry.OPERATION_INSERT + ", "
+                            + ProductEntry.COLUMN_QUANTITY + " FROM " + ProductEntry.TABLE_NAME
+                            + " ORDER BY " + ProductEntry._ID,
+                    // One trigger gives a new product its sync id and then logs it, since SQLite
+                    // doesn't promise an order between triggers. Products from the server come
+                    // with their id. The update of the sync id fires no other trigger, they all
+                    // name their columns.
+                    "CREATE TRIGGER " + ProductEntry.TABLE_NAME + "_sync_insert AFTER INSERT ON "
+                            + ProductEntry.TABLE_NAME + " BEGIN"
+                            + " UPDATE " + ProductEntry.TABLE_NAME + " SET " + ProductEntry.COLUMN_SYNC_ID
+                            + " = " + SQL_RANDOM_ID + " WHERE " + ProductEntry._ID + " = NEW." + ProductEntry._ID
+                            + " AND NEW." + ProductEntry.COLUMN_SYNC_ID + " IS NULL;"
+                            + " INSERT INTO " + SyncEntry.TABLE_NAME + " (" + SyncEntry.COLUMN_SYNC_ID + ", "
+                            + SyncEntry.COLUMN_OPERATION + ", " + SyncEntry.COLUMN_QUANTITY_DELTA + ") SELECT "
+                            + ProductEntry.COLUMN_SYNC_ID + ", " + SyncEntry.OPERATION_INSERT + ", NEW."
+                            + ProductEntry.COLUMN_QUANTITY + " FROM " + ProductEntry.TABLE_NAME + " WHERE "
+                            + ProductEntry._ID + " = NEW." + ProductEntry._ID + " AND " + SQL_NOT_APPLYING_SYNC
+                            + "; END",
+                    // Only logged if a value really changed, saving an editor's unchanged save
+                    "CREATE TRIGGER " + ProductEntry.TABLE_NAME + "_sync_update AFTER UPDATE OF "
+                            + TextUtils.join(", ", SYNCED_COLUMNS) + " ON " + ProductEntry.TABLE_NAME
+                            + " WHEN " + SQL_NOT_APPLYING_SYNC + " AND (" + changed(SYNCED_COLUMNS) + ") BEGIN"
+                            + logChange("NEW", SyncEntry.OPERATION_UPDATE, "NEW." + ProductEntry.COLUMN_QUANTITY
+                            + " - OLD." + ProductEntry.COLUMN_QUANTITY) + " END",
+                    "CREATE TRIGGER " + ProductEntry.TABLE_NAME + "_sync_delete AFTER DELETE ON "
+                            + ProductEntry.TABLE_NAME + " WHEN " + SQL_NOT_APPLYING_SYNC + " BEGIN"
+                            + logChange("OLD", SyncEntry.OPERATION_DELETE, "-OLD." + ProductEntry.COLUMN_QUANTITY)
+                            + " END",
+                    // The server gets the supplier with every product, so a supplier change is a
+                    // change of each of its products
+                    "CREATE TRIGGER " + SupplierEntry.TABLE_NAME + "_sync_update AFTER UPDATE OF "
+                            + SupplierEntry.COLUMN_SUPPLIER_NAME + ", " + SupplierEntry.COLUMN_SUPPLIER_PHONE
+                            + " ON " + SupplierEntry.TABLE_NAME + " WHEN " + SQL_NOT_APPLYING_SYNC + " AND ("
+                            + changed(new String[]{SupplierEntry.COLUMN_SUPPLIER_NAME, SupplierEntry.COLUMN_SUPPLIER_PHONE})
+                            + ") BEGIN"
+                            + " INSERT INTO " + SyncEntry.TABLE_NAME + " (" + SyncEntry.COLUMN_SYNC_ID + ", "
+                            + SyncEntry.COLUMN_OPERATION + ") SELECT " + ProductEntry.COLUMN_SYNC_ID + ", "
+                            + SyncEntry.OPERATION_UPDATE + " FROM " + ProductEntry.TABLE_NAME + " WHERE "
+                            + ProductEntry.COLUMN_SUPPLIER_ID + " = NEW." + SupplierEntry._ID + "; END",
+                    "DROP VIEW " + ProductEntry.VIEW_NAME,
+                    "CREATE VIEW " + ProductEntry.VIEW_NAME + " AS SELECT "
+                            + ProductEntry.TABLE_NAME + "." + ProductEntry._ID + " AS " + ProductEntry._ID + ", "
+                            + ProductEntry.COLUMN_PRODUCT_NAME + ", " + ProductEntry.COLUMN_PRICE + ", "
+                            + ProductEntry.COLUMN_QUANTITY + ", " + ProductEntry.COLUMN_SUPPLIER_ID + ", "
+                            + SupplierEntry.TABLE_NAME + "." + SupplierEntry.COLUMN_SUPPLIER_NAME + " AS "
+                            + ProductEntry.COLUMN_SUPPLIER_NAME + ", "
+                            + SupplierEntry.TABLE_NAME + "." + SupplierEntry.COLUMN_SUPPLIER_PHONE + " AS "
+                            + ProductEntry.COLUMN_SUPPLIER_PHONE + ", "
+                            + ProductEntry.COLUMN_REORDER_LEVEL + ", " + ProductEntry.COLUMN_LAST_MODIFIED + ", "
+                            + ProductEntry.COLUMN_SYNC_ID
+                            + " FROM " + ProductEntry.TABLE_NAME + " JOIN " + SupplierEntry.TABLE_NAME + " ON "
+                            + SupplierEntry.TABLE_NAME + "." + SupplierEntry._ID + " = "
+                            + ProductEntry.TABLE_NAME + "." + ProductEntry.COLUMN_SUPPLIER_ID
+            },
+            // Version 10: append-only ledger of stock movements, written by triggers for every
+            // change of a quantity, and snapshots of the stock that the compaction adds to.
+            // The current stock of the existing products is their first snapshot.
+            {
+                    "CREATE TABLE " + MovementEntry.TABLE_NAME + " ("
+                            + MovementEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT, "
+                            + MovementEntry.COLUMN_PRODUCT_ID + " INTEGER NOT NULL, "
+                            + MovementEntry.COLUMN_MOVEMENT_TYPE + " INTEGER NOT NULL, "
+                            + MovementEntry.COLUMN_QUANTITY_DELTA + " INTEGER NOT NULL, "
+                            + MovementEntry.COLUMN_CREATED + " INTEGER NOT NULL)",
+                    // Covers the sum of a product's movements over a time range
+                    "CREATE INDEX idx_" + MovementEntry.TABLE_NAME + "_product ON " + MovementEntry.TABLE_NAME
+                            + " (" + MovementEntry.COLUMN_PRODUCT_ID + ", " + MovementEntry.COLUMN_CREATED + ", "
+                            + MovementEntry.COLUMN_QUANTITY_DELTA + ")",
+                    // Without row ids the table is its own index for the last snapshot before a time
+                    "CREATE TABLE " + MovementEntry.SNAPSHOTS_TABLE_NAME + " ("
+                            + MovementEntry.COLUMN_PRODUCT_ID + " INTEGER NOT NULL, "
+                            + MovementEntry.COLUMN_CREATED + " INTEGER NOT NULL, "
+                            + MovementEntry.COLUMN_MOVEMENT_ID + " INTEGER NOT NULL, "
+                            + MovementEntry.COLUMN_QUANTITY + " INTEGER NOT NULL, "
+                            + "PRIMARY KEY (" + MovementEntry.COLUMN_PRODUCT_ID + ", " + MovementEntry.COLUMN_CREATED
+                            + ", " + MovementEntry.COLUMN_MOVEMENT_ID + ")) WITHOUT ROWID",
+                    "CREATE INDEX idx_" + MovementEntry.SNAPSHOTS_TABLE_NAME + "_created ON "
+                            + MovementEntry.SNAPSHOTS_TABLE_NAME + " (" + MovementEntry.COLUMN_CREATED + ", "
+                            + MovementEntry.COLUMN_MOVEMENT_ID + ")",
+                    "CREATE TABLE " + MovementEntry.STATE_TABLE_NAME + " ("
+                            + MovementEntry._ID + " INTEGER PRIMARY KEY CHECK (" + MovementEntry._ID + " = 1), "
+                            + MovementEntry.COLUMN_CURRENT_TYPE + " INTEGER, "
+                            + MovementEntry.COLUMN_SNAPSHOT_THROUGH + " INTEGER NOT NULL DEFAULT 0)",
+                    "INSERT INTO " + MovementEntry.STATE_TABLE_NAME + " (" + MovementEntry._ID + ") VALUES (1)",
+                    // Time 0: the history before the ledger is unknown, this is the opening stock
+                    "INSERT INTO " + MovementEntry.SNAPSHOTS_TABLE_NAME + " (" + MovementEntry.COLUMN_PRODUCT_ID
+                            + ", " + MovementEntry.COLUMN_CREATED + ", " + MovementEntry.COLUMN_MOVEMENT_ID + ", "
+                            + MovementEntry.COLUMN_QUANTITY + ") SELECT " + ProductEntry._ID + ", 0, 0, "
+                            + ProductEntry.COLUMN_QUANTITY + " FROM " + ProductEntry.TABLE_NAME,
+                    "CREATE TRIGGER " + ProductEntry.TABLE_NAME + "_movement_insert AFTER INSERT ON "
+                            + ProductEntry.TABLE_NAME + " WHEN NEW." + ProductEntry.COLUMN_QUANTITY + " <> 0 BEGIN"
+                            + recordMovement("NEW", MovementEntry.TYPE_RECEIPT, "NEW." + ProductEntry.COLUMN_QUANTITY)
+                            + " END",
+                    "CREATE TRIGGER " + ProductEntry.TABLE_NAME + "_movement_update AFTER UPDATE OF "
+                            + ProductEntry.COLUMN_QUANTITY + " ON " + ProductEntry.TABLE_NAME + " WHEN NEW."
+                            + ProductEntry.COLUMN_QUANTITY + " <> OLD." + ProductEntry.COLUMN_QUANTITY + " BEGIN"
+                            + recordMovement("NEW", MovementEntry.TYPE_ADJUSTMENT, "NEW." + ProductEntry.COLUMN_QUANTITY
+                            + " - OLD." + ProductEntry.COLUMN_QUANTITY) + " END",
+                    // The stock of a deleted product is gone, so its ledger ends at 0
+                    "CREATE TRIGGER " + ProductEntry.TABLE_NAME + "_movement_delete AFTER DELETE ON "
+                            + ProductEntry.TABLE_NAME + " WHEN OLD." + ProductEntry.COLUMN_QUANTITY + " <> 0 BEGIN"
+                            + recordMovement("OLD", MovementEntry.TYPE_ADJUSTMENT, "-OLD." + ProductEntry.COLUMN_QUANTITY)
+                            + " END"
+            },
+            // Version 11: ids of deleted products, so incremental exports include the deletes.
+            // Deletes from the server are recorded too, they are gone here all the same. A
+            // product inserted with the id of a deleted one is no longer deleted.
+            {
+                    "CREATE TABLE " + ProductEntry.DELETED_TABLE_NAME + " ("
+                            + ProductEntry._ID + " INTEGER PRIMARY KEY, "
+                            + ProductEntry.COLUMN_LAST_MODIFIED + " INTEGER NOT NULL)",
+                    // Also ordered by id, the key of an incremental export
+                    "CREATE INDEX idx_" + ProductEntry.DELETED_TABLE_NAME + "_last_modified ON "
+                            + ProductEntry.DELETED_TABLE_NAME + " (" + ProductEntry.COLUMN_LAST_MODIFIED + ")",
+                    "CREATE TRIGGER " + ProductEntry.TABLE_NAME + "_deleted AFTER DELETE ON "
+                            + ProductEntry.TABLE_NAME + " BEGIN"
+                            + " INSERT OR REPLACE INTO " + ProductEntry.DELETED_TABLE_NAME + " ("
+                            + ProductEntry._ID + ", " + ProductEntry.COLUMN_LAST_MODIFIED + ") VALUES (OLD."
+                            + ProductEntry._ID + ", " + SQL_NOW_MILLIS + "); END",
+                    "CREATE TRIGGER " + ProductEntry.TABLE_NAME + "_undeleted AFTER INSERT ON "
+                            + ProductEntry.TABLE_NAME + " BEGIN"
+                            + " DELETE FROM " + ProductEntry.DELETED_TABLE_NAME + " WHERE "
+                            + ProductEntry._ID + " = NEW." + ProductEntry._ID + "; END"
+            },
+            // Version 12: the log entries of a sync request that hasn't been answered, so that
+            // it can be repeated exactly and the server can recognize it
+            {
+                    "ALTER TABLE " + SyncEntry.STATE_TABLE_NAME + " ADD COLUMN " + SyncEntry.COLUMN_SENT_THROUGH
+                            + " INTEGER NOT NULL DEFAULT 0"
+            },
+            // Version 13: a supplier's new name or phone number shows in each of its products,
+            // so it stamps them like a change of their own, for incremental exports
+            {
+                    "CREATE TRIGGER " + SupplierEntry.TABLE_NAME + "_stamp_update AFTER UPDATE OF "
+                            + SupplierEntry.COLUMN_SUPPLIER_NAME + ", " + SupplierEntry.COLUMN_SUPPLIER_PHONE
+                            + " ON " + SupplierEntry.TABLE_NAME + " WHEN "
+                            + changed(new String[]{SupplierEntry.COLUMN_SUPPLIER_NAME, SupplierEntry.COLUMN_SUPPLIER_PHONE})
+                            + " BEGIN"
+                            + " UPDATE " + ProductEntry.TABLE_NAME + " SET "
+                            + ProductEntry.COLUMN_LAST_MODIFIED + " = " + SQL_NOW_MILLIS
+                            + " WHERE " + ProductEntry.COLUMN_SUPPLIER_ID + " = NEW." + SupplierEntry._ID + "; END"
+            }
+    };
+
+    static final int DATABASE_VERSION = 1 + MIGRATIONS.length;
+
+    /**
+     * Return the low stock condition for the row with the given trigger prefix, NEW or OLD.
+     */
+    private static String lowStock(String row) {
+        return row + "." + ProductEntry.COLUMN_QUANTITY + " <= " + row + "." + ProductEntry.COLUMN_REORDER_LEVEL;
+    }
+
+    /**
+     * Return the stock value of the row with the given trigger prefix.
+     */
+    private static String stockValue(String row) {
+        return "(" + row + "." + ProductEntry.COLUMN_PRICE + " * " + row + "." + ProductEntry.COLUMN_QUANTITY + ")";
+    }
+
+    /**
+     * Return the assignments that add the row to (sign "+") or take it away from (sign "-") the
+     * product count, units and stock value of a statistics table.
+     */
+    private static String addTotals(String sign, String row) {
+        return StatsEntry.COLUMN_PRODUCT_COUNT + " = " + StatsEntry.COLUMN_PRODUCT_COUNT + " " + sign + " 1, "
+                + StatsEntry.COLUMN_TOTAL_UNITS + " = " + StatsEntry.COLUMN_TOTAL_UNITS + " " + sign + " "
+                + row + "." + ProductEntry.COLUMN_QUANTITY + ", "
+                + StatsEntry.COLUMN_STOCK_VALUE + " = " + StatsEntry.COLUMN_STOCK_VALUE + " " + sign + " "
+                + stockValue(row);
+    }
+
+    /**
+     * Return the trigger statements that add the row to or take it away from the totals of its
+     * supplier. A supplier's row is created the first time a product is added to it.
+     *
+     * @param key column of the totals and column of the product that identify the supplier
+     */
+    private static String addSupplierTotals(String sign, String row, String[] key) {
+        String supplier = row + "." + key[1];
+        String statements = "";
+        if (sign.equals("+")) {
+            statements = " INSERT OR IGNORE INTO " + SupplierStatsEntry.TABLE_NAME + " ("
+                    + key[0] + ") VALUES (" + supplier + ");";
+        }
+        return statements + " UPDATE " + SupplierStatsEntry.TABLE_NAME + " SET " + addTotals(sign, row)
+                + " WHERE " + key[0] + " = " + supplier + ";";
+    }
+
+    /**
+     * Return the trigger statement that deletes the row's supplier totals if it has no products
+     * left.
+     */
+    private static String dropEmptySupplier(String row, String[] key) {
+        return " DELETE FROM " + SupplierStatsEntry.TABLE_NAME + " WHERE "
+                + key[0] + " = " + row + "." + key[1]
+                + " AND " + SupplierStatsEntry.COLUMN_PRODUCT_COUNT + " = 0;";
+    }
+
+    /**
+     * Return the name of the supplier of the row with the given trigger prefix.
+     */
+    private static String supplierName(String row) {
+        return "(SELECT " + SupplierEntry.COLUMN_SUPPLIER_NAME + " FROM " + SupplierEntry.TABLE_NAME
+                + " WHERE " + SupplierEntry._ID + " = " + row + "." + ProductEntry.COLUMN_SUPPLIER_ID + ")";
+    }
+
+    /**
+     * Return the condition that is true if any of the given columns differs between the NEW and
+     * OLD rows of a trigger.
+     */
+    private static String changed(String[] columns) {
+        StringBuilder condition = new StringBuilder();
+        for (String column : columns) {
+            if (condition.length() > 0) {
+                condition.append(" OR ");
+            }
+            condition.append("NEW.").append(column).append(" IS NOT OLD.").append(column);
+        }
+        return condition.toString();
+    }
+
+    /**
+     * Return the trigger statement that logs an operation on the row with the given prefix.
+     */
+    private static String logChange(String row, int operation, String quantityDelta) {
+        return " INSERT INTO " + SyncEntry.TABLE_NAME + " (" + SyncEntry.COLUMN_SYNC_ID + ", "
+                + SyncEntry.COLUMN_OPERATION + ", " + SyncEntry.COLUMN_QUANTITY_DELTA + ") VALUES ("
+                + row + "." + ProductEntry.COLUMN_SYNC_ID + ", " + operation + ", " + quantityDelta + ");";
+    }
+
+    /**
+     * Return the trigger statement that records a stock movement of the row with the given
+     * prefix, of the type set in the ledger state or else the given default type.
+     */
+    private static String recordMovement(String row, int defaultType, String quantityDelta) {
+        return " INSERT INTO " + MovementEntry.TABLE_NAME + " (" + MovementEntry.COLUMN_PRODUCT_ID + ", "
+                + MovementEntry.COLUMN_MOVEMENT_TYPE + ", " + MovementEntry.COLUMN_QUANTITY_DELTA + ", "
+                + MovementEntry.COLUMN_CREATED + ") VALUES (" + row + "." + ProductEntry._ID + ", IFNULL((SELECT "
+                + MovementEntry.COLUMN_CURRENT_TYPE + " FROM " + MovementEntry.STATE_TABLE_NAME + "), "
+                + defaultType + "), " + quantityDelta + ", " + SQL_MOVEMENT_TIME + ");";
+    }
+
+    /** Page size for new databases. It can't be changed once a database is in WAL mode. */
+    private static final int PAGE_SIZE_BYTES = 4096;
+    /** Page cache of the write connection, in KiB (negative values are KiB for SQLite). */
+    private static final int CACHE_SIZE_KIB = 8 * 1024;
+    /** How much of the database file the write connection may memory map. */
+    private static final long MMAP_SIZE_BYTES = 32L * 1024 * 1024;
 
     public ProductDbHelper(Context context) {
-        super(context, DATABASE_NAME, null, DATABASE_VERSION);
+        this(context, DATABASE_NAME);
+    }
+
+    /**
+     * Open the database with the given name instead of the app's, for tests.
+     */
+    ProductDbHelper(Context context, String name) {
+        super(context, name, null, DATABASE_VERSION);
+    }
+
+    /**
+     * Configure the connection before the schema is created or upgraded.
+     * With write-ahead logging, Android keeps a pool of read-only connections next to the one
+     * write connection: queries that don't run inside a transaction use a reader and never wait
+     * for a write to finish, while writes only block each other.
+     */
+    @Override
+    public void onConfigure(SQLiteDatabase db) {
+        super.onConfigure(db);
+        // Has to come before WAL is turned on, afterwards SQLite ignores it
+        setPragma(db, "page_size = " + PAGE_SIZE_BYTES);
+        db.enableWriteAheadLogging();
+        // In WAL mode NORMAL can only lose the last commits on power loss, never corrupt the
+        // database, and saves an fsync on every commit
+        setPragma(db, "synchronous = NORMAL");
+        setPragma(db, "cache_size = -" + CACHE_SIZE_KIB);
+        setPragma(db, "mmap_size = " + MMAP_SIZE_BYTES);
+        // Off by default in SQLite, needed for the products' references to their suppliers
+        db.setForeignKeyConstraintsEnabled(true);
+    }
+
+    /**
+     * Run a PRAGMA statement. Some PRAGMAs answer with their new value as a row, which
+     * execSQL doesn't accept, so they all go through rawQuery.
+     */
+    private static void setPragma(SQLiteDatabase db, String pragma) {
+        Cursor cursor = db.rawQuery("PRAGMA " + pragma, null);
+        try {
+            cursor.moveToFirst();
+        } finally {
+            cursor.close();
+        }
     }
 
     @Override
@@ -31,12 +745,27 @@ public class ProductDbHelper extends SQLiteOpenHelper {
 
         sqLiteDatabase.execSQL(SQL_CREATE_PRODUCTS_TABLE);
 
-
+        // A new database starts at version 1 and goes through the same migrations as an
+        // upgraded one, so both always end up with exactly the same schema
+        migrate(sqLiteDatabase, 1, DATABASE_VERSION);
     }
 
     @Override
-    public void onUpgrade(SQLiteDatabase sqLiteDatabase, int i, int i1) {
-        // TODO: onUpgrade
+    public void onUpgrade(SQLiteDatabase sqLiteDatabase, int oldVersion, int newVersion) {
+        migrate(sqLiteDatabase, oldVersion, newVersion);
+    }
 
+    /**
+     * Run the migrations that take the database from one version to another.
+     * SQLiteOpenHelper calls onCreate and onUpgrade inside a transaction, so if any step fails
+     * the whole upgrade is rolled back and the database stays at its old version.
+     */
+    private static void migrate(SQLiteDatabase db, int fromVersion, int toVersion) {
+        for (int version = fromVersion; version < toVersion; version++) {
+            Log.v(LOG_TAG, "Migrating database from version " + version + " to " + (version + 1));
+            for (String sql : MIGRATIONS[version - 1]) {
+                db.execSQL(sql);
+            }
+        }
     }
 }
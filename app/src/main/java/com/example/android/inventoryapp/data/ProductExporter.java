@@ -0,0 +1,206 @@
+package com.example.android.inventoryapp.data;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import com.example.android.inventoryapp.data.ProductContract.ProductEntry;
+
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Writes the products table to a stream as CSV or JSON, for {@link ProductEntry#CONTENT_EXPORT_URI}.
+ * Rows are read in pages of a fixed size, each page starting right after the key of the last
+ * row written, and written as they come. Only one page is held at a time, so memory use
+ * doesn't depend on the size of the catalog.
+ */
+class ProductExporter {
+
+    /** Rows read per query. */
+    private static final int PAGE_SIZE = 1000;
+
+    /** Exported columns, in this order. */
+    private static final String[] COLUMNS = {
+            ProductEntry._ID,
+            ProductEntry.COLUMN_PRODUCT_NAME,
+            ProductEntry.COLUMN_PRICE,
+            ProductEntry.COLUMN_QUANTITY,
+            ProductEntry.COLUMN_SUPPLIER_NAME,
+            ProductEntry.COLUMN_SUPPLIER_PHONE,
+            ProductEntry.COLUMN_REORDER_LEVEL,
+            ProductEntry.COLUMN_LAST_MODIFIED
+    };
+    private static final int COLUMN_ID = 0;
+    private static final int COLUMN_LAST_MODIFIED = 7;
+
+    /** Whether each exported column is a number, otherwise it's text. */
+    private static final boolean[] NUMERIC = {true, false, true, true, false, false, true, true};
+
+    /** Columns read of a deleted product, at the same index as in the product rows. */
+    private static final String[] DELETED_COLUMNS = {ProductEntry._ID, ProductEntry.COLUMN_LAST_MODIFIED};
+    private static final int DELETED_COLUMN_LAST_MODIFIED = 1;
+
+    private final SQLiteDatabase mDatabase;
+    private final boolean mJson;
+    private final long mSince;
+
+    /**
+     * @param json        write JSON instead of CSV
+     * @param sinceMillis only export products modified at or after this time, 0 for all
+     */
+    ProductExporter(SQLiteDatabase database, boolean json, long sinceMillis) {
+        mDatabase = database;
+        mJson = json;
+        mSince = sinceMillis;
+    }
+
+    /**
+     * Write all exported products. A full export is in id order. An incremental export is in
+     * order of modification, so a product changed while the export runs may be written twice,
+     * the later copy being the current one; products changed before the export started are
+     * never missed. The products deleted since are written after the others, in order of
+     * deletion, with {@link ProductEntry#COLUMN_DELETED} set.
+     */
+    void writeTo(Writer out) throws IOException {
+        writeHeader(out);
+        boolean first = writePages(out, false, true);
+        if (mSince > 0) {
+            writePages(out, true, first);
+        }
+        writeFooter(out);
+        out.flush();
+    }
+
+    /**
+     * Write the products, or the deleted ones, page by page in the order of the export. Return
+     * whether no row has been written yet.
+     */
+    private boolean writePages(Writer out, boolean deleted, boolean first) throws IOException {
+        String table = deleted ? ProductEntry.DELETED_TABLE_NAME : ProductEntry.VIEW_NAME;
+        String[] columns = deleted ? DELETED_COLUMNS : COLUMNS;
+        int lastModifiedColumn = deleted ? DELETED_COLUMN_LAST_MODIFIED : COLUMN_LAST_MODIFIED;
+        long lastId = 0;
+        long lastModified = mSince;
+        boolean firstPage = true;
+        while (true) {
+            Cursor cursor = queryPage(table, columns, lastId, lastModified, firstPage);
+            int rows;
+            try {
+                rows = cursor.getCount();
+                while (cursor.moveToNext()) {
+                    lastId = cursor.getLong(COLUMN_ID);
+                    lastModified = cursor.getLong(lastModifiedColumn);
+                    if (deleted) {
+                        writeDeleted(out, lastId, lastModified, first);
+                    } else {
+                        writeRow(out, cursor, first);
+                    }
+                    first = false;
+                }
+            } finally {
+                cursor.close();
+            }
+            if (rows < PAGE_SIZE) {
+                return first;
+            }
+            firstPage = false;
+        }
+    }
+
+    /**
+     * Query the next page of the given table after the given key.
+     */
+    private Cursor queryPage(String table, String[] columns, long lastId, long lastModified, boolean firstPage) {
+        String limit = String.valueOf(PAGE_SIZE);
+        if (mSince <= 0) {
+            return mDatabase.query(table, columns, ProductEntry._ID + ">?",
+                    new String[]{String.valueOf(lastId)}, null, null, ProductEntry._ID + " ASC", limit);
+        }
+        String orderBy = ProductEntry.COLUMN_LAST_MODIFIED + " ASC, " + ProductEntry._ID + " ASC";
+        if (firstPage) {
+            return mDatabase.query(table, columns, ProductEntry.COLUMN_LAST_MODIFIED + ">=?",
+                    new String[]{String.valueOf(mSince)}, null, null, orderBy, limit);
+        }
+        String modified = String.valueOf(lastModified);
+        return mDatabase.query(table, columns,
+                ProductEntry.COLUMN_LAST_MODIFIED + ">? OR (" + ProductEntry.COLUMN_LAST_MODIFIED + "=? AND "
+                        + ProductEntry._ID + ">?)",
+                new String[]{modified, modified, String.valueOf(lastId)}, null, null, orderBy, limit);
+    }
+
+    private void writeHeader(Writer out) throws IOException {
+        if (mJson) {
+            out.write('[');
+            return;
+        }
+        for (int i = 0; i < COLUMNS.length; i++) {
+            if (i > 0) {
+                out.write(',');
+            }
+            out.write(COLUMNS[i]);
+        }
+        if (mSince > 0) {
+            out.write(',');
+            out.write(ProductEntry.COLUMN_DELETED);
+        }
+        out.write('\n');
+    }
+
+    private void writeFooter(Writer out) throws IOException {
+        if (mJson) {
+            out.write("]\n");
+        }
+    }
+
+    private void writeRow(Writer out, Cursor cursor, boolean firstRow) throws IOException {
+        if (mJson) {
+            out.write(firstRow ? "\n{" : ",\n{");
+        }
+        for (int i = 0; i < COLUMNS.length; i++) {
+            if (i > 0) {
+                out.write(',');
+            }
+            if (mJson) {
+                out.write('"');
+                out.write(COLUMNS[i]);
+                out.write("\":");
+            }
+            if (cursor.isNull(i)) {
+                if (mJson) {
+                    out.write("null");
+                }
+            } else if (NUMERIC[i]) {
+                out.write(Long.toString(cursor.getLong(i)));
+            } else if (mJson) {
+                out.write(JSONObject.quote(cursor.getString(i)));
+            } else {
+                ProductCsv.writeField(out, cursor.getString(i));
+            }
+        }
+        if (mSince > 0) {
+            out.write(mJson ? ",\"" + ProductEntry.COLUMN_DELETED + "\":false" : ",0");
+        }
+        out.write(mJson ? "}" : "\n");
+    }
+
+    /**
+     * Write the row of a deleted product: its id and time of deletion, the other columns empty
+     * in CSV and left out in JSON.
+     */
+    private void writeDeleted(Writer out, long id, long deletedMillis, boolean firstRow) throws IOException {
+        if (mJson) {
+            out.write(firstRow ? "\n{" : ",\n{");
+            out.write("\"" + ProductEntry._ID + "\":" + id + ",\"" + ProductEntry.COLUMN_LAST_MODIFIED + "\":"
+                    + deletedMillis + ",\"" + ProductEntry.COLUMN_DELETED + "\":true}");
+            return;
+        }
+        out.write(Long.toString(id));
+        for (int i = 1; i <= COLUMN_LAST_MODIFIED; i++) {
+            out.write(',');
+        }
+        out.write(Long.toString(deletedMillis));
+        out.write(",1\n");
+    }
+}
@@ -0,0 +1,208 @@
+package com.example.android.inventoryapp.data;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.net.Uri;
+import android.os.Bundle;
+import android.util.Log;
+
+import com.example.android.inventoryapp.data.ProductContract.ProductEntry;
+
+import java.io.BufferedReader;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Imports a product catalog in CSV or TSV format (see {@link ProductCsv}) into the products
+ * table. The file is streamed record by record and written in chunks through
+ * {@link ProductEntry#METHOD_BULK_INSERT}, so the provider validates every row exactly like a
+ * single insert, and memory use doesn't depend on the size of the file. Must not run on the
+ * main thread.
+ */
+public class ProductImporter {
+
+    private static final String LOG_TAG = ProductImporter.class.getSimpleName();
+
+    /** Rows written per transaction, unless another chunk size is given. */
+    public static final int DEFAULT_CHUNK_SIZE = 1000;
+
+    private static final int READ_BUFFER_SIZE = 64 * 1024;
+
+    /** Most rejected rows reported with their line and reason; the rest are only counted. */
+    private static final int MAX_REPORTED_REJECTIONS = 100;
+
+    /**
+     * Told about the progress of an import after every chunk.
+     */
+    public interface ProgressListener {
+        void onProgress(int rowsRead);
+    }
+
+    /**
+     * Outcome of an import: rows that became products, and rows that were rejected because they
+     * couldn't be parsed or didn't pass validation. The first {@link #MAX_REPORTED_REJECTIONS}
+     * rejected rows are in {@link #rejections}.
+     */
+    public static final class Result {
+        public final int imported;
+        public final int rejected;
+        public final List<Rejection> rejections;
+
+        Result(int imported, int rejected, List<Rejection> rejections) {
+            this.imported = imported;
+            this.rejected = rejected;
+            this.rejections = Collections.unmodifiableList(rejections);
+        }
+    }
+
+    /**
+     * A rejected row: the line of the file it ends on, and why it was rejected.
+     */
+    public static final class Rejection {
+        public final int line;
+        public final String reason;
+
+        Rejection(int line, String reason) {
+            this.line = line;
+            this.reason = reason;
+        }
+    }
+
+    private final ContentResolver mResolver;
+    private final int mChunkSize;
+
+    public ProductImporter(ContentResolver resolver) {
+        this(resolver, DEFAULT_CHUNK_SIZE);
+    }
+
+    /**
+     * Import with the given number of rows per transaction. Bigger chunks are faster, smaller
+     * ones hold the write lock for less time and report progress more often.
+     */
+    public ProductImporter(ContentResolver resolver, int chunkSize) {
+        if (chunkSize <= 0) {
+            throw new IllegalArgumentException("Invalid chunk size " + chunkSize);
+        }
+        mResolver = resolver;
+        mChunkSize = chunkSize;
+    }
+
+    /**
+     * Import all products of the file at the given URI.
+     */
+    public Result importFrom(Uri source, ProgressListener listener) throws IOException {
+        InputStream in = mResolver.openInputStream(source);
+        if (in == null) {
+            throw new FileNotFoundException("Can't open " + source);
+        }
+        BufferedReader reader = new BufferedReader(new InputStreamReader(in, "UTF-8"), READ_BUFFER_SIZE);
+        try {
+            ProductCsv.RecordReader records = new ProductCsv.RecordReader(reader, ProductCsv.detectDelimiter(reader));
+            ContentValues[] chunk = new ContentValues[mChunkSize];
+            // Line of each row of the chunk, to report the rows the provider rejects
+            int[] chunkLines = new int[mChunkSize];
+            int chunkLength = 0;
+            int rowsRead = 0;
+            int imported = 0;
+            List<Rejection> rejections = new ArrayList<>();
+
+            List<String> record = records.readRecord();
+            int[] columns = record == null ? null : ProductCsv.mapColumns(record);
+            if (columns == null) {
+                // No header, the first record is already a product
+                columns = ProductCsv.defaultColumns();
+            } else {
+                record = records.readRecord();
+            }
+
+            for (; record != null; record = records.readRecord()) {
+                rowsRead++;
+                int line = records.getLineNumber();
+                ContentValues values = toContentValues(record, columns);
+                if (values == null) {
+                    reject(rejections, line, "Invalid number");
+                    continue;
+                }
+                chunkLines[chunkLength] = line;
+                chunk[chunkLength++] = values;
+                if (chunkLength == mChunkSize) {
+                    imported += insert(chunk, chunkLines, rejections);
+                    chunkLength = 0;
+                    listener.onProgress(rowsRead);
+                }
+            }
+            if (chunkLength > 0) {
+                ContentValues[] lastChunk = new ContentValues[chunkLength];
+                System.arraycopy(chunk, 0, lastChunk, 0, chunkLength);
+                imported += insert(lastChunk, chunkLines, rejections);
+            }
+            listener.onProgress(rowsRead);
+
+            // Every row read was either imported or rejected
+            int rejected = rowsRead - imported;
+            Log.v(LOG_TAG, "Imported " + imported + " products from " + source + ", rejected " + rejected);
+            return new Result(imported, rejected, rejections);
+        } finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * Insert a chunk, and add the rows the provider rejected. Return the number of inserted rows.
+     */
+    private int insert(ContentValues[] chunk, int[] lines, List<Rejection> rejections) {
+        Bundle extras = new Bundle();
+        extras.putParcelableArray(ProductEntry.EXTRA_VALUES, chunk);
+        Bundle result = mResolver.call(ProductEntry.CONTENT_URI, ProductEntry.METHOD_BULK_INSERT, null, extras);
+        int[] rows = result.getIntArray(ProductEntry.EXTRA_REJECTED_ROWS);
+        String[] reasons = result.getStringArray(ProductEntry.EXTRA_REJECTED_REASONS);
+        for (int i = 0; i < rows.length; i++) {
+            reject(rejections, lines[rows[i]], reasons[i]);
+        }
+        return result.getInt(ProductEntry.EXTRA_ROW_COUNT);
+    }
+
+    /**
+     * Keep the line and reason of a rejected row, if not too many are kept already.
+     */
+    private static void reject(List<Rejection> rejections, int line, String reason) {
+        if (rejections.size() < MAX_REPORTED_REJECTIONS) {
+            rejections.add(new Rejection(line, reason));
+        }
+    }
+
+    /**
+     * Turn a record into product values. Missing fields are left out, so the provider rejects
+     * the row if they are required. Return null if a number can't be parsed.
+     */
+    private static ContentValues toContentValues(List<String> record, int[] columns) {
+        ContentValues values = new ContentValues(ProductCsv.COLUMNS.length);
+        for (int i = 0; i < ProductCsv.COLUMNS.length; i++) {
+            int field = columns[i];
+            if (field == -1 || field >= record.size()) {
+                continue;
+            }
+            String value = record.get(field).trim();
+            if (value.isEmpty()) {
+                continue;
+            }
+            String column = ProductCsv.COLUMNS[i];
+            if (column.equals(ProductEntry.COLUMN_PRICE) || column.equals(ProductEntry.COLUMN_QUANTITY)
+                    || column.equals(ProductEntry.COLUMN_REORDER_LEVEL)) {
+                try {
+                    values.put(column, Integer.parseInt(value));
+                } catch (NumberFormatException e) {
+                    return null;
+                }
+            } else {
+                values.put(column, value);
+            }
+        }
+        return values;
+    }
+}
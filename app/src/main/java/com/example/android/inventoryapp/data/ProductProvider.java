@@ -1,20 +1,53 @@
 package com.example.android.inventoryapp.data;
 
 import android.content.ContentProvider;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.ContentUris;
 import android.content.ContentValues;
+import android.content.OperationApplicationException;
 import android.content.UriMatcher;
 import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.SQLException;
+import android.database.sqlite.SQLiteConstraintException;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteDoneException;
+import android.database.sqlite.SQLiteStatement;
 import android.net.Uri;
+import android.os.Bundle;
+import android.os.CancellationSignal;
+import android.os.ParcelFileDescriptor;
+import android.os.Parcelable;
 import android.support.annotation.Nullable;
+import android.text.TextUtils;
 import android.util.Log;
 
 import com.example.android.inventoryapp.R;
+import com.example.android.inventoryapp.data.ProductContract.MovementEntry;
 import com.example.android.inventoryapp.data.ProductContract.ProductEntry;
+import com.example.android.inventoryapp.data.ProductContract.StatsEntry;
+import com.example.android.inventoryapp.data.ProductContract.SupplierEntry;
+import com.example.android.inventoryapp.data.ProductContract.SupplierStatsEntry;
+import com.example.android.inventoryapp.data.ProductContract.SyncEntry;
 
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.FileDescriptor;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
 
 /**
  * Created by wawr1 on 27.07.2018.
@@ -26,6 +59,41 @@ public class ProductProvider extends ContentProvider {
 
     private static final int PRODUCT_ID = 101;
 
+    private static final int PRODUCT_SEARCH = 102;
+
+    private static final int PRODUCT_EXPORT = 103;
+
+    private static final int PRODUCT_LOW_STOCK = 104;
+
+    private static final int STATS = 105;
+
+    private static final int SUPPLIER_STATS = 106;
+
+    private static final int SUPPLIERS = 107;
+
+    private static final int SUPPLIER_ID = 108;
+
+    /** Only ever notified, it has a code so its notifications are counted. */
+    private static final int PRODUCT_COLLECTION = 109;
+
+    /**
+     * The call methods. Their metrics are kept under codes of their own after the URI codes,
+     * in this order.
+     */
+    private static final String[] CALL_METHODS = {
+            ProductEntry.METHOD_BULK_INSERT, ProductEntry.METHOD_ADJUST_QUANTITY,
+            ProductEntry.METHOD_APPLY_QUANTITY_DELTAS, ProductEntry.METHOD_CACHE_STATS,
+            ProductEntry.METHOD_METRICS, StatsEntry.METHOD_REBUILD, SyncEntry.METHOD_COLLECT_CHANGES,
+            SyncEntry.METHOD_APPLY_CHANGES, MovementEntry.METHOD_STOCK_AT, MovementEntry.METHOD_COMPACT
+    };
+    private static final int FIRST_CALL_CODE = PRODUCT_COLLECTION + 1;
+
+    /** Names of the URI codes above, in order, as shown by the metrics. */
+    private static final String[] URI_CODE_NAMES = {
+            "books", "books/#", "books/search/*", "books/export", "books/low_stock", "stats",
+            "stats/suppliers", "suppliers", "suppliers/#", "books/collection"
+    };
+
     /**
      * UriMatcher object to match a content URI to a corresponding code.
      * The input passed into the constructor represents the code to return for the root URI.
@@ -40,10 +108,159 @@ public class ProductProvider extends ContentProvider {
         // when a match is found.
         sUriMatcher.addURI(ProductContract.CONTENT_AUTHORITY, ProductContract.PATH_PRODUCTS, PRODUCTS);
         sUriMatcher.addURI(ProductContract.CONTENT_AUTHORITY, ProductContract.PATH_PRODUCTS + "/#", PRODUCT_ID);
+        sUriMatcher.addURI(ProductContract.CONTENT_AUTHORITY,
+                ProductContract.PATH_PRODUCTS + "/" + ProductContract.PATH_SEARCH + "/*", PRODUCT_SEARCH);
+        sUriMatcher.addURI(ProductContract.CONTENT_AUTHORITY,
+                ProductContract.PATH_PRODUCTS + "/" + ProductContract.PATH_EXPORT, PRODUCT_EXPORT);
+        sUriMatcher.addURI(ProductContract.CONTENT_AUTHORITY,
+                ProductContract.PATH_PRODUCTS + "/" + ProductContract.PATH_LOW_STOCK, PRODUCT_LOW_STOCK);
+        sUriMatcher.addURI(ProductContract.CONTENT_AUTHORITY, ProductContract.PATH_STATS, STATS);
+        sUriMatcher.addURI(ProductContract.CONTENT_AUTHORITY,
+                ProductContract.PATH_STATS + "/" + ProductContract.PATH_SUPPLIERS, SUPPLIER_STATS);
+        sUriMatcher.addURI(ProductContract.CONTENT_AUTHORITY, ProductContract.PATH_SUPPLIERS, SUPPLIERS);
+        sUriMatcher.addURI(ProductContract.CONTENT_AUTHORITY, ProductContract.PATH_SUPPLIERS + "/#", SUPPLIER_ID);
+        sUriMatcher.addURI(ProductContract.CONTENT_AUTHORITY,
+                ProductContract.PATH_PRODUCTS + "/" + ProductContract.PATH_COLLECTION, PRODUCT_COLLECTION);
     }
 
+    /**
+     * Insert used by {@link #bulkInsert}. It is compiled once per batch and re-bound for every row,
+     * so SQLite doesn't have to parse the same statement for each product.
+     */
+    private static final String SQL_INSERT_PRODUCT = "INSERT INTO " + ProductEntry.TABLE_NAME + " ("
+            + ProductEntry.COLUMN_PRODUCT_NAME + ", "
+            + ProductEntry.COLUMN_PRICE + ", "
+            + ProductEntry.COLUMN_QUANTITY + ", "
+            + ProductEntry.COLUMN_SUPPLIER_ID + ", "
+            + ProductEntry.COLUMN_REORDER_LEVEL + ") VALUES (?, ?, ?, ?, ?)";
+
+    /**
+     * Selection of the products that are low on stock, for queries of the joined view. A view
+     * can't name an index, so the ids come from a subquery on the partial index: without
+     * statistics SQLite can't tell it holds only a few rows, and might scan the whole table in
+     * id order instead.
+     */
+    private static final String SQL_LOW_STOCK_SELECTION = ProductEntry._ID + " IN (SELECT "
+            + ProductEntry._ID + " FROM " + ProductEntry.TABLE_NAME + " INDEXED BY "
+            + ProductDbHelper.LOW_STOCK_INDEX_NAME + " WHERE " + ProductEntry.LOW_STOCK_SELECTION + ")";
+
+    /**
+     * Quantity change used by {@link ProductEntry#METHOD_ADJUST_QUANTITY} and
+     * {@link ProductEntry#METHOD_APPLY_QUANTITY_DELTAS}. The delta is applied and checked in the
+     * same statement, so concurrent sales can't overwrite each other or sell stock that isn't
+     * there.
+     */
+    private static final String SQL_ADJUST_QUANTITY = "UPDATE " + ProductEntry.TABLE_NAME
+            + " SET " + ProductEntry.COLUMN_QUANTITY + " = " + ProductEntry.COLUMN_QUANTITY + " + ?"
+            + " WHERE " + ProductEntry._ID + " = ?"
+            + " AND " + ProductEntry.COLUMN_QUANTITY + " + ? >= 0";
+
+    /**
+     * Buffered changes can't be refused any more, so where {@link #SQL_ADJUST_QUANTITY} refuses
+     * one the quantity stops at 0 with this instead.
+     */
+    private static final String SQL_CLEAR_QUANTITY = "UPDATE " + ProductEntry.TABLE_NAME
+            + " SET " + ProductEntry.COLUMN_QUANTITY + " = 0 WHERE " + ProductEntry._ID + " = ?"
+            + " AND " + ProductEntry.COLUMN_QUANTITY + " > 0";
+
+    private static final String SQL_INSERT_BATCH_TOKEN = "INSERT OR IGNORE INTO "
+            + ProductEntry.QUANTITY_BATCHES_TABLE_NAME + " (" + ProductEntry.COLUMN_BATCH_TOKEN + ", "
+            + ProductEntry.COLUMN_BATCH_APPLIED + ") VALUES (?, ?)";
+
+    /** How long the token of an applied quantity batch is remembered. */
+    private static final long BATCH_TOKEN_RETENTION_MS = 24L * 60 * 60 * 1000;
+
+    /**
+     * Most products a write notifies one by one. Past that, a single notification of all
+     * products is cheaper than one binder call per row, and lists would reload anyway.
+     */
+    private static final int MAX_ROW_NOTIFICATIONS = 100;
+
+    /**
+     * Most sets of compiled statements kept for reuse, about the number of binder threads that
+     * call at the same time. One more is compiled when needed, and closed after the call.
+     */
+    private static final int MAX_POOLED_STATEMENTS = 4;
+
+    private static final String SQL_SELECT_QUANTITY = "SELECT " + ProductEntry.COLUMN_QUANTITY
+            + " FROM " + ProductEntry.TABLE_NAME + " WHERE " + ProductEntry._ID + " = ?";
+
+    /** Product count, units, stock value and low stock count of the whole catalog, computed from scratch. */
+    private static final String SQL_TOTALS = "COUNT(*), IFNULL(SUM("
+            + ProductEntry.COLUMN_QUANTITY + "), 0), IFNULL(SUM(" + ProductEntry.COLUMN_PRICE + " * "
+            + ProductEntry.COLUMN_QUANTITY + "), 0), IFNULL(SUM(" + ProductEntry.LOW_STOCK_SELECTION + "), 0)"
+            + " FROM " + ProductEntry.TABLE_NAME;
+
+    private static final String SQL_SELECT_TOTALS = "SELECT " + SQL_TOTALS;
+
+    private static final String SQL_SELECT_STORED_TOTALS = "SELECT " + StatsEntry.COLUMN_PRODUCT_COUNT + ", "
+            + StatsEntry.COLUMN_TOTAL_UNITS + ", " + StatsEntry.COLUMN_STOCK_VALUE + ", "
+            + StatsEntry.COLUMN_LOW_STOCK_COUNT + " FROM " + StatsEntry.TABLE_NAME;
+
+    /** Totals of every supplier, computed from scratch. */
+    private static final String SQL_SELECT_SUPPLIER_TOTALS = "SELECT " + ProductEntry.COLUMN_SUPPLIER_ID
+            + ", COUNT(*), SUM(" + ProductEntry.COLUMN_QUANTITY + "), SUM(" + ProductEntry.COLUMN_PRICE + " * "
+            + ProductEntry.COLUMN_QUANTITY + ") FROM " + ProductEntry.TABLE_NAME
+            + " GROUP BY " + ProductEntry.COLUMN_SUPPLIER_ID;
+
+    private static final String SQL_SELECT_STORED_SUPPLIER_TOTALS = "SELECT "
+            + SupplierStatsEntry._ID + ", " + SupplierStatsEntry.COLUMN_PRODUCT_COUNT + ", "
+            + SupplierStatsEntry.COLUMN_TOTAL_UNITS + ", " + SupplierStatsEntry.COLUMN_STOCK_VALUE
+            + " FROM " + SupplierStatsEntry.TABLE_NAME;
+
+    /**
+     * Number of rows that differ between the stored and the computed totals, in either
+     * direction. 0 if the statistics are correct.
+     */
+    private static final String SQL_COUNT_STALE_TOTALS = "SELECT"
+            + " (SELECT COUNT(*) FROM (" + SQL_SELECT_TOTALS + " EXCEPT " + SQL_SELECT_STORED_TOTALS + "))"
+            + " + (SELECT COUNT(*) FROM (" + SQL_SELECT_SUPPLIER_TOTALS
+            + " EXCEPT " + SQL_SELECT_STORED_SUPPLIER_TOTALS + "))"
+            + " + (SELECT COUNT(*) FROM (" + SQL_SELECT_STORED_SUPPLIER_TOTALS
+            + " EXCEPT " + SQL_SELECT_SUPPLIER_TOTALS + "))";
+
+    /** Statements that replace all stored totals by computed ones. */
+    private static final String[] SQL_REBUILD_STATS = {
+            "INSERT OR REPLACE INTO " + StatsEntry.TABLE_NAME + " (" + StatsEntry._ID + ", "
+                    + StatsEntry.COLUMN_PRODUCT_COUNT + ", " + StatsEntry.COLUMN_TOTAL_UNITS + ", "
+                    + StatsEntry.COLUMN_STOCK_VALUE + ", " + StatsEntry.COLUMN_LOW_STOCK_COUNT + ") "
+                    + "SELECT 1, " + SQL_TOTALS,
+            "DELETE FROM " + SupplierStatsEntry.TABLE_NAME,
+            "INSERT INTO " + SupplierStatsEntry.TABLE_NAME + " (" + SupplierStatsEntry._ID + ", "
+                    + SupplierStatsEntry.COLUMN_PRODUCT_COUNT + ", " + SupplierStatsEntry.COLUMN_TOTAL_UNITS + ", "
+                    + SupplierStatsEntry.COLUMN_STOCK_VALUE + ") " + SQL_SELECT_SUPPLIER_TOTALS
+    };
+
+    /** Size of the buffer between the export and the pipe, in chars. */
+    private static final int EXPORT_BUFFER_SIZE = 64 * 1024;
+
+    /** Upper bound for the memory taken by cached products, in bytes. */
+    private static final int PRODUCT_CACHE_SIZE_BYTES = 512 * 1024;
+
     private ProductDbHelper mDbHelper;
 
+    /** Latencies and counts of everything the provider does, see {@link ProductEntry#METHOD_METRICS}. */
+    private final ProviderMetrics mMetrics = new ProviderMetrics(PRODUCTS, metricCodeNames());
+
+    /** Rows of recently queried single products, see {@link #queryProduct}. */
+    private final ProductCache mCache = new ProductCache(PRODUCT_CACHE_SIZE_BYTES);
+
+    /**
+     * Changes made by the {@link #applyBatch} running on the current thread. While a batch is in
+     * progress, change notifications and cache invalidations are collected here and carried out
+     * once the batch has committed.
+     */
+    private final ThreadLocal<PendingChanges> mPendingChanges = new ThreadLocal<>();
+
+    /** Compiled statements not in use, see {@link #acquireStatements}. Guarded by itself. */
+    private final ArrayDeque<ProductStatements> mStatementPool = new ArrayDeque<>();
+
+    private static class PendingChanges {
+        final Set<Uri> uris = new LinkedHashSet<>();
+        final Set<Long> productIds = new HashSet<>();
+        boolean allProducts;
+    }
+
     @Override
     public boolean onCreate() {
         mDbHelper = new ProductDbHelper(getContext());
@@ -54,11 +271,33 @@ public class ProductProvider extends ContentProvider {
     @Override
     public Cursor query(Uri uri, String[] projection, String selection, String[] selectionArgs,
                         String sortOrder) {
+        return query(uri, projection, selection, selectionArgs, sortOrder, null);
+    }
+
+    /**
+     * Query with a signal the caller can cancel the query with, for example because a newer
+     * change made its result stale. Lists are read through the signal, so a canceled query
+     * stops filling its window and throws an {@link android.os.OperationCanceledException}.
+     */
+    @Nullable
+    @Override
+    public Cursor query(Uri uri, String[] projection, String selection, String[] selectionArgs,
+                        String sortOrder, CancellationSignal cancellationSignal) {
+        long start = System.nanoTime();
+
         // Get readable database
         SQLiteDatabase database = mDbHelper.getReadableDatabase();
 
         // This cursor will hold the result of the query
         Cursor cursor;
+        // Rows returned, where they are known without reading the cursor
+        int rows = 0;
+
+        // The URI may limit the number of rows returned
+        String limit = uri.getQueryParameter(ProductEntry.QUERY_PARAMETER_LIMIT);
+        if (limit != null) {
+            limit = String.valueOf(parseLong(uri, limit));
+        }
 
         // Figure out if the URI matcher can match the URI to a specific code
         int match = sUriMatcher.match(uri);
@@ -67,8 +306,18 @@ public class ProductProvider extends ContentProvider {
                 // For the PETS code, query the products table directly with the given
                 // projection, selection, selection arguments, and sort order. The cursor
                 // could contain multiple rows of the products table.
-                cursor = database.query(ProductEntry.TABLE_NAME, projection, selection, selectionArgs,
-                        null, null, sortOrder);
+                //
+                // The URI may ask for a single page only: rows after a given id, and/or
+                // at most a given number of rows (see above).
+                String afterId = uri.getQueryParameter(ProductEntry.QUERY_PARAMETER_AFTER_ID);
+                if (afterId != null) {
+                    selection = DatabaseUtils.concatenateWhere(selection, ProductEntry._ID + ">?");
+                    selectionArgs = DatabaseUtils.appendSelectionArgs(selectionArgs,
+                            new String[]{String.valueOf(parseLong(uri, afterId))});
+                    sortOrder = ProductEntry._ID + " ASC";
+                }
+                cursor = database.query(false, ProductEntry.VIEW_NAME, projection, selection, selectionArgs,
+                        null, null, sortOrder, limit, cancellationSignal);
                 break;
             case PRODUCT_ID:
                 // For the PET_ID code, extract out the ID from the URI.
@@ -79,43 +328,256 @@ public class ProductProvider extends ContentProvider {
                 // For every "?" in the selection, we need to have an element in the selection
                 // arguments that will fill in the "?". Since we have 1 question mark in the
                 // selection, we have 1 String in the selection arguments' String array.
+                long id = ContentUris.parseId(uri);
+                if (ProductCache.canServe(projection)) {
+                    cursor = queryProduct(id, projection);
+                    // Already read, counting is free
+                    rows = cursor.getCount();
+                    break;
+                }
                 selection = ProductEntry._ID + "=?";
-                selectionArgs = new String[]{String.valueOf(ContentUris.parseId(uri))};
+                selectionArgs = new String[]{String.valueOf(id)};
 
                 // This will perform a query on the products table where the _id equals 3 to return a
                 // Cursor containing that row of the table.
-                cursor = database.query(ProductEntry.TABLE_NAME, projection, selection, selectionArgs,
+                cursor = database.query(ProductEntry.VIEW_NAME, projection, selection, selectionArgs,
+                        null, null, sortOrder);
+                break;
+            case PRODUCT_SEARCH:
+                cursor = searchProducts(database, uri.getLastPathSegment(), projection, selection,
+                        selectionArgs, sortOrder, limit, cancellationSignal);
+                // Search results change whenever any product does
+                uri = ProductEntry.CONTENT_COLLECTION_URI;
+                break;
+            case PRODUCT_LOW_STOCK:
+                selection = DatabaseUtils.concatenateWhere(selection, SQL_LOW_STOCK_SELECTION);
+                // Paged the same way as all products
+                String lowStockAfterId = uri.getQueryParameter(ProductEntry.QUERY_PARAMETER_AFTER_ID);
+                if (lowStockAfterId != null) {
+                    selection = DatabaseUtils.concatenateWhere(selection, ProductEntry._ID + ">?");
+                    selectionArgs = DatabaseUtils.appendSelectionArgs(selectionArgs,
+                            new String[]{String.valueOf(parseLong(uri, lowStockAfterId))});
+                    sortOrder = null;
+                }
+                if (sortOrder == null) {
+                    sortOrder = ProductEntry._ID + " ASC";
+                }
+                cursor = database.query(false, ProductEntry.VIEW_NAME, projection, selection, selectionArgs,
+                        null, null, sortOrder, limit, cancellationSignal);
+                // A product drops in or out of the list whenever its quantity changes
+                uri = ProductEntry.CONTENT_COLLECTION_URI;
+                break;
+            case STATS:
+                cursor = database.query(StatsEntry.TABLE_NAME, projection, selection, selectionArgs,
                         null, null, sortOrder);
+                // The statistics change with every product
+                uri = ProductEntry.CONTENT_COLLECTION_URI;
+                break;
+            case SUPPLIER_STATS:
+                if (sortOrder == null) {
+                    sortOrder = SupplierStatsEntry.COLUMN_SUPPLIER_NAME + " ASC";
+                }
+                cursor = database.query(false, SupplierStatsEntry.VIEW_NAME, projection, selection, selectionArgs,
+                        null, null, sortOrder, limit, cancellationSignal);
+                uri = ProductEntry.CONTENT_COLLECTION_URI;
+                break;
+            case SUPPLIERS:
+                if (sortOrder == null) {
+                    sortOrder = SupplierEntry.COLUMN_SUPPLIER_NAME + " ASC";
+                }
+                cursor = database.query(false, SupplierEntry.TABLE_NAME, projection, selection, selectionArgs,
+                        null, null, sortOrder, limit, cancellationSignal);
+                // Product writes may add suppliers, and notify this URI when they do
+                uri = SupplierEntry.CONTENT_URI;
+                break;
+            case SUPPLIER_ID:
+                cursor = database.query(SupplierEntry.TABLE_NAME, projection, SupplierEntry._ID + "=?",
+                        new String[]{String.valueOf(ContentUris.parseId(uri))}, null, null, sortOrder);
                 break;
             default:
                 throw new IllegalArgumentException("Cannot query unknown URI " + uri);
         }
         cursor.setNotificationUri(getContext().getContentResolver(), uri);
 
+        // A database cursor runs its query when it's first read, by the caller, so the time
+        // recorded covers preparing the statement only
+        mMetrics.record(ProviderMetrics.OP_QUERY, match, start, rows);
         return cursor;
     }
 
+    /**
+     * Query a single product through the cache. On a miss the complete row is read from the
+     * database and cached, so later queries for any of its columns are served from memory.
+     */
+    private Cursor queryProduct(long id, String[] projection) {
+        Object[] row = mCache.get(id);
+        if (row == null) {
+            long generation = mCache.generation();
+            ProductStatements statements = acquireStatements();
+            Cursor cursor;
+            try {
+                cursor = statements.queryProduct(id);
+            } finally {
+                releaseStatements(statements);
+            }
+            try {
+                if (cursor.moveToFirst()) {
+                    row = ProductCache.readRow(cursor);
+                    mCache.put(id, row, generation);
+                }
+            } finally {
+                cursor.close();
+            }
+        }
+        return ProductCache.toCursor(row, projection);
+    }
+
+    /**
+     * Query the products matching the search text through the full text index. Every word of
+     * the text is matched as a prefix of a word in the product or supplier name. Unless a sort
+     * order is given, products whose name starts with the first word come first.
+     */
+    private Cursor searchProducts(SQLiteDatabase database, String query, String[] projection,
+                                  String selection, String[] selectionArgs, String sortOrder,
+                                  String limit, CancellationSignal cancellationSignal) {
+        StringBuilder match = new StringBuilder();
+        String firstWord = null;
+        for (String word : query.trim().split("\\s+")) {
+            // Keep letters and digits only, anything else has a meaning in the MATCH syntax
+            StringBuilder token = new StringBuilder(word.length());
+            for (int i = 0; i < word.length(); i++) {
+                char c = word.charAt(i);
+                if (Character.isLetterOrDigit(c)) {
+                    token.append(c);
+                }
+            }
+            if (token.length() == 0) {
+                continue;
+            }
+            if (firstWord == null) {
+                firstWord = token.toString();
+            }
+            match.append(token).append("* ");
+        }
+
+        if (firstWord == null) {
+            // Nothing searchable in the text, so nothing matches
+            selection = DatabaseUtils.concatenateWhere(selection, "0");
+        } else {
+            selection = DatabaseUtils.concatenateWhere(selection, ProductEntry._ID + " IN (SELECT docid FROM "
+                    + ProductEntry.FTS_TABLE_NAME + " WHERE " + ProductEntry.FTS_TABLE_NAME + " MATCH ?)");
+            selectionArgs = DatabaseUtils.appendSelectionArgs(selectionArgs,
+                    new String[]{match.toString().trim()});
+            if (sortOrder == null) {
+                sortOrder = "(" + ProductEntry.COLUMN_PRODUCT_NAME + " LIKE "
+                        + DatabaseUtils.sqlEscapeString(firstWord + "%") + ") DESC, "
+                        + ProductEntry.COLUMN_PRODUCT_NAME;
+            }
+        }
+        return database.query(false, ProductEntry.VIEW_NAME, projection, selection, selectionArgs,
+                null, null, sortOrder, limit, cancellationSignal);
+    }
+
     @Nullable
     @Override
     public String getType(Uri uri) {
         final int match = sUriMatcher.match(uri);
         switch (match) {
             case PRODUCTS:
+            case PRODUCT_SEARCH:
+            case PRODUCT_LOW_STOCK:
                 return ProductEntry.CONTENT_LIST_TYPE;
+            case STATS:
+                return StatsEntry.CONTENT_ITEM_TYPE;
+            case SUPPLIER_STATS:
+                return SupplierStatsEntry.CONTENT_LIST_TYPE;
+            case SUPPLIERS:
+                return SupplierEntry.CONTENT_LIST_TYPE;
+            case SUPPLIER_ID:
+                return SupplierEntry.CONTENT_ITEM_TYPE;
             case PRODUCT_ID:
                 return ProductEntry.CONTENT_ITEM_TYPE;
+            case PRODUCT_EXPORT:
+                return isJsonExport(uri) ? ProductEntry.JSON_TYPE : ProductEntry.CSV_TYPE;
             default:
                 throw new IllegalStateException(getContext().getResources().getString(R.string.get_typ_error, uri, match));
         }
     }
 
+    /**
+     * Open the catalog export for reading. The export is written into a pipe by a background
+     * thread while the caller reads the other end, see {@link ProductExporter}.
+     */
+    @Override
+    public ParcelFileDescriptor openFile(Uri uri, String mode) throws FileNotFoundException {
+        if (sUriMatcher.match(uri) != PRODUCT_EXPORT) {
+            throw new FileNotFoundException("No file at " + uri);
+        }
+        if (!"r".equals(mode)) {
+            throw new FileNotFoundException("The export at " + uri + " is read only");
+        }
+        String since = uri.getQueryParameter(ProductEntry.QUERY_PARAMETER_SINCE);
+        ProductExporter exporter = new ProductExporter(mDbHelper.getReadableDatabase(),
+                isJsonExport(uri), since == null ? 0 : parseLong(uri, since));
+        return openPipeHelper(uri, getType(uri), null, exporter, new PipeDataWriter<ProductExporter>() {
+            @Override
+            public void writeDataToPipe(ParcelFileDescriptor output, Uri uri, String mimeType,
+                                        Bundle opts, ProductExporter exporter) {
+                Writer out = null;
+                try {
+                    out = new BufferedWriter(new OutputStreamWriter(
+                            new FileOutputStream(output.getFileDescriptor()), "UTF-8"), EXPORT_BUFFER_SIZE);
+                    exporter.writeTo(out);
+                } catch (IOException e) {
+                    // Usually the reader closed its end before the export was complete
+                    Log.w(LOG_TAG, "Export to " + uri + " aborted: " + e.getMessage());
+                } finally {
+                    // The pipe itself is closed by openPipeHelper once we return
+                    closeQuietly(out);
+                }
+            }
+        });
+    }
+
+    /**
+     * Return true if the export URI asks for JSON, false for CSV.
+     */
+    private static boolean isJsonExport(Uri uri) {
+        String format = uri.getQueryParameter(ProductEntry.QUERY_PARAMETER_FORMAT);
+        if (format == null || ProductEntry.FORMAT_CSV.equals(format)) {
+            return false;
+        } else if (ProductEntry.FORMAT_JSON.equals(format)) {
+            return true;
+        }
+        throw new IllegalArgumentException("Unknown export format " + format + " in " + uri);
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        if (closeable == null) {
+            return;
+        }
+        try {
+            closeable.close();
+        } catch (IOException e) {
+            // Nothing left to do with it
+        }
+    }
+
     @Nullable
     @Override
     public Uri insert(Uri uri, ContentValues contentValues) {
         final int match = sUriMatcher.match(uri);
         switch (match) {
             case PRODUCTS:
-                return insertProduct(uri, contentValues);
+                long start = System.nanoTime();
+                Uri newUri = insertProduct(uri, contentValues);
+                mMetrics.record(ProviderMetrics.OP_INSERT, match, start, newUri == null ? 0 : 1);
+                return newUri;
+            case SUPPLIERS:
+                start = System.nanoTime();
+                newUri = insertSupplier(uri, contentValues);
+                mMetrics.record(ProviderMetrics.OP_INSERT, match, start, 1);
+                return newUri;
             default:
                 throw new IllegalArgumentException(getContext().getResources().getString(R.string.insertion_not_supported_error, uri));
         }
@@ -126,35 +588,22 @@ public class ProductProvider extends ContentProvider {
      * for that specific row in the database.
      */
     private Uri insertProduct(Uri uri, ContentValues values) {
-
-        String name = values.getAsString(ProductEntry.COLUMN_PRODUCT_NAME);
-        if (name == null) {
-            throw new IllegalArgumentException(getContext().getResources().getString(R.string.name_empty));
-        }
-        Integer price = values.getAsInteger(ProductEntry.COLUMN_PRICE);
-        if (price == null) {
-            throw new IllegalArgumentException(getContext().getResources().getString(R.string.price_empty));
-        } else if (price != null && price <= 0) {
-            throw new IllegalArgumentException(getContext().getResources().getString(R.string.price_equal_zero));
-        }
-
-        Integer quantity = values.getAsInteger(ProductEntry.COLUMN_QUANTITY);
-        if (quantity == null) {
-            throw new IllegalArgumentException(getContext().getResources().getString(R.string.quantity_empty));
-        }
-
-        String supplierName = values.getAsString(ProductEntry.COLUMN_SUPPLIER_NAME);
-        if (supplierName == null) {
-            throw new IllegalArgumentException(getContext().getResources().getString(R.string.supplier_name_empty));
-        }
-
-        String phone = values.getAsString(ProductEntry.COLUMN_SUPPLIER_PHONE);
-        if (phone != null && !isPhoneValid(phone)) {
-            throw new IllegalArgumentException(getContext().getResources().getString(R.string.invalid_phone));
-        }
+        validateProduct(values, true);
 
         SQLiteDatabase db = mDbHelper.getWritableDatabase();
-        long id = db.insert(ProductEntry.TABLE_NAME, null, values);
+        SupplierResolver suppliers = new SupplierResolver(db);
+        long id;
+        // The supplier is only created along with the product
+        db.beginTransaction();
+        try {
+            id = db.insert(ProductEntry.TABLE_NAME, null, suppliers.toProductRow(values));
+            if (id != -1) {
+                db.setTransactionSuccessful();
+            }
+        } finally {
+            db.endTransaction();
+            suppliers.close();
+        }
 
         // Once we know the ID of the new row in the table,
         // return the new URI with the ID appended to the end of it
@@ -167,30 +616,276 @@ public class ProductProvider extends ContentProvider {
         // Otherwise, the insertion was successful and we can display a toast with the row ID.
         Log.v(LOG_TAG, "Saved row ID: " + id);
 
-        getContext().getContentResolver().notifyChange(uri, null);
+        notifySuppliersChanged(suppliers);
+        productsChanged(Collections.singletonList(id));
+
+        return ContentUris.withAppendedId(uri, id);
+    }
+
+    /**
+     * Notify the listeners of suppliers the given product write created or changed. A changed
+     * phone number shows in every product of the supplier, so all cached products are dropped.
+     */
+    private void notifySuppliersChanged(SupplierResolver suppliers) {
+        if (suppliers.phonesChanged()) {
+            invalidateCache(SupplierEntry.CONTENT_URI);
+            notifyChange(ProductEntry.CONTENT_URI);
+        }
+        if (suppliers.suppliersCreated() || suppliers.phonesChanged()) {
+            notifyChange(SupplierEntry.CONTENT_URI);
+        }
+    }
+
+    /**
+     * Return the selection of a product update or delete, for the products table. The caller's
+     * selection may name the supplier columns of the joined view, so it selects the ids there.
+     */
+    private static String productSelection(String selection) {
+        if (TextUtils.isEmpty(selection)) {
+            return selection;
+        }
+        return ProductEntry._ID + " IN (SELECT " + ProductEntry._ID + " FROM " + ProductEntry.VIEW_NAME
+                + " WHERE " + selection + ")";
+    }
+
+    /**
+     * Insert a supplier. Throws an {@link IllegalArgumentException} with a user readable message
+     * if the values aren't valid or a supplier of that name exists.
+     */
+    private Uri insertSupplier(Uri uri, ContentValues values) {
+        validateSupplier(values, true);
+        values = trimSupplierName(values);
 
+        long id;
+        try {
+            id = mDbHelper.getWritableDatabase().insertOrThrow(SupplierEntry.TABLE_NAME, null, values);
+        } catch (SQLiteConstraintException e) {
+            throw new IllegalArgumentException(getContext().getResources().getString(R.string.supplier_exists));
+        }
+        notifyChange(uri);
         return ContentUris.withAppendedId(uri, id);
     }
 
+    /**
+     * Return the values with the supplier name trimmed, the way the {@link SupplierResolver}
+     * stores them.
+     */
+    private static ContentValues trimSupplierName(ContentValues values) {
+        String name = values.getAsString(SupplierEntry.COLUMN_SUPPLIER_NAME);
+        if (name == null) {
+            return values;
+        }
+        ContentValues trimmed = new ContentValues(values);
+        trimmed.put(SupplierEntry.COLUMN_SUPPLIER_NAME, name.trim());
+        return trimmed;
+    }
+
+    private void validateSupplier(ContentValues values, boolean complete) {
+        int error = ProductValidator.validateSupplier(values, complete);
+        if (error != ProductValidator.VALID) {
+            throw new IllegalArgumentException(getContext().getResources().getString(error));
+        }
+    }
+
+    /**
+     * Check the given content values with the {@link ProductValidator}: a new product must be
+     * complete, an update only has its present columns checked. Throws an
+     * {@link IllegalArgumentException} with a user readable message if they aren't valid.
+     */
+    private void validateProduct(ContentValues values, boolean complete) {
+        int error = ProductValidator.validate(values, complete);
+        if (error != ProductValidator.VALID) {
+            throw new IllegalArgumentException(getContext().getResources().getString(error));
+        }
+    }
+
+    @Override
+    public int bulkInsert(Uri uri, ContentValues[] values) {
+        final int match = sUriMatcher.match(uri);
+        switch (match) {
+            case PRODUCTS:
+                long start = System.nanoTime();
+                int rowsInserted = bulkInsertProducts(values, parseChunkSize(uri))
+                        .getInt(ProductEntry.EXTRA_ROW_COUNT);
+                mMetrics.record(ProviderMetrics.OP_BULK_INSERT, match, start, rowsInserted);
+                return rowsInserted;
+            default:
+                throw new IllegalArgumentException(getContext().getResources().getString(R.string.insertion_not_supported_error, uri));
+        }
+    }
+
+    /**
+     * Insert all given products in one transaction, re-using a single compiled INSERT statement.
+     * Every row is validated the same way as in {@link #insertProduct}; rows that are invalid or
+     * violate a constraint are skipped instead of aborting the whole batch. With a chunk size
+     * above 0, the transaction is committed every that many rows. Listeners are notified once,
+     * after the last row. Return a bundle with the number of rows that were inserted, and the
+     * index of each skipped row with the reason, see {@link ProductEntry#METHOD_BULK_INSERT}.
+     */
+    private Bundle bulkInsertProducts(ContentValues[] values, int chunkSize) {
+        int rowsInserted = 0;
+        List<Integer> rejectedRows = new ArrayList<>();
+        List<String> rejectedReasons = new ArrayList<>();
+        // One more than can be notified one by one is enough to know
+        List<Long> ids = new ArrayList<>();
+
+        SQLiteDatabase db = mDbHelper.getWritableDatabase();
+        SQLiteStatement insert = db.compileStatement(SQL_INSERT_PRODUCT);
+        SupplierResolver suppliers = new SupplierResolver(db);
+        long transactionStart = System.nanoTime();
+        int transactionRows = 0;
+        db.beginTransaction();
+        try {
+            for (int i = 0; i < values.length; i++) {
+                try {
+                    validateProduct(values[i], true);
+                    bindProduct(insert, values[i], suppliers);
+                    long id = insert.executeInsert();
+                    rowsInserted++;
+                    if (ids.size() <= MAX_ROW_NOTIFICATIONS) {
+                        ids.add(id);
+                    }
+                    transactionRows++;
+                } catch (IllegalArgumentException | SQLException e) {
+                    rejectedRows.add(i);
+                    rejectedReasons.add(e.getMessage());
+                }
+
+                // Commit what we have so far, so a huge batch doesn't hold the write lock
+                // or grow the journal for its whole duration
+                if (chunkSize > 0 && (i + 1) % chunkSize == 0 && i + 1 < values.length) {
+                    db.setTransactionSuccessful();
+                    db.endTransaction();
+                    mMetrics.record(ProviderMetrics.OP_TRANSACTION, PRODUCTS, transactionStart, transactionRows);
+                    transactionStart = System.nanoTime();
+                    transactionRows = 0;
+                    db.beginTransaction();
+                }
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+            mMetrics.record(ProviderMetrics.OP_TRANSACTION, PRODUCTS, transactionStart, transactionRows);
+            insert.close();
+            suppliers.close();
+        }
+        Log.v(LOG_TAG, "Bulk insert: " + rowsInserted + " of " + values.length + " rows saved");
+
+        notifySuppliersChanged(suppliers);
+        if (rowsInserted != 0) {
+            productsChanged(ids);
+        }
+
+        int[] rows = new int[rejectedRows.size()];
+        for (int i = 0; i < rows.length; i++) {
+            rows[i] = rejectedRows.get(i);
+        }
+        Bundle result = new Bundle();
+        result.putInt(ProductEntry.EXTRA_ROW_COUNT, rowsInserted);
+        result.putIntArray(ProductEntry.EXTRA_REJECTED_ROWS, rows);
+        result.putStringArray(ProductEntry.EXTRA_REJECTED_REASONS,
+                rejectedReasons.toArray(new String[rejectedReasons.size()]));
+        return result;
+    }
+
+    /**
+     * Bulk insert through {@link ProductEntry#METHOD_BULK_INSERT}, which reports the rejected
+     * rows instead of only counting them.
+     */
+    private Bundle bulkInsertProducts(String chunkSize, Bundle extras) {
+        Parcelable[] parcelables = extras == null ? null : extras.getParcelableArray(ProductEntry.EXTRA_VALUES);
+        if (parcelables == null) {
+            throw new IllegalArgumentException("Bulk insert without " + ProductEntry.EXTRA_VALUES);
+        }
+        ContentValues[] values = new ContentValues[parcelables.length];
+        System.arraycopy(parcelables, 0, values, 0, parcelables.length);
+        long start = System.nanoTime();
+        Bundle result = bulkInsertProducts(values, chunkSize == null ? 0
+                : (int) Math.max(0, parseLong(ProductEntry.CONTENT_URI, chunkSize)));
+        mMetrics.record(ProviderMetrics.OP_BULK_INSERT, PRODUCTS, start, result.getInt(ProductEntry.EXTRA_ROW_COUNT));
+        return result;
+    }
+
+    /**
+     * Bind an already validated product to the {@link #SQL_INSERT_PRODUCT} statement, with the
+     * id of its supplier.
+     */
+    private static void bindProduct(SQLiteStatement insert, ContentValues values, SupplierResolver suppliers) {
+        insert.bindString(1, values.getAsString(ProductEntry.COLUMN_PRODUCT_NAME));
+        insert.bindLong(2, values.getAsInteger(ProductEntry.COLUMN_PRICE));
+        insert.bindLong(3, values.getAsInteger(ProductEntry.COLUMN_QUANTITY));
+        insert.bindLong(4, suppliers.resolve(values.getAsString(ProductEntry.COLUMN_SUPPLIER_NAME),
+                values.getAsString(ProductEntry.COLUMN_SUPPLIER_PHONE)));
+        Integer reorderLevel = values.getAsInteger(ProductEntry.COLUMN_REORDER_LEVEL);
+        insert.bindLong(5, reorderLevel == null ? 0 : reorderLevel);
+    }
+
+    /**
+     * Parse a numeric query parameter of the given URI.
+     */
+    private static long parseLong(Uri uri, String value) {
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid number " + value + " in " + uri);
+        }
+    }
+
+    /**
+     * Read the optional {@link ProductEntry#QUERY_PARAMETER_CHUNK_SIZE} from the URI.
+     * Return 0 when the whole batch should be committed at once.
+     */
+    private static int parseChunkSize(Uri uri) {
+        String chunkSize = uri.getQueryParameter(ProductEntry.QUERY_PARAMETER_CHUNK_SIZE);
+        if (chunkSize == null) {
+            return 0;
+        }
+        return (int) Math.max(0, parseLong(uri, chunkSize));
+    }
+
     @Override
     public int delete(Uri uri, String selection, String[] selectionArgs) {
+        long start = System.nanoTime();
 
         SQLiteDatabase database = mDbHelper.getWritableDatabase();
 
         // Track the number of rows that were deleted
         int rowsDeleted;
+        // The deleted products, if they are few enough to be named
+        List<Long> ids = null;
 
         final int match = sUriMatcher.match(uri);
         switch (match) {
             case PRODUCTS:
-                // Delete all rows that match the selection and selection args
-                rowsDeleted = database.delete(ProductEntry.TABLE_NAME, selection, selectionArgs);
+                // Delete all rows that match the selection and selection args. The ids are
+                // read in the same transaction, so they are exactly the deleted rows
+                selection = productSelection(selection);
+                database.beginTransaction();
+                try {
+                    ids = selectProductIds(database, selection, selectionArgs);
+                    rowsDeleted = database.delete(ProductEntry.TABLE_NAME, selection, selectionArgs);
+                    database.setTransactionSuccessful();
+                } finally {
+                    database.endTransaction();
+                }
                 break;
             case PRODUCT_ID:
                 // Delete a single row given by the ID in the URI
-                selection = ProductEntry._ID + "=?";
-                selectionArgs = new String[]{String.valueOf(ContentUris.parseId(uri))};
-                rowsDeleted = database.delete(ProductEntry.TABLE_NAME, selection, selectionArgs);
+                long id = ContentUris.parseId(uri);
+                ProductStatements statements = acquireStatements();
+                try {
+                    rowsDeleted = statements.delete(id);
+                } finally {
+                    releaseStatements(statements);
+                }
+                ids = Collections.singletonList(id);
+                break;
+            case SUPPLIERS:
+                rowsDeleted = deleteSuppliers(database, selection, selectionArgs);
+                break;
+            case SUPPLIER_ID:
+                rowsDeleted = deleteSuppliers(database, SupplierEntry._ID + "=?",
+                        new String[]{String.valueOf(ContentUris.parseId(uri))});
                 break;
             default:
                 throw new IllegalArgumentException(getContext().getResources().getString(R.string.deletion_not_supported_error, uri));
@@ -198,29 +893,60 @@ public class ProductProvider extends ContentProvider {
         // If 1 or more rows were deleted, then notify all listeners that the data at the
         // given URI has changed
         if (rowsDeleted != 0) {
-            getContext().getContentResolver().notifyChange(uri, null);
+            if (match == PRODUCTS || match == PRODUCT_ID) {
+                productsChanged(ids);
+            } else {
+                invalidateCache(uri);
+                notifyChange(uri);
+            }
         }
+        mMetrics.record(ProviderMetrics.OP_DELETE, match, start, rowsDeleted);
         // Return the number of rows deleted
         return rowsDeleted;
     }
 
+    /**
+     * Delete suppliers. Throws an {@link IllegalArgumentException} with a user readable message
+     * if any of them still has products; then none is deleted.
+     */
+    private int deleteSuppliers(SQLiteDatabase database, String selection, String[] selectionArgs) {
+        try {
+            return database.delete(SupplierEntry.TABLE_NAME, selection, selectionArgs);
+        } catch (SQLiteConstraintException e) {
+            throw new IllegalArgumentException(getContext().getResources().getString(R.string.supplier_has_products));
+        }
+    }
+
     @Override
     public int update(Uri uri, ContentValues contentValues, String selection,
                       String[] selectionArgs) {
+        long start = System.nanoTime();
+        int rowsUpdated;
         final int match = sUriMatcher.match(uri);
         switch (match) {
             case PRODUCTS:
-                return updateProduct(uri, contentValues, selection, selectionArgs);
+                rowsUpdated = updateProduct(uri, contentValues, productSelection(selection), selectionArgs);
+                break;
             case PRODUCT_ID:
                 // For the PET_ID code, extract out the ID from the URI,
                 // so we know which row to update. Selection will be "_id=?" and selection
                 // arguments will be a String array containing the actual ID.
                 selection = ProductEntry._ID + "=?";
                 selectionArgs = new String[]{String.valueOf(ContentUris.parseId(uri))};
-                return updateProduct(uri, contentValues, selection, selectionArgs);
+                rowsUpdated = updateProduct(uri, contentValues, selection, selectionArgs);
+                break;
+            case SUPPLIERS:
+                rowsUpdated = updateSupplier(uri, contentValues, selection, selectionArgs);
+                break;
+            case SUPPLIER_ID:
+                rowsUpdated = updateSupplier(uri, contentValues, SupplierEntry._ID + "=?",
+                        new String[]{String.valueOf(ContentUris.parseId(uri))});
+                break;
             default:
                 throw new IllegalArgumentException(getContext().getResources().getString(R.string.deletion_not_supported_error, uri));
         }
+        mMetrics.record(ProviderMetrics.OP_UPDATE, match, start, rowsUpdated);
+        return rowsUpdated;
     }
 
     /**
@@ -229,65 +955,632 @@ public class ProductProvider extends ContentProvider {
      * Return the number of rows that were successfully updated.
      */
     private int updateProduct(Uri uri, ContentValues values, String selection, String[] selectionArgs) {
-        if (values.containsKey(ProductEntry.COLUMN_PRODUCT_NAME)) {
-            String name = values.getAsString(ProductEntry.COLUMN_PRODUCT_NAME);
-            if (name == null) {
-                throw new IllegalArgumentException(getContext().getResources().getString(R.string.name_empty));
+        validateProduct(values, false);
+
+        SQLiteDatabase db = mDbHelper.getWritableDatabase();
+        SupplierResolver suppliers = new SupplierResolver(db);
+        int rowsUpdated;
+        int suppliersUpdated = 0;
+        List<Long> ids;
+        db.beginTransaction();
+        try {
+            // Read before the update, which may change what the selection matches
+            ids = sUriMatcher.match(uri) == PRODUCT_ID
+                    ? Collections.singletonList(ContentUris.parseId(uri))
+                    : selectProductIds(db, selection, selectionArgs);
+            ContentValues row = suppliers.toProductRow(values);
+            if (!values.containsKey(ProductEntry.COLUMN_SUPPLIER_NAME)
+                    && values.containsKey(ProductEntry.COLUMN_SUPPLIER_PHONE)) {
+                // Only the phone number: it's changed for the suppliers of the selected products
+                ContentValues phone = new ContentValues();
+                phone.put(SupplierEntry.COLUMN_SUPPLIER_PHONE, values.getAsString(ProductEntry.COLUMN_SUPPLIER_PHONE));
+                suppliersUpdated = db.update(SupplierEntry.TABLE_NAME, phone, SupplierEntry._ID + " IN (SELECT "
+                        + ProductEntry.COLUMN_SUPPLIER_ID + " FROM " + ProductEntry.TABLE_NAME
+                        + (TextUtils.isEmpty(selection) ? "" : " WHERE " + selection) + ")", selectionArgs);
+            }
+            if (row.size() > 0) {
+                // Perform the update on the database and get the number of rows affected
+                rowsUpdated = db.update(ProductEntry.TABLE_NAME, row, selection, selectionArgs);
+            } else {
+                rowsUpdated = suppliersUpdated == 0 ? 0 : (int) DatabaseUtils.longForQuery(db, "SELECT COUNT(*) FROM "
+                        + ProductEntry.TABLE_NAME + (TextUtils.isEmpty(selection) ? "" : " WHERE " + selection),
+                        selectionArgs);
             }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+            suppliers.close();
         }
 
-        if (values.containsKey(ProductEntry.COLUMN_PRICE)) {
-            Integer price = values.getAsInteger(ProductEntry.COLUMN_PRICE);
-            if (price == null) {
-                throw new IllegalArgumentException(getContext().getResources().getString(R.string.price_empty));
-            } else if (price <= 0) {
-                throw new IllegalArgumentException(getContext().getResources().getString(R.string.price_equal_zero));
-            }
+        notifySuppliersChanged(suppliers);
+        if (suppliersUpdated != 0) {
+            invalidateCache(SupplierEntry.CONTENT_URI);
+            notifyChange(SupplierEntry.CONTENT_URI);
+            notifyChange(ProductEntry.CONTENT_URI);
+        }
+        // If 1 or more rows were updated, then notify the listeners of each of them
+        if (rowsUpdated != 0) {
+            productsChanged(ids);
         }
+        // Return the number of rows updated
+        return rowsUpdated;    }
+
+    /**
+     * Update suppliers. Every product of a supplier shows its name and phone number, so the
+     * listeners of all products are notified as well. Throws an {@link IllegalArgumentException}
+     * with a user readable message if the values aren't valid or a name is taken.
+     */
+    private int updateSupplier(Uri uri, ContentValues values, String selection, String[] selectionArgs) {
+        validateSupplier(values, false);
+        values = trimSupplierName(values);
+
+        int rowsUpdated;
+        try {
+            rowsUpdated = mDbHelper.getWritableDatabase().update(SupplierEntry.TABLE_NAME, values,
+                    selection, selectionArgs);
+        } catch (SQLiteConstraintException e) {
+            throw new IllegalArgumentException(getContext().getResources().getString(R.string.supplier_exists));
+        }
+        if (rowsUpdated != 0) {
+            invalidateCache(uri);
+            notifyChange(uri);
+            notifyChange(ProductEntry.CONTENT_URI);
+        }
+        return rowsUpdated;
+    }
+
+    @Nullable
+    @Override
+    public Bundle call(String method, String arg, Bundle extras) {
+        long start = System.nanoTime();
+        Bundle result = callMethod(method, arg, extras);
+        // Methods that change products return how many
+        mMetrics.record(ProviderMetrics.OP_CALL, callCode(method), start,
+                result == null ? 0 : result.getInt(ProductEntry.EXTRA_ROW_COUNT));
+        return result;
+    }
 
-        if (values.containsKey(ProductEntry.COLUMN_QUANTITY)) {
-            Integer quantity = values.getAsInteger(ProductEntry.COLUMN_QUANTITY);
-            if (quantity == null) {
-                throw new IllegalArgumentException(getContext().getResources().getString(R.string.quantity_empty));
+    /**
+     * Return the names of the URI codes followed by the call methods, see {@link #CALL_METHODS}.
+     */
+    private static String[] metricCodeNames() {
+        String[] names = new String[URI_CODE_NAMES.length + CALL_METHODS.length];
+        System.arraycopy(URI_CODE_NAMES, 0, names, 0, URI_CODE_NAMES.length);
+        System.arraycopy(CALL_METHODS, 0, names, URI_CODE_NAMES.length, CALL_METHODS.length);
+        return names;
+    }
+
+    /**
+     * Return the metrics code of the given call method, or -1 for an unknown one.
+     */
+    private static int callCode(String method) {
+        for (int i = 0; i < CALL_METHODS.length; i++) {
+            if (CALL_METHODS[i].equals(method)) {
+                return FIRST_CALL_CODE + i;
             }
         }
+        return -1;
+    }
+
+    private Bundle callMethod(String method, String arg, Bundle extras) {
+        if (method == null) {
+            throw new IllegalArgumentException("Call without a method");
+        }
+        switch (method) {
+            case ProductEntry.METHOD_BULK_INSERT:
+                return bulkInsertProducts(arg, extras);
+            case ProductEntry.METHOD_ADJUST_QUANTITY:
+                requireExtras(method, extras, ProductEntry.EXTRA_QUANTITY_DELTA);
+                return adjustQuantity(parseId(method, arg), extras.getInt(ProductEntry.EXTRA_QUANTITY_DELTA),
+                        extras.getInt(ProductEntry.EXTRA_MOVEMENT_TYPE, MovementEntry.TYPE_ADJUSTMENT));
+            case ProductEntry.METHOD_APPLY_QUANTITY_DELTAS:
+                requireExtras(method, extras, ProductEntry.EXTRA_PRODUCT_IDS, ProductEntry.EXTRA_QUANTITY_DELTAS);
+                return applyQuantityDeltas(arg, extras.getLongArray(ProductEntry.EXTRA_PRODUCT_IDS),
+                        extras.getIntArray(ProductEntry.EXTRA_QUANTITY_DELTAS),
+                        extras.getIntArray(ProductEntry.EXTRA_MOVEMENT_TYPES));
+            case ProductEntry.METHOD_CACHE_STATS:
+                Bundle stats = new Bundle();
+                stats.putInt(ProductEntry.EXTRA_CACHE_HITS, mCache.hitCount());
+                stats.putInt(ProductEntry.EXTRA_CACHE_MISSES, mCache.missCount());
+                stats.putInt(ProductEntry.EXTRA_CACHE_EVICTIONS, mCache.evictionCount());
+                stats.putInt(ProductEntry.EXTRA_CACHE_SIZE, mCache.size());
+                stats.putInt(ProductEntry.EXTRA_CACHE_MAX_SIZE, mCache.maxSize());
+                return stats;
+            case StatsEntry.METHOD_REBUILD:
+                Bundle rebuilt = new Bundle();
+                rebuilt.putBoolean(StatsEntry.EXTRA_REPAIRED, rebuildStats());
+                return rebuilt;
+            case MovementEntry.METHOD_STOCK_AT:
+                requireExtras(method, extras, MovementEntry.EXTRA_TIME);
+                Bundle stock = new Bundle();
+                stock.putLong(ProductEntry.EXTRA_QUANTITY, new StockLedger(mDbHelper.getReadableDatabase())
+                        .stockAt(parseId(method, arg), extras.getLong(MovementEntry.EXTRA_TIME)));
+                return stock;
+            case MovementEntry.METHOD_COMPACT:
+                return compactLedger();
+            case SyncEntry.METHOD_COLLECT_CHANGES:
+                return new SyncStore(mDbHelper.getWritableDatabase()).collect();
+            case SyncEntry.METHOD_APPLY_CHANGES:
+                requireExtras(method, extras, SyncEntry.EXTRA_RESPONSE, SyncEntry.EXTRA_THROUGH);
+                return applySyncChanges(extras.getString(SyncEntry.EXTRA_RESPONSE),
+                        extras.getLong(SyncEntry.EXTRA_THROUGH));
+            case ProductEntry.METHOD_METRICS:
+                Bundle metrics = new Bundle();
+                metrics.putString(ProductEntry.EXTRA_METRICS, mMetrics.dump());
+                if (ProductEntry.ARG_RESET.equals(arg)) {
+                    mMetrics.reset();
+                }
+                return metrics;
+            default:
+                return super.call(method, arg, extras);
+        }
+    }
 
-        if (values.containsKey(ProductEntry.COLUMN_SUPPLIER_NAME)) {
-            String supplierName = values.getAsString(ProductEntry.COLUMN_SUPPLIER_NAME);
-            if (supplierName == null) {
-                throw new IllegalArgumentException(getContext().getResources().getString(R.string.supplier_name_empty));
+    /**
+     * Parse the product id passed as the argument of a call.
+     */
+    private static long parseId(String method, String arg) {
+        if (arg == null) {
+            throw new IllegalArgumentException("Call " + method + " without a product id");
+        }
+        try {
+            return Long.parseLong(arg);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid product id " + arg + " for call " + method);
+        }
+    }
+
+    /**
+     * Check that the extras of a call hold all the given keys.
+     */
+    private static void requireExtras(String method, Bundle extras, String... keys) {
+        for (String key : keys) {
+            if (extras == null || !extras.containsKey(key)) {
+                throw new IllegalArgumentException("Call " + method + " without " + key);
             }
         }
+    }
 
-        if (values.containsKey(ProductEntry.COLUMN_SUPPLIER_PHONE)) {
-            String phone = values.getAsString(ProductEntry.COLUMN_SUPPLIER_PHONE);
-            if (phone != null && !isPhoneValid(phone)) {
-                throw new IllegalArgumentException(getContext().getResources().getString(R.string.invalid_phone));
+    /**
+     * Apply a response of the inventory server, see {@link SyncStore#apply}. The server may have
+     * changed any product and supplier, so all of them are invalidated.
+     */
+    private Bundle applySyncChanges(String response, long through) {
+        long transactionStart = System.nanoTime();
+        Bundle result = new SyncStore(mDbHelper.getWritableDatabase()).apply(response, through);
+        int changed = result.getInt(SyncEntry.EXTRA_CHANGE_COUNT);
+        mMetrics.record(ProviderMetrics.OP_TRANSACTION, PRODUCTS, transactionStart, changed);
+        if (changed != 0) {
+            invalidateCache(ProductEntry.CONTENT_URI);
+            notifyChange(ProductEntry.CONTENT_URI);
+            notifyChange(SupplierEntry.CONTENT_URI);
+        }
+        return result;
+    }
+
+    /**
+     * Snapshot and trim the stock ledger, see {@link StockLedger#compact}, and drop the deleted
+     * products that incremental exports no longer include. Doesn't change what any query
+     * returns, so nobody is notified.
+     */
+    private Bundle compactLedger() {
+        long transactionStart = System.nanoTime();
+        long now = System.currentTimeMillis();
+        SQLiteDatabase db = mDbHelper.getWritableDatabase();
+        Bundle result = new StockLedger(db).compact(now);
+        db.delete(ProductEntry.DELETED_TABLE_NAME, ProductEntry.COLUMN_LAST_MODIFIED + "<?",
+                new String[]{String.valueOf(now - ProductEntry.DELETED_RETENTION_MS)});
+        mMetrics.record(ProviderMetrics.OP_TRANSACTION, PRODUCTS, transactionStart, 0);
+        return result;
+    }
+
+    /**
+     * Set the type the ledger records quantity changes with, until it's set back to null. Only
+     * inside a transaction, which must set it back before it ends.
+     */
+    private static void setMovementType(SQLiteStatement setType, Integer type) {
+        if (type == null) {
+            setType.bindNull(1);
+        } else if (type < MovementEntry.TYPE_SALE || type > MovementEntry.TYPE_ADJUSTMENT) {
+            throw new IllegalArgumentException("Unknown movement type " + type);
+        } else {
+            setType.bindLong(1, type);
+        }
+        setType.executeUpdateDelete();
+    }
+
+    /**
+     * Add the delta to the quantity of a single product, as long as the result isn't negative.
+     * The change is recorded in the ledger with the given type. Return a bundle with the new
+     * quantity, or null if the product doesn't exist or doesn't have enough stock.
+     */
+    private Bundle adjustQuantity(long id, int delta, int movementType) {
+        long quantity;
+
+        SQLiteDatabase db = mDbHelper.getWritableDatabase();
+        ProductStatements statements = acquireStatements();
+        try {
+            SQLiteStatement adjust = statements.statement(SQL_ADJUST_QUANTITY);
+            SQLiteStatement select = statements.statement(SQL_SELECT_QUANTITY);
+            SQLiteStatement setType = statements.statement(StockLedger.SQL_SET_MOVEMENT_TYPE);
+            long transactionStart = System.nanoTime();
+            db.beginTransaction();
+            try {
+                setMovementType(setType, movementType);
+                adjust.bindLong(1, delta);
+                adjust.bindLong(2, id);
+                adjust.bindLong(3, delta);
+                if (adjust.executeUpdateDelete() == 0) {
+                    return null;
+                }
+                // Read the result back inside the transaction, so it's exactly our change
+                select.bindLong(1, id);
+                quantity = select.simpleQueryForLong();
+                setMovementType(setType, null);
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+                mMetrics.record(ProviderMetrics.OP_TRANSACTION, PRODUCT_ID, transactionStart, 1);
             }
+        } finally {
+            releaseStatements(statements);
         }
 
+        productsChanged(Collections.singletonList(id));
+
+        Bundle result = new Bundle();
+        result.putInt(ProductEntry.EXTRA_QUANTITY, (int) quantity);
+        return result;
+    }
+
+    /**
+     * Add each delta to the quantity of the product with the id at the same index, all in one
+     * transaction. Listeners of each updated product are notified once, and those of the collection
+     * once for the whole batch. If the batch token has been applied before, nothing is changed.
+     * Each change is recorded in the ledger with the type at the same index, or as an adjustment if
+     * there are no types. Increases are added before decreases, so only a product whose changes add
+     * up to more than its stock runs short; its stock is emptied instead. Return a bundle with the
+     * number of updated products, and the ones that ran out of stock that way.
+     */
+    private Bundle applyQuantityDeltas(String token, long[] ids, int[] deltas, int[] types) {
+        if (ids == null || deltas == null || ids.length != deltas.length
+                || types != null && types.length != ids.length) {
+            throw new IllegalArgumentException("Product ids and quantity deltas don't match");
+        }
+        int rowsUpdated = 0;
+        // A product may be in the batch more than once, it's notified once
+        Set<Long> updatedIds = new LinkedHashSet<>();
+        Set<Long> shortIds = new LinkedHashSet<>();
+        long now = System.currentTimeMillis();
+
         SQLiteDatabase db = mDbHelper.getWritableDatabase();
+        ProductStatements statements = acquireStatements();
+        try {
+            SQLiteStatement update = statements.statement(SQL_ADJUST_QUANTITY);
+            SQLiteStatement insertToken = statements.statement(SQL_INSERT_BATCH_TOKEN);
+            SQLiteStatement setType = statements.statement(StockLedger.SQL_SET_MOVEMENT_TYPE);
+            long transactionStart = System.nanoTime();
+            db.beginTransaction();
+            try {
+                boolean alreadyApplied = false;
+                if (token != null) {
+                    insertToken.bindString(1, token);
+                    insertToken.bindLong(2, now);
+                    alreadyApplied = insertToken.executeInsert() == -1;
+                    db.delete(ProductEntry.QUANTITY_BATCHES_TABLE_NAME, ProductEntry.COLUMN_BATCH_APPLIED + "<?",
+                            new String[]{String.valueOf(now - BATCH_TOKEN_RETENTION_MS)});
+                }
+                if (!alreadyApplied) {
+                    // Increases first, so a product's decreases only run short if its net change
+                    // does: a receipt covers a sale of the same batch whatever their order. The
+                    // buffer sends the deltas of a type together, so the type rarely changes.
+                    int currentType = 0;
+                    for (int pass = 0; pass < 2; pass++) {
+                        boolean increases = pass == 0;
+                        for (int i = 0; i < ids.length; i++) {
+                            if (deltas[i] > 0 != increases) {
+                                continue;
+                            }
+                            int type = types == null ? MovementEntry.TYPE_ADJUSTMENT : types[i];
+                            if (type != currentType) {
+                                setMovementType(setType, type);
+                                currentType = type;
+                            }
+                            update.bindLong(1, deltas[i]);
+                            update.bindLong(2, ids[i]);
+                            update.bindLong(3, deltas[i]);
+                            if (update.executeUpdateDelete() != 0) {
+                                rowsUpdated++;
+                                updatedIds.add(ids[i]);
+                            } else if (productExists(statements, ids[i])) {
+                                // Not enough stock: empty it, and tell the caller
+                                shortIds.add(ids[i]);
+                                SQLiteStatement clear = statements.statement(SQL_CLEAR_QUANTITY);
+                                clear.bindLong(1, ids[i]);
+                                if (clear.executeUpdateDelete() != 0) {
+                                    rowsUpdated++;
+                                    updatedIds.add(ids[i]);
+                                }
+                            }
+                        }
+                    }
+                    if (currentType != 0) {
+                        setMovementType(setType, null);
+                    }
+                } else {
+                    Log.v(LOG_TAG, "Quantity batch " + token + " was already applied");
+                }
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+                mMetrics.record(ProviderMetrics.OP_TRANSACTION, PRODUCTS, transactionStart, rowsUpdated);
+            }
+        } finally {
+            releaseStatements(statements);
+        }
 
-        // Perform the update on the database and get the number of rows affected
-        int rowsUpdated = db.update(ProductEntry.TABLE_NAME, values, selection, selectionArgs);
-        // If 1 or more rows were updated, then notify all listeners that the data at the
-        // given URI has changed
+        // The batch is in the database now, so the buffer stops adding it before lists reload
+        if (token != null) {
+            QuantityWriteBuffer.batchApplied(token);
+        }
         if (rowsUpdated != 0) {
+            productsChanged(updatedIds);
+        }
+
+        Bundle result = new Bundle();
+        result.putInt(ProductEntry.EXTRA_ROW_COUNT, rowsUpdated);
+        long[] shortIdArray = new long[shortIds.size()];
+        int i = 0;
+        for (long id : shortIds) {
+            shortIdArray[i++] = id;
+        }
+        result.putLongArray(ProductEntry.EXTRA_SHORT_PRODUCT_IDS, shortIdArray);
+        return result;
+    }
+
+    /**
+     * Return true if there is a product with the given id.
+     */
+    private static boolean productExists(ProductStatements statements, long id) {
+        SQLiteStatement select = statements.statement(SQL_SELECT_QUANTITY);
+        select.bindLong(1, id);
+        try {
+            select.simpleQueryForLong();
+            return true;
+        } catch (SQLiteDoneException e) {
+            return false;
+        }
+    }
+
+
+    /**
+     * Compare the stored statistics with totals computed from the products, and replace them
+     * if they differ. Both happen in one transaction, so no write can slip in between.
+     * Return true if the statistics were out of date.
+     */
+    private boolean rebuildStats() {
+        boolean stale;
+
+        SQLiteDatabase db = mDbHelper.getWritableDatabase();
+        long transactionStart = System.nanoTime();
+        db.beginTransaction();
+        try {
+            stale = DatabaseUtils.longForQuery(db, SQL_COUNT_STALE_TOTALS, null) != 0;
+            if (stale) {
+                Log.w(LOG_TAG, "Inventory statistics were out of date, rebuilding them");
+                for (String sql : SQL_REBUILD_STATS) {
+                    db.execSQL(sql);
+                }
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+            mMetrics.record(ProviderMetrics.OP_TRANSACTION, STATS, transactionStart, 0);
+        }
+
+        if (stale) {
+            // Statistics cursors are registered on the collection URI
+            notifyChange(ProductEntry.CONTENT_COLLECTION_URI);
+        }
+        return stale;
+    }
+
+    /**
+     * Apply all operations in a single database transaction. If any of them fails, none of the
+     * changes are kept. Listeners are notified after the commit, once per distinct URI, instead
+     * of once per operation. If the operations changed more products than are notified one by
+     * one, or all of them, the listeners of all products are notified once instead.
+     */
+    @Override
+    public ContentProviderResult[] applyBatch(ArrayList<ContentProviderOperation> operations)
+            throws OperationApplicationException {
+        if (mPendingChanges.get() != null) {
+            // Already inside a batch on this thread, the outer one commits and notifies
+            return super.applyBatch(operations);
+        }
+
+        PendingChanges changes = new PendingChanges();
+        ContentProviderResult[] results;
+        boolean committed = false;
+
+        SQLiteDatabase db = mDbHelper.getWritableDatabase();
+        mPendingChanges.set(changes);
+        long start = System.nanoTime();
+        db.beginTransaction();
+        try {
+            results = super.applyBatch(operations);
+            db.setTransactionSuccessful();
+            committed = true;
+        } finally {
+            db.endTransaction();
+            mMetrics.record(ProviderMetrics.OP_TRANSACTION, PRODUCTS, start, operations.size());
+            mPendingChanges.remove();
+            if (!committed) {
+                // Queries inside the batch may have cached rows that were just rolled back
+                mCache.invalidateAll();
+            }
+        }
+
+        if (changes.allProducts) {
+            mCache.invalidateAll();
+        } else {
+            for (long id : changes.productIds) {
+                mCache.invalidate(id);
+            }
+        }
+        int productUris = 0;
+        for (Uri uri : changes.uris) {
+            if (sUriMatcher.match(uri) == PRODUCT_ID) {
+                productUris++;
+            }
+        }
+        // Notifying all products reaches the observers of every single one, and of the collection
+        boolean allProducts = productUris > MAX_ROW_NOTIFICATIONS || changes.uris.contains(ProductEntry.CONTENT_URI);
+        if (allProducts) {
+            changes.uris.add(ProductEntry.CONTENT_URI);
+        }
+        for (Uri uri : changes.uris) {
+            int match = sUriMatcher.match(uri);
+            if (allProducts && (match == PRODUCT_ID || match == PRODUCT_COLLECTION)) {
+                continue;
+            }
             getContext().getContentResolver().notifyChange(uri, null);
+            mMetrics.countNotification(match);
         }
-        // Return the number of rows updated
-        return rowsUpdated;    }
+        mMetrics.record(ProviderMetrics.OP_APPLY_BATCH, PRODUCTS, start, operations.size());
+        return results;
+    }
 
-    private boolean isPhoneValid(String phone) {
-        String phonePattern = "[+]?[0-9]{7,13}$";
-        Pattern pattern;
-        Matcher match;
-        pattern = Pattern.compile(phonePattern);
-        match = pattern.matcher(phone);
+    /**
+     * Print the metrics, for
+     * {@code adb shell dumpsys activity provider com.example.android.inventoryapp}.
+     */
+    @Override
+    public void dump(FileDescriptor fd, PrintWriter writer, String[] args) {
+        writer.println("Product cache: " + mCache.hitCount() + " hits, " + mCache.missCount() + " misses, "
+                + mCache.evictionCount() + " evictions, " + mCache.size() + " of " + mCache.maxSize() + " bytes");
+        mMetrics.dump(writer);
+    }
 
-        return match.matches();
+    /**
+     * Take compiled statements for the calling thread's use, from the pool if it has some for
+     * the current database. Give them back with {@link #releaseStatements} when done. A pool
+     * rather than one set per thread, so statements don't stay open for binder threads that
+     * are gone.
+     */
+    private ProductStatements acquireStatements() {
+        SQLiteDatabase db = mDbHelper.getWritableDatabase();
+        synchronized (mStatementPool) {
+            ProductStatements statements;
+            while ((statements = mStatementPool.poll()) != null) {
+                if (statements.isFor(db)) {
+                    return statements;
+                }
+                // The database was reopened since
+                statements.close();
+            }
+        }
+        return new ProductStatements(db);
     }
 
+    private void releaseStatements(ProductStatements statements) {
+        synchronized (mStatementPool) {
+            if (mStatementPool.size() < MAX_POOLED_STATEMENTS) {
+                mStatementPool.push(statements);
+                return;
+            }
+        }
+        statements.close();
+    }
 
-}
+    @Override
+    public void shutdown() {
+        synchronized (mStatementPool) {
+            for (ProductStatements statements : mStatementPool) {
+                statements.close();
+            }
+            mStatementPool.clear();
+        }
+        mDbHelper.close();
+        super.shutdown();
+    }
 
+    /**
+     * Return the ids of the products matching the selection of an update or delete, or null if
+     * there are more than {@link #MAX_ROW_NOTIFICATIONS}. Read in the write's transaction, so
+     * they are the rows it changes.
+     */
+    private static List<Long> selectProductIds(SQLiteDatabase db, String selection, String[] selectionArgs) {
+        Cursor cursor = db.query(ProductEntry.TABLE_NAME, new String[]{ProductEntry._ID}, selection,
+                selectionArgs, null, null, null, String.valueOf(MAX_ROW_NOTIFICATIONS + 1));
+        try {
+            if (cursor.getCount() > MAX_ROW_NOTIFICATIONS) {
+                return null;
+            }
+            List<Long> ids = new ArrayList<>(cursor.getCount());
+            while (cursor.moveToNext()) {
+                ids.add(cursor.getLong(0));
+            }
+            return ids;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Drop the given products from the cache and notify the listeners of each of them, then
+     * the listeners of the collection once. With null, or more than
+     * {@link #MAX_ROW_NOTIFICATIONS} ids, the whole cache is dropped and the listeners of all
+     * products are notified instead.
+     */
+    private void productsChanged(Collection<Long> ids) {
+        if (ids == null || ids.size() > MAX_ROW_NOTIFICATIONS) {
+            invalidateCache(ProductEntry.CONTENT_URI);
+            notifyChange(ProductEntry.CONTENT_URI);
+            return;
+        }
+        for (long id : ids) {
+            Uri productUri = ContentUris.withAppendedId(ProductEntry.CONTENT_URI, id);
+            invalidateCache(productUri);
+            notifyChange(productUri);
+        }
+        notifyChange(ProductEntry.CONTENT_COLLECTION_URI);
+    }
+
+    /**
+     * Notify all listeners that the data at the given URI has changed, or remember the URI
+     * if the change is part of a batch that hasn't been committed yet.
+     */
+    private void notifyChange(Uri uri) {
+        PendingChanges pending = mPendingChanges.get();
+        if (pending != null) {
+            pending.uris.add(uri);
+        } else {
+            getContext().getContentResolver().notifyChange(uri, null);
+            mMetrics.countNotification(sUriMatcher.match(uri));
+        }
+    }
+
+    /**
+     * Drop the products changed through the given URI from the cache: a single product for a
+     * product URI, all of them otherwise. Inside a batch, this happens once the batch has
+     * committed, so other threads can't cache the old rows again in the meantime.
+     */
+    private void invalidateCache(Uri uri) {
+        boolean singleProduct = sUriMatcher.match(uri) == PRODUCT_ID;
+        PendingChanges pending = mPendingChanges.get();
+        if (pending != null) {
+            if (singleProduct) {
+                pending.productIds.add(ContentUris.parseId(uri));
+            } else {
+                pending.allProducts = true;
+            }
+        } else if (singleProduct) {
+            mCache.invalidate(ContentUris.parseId(uri));
+        } else {
+            mCache.invalidateAll();
+        }
+    }
+
+
+}
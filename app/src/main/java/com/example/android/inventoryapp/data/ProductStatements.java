@@ -0,0 +1,100 @@
+package com.example.android.inventoryapp.data;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteCursor;
+import android.database.sqlite.SQLiteCursorDriver;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteQuery;
+import android.database.sqlite.SQLiteStatement;
+import android.text.TextUtils;
+
+import com.example.android.inventoryapp.data.ProductContract.ProductEntry;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Compiled statements for the provider's single product operations, which run far more often
+ * than anything else: the point lookup behind the product cache, the delete by id and the
+ * quantity changes. Each is compiled once and bound with the id as a long, instead of building
+ * the SQL, a String of the id and an argument array on every call.
+ * <p>
+ * A statement can only be bound by one thread at a time, so a call takes an instance from the
+ * provider's pool and gives it back when done, see {@link ProductProvider}. Instances are tied to
+ * one database; {@link #close} them when it's reopened.
+ */
+class ProductStatements implements SQLiteDatabase.CursorFactory {
+
+    /** Point lookup with the columns of the {@link ProductCache}. */
+    private static final String SQL_SELECT_PRODUCT = "SELECT " + TextUtils.join(", ", ProductCache.COLUMNS)
+            + " FROM " + ProductEntry.VIEW_NAME + " WHERE " + ProductEntry._ID + " = ?";
+
+    private static final String SQL_DELETE_PRODUCT = "DELETE FROM " + ProductEntry.TABLE_NAME
+            + " WHERE " + ProductEntry._ID + " = ?";
+
+    private final SQLiteDatabase mDatabase;
+    /** Statements compiled so far, by SQL. */
+    private final Map<String, SQLiteStatement> mStatements = new HashMap<>();
+    /** Id the next cursor of {@link #queryProduct} is bound with. */
+    private long mQueryId;
+
+    ProductStatements(SQLiteDatabase database) {
+        mDatabase = database;
+    }
+
+    /**
+     * Return true if these statements were compiled for the given database.
+     */
+    boolean isFor(SQLiteDatabase database) {
+        return mDatabase == database;
+    }
+
+    /**
+     * Return the statement for the given SQL, compiled the first time it's asked for. Its
+     * bindings are cleared; don't close it.
+     */
+    SQLiteStatement statement(String sql) {
+        SQLiteStatement statement = mStatements.get(sql);
+        if (statement == null) {
+            statement = mDatabase.compileStatement(sql);
+            mStatements.put(sql, statement);
+        } else {
+            statement.clearBindings();
+        }
+        return statement;
+    }
+
+    /**
+     * Query the product with the given id, with the columns of the {@link ProductCache}.
+     * Android only binds cursor arguments as strings; the cursor factory binds the id itself.
+     * The cursor owns its query, so unlike the other statements it's compiled for every call;
+     * the SQL is always the same, so the connection finds it in its statement cache.
+     */
+    Cursor queryProduct(long id) {
+        mQueryId = id;
+        return mDatabase.rawQueryWithFactory(this, SQL_SELECT_PRODUCT, null, null);
+    }
+
+    @Override
+    public Cursor newCursor(SQLiteDatabase db, SQLiteCursorDriver masterQuery, String editTable,
+                            SQLiteQuery query) {
+        query.bindLong(1, mQueryId);
+        return new SQLiteCursor(masterQuery, editTable, query);
+    }
+
+    /**
+     * Delete the product with the given id. Return the number of deleted rows.
+     */
+    int delete(long id) {
+        SQLiteStatement delete = statement(SQL_DELETE_PRODUCT);
+        delete.bindLong(1, id);
+        return delete.executeUpdateDelete();
+    }
+
+    void close() {
+        for (SQLiteStatement statement : mStatements.values()) {
+            statement.close();
+        }
+        mStatements.clear();
+    }
+}
@@ -0,0 +1,152 @@
+package com.example.android.inventoryapp.data;
+
+import android.content.ContentResolver;
+import android.os.Bundle;
+import android.util.Log;
+
+import com.example.android.inventoryapp.data.ProductContract.SyncEntry;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+
+/**
+ * Exchanges product changes with the inventory server. Only what changed since the last sync
+ * goes over the wire, in both directions: local changes come from the change log the database
+ * keeps with triggers, and the server returns the products changed after the cursor it handed
+ * out last time. Must not run on the main thread.
+ * <p>
+ * One round is a POST of a JSON request to the endpoint:
+ * <pre>
+ * {"device": "…", "request_id": "…:815", "since": 42, "changes": [
+ *     {"sync_id": "…", "created": true, "product_name": "…", "price": 10, "quantity_delta": -2,
+ *      "supplier_name": "…", "supplier_phone": "…", "reorder_level": 0},
+ *     {"sync_id": "…", "deleted": true}]}
+ * </pre>
+ * Quantities are sent as the sum of the local changes, so sales made on two devices add up
+ * instead of one overwriting the other. That makes a request that is applied twice count its
+ * sales twice: a request with changes carries an id, and one whose answer never arrived is
+ * sent again with the same id and the same changes. The server applies the changes of an id
+ * only once, and answers every request. The server applies the request first, then answers
+ * with every product changed after {@code since}, the request's own changes included, with
+ * absolute quantities:
+ * <pre>
+ * {"cursor": 57, "more": false, "products": [
+ *     {"sync_id": "…", "product_name": "…", "price": 10, "quantity": 3, "supplier_name": "…",
+ *      "supplier_phone": "…", "reorder_level": 0},
+ *     {"sync_id": "…", "deleted": true}]}
+ * </pre>
+ * The server keeps one phone number per supplier name. Rounds are repeated while either side
+ * has more to send. The endpoint is set per build type, see {@code BuildConfig.SYNC_SERVER_URL};
+ * debug builds use a mock server on the development machine.
+ */
+public class ProductSync {
+
+    private static final String LOG_TAG = ProductSync.class.getSimpleName();
+
+    private static final int CONNECT_TIMEOUT_MS = 15000;
+    private static final int READ_TIMEOUT_MS = 30000;
+
+    /** Give up rather than loop forever if the server keeps saying there's more. */
+    private static final int MAX_ROUNDS = 1000;
+
+    /**
+     * Outcome of a sync: local product changes sent, and products received from the server.
+     */
+    public static final class Result {
+        public final int sent;
+        public final int received;
+
+        Result(int sent, int received) {
+            this.sent = sent;
+            this.received = received;
+        }
+    }
+
+    private final ContentResolver mResolver;
+    private final URL mEndpoint;
+
+    public ProductSync(ContentResolver resolver, URL endpoint) {
+        mResolver = resolver;
+        mEndpoint = endpoint;
+    }
+
+    /**
+     * Send the local changes and apply those of the server until both are up to date. A failed
+     * round leaves its changes in the log, to be sent again by the next sync.
+     */
+    public Result sync() throws IOException {
+        // Two syncs at once would send the same changes twice, and quantity deltas add up
+        synchronized (ProductSync.class) {
+            int sent = 0;
+            int received = 0;
+            for (int round = 0; round < MAX_ROUNDS; round++) {
+                Bundle collected = mResolver.call(SyncEntry.CONTENT_URI,
+                        SyncEntry.METHOD_COLLECT_CHANGES, null, null);
+                String response = post(collected.getString(SyncEntry.EXTRA_REQUEST));
+
+                Bundle extras = new Bundle();
+                extras.putString(SyncEntry.EXTRA_RESPONSE, response);
+                extras.putLong(SyncEntry.EXTRA_THROUGH, collected.getLong(SyncEntry.EXTRA_THROUGH));
+                Bundle applied;
+                try {
+                    applied = mResolver.call(SyncEntry.CONTENT_URI, SyncEntry.METHOD_APPLY_CHANGES,
+                            null, extras);
+                } catch (IllegalArgumentException e) {
+                    throw new IOException("Invalid response from " + mEndpoint, e);
+                }
+
+                sent += collected.getInt(SyncEntry.EXTRA_CHANGE_COUNT);
+                received += applied.getInt(SyncEntry.EXTRA_CHANGE_COUNT);
+                if (!collected.getBoolean(SyncEntry.EXTRA_MORE) && !applied.getBoolean(SyncEntry.EXTRA_MORE)) {
+                    Log.v(LOG_TAG, "Synced with " + mEndpoint + ": sent " + sent + ", received " + received);
+                    return new Result(sent, received);
+                }
+            }
+            throw new IOException("Sync with " + mEndpoint + " didn't finish after " + MAX_ROUNDS + " rounds");
+        }
+    }
+
+    /**
+     * POST the request to the endpoint and return the body of the response.
+     */
+    private String post(String request) throws IOException {
+        byte[] body = request.getBytes("UTF-8");
+        HttpURLConnection connection = (HttpURLConnection) mEndpoint.openConnection();
+        try {
+            connection.setConnectTimeout(CONNECT_TIMEOUT_MS);
+            connection.setReadTimeout(READ_TIMEOUT_MS);
+            connection.setDoOutput(true);
+            connection.setFixedLengthStreamingMode(body.length);
+            connection.setRequestProperty("Content-Type", "application/json; charset=utf-8");
+            OutputStream out = connection.getOutputStream();
+            try {
+                out.write(body);
+            } finally {
+                out.close();
+            }
+
+            int status = connection.getResponseCode();
+            if (status != HttpURLConnection.HTTP_OK) {
+                throw new IOException("Server at " + mEndpoint + " answered " + status);
+            }
+            InputStream in = connection.getInputStream();
+            try {
+                ByteArrayOutputStream response = new ByteArrayOutputStream();
+                byte[] buffer = new byte[8192];
+                int read;
+                while ((read = in.read(buffer)) != -1) {
+                    response.write(buffer, 0, read);
+                }
+                return response.toString("UTF-8");
+            } finally {
+                in.close();
+            }
+        } finally {
+            connection.disconnect();
+        }
+    }
+}
@@ -0,0 +1,139 @@
+package com.example.android.inventoryapp.data;
+
+import android.content.ContentValues;
+
+import com.example.android.inventoryapp.R;
+import com.example.android.inventoryapp.data.ProductContract.ProductEntry;
+import com.example.android.inventoryapp.data.ProductContract.SupplierEntry;
+
+import java.util.regex.Pattern;
+
+/**
+ * Checks product and supplier values before they are written. The rules for all columns are
+ * declared once in {@link #PRODUCT_RULES} and {@link #SUPPLIER_RULES}, and shared by every write
+ * path of the {@link ProductProvider}. A check doesn't allocate or look up resources; only the id
+ * of the error message is returned, and resolved by the caller if the check failed.
+ */
+final class ProductValidator {
+
+    /** Returned by {@link #validate} if the values are valid. */
+    static final int VALID = 0;
+
+    private static final Pattern PHONE_PATTERN = Pattern.compile("[+]?[0-9]{7,13}$");
+
+    private enum Check {
+        /** Any text. */
+        TEXT,
+        /** Any integer. */
+        INTEGER,
+        /** An integer greater than 0. */
+        POSITIVE_INTEGER,
+        /** An integer of at least 0. */
+        NON_NEGATIVE_INTEGER,
+        /** A phone number matching {@link #PHONE_PATTERN}. */
+        PHONE
+    }
+
+    private static final class Rule {
+        final String column;
+        final Check check;
+        /** True if the column can be neither missing from a new product nor null. */
+        final boolean required;
+        /** Message if a required value is missing. */
+        final int missingError;
+        /** Message if the value is there but fails the check. */
+        final int invalidError;
+
+        Rule(String column, Check check, boolean required, int missingError, int invalidError) {
+            this.column = column;
+            this.check = check;
+            this.required = required;
+            this.missingError = missingError;
+            this.invalidError = invalidError;
+        }
+    }
+
+    private static final Rule[] PRODUCT_RULES = {
+            new Rule(ProductEntry.COLUMN_PRODUCT_NAME, Check.TEXT, true, R.string.name_empty, VALID),
+            new Rule(ProductEntry.COLUMN_PRICE, Check.POSITIVE_INTEGER, true, R.string.price_empty,
+                    R.string.price_equal_zero),
+            new Rule(ProductEntry.COLUMN_QUANTITY, Check.INTEGER, true, R.string.quantity_empty, VALID),
+            new Rule(ProductEntry.COLUMN_SUPPLIER_NAME, Check.TEXT, true, R.string.supplier_name_empty, VALID),
+            new Rule(ProductEntry.COLUMN_SUPPLIER_PHONE, Check.PHONE, false, VALID, R.string.invalid_phone),
+            new Rule(ProductEntry.COLUMN_REORDER_LEVEL, Check.NON_NEGATIVE_INTEGER, false, VALID,
+                    R.string.reorder_level_negative)
+    };
+
+    private static final Rule[] SUPPLIER_RULES = {
+            new Rule(SupplierEntry.COLUMN_SUPPLIER_NAME, Check.TEXT, true,
+                    R.string.supplier_name_empty, VALID),
+            new Rule(SupplierEntry.COLUMN_SUPPLIER_PHONE, Check.PHONE, false, VALID,
+                    R.string.invalid_phone)
+    };
+
+    private ProductValidator() {}
+
+    /**
+     * Check the given values. For a new product ({@code complete} is true) all required columns
+     * must be there; for an update only the columns present are checked. Return {@link #VALID},
+     * or the string resource id of the message for the first problem found.
+     */
+    static int validate(ContentValues values, boolean complete) {
+        return validate(PRODUCT_RULES, values, complete);
+    }
+
+    /**
+     * Check the given supplier values, the same way as {@link #validate} does for products.
+     */
+    static int validateSupplier(ContentValues values, boolean complete) {
+        return validate(SUPPLIER_RULES, values, complete);
+    }
+
+    private static int validate(Rule[] rules, ContentValues values, boolean complete) {
+        for (Rule rule : rules) {
+            if (!values.containsKey(rule.column)) {
+                if (complete && rule.required) {
+                    return rule.missingError;
+                }
+                continue;
+            }
+            int error = check(rule, values);
+            if (error != VALID) {
+                return error;
+            }
+        }
+        return VALID;
+    }
+
+    private static int check(Rule rule, ContentValues values) {
+        switch (rule.check) {
+            case TEXT:
+                if (values.get(rule.column) == null) {
+                    return rule.required ? rule.missingError : VALID;
+                }
+                return VALID;
+            case INTEGER:
+            case POSITIVE_INTEGER:
+            case NON_NEGATIVE_INTEGER:
+                // Also null if the value isn't a number. Optional integer columns have a
+                // default, but can't be set to null either.
+                Integer number = values.getAsInteger(rule.column);
+                if (number == null) {
+                    return rule.required ? rule.missingError : rule.invalidError;
+                }
+                if (rule.check == Check.POSITIVE_INTEGER && number <= 0
+                        || rule.check == Check.NON_NEGATIVE_INTEGER && number < 0) {
+                    return rule.invalidError;
+                }
+                return VALID;
+            case PHONE:
+                String phone = values.getAsString(rule.column);
+                if (phone == null) {
+                    return rule.required ? rule.missingError : VALID;
+                }
+                return PHONE_PATTERN.matcher(phone).matches() ? VALID : rule.invalidError;
+            default:
+                throw new AssertionError(rule.check);
+        }
+    }
+}
@@ -0,0 +1,164 @@
+package com.example.android.inventoryapp.data;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.content.Context;
+import android.net.Uri;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs inserts, updates, deletes and calls of the {@link ContentResolver} off the main thread.
+ * All writes go through a single thread, one at a time in the order they were submitted, so
+ * two writes to the same URI never overtake each other. Results and errors are delivered to a
+ * {@link Callback} on the main thread, and are also available from the returned {@link Future}.
+ */
+public class ProductWriter {
+
+    private static final String LOG_TAG = ProductWriter.class.getSimpleName();
+
+    /** Maximum number of writes waiting for the writer thread. */
+    private static final int MAX_QUEUED_WRITES = 64;
+
+    /** Keep the thread around for a while after the last write, then let it go. */
+    private static final long KEEP_ALIVE_SECONDS = 30;
+
+    /**
+     * Receives the outcome of a write on the main thread. Exactly one of the methods is called.
+     */
+    public interface Callback<T> {
+        void onSuccess(T result);
+
+        /**
+         * The write threw, e.g. an {@link IllegalArgumentException} with a user readable message
+         * if the provider rejected the values, or the writer's queue was full.
+         */
+        void onFailure(RuntimeException error);
+    }
+
+    private static ProductWriter sInstance;
+
+    private final ContentResolver mResolver;
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    private final ThreadPoolExecutor mExecutor;
+
+    /**
+     * Return the writer of this process.
+     */
+    public static synchronized ProductWriter getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new ProductWriter(context.getApplicationContext().getContentResolver());
+        }
+        return sInstance;
+    }
+
+    private ProductWriter(ContentResolver resolver) {
+        mResolver = resolver;
+        mExecutor = new ThreadPoolExecutor(1, 1, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(MAX_QUEUED_WRITES), new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                return new Thread(runnable, "ProductWriter");
+            }
+        });
+        mExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    public Future<Uri> insert(final Uri uri, final ContentValues values, Callback<Uri> callback) {
+        return submit(new Callable<Uri>() {
+            @Override
+            public Uri call() {
+                return mResolver.insert(uri, values);
+            }
+        }, callback);
+    }
+
+    public Future<Integer> update(final Uri uri, final ContentValues values, final String selection,
+                                  final String[] selectionArgs, Callback<Integer> callback) {
+        return submit(new Callable<Integer>() {
+            @Override
+            public Integer call() {
+                return mResolver.update(uri, values, selection, selectionArgs);
+            }
+        }, callback);
+    }
+
+    public Future<Integer> delete(final Uri uri, final String selection, final String[] selectionArgs,
+                                  Callback<Integer> callback) {
+        return submit(new Callable<Integer>() {
+            @Override
+            public Integer call() {
+                return mResolver.delete(uri, selection, selectionArgs);
+            }
+        }, callback);
+    }
+
+    public Future<Bundle> call(final Uri uri, final String method, final String arg, final Bundle extras,
+                               Callback<Bundle> callback) {
+        return submit(new Callable<Bundle>() {
+            @Override
+            public Bundle call() {
+                return mResolver.call(uri, method, arg, extras);
+            }
+        }, callback);
+    }
+
+    /**
+     * Queue the write. The callback, if any, is called on the main thread once it has run.
+     * If the queue is full the write is dropped and the callback told so right away.
+     */
+    private <T> Future<T> submit(final Callable<T> write, final Callback<T> callback) {
+        FutureTask<T> task = new FutureTask<T>(write) {
+            @Override
+            protected void done() {
+                if (callback == null || isCancelled()) {
+                    return;
+                }
+                T result = null;
+                RuntimeException error = null;
+                try {
+                    result = get();
+                } catch (Exception e) {
+                    Throwable cause = e.getCause() != null ? e.getCause() : e;
+                    error = cause instanceof RuntimeException
+                            ? (RuntimeException) cause : new RuntimeException(cause);
+                }
+                deliver(callback, result, error);
+            }
+        };
+        try {
+            mExecutor.execute(task);
+        } catch (RejectedExecutionException e) {
+            Log.e(LOG_TAG, "Too many pending writes, dropped one", e);
+            task.cancel(false);
+            if (callback != null) {
+                deliver(callback, null, e);
+            }
+        }
+        return task;
+    }
+
+    private <T> void deliver(final Callback<T> callback, final T result, final RuntimeException error) {
+        mMainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (error == null) {
+                    callback.onSuccess(result);
+                } else {
+                    callback.onFailure(error);
+                }
+            }
+        });
+    }
+}
@@ -0,0 +1,168 @@
+package com.example.android.inventoryapp.data;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counters for the operations of the {@link ProductProvider}, keyed by operation and by the code
+ * the URI matched, or the code of the method for a call. Every operation has a latency histogram
+ * and a row count; transactions have a duration histogram and notifications a count.
+ * <p>
+ * Recording only does a few atomic increments on preallocated arrays: no locks, no allocation,
+ * so it can stay on in production. Counters are read without stopping writers, so a dump may be
+ * off by the operations that finish while it's taken.
+ */
+class ProviderMetrics {
+
+    static final int OP_QUERY = 0;
+    static final int OP_INSERT = 1;
+    static final int OP_BULK_INSERT = 2;
+    static final int OP_UPDATE = 3;
+    static final int OP_DELETE = 4;
+    static final int OP_CALL = 5;
+    static final int OP_APPLY_BATCH = 6;
+    /** A database transaction of any of the above, from begin to end. */
+    static final int OP_TRANSACTION = 7;
+    private static final int OP_COUNT = 8;
+
+    private static final String[] OP_NAMES = {
+            "query", "insert", "bulkInsert", "update", "delete", "call", "applyBatch", "transaction"
+    };
+
+    /**
+     * Histogram buckets by powers of two of microseconds: bucket 0 holds durations below 1 us,
+     * bucket i those from 2^(i-1) up to 2^i us. The last one also takes everything longer.
+     */
+    private static final int BUCKETS = 24;
+
+    // Slots of every (operation, URI code) record, after the histogram buckets
+    private static final int COUNT = BUCKETS;
+    private static final int TOTAL_NANOS = BUCKETS + 1;
+    private static final int MAX_NANOS = BUCKETS + 2;
+    private static final int ROWS = BUCKETS + 3;
+    private static final int NOTIFICATIONS = BUCKETS + 4;
+    private static final int RECORD_SIZE = BUCKETS + 5;
+
+    private final int mFirstCode;
+    /** Names of the URI codes, the last entry stands for any code not covered by the others. */
+    private final String[] mCodeNames;
+    private final AtomicLongArray mCounters;
+
+    /**
+     * @param firstCode the lowest URI code
+     * @param codeNames names of the URI codes firstCode, firstCode + 1, and so on. Any other
+     *                  code (including UriMatcher.NO_MATCH) is counted as "other".
+     */
+    ProviderMetrics(int firstCode, String[] codeNames) {
+        mFirstCode = firstCode;
+        mCodeNames = new String[codeNames.length + 1];
+        System.arraycopy(codeNames, 0, mCodeNames, 0, codeNames.length);
+        mCodeNames[codeNames.length] = "other";
+        mCounters = new AtomicLongArray(OP_COUNT * mCodeNames.length * RECORD_SIZE);
+    }
+
+    /**
+     * Record an operation that started at the given {@link System#nanoTime} and touched the
+     * given number of rows. For a query these are the rows returned, if the caller knows them
+     * without reading the cursor, otherwise 0.
+     */
+    void record(int op, int uriCode, long startNanos, int rows) {
+        long nanos = System.nanoTime() - startNanos;
+        int base = recordBase(op, uriCode);
+        mCounters.incrementAndGet(base + bucketOf(nanos));
+        mCounters.incrementAndGet(base + COUNT);
+        mCounters.addAndGet(base + TOTAL_NANOS, nanos);
+        mCounters.addAndGet(base + ROWS, rows);
+        long max;
+        while (nanos > (max = mCounters.get(base + MAX_NANOS))) {
+            if (mCounters.compareAndSet(base + MAX_NANOS, max, nanos)) {
+                break;
+            }
+        }
+    }
+
+    /**
+     * Count a change notification sent for a URI with the given code.
+     */
+    void countNotification(int uriCode) {
+        // Notifications aren't operations, they are kept with the queries of the same URI
+        mCounters.incrementAndGet(recordBase(OP_QUERY, uriCode) + NOTIFICATIONS);
+    }
+
+    /**
+     * Set all counters back to 0.
+     */
+    void reset() {
+        for (int i = 0; i < mCounters.length(); i++) {
+            mCounters.set(i, 0);
+        }
+    }
+
+    /**
+     * Return the counters as a table, one line per operation and URI that has been used.
+     */
+    String dump() {
+        StringWriter text = new StringWriter();
+        dump(new PrintWriter(text));
+        return text.toString();
+    }
+
+    /**
+     * Write the counters as a table, one line per operation and URI that has been used.
+     * Percentiles are the upper bound of their histogram bucket.
+     */
+    void dump(PrintWriter writer) {
+        writer.println(String.format(Locale.US, "%-12s %-28s %9s %11s %9s %9s %9s %9s %9s %9s",
+                "op", "uri_or_method", "count", "rows", "mean_us", "p50_us", "p90_us", "p99_us", "max_us", "notified"));
+        for (int op = 0; op < OP_COUNT; op++) {
+            for (int code = 0; code < mCodeNames.length; code++) {
+                int base = (op * mCodeNames.length + code) * RECORD_SIZE;
+                long count = mCounters.get(base + COUNT);
+                long notifications = mCounters.get(base + NOTIFICATIONS);
+                if (count == 0 && notifications == 0) {
+                    continue;
+                }
+                writer.println(String.format(Locale.US, "%-12s %-28s %9d %11d %9d %9d %9d %9d %9d %9d",
+                        OP_NAMES[op], mCodeNames[code], count, mCounters.get(base + ROWS),
+                        count == 0 ? 0 : mCounters.get(base + TOTAL_NANOS) / count / 1000,
+                        percentile(base, count, 0.5), percentile(base, count, 0.9),
+                        percentile(base, count, 0.99), mCounters.get(base + MAX_NANOS) / 1000,
+                        notifications));
+            }
+        }
+        writer.flush();
+    }
+
+    private int recordBase(int op, int uriCode) {
+        int code = uriCode - mFirstCode;
+        if (code < 0 || code >= mCodeNames.length - 1) {
+            code = mCodeNames.length - 1;
+        }
+        return (op * mCodeNames.length + code) * RECORD_SIZE;
+    }
+
+    /**
+     * Return the upper bound in microseconds of the bucket holding the given fraction of the
+     * recorded durations.
+     */
+    private long percentile(int base, long count, double fraction) {
+        long target = (long) Math.ceil(count * fraction);
+        long seen = 0;
+        for (int bucket = 0; bucket < BUCKETS; bucket++) {
+            seen += mCounters.get(base + bucket);
+            if (seen >= target) {
+                return 1L << bucket;
+            }
+        }
+        return 1L << (BUCKETS - 1);
+    }
+
+    private static int bucketOf(long nanos) {
+        long micros = nanos / 1000;
+        // Number of bits needed for the micros: 0 for 0, 1 for 1, 2 for 2-3, and so on
+        int bucket = 64 - Long.numberOfLeadingZeros(micros);
+        return Math.min(bucket, BUCKETS - 1);
+    }
+}
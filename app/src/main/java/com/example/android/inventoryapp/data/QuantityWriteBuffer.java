@@ -0,0 +1,348 @@
+package com.example.android.inventoryapp.data;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.Process;
+import android.util.Log;
+import android.util.LongSparseArray;
+
+import com.example.android.inventoryapp.data.ProductContract.MovementEntry;
+import com.example.android.inventoryapp.data.ProductContract.ProductEntry;
+
+import java.util.UUID;
+
+/**
+ * Write-behind buffer for quantity changes. Taps on the sell and +/- buttons only add to a delta
+ * per product and movement type in memory, which the UI shows right away. A background thread
+ * writes all pending deltas to the provider in one transaction (and so one change notification) at
+ * most every {@link #FLUSH_INTERVAL_MS}, or immediately when {@link #flush} is called.
+ * <p>
+ * Pending deltas are journaled to shared preferences, committed on the buffer's thread right
+ * after each tap, so taps survive the process being killed before they are written. Every flush
+ * carries a token that the provider remembers, so a flush that is repeated after the process
+ * died half way is applied only once.
+ * <p>
+ * Changes to a product that add up to more than its stock empty it instead; the
+ * {@link StockShortageListener} is told.
+ */
+public class QuantityWriteBuffer {
+
+    private static final String LOG_TAG = QuantityWriteBuffer.class.getSimpleName();
+
+    /** Longest time a change waits in memory before it is written. */
+    private static final long FLUSH_INTERVAL_MS = 500;
+
+    private static final String PREFERENCES_NAME = "quantity_write_buffer";
+    private static final String KEY_PENDING = "pending";
+    private static final String KEY_IN_FLIGHT = "in_flight";
+    private static final String KEY_IN_FLIGHT_TOKEN = "in_flight_token";
+
+    /**
+     * Deltas are kept by product id with the movement type in the bits above it, so sales and
+     * adjustments of a product add up separately and a flush is ordered by type.
+     */
+    private static final int TYPE_SHIFT = 48;
+    private static final long PRODUCT_ID_MASK = (1L << TYPE_SHIFT) - 1;
+
+    /**
+     * Told on the main thread about products whose stock ran out before their buffered changes
+     * were written, so their quantity stopped at 0 and some taps were lost.
+     */
+    public interface StockShortageListener {
+        void onStockShortage(long[] productIds);
+    }
+
+    private static QuantityWriteBuffer sInstance;
+
+    private final Context mContext;
+    private final SharedPreferences mJournal;
+    private final Handler mHandler;
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    /** Main thread only. */
+    private StockShortageListener mStockShortageListener;
+
+    /** Deltas not written yet, by {@link #key}. Guarded by this. */
+    private final LongSparseArray<Integer> mPending = new LongSparseArray<>();
+    /** Deltas of the flush being written, still shown until they are committed. Guarded by this. */
+    private LongSparseArray<Integer> mInFlight = new LongSparseArray<>();
+    private String mInFlightToken;
+    private boolean mFlushScheduled;
+    private boolean mJournalScheduled;
+
+    private final Runnable mFlushRunnable = new Runnable() {
+        @Override
+        public void run() {
+            writePending();
+        }
+    };
+
+    private final Runnable mJournalRunnable = new Runnable() {
+        @Override
+        public void run() {
+            journalPending();
+        }
+    };
+
+    /**
+     * Return the buffer of this process.
+     */
+    public static synchronized QuantityWriteBuffer getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new QuantityWriteBuffer(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    private QuantityWriteBuffer(Context context) {
+        mContext = context;
+        mJournal = context.getSharedPreferences(PREFERENCES_NAME, Context.MODE_PRIVATE);
+        HandlerThread thread = new HandlerThread("QuantityWriteBuffer", Process.THREAD_PRIORITY_BACKGROUND);
+        thread.start();
+        mHandler = new Handler(thread.getLooper());
+
+        // Changes journaled by a previous process are written first
+        decode(mJournal.getString(KEY_IN_FLIGHT, ""), mInFlight);
+        mInFlightToken = mJournal.getString(KEY_IN_FLIGHT_TOKEN, null);
+        if (mInFlightToken == null) {
+            mInFlightToken = UUID.randomUUID().toString();
+        }
+        decode(mJournal.getString(KEY_PENDING, ""), mPending);
+        if (mInFlight.size() > 0 || mPending.size() > 0) {
+            mHandler.post(mFlushRunnable);
+        }
+    }
+
+    /**
+     * Set the listener told about products that ran out of stock, null for none. Main thread
+     * only.
+     */
+    public void setStockShortageListener(StockShortageListener listener) {
+        mStockShortageListener = listener;
+    }
+
+    /**
+     * Add the delta to the quantity of a product, to be recorded as the given
+     * {@link MovementEntry} type. Returns immediately, the change is journaled right away and
+     * written within {@link #FLUSH_INTERVAL_MS}.
+     */
+    public synchronized void add(long productId, int delta, int movementType) {
+        if (delta == 0) {
+            return;
+        }
+        long key = key(productId, movementType);
+        int pending = mPending.get(key, 0) + delta;
+        if (pending == 0) {
+            mPending.remove(key);
+        } else {
+            mPending.put(key, pending);
+        }
+        // apply() could lose the tap if the process dies before it reaches the disk, and
+        // commit() would wait for the disk on the main thread
+        if (!mJournalScheduled) {
+            mJournalScheduled = true;
+            mHandler.post(mJournalRunnable);
+        }
+        if (!mFlushScheduled) {
+            mFlushScheduled = true;
+            mHandler.postDelayed(mFlushRunnable, FLUSH_INTERVAL_MS);
+        }
+    }
+
+    /**
+     * Return the change to the product's quantity that isn't committed to the database yet.
+     */
+    public synchronized int getPendingDelta(long productId) {
+        if (mPending.size() == 0 && mInFlight.size() == 0) {
+            return 0;
+        }
+        int delta = 0;
+        for (int type = MovementEntry.TYPE_SALE; type <= MovementEntry.TYPE_ADJUSTMENT; type++) {
+            long key = key(productId, type);
+            delta += mPending.get(key, 0) + mInFlight.get(key, 0);
+        }
+        return delta;
+    }
+
+    /**
+     * Tell the buffer that the batch with the given token is in the database. Called by the
+     * provider after the commit and before it notifies anyone, so lists that reload don't add
+     * the batch to quantities that already have it.
+     */
+    static void batchApplied(String token) {
+        QuantityWriteBuffer buffer;
+        synchronized (QuantityWriteBuffer.class) {
+            buffer = sInstance;
+        }
+        if (buffer != null) {
+            buffer.clearInFlight(token);
+        }
+    }
+
+    private synchronized void clearInFlight(String token) {
+        if (!token.equals(mInFlightToken)) {
+            return;
+        }
+        mInFlight = new LongSparseArray<>();
+        mInFlightToken = null;
+        // Lost on a crash the batch is sent again, and ignored for its token
+        mJournal.edit().remove(KEY_IN_FLIGHT).remove(KEY_IN_FLIGHT_TOKEN).apply();
+    }
+
+    private static long key(long productId, int movementType) {
+        return (long) movementType << TYPE_SHIFT | productId;
+    }
+
+    /**
+     * Write the pending changes now instead of waiting for the flush interval, e.g. because the
+     * app is going to the background. Returns immediately.
+     */
+    public synchronized void flush() {
+        mHandler.removeCallbacks(mFlushRunnable);
+        mFlushScheduled = true;
+        mHandler.post(mFlushRunnable);
+    }
+
+    /**
+     * Commit the pending deltas to the journal. Runs on the buffer's thread only.
+     */
+    private void journalPending() {
+        String pending;
+        synchronized (this) {
+            mJournalScheduled = false;
+            pending = encode(mPending);
+        }
+        mJournal.edit().putString(KEY_PENDING, pending).commit();
+    }
+
+    /**
+     * Write the in-flight changes left by an earlier attempt, then everything pending, each in
+     * a single provider call. Runs on the buffer's thread only.
+     */
+    private void writePending() {
+        long[] ids;
+        int[] deltas;
+        int[] types;
+        String token;
+        String inFlightJournal = null;
+        synchronized (this) {
+            mFlushScheduled = false;
+            if (mInFlight.size() == 0) {
+                if (mPending.size() == 0) {
+                    return;
+                }
+                // Swap the pending deltas into flight
+                mInFlight = clone(mPending);
+                mInFlightToken = UUID.randomUUID().toString();
+                mPending.clear();
+                inFlightJournal = encode(mInFlight);
+            }
+            int size = mInFlight.size();
+            ids = new long[size];
+            deltas = new int[size];
+            types = new int[size];
+            for (int i = 0; i < size; i++) {
+                long key = mInFlight.keyAt(i);
+                ids[i] = key & PRODUCT_ID_MASK;
+                types[i] = (int) (key >>> TYPE_SHIFT);
+                deltas[i] = mInFlight.valueAt(i);
+            }
+            token = mInFlightToken;
+        }
+        if (inFlightJournal != null) {
+            // Journal the batch before writing it, so a crash from here on repeats this very
+            // batch with the same token. Outside the lock, which taps on the main thread take;
+            // journal writes of later taps run after this one on this thread.
+            mJournal.edit()
+                    .putString(KEY_IN_FLIGHT, inFlightJournal)
+                    .putString(KEY_IN_FLIGHT_TOKEN, token)
+                    .putString(KEY_PENDING, "")
+                    .commit();
+        }
+
+        Bundle extras = new Bundle();
+        extras.putLongArray(ProductEntry.EXTRA_PRODUCT_IDS, ids);
+        extras.putIntArray(ProductEntry.EXTRA_QUANTITY_DELTAS, deltas);
+        extras.putIntArray(ProductEntry.EXTRA_MOVEMENT_TYPES, types);
+        Bundle result;
+        try {
+            result = mContext.getContentResolver().call(ProductEntry.CONTENT_URI,
+                    ProductEntry.METHOD_APPLY_QUANTITY_DELTAS, token, extras);
+        } catch (RuntimeException e) {
+            // Keep the batch in flight and try again later
+            Log.e(LOG_TAG, "Unable to write " + ids.length + " quantity changes", e);
+            synchronized (this) {
+                if (!mFlushScheduled) {
+                    mFlushScheduled = true;
+                    mHandler.postDelayed(mFlushRunnable, FLUSH_INTERVAL_MS);
+                }
+            }
+            return;
+        }
+
+        // Normally the provider has done this already
+        clearInFlight(token);
+        synchronized (this) {
+            if (mPending.size() > 0 && !mFlushScheduled) {
+                // Taps that came in while writing wait for the next interval
+                mFlushScheduled = true;
+                mHandler.postDelayed(mFlushRunnable, FLUSH_INTERVAL_MS);
+            }
+        }
+
+        final long[] shortIds = result != null ? result.getLongArray(ProductEntry.EXTRA_SHORT_PRODUCT_IDS) : null;
+        if (shortIds != null && shortIds.length > 0) {
+            Log.w(LOG_TAG, shortIds.length + " products ran out of stock before their changes were written");
+            mMainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    if (mStockShortageListener != null) {
+                        mStockShortageListener.onStockShortage(shortIds);
+                    }
+                }
+            });
+        }
+    }
+
+    private static LongSparseArray<Integer> clone(LongSparseArray<Integer> deltas) {
+        LongSparseArray<Integer> copy = new LongSparseArray<>();
+        for (int i = 0; i < deltas.size(); i++) {
+            copy.put(deltas.keyAt(i), deltas.valueAt(i));
+        }
+        return copy;
+    }
+
+    /**
+     * Journal format: "id:delta:type" entries separated by commas.
+     */
+    private static String encode(LongSparseArray<Integer> deltas) {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < deltas.size(); i++) {
+            if (i > 0) {
+                builder.append(',');
+            }
+            long key = deltas.keyAt(i);
+            builder.append(key & PRODUCT_ID_MASK).append(':').append(deltas.valueAt(i))
+                    .append(':').append(key >>> TYPE_SHIFT);
+        }
+        return builder.toString();
+    }
+
+    private static void decode(String journal, LongSparseArray<Integer> deltas) {
+        if (journal.isEmpty()) {
+            return;
+        }
+        for (String entry : journal.split(",")) {
+            String[] fields = entry.split(":");
+            try {
+                long key = key(Long.parseLong(fields[0]), Integer.parseInt(fields[2]));
+                deltas.put(key, deltas.get(key, 0) + Integer.parseInt(fields[1]));
+            } catch (NumberFormatException | ArrayIndexOutOfBoundsException e) {
+                Log.w(LOG_TAG, "Dropped unreadable journal entry " + entry);
+            }
+        }
+    }
+}
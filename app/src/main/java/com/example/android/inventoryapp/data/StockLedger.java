@@ -0,0 +1,180 @@
+package com.example.android.inventoryapp.data;
+
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteDoneException;
+import android.database.sqlite.SQLiteStatement;
+import android.os.Bundle;
+import android.util.Log;
+
+import com.example.android.inventoryapp.data.ProductContract.MovementEntry;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The database side of the stock movement ledger, behind the provider methods of
+ * {@link MovementEntry}. Movements are written by triggers; this answers point in time queries
+ * and compacts the ledger.
+ * <p>
+ * A compaction snapshots the stock of every product moved since the last one, as of the last
+ * movement it includes, and deletes the movements that are older than {@link #RETENTION_MS} and
+ * covered by a snapshot. The stock at a time is the last snapshot before it plus the movements
+ * after the snapshot, which are never more than one compaction interval's worth. Both tables are
+ * read through indexes that start with the product, so the cost of a query doesn't grow with the
+ * size of the ledger.
+ */
+class StockLedger {
+
+    private static final String LOG_TAG = StockLedger.class.getSimpleName();
+
+    /** Most movements snapshotted, and most deleted, by one compaction transaction. */
+    private static final int MAX_MOVEMENTS_PER_COMPACTION = 10000;
+
+    /** How long movements are kept; before that the stock is known as of the snapshots. */
+    static final long RETENTION_MS = TimeUnit.DAYS.toMillis(90);
+
+    /** Sets the type of the movements recorded by the triggers, null for their default. */
+    static final String SQL_SET_MOVEMENT_TYPE = "UPDATE " + MovementEntry.STATE_TABLE_NAME + " SET "
+            + MovementEntry.COLUMN_CURRENT_TYPE + " = ?";
+
+    /** The last snapshot of the product before a time, if any. */
+    private static final String SQL_LAST_SNAPSHOT = "SELECT " + MovementEntry.COLUMN_QUANTITY + ", "
+            + MovementEntry.COLUMN_CREATED + ", " + MovementEntry.COLUMN_MOVEMENT_ID + " FROM "
+            + MovementEntry.SNAPSHOTS_TABLE_NAME + " WHERE " + MovementEntry.COLUMN_PRODUCT_ID + " = ?1 AND "
+            + MovementEntry.COLUMN_CREATED + " <= ?2 ORDER BY " + MovementEntry.COLUMN_CREATED + " DESC, "
+            + MovementEntry.COLUMN_MOVEMENT_ID + " DESC LIMIT 1";
+
+    /**
+     * Stock of a product (?1) at a time (?2): the last snapshot plus the movements after it. The
+     * time of the snapshot bounds the range of the index that's read, the movement id makes it
+     * exact. Joined to a constant row, so there's a result without a snapshot too.
+     */
+    private static final String SQL_STOCK_AT = "SELECT IFNULL(s." + MovementEntry.COLUMN_QUANTITY
+            + ", 0) + IFNULL((SELECT SUM(" + MovementEntry.COLUMN_QUANTITY_DELTA + ") FROM "
+            + MovementEntry.TABLE_NAME + " m WHERE m." + MovementEntry.COLUMN_PRODUCT_ID + " = ?1 AND m."
+            + MovementEntry.COLUMN_CREATED + " >= IFNULL(s." + MovementEntry.COLUMN_CREATED + ", 0) AND m."
+            + MovementEntry.COLUMN_CREATED + " <= ?2 AND m." + MovementEntry._ID + " > IFNULL(s."
+            + MovementEntry.COLUMN_MOVEMENT_ID + ", 0)), 0) FROM (SELECT 1) LEFT JOIN ("
+            + SQL_LAST_SNAPSHOT + ") s";
+
+    private static final String SQL_SELECT_SNAPSHOT_THROUGH = "SELECT "
+            + MovementEntry.COLUMN_SNAPSHOT_THROUGH + " FROM " + MovementEntry.STATE_TABLE_NAME;
+
+    /** Id of the last movement of a full compaction, if there are that many after the given id. */
+    private static final String SQL_SELECT_CHUNK_END = "SELECT " + MovementEntry._ID + " FROM "
+            + MovementEntry.TABLE_NAME + " WHERE " + MovementEntry._ID + " > ? ORDER BY " + MovementEntry._ID
+            + " LIMIT 1 OFFSET " + (MAX_MOVEMENTS_PER_COMPACTION - 1);
+
+    private static final String SQL_SELECT_LAST_MOVEMENT = "SELECT IFNULL(MAX(" + MovementEntry._ID
+            + "), 0) FROM " + MovementEntry.TABLE_NAME;
+
+    /**
+     * Snapshot the products moved in a range of movement ids (?1, ?2]: their last snapshot plus
+     * the movements of the range, as of the last movement.
+     */
+    private static final String SQL_INSERT_SNAPSHOTS = "INSERT INTO " + MovementEntry.SNAPSHOTS_TABLE_NAME
+            + " (" + MovementEntry.COLUMN_PRODUCT_ID + ", " + MovementEntry.COLUMN_CREATED + ", "
+            + MovementEntry.COLUMN_MOVEMENT_ID + ", " + MovementEntry.COLUMN_QUANTITY + ") SELECT "
+            + MovementEntry.COLUMN_PRODUCT_ID + ", (SELECT " + MovementEntry.COLUMN_CREATED + " FROM "
+            + MovementEntry.TABLE_NAME + " WHERE " + MovementEntry._ID + " = ?2), ?2, IFNULL((SELECT "
+            + MovementEntry.COLUMN_QUANTITY + " FROM " + MovementEntry.SNAPSHOTS_TABLE_NAME + " s WHERE s."
+            + MovementEntry.COLUMN_PRODUCT_ID + " = m." + MovementEntry.COLUMN_PRODUCT_ID + " ORDER BY "
+            + MovementEntry.COLUMN_CREATED + " DESC, " + MovementEntry.COLUMN_MOVEMENT_ID + " DESC LIMIT 1), 0) + SUM("
+            + MovementEntry.COLUMN_QUANTITY_DELTA + ") FROM " + MovementEntry.TABLE_NAME + " m WHERE "
+            + MovementEntry._ID + " > ?1 AND " + MovementEntry._ID + " <= ?2 GROUP BY "
+            + MovementEntry.COLUMN_PRODUCT_ID;
+
+    private static final String SQL_SET_SNAPSHOT_THROUGH = "UPDATE " + MovementEntry.STATE_TABLE_NAME
+            + " SET " + MovementEntry.COLUMN_SNAPSHOT_THROUGH + " = ?";
+
+    /**
+     * Last movement covered by the snapshots of the last compaction before a time. Compactions
+     * run in order, so every movement up to it is in a snapshot.
+     */
+    private static final String SQL_SELECT_EXPIRED_THROUGH = "SELECT " + MovementEntry.COLUMN_MOVEMENT_ID
+            + " FROM " + MovementEntry.SNAPSHOTS_TABLE_NAME + " WHERE " + MovementEntry.COLUMN_CREATED
+            + " < ? ORDER BY " + MovementEntry.COLUMN_CREATED + " DESC, " + MovementEntry.COLUMN_MOVEMENT_ID
+            + " DESC LIMIT 1";
+
+    /** Oldest movements up to an id, a range of row ids. */
+    private static final String SQL_DELETE_EXPIRED = "DELETE FROM " + MovementEntry.TABLE_NAME + " WHERE "
+            + MovementEntry._ID + " IN (SELECT " + MovementEntry._ID + " FROM " + MovementEntry.TABLE_NAME
+            + " WHERE " + MovementEntry._ID + " <= ? ORDER BY " + MovementEntry._ID + " LIMIT "
+            + MAX_MOVEMENTS_PER_COMPACTION + ")";
+
+    private final SQLiteDatabase mDatabase;
+
+    StockLedger(SQLiteDatabase database) {
+        mDatabase = database;
+    }
+
+    /**
+     * Return the stock of the product at the given time, see {@link MovementEntry#METHOD_STOCK_AT}.
+     */
+    long stockAt(long productId, long time) {
+        return DatabaseUtils.longForQuery(mDatabase, SQL_STOCK_AT,
+                new String[]{String.valueOf(productId), String.valueOf(time)});
+    }
+
+    /**
+     * Take the next snapshot and delete expired movements, in one transaction, see
+     * {@link MovementEntry#METHOD_COMPACT}.
+     */
+    Bundle compact(long now) {
+        int snapshotted = 0;
+        int deleted = 0;
+        boolean more;
+
+        mDatabase.beginTransaction();
+        SQLiteStatement statement = null;
+        try {
+            long through = DatabaseUtils.longForQuery(mDatabase, SQL_SELECT_SNAPSHOT_THROUGH, null);
+            long end;
+            try {
+                end = DatabaseUtils.longForQuery(mDatabase, SQL_SELECT_CHUNK_END,
+                        new String[]{String.valueOf(through)});
+                more = true;
+            } catch (SQLiteDoneException e) {
+                end = DatabaseUtils.longForQuery(mDatabase, SQL_SELECT_LAST_MOVEMENT, null);
+                more = false;
+            }
+            if (end > through) {
+                statement = mDatabase.compileStatement(SQL_INSERT_SNAPSHOTS);
+                statement.bindLong(1, through);
+                statement.bindLong(2, end);
+                snapshotted = statement.executeUpdateDelete();
+                statement.close();
+                statement = mDatabase.compileStatement(SQL_SET_SNAPSHOT_THROUGH);
+                statement.bindLong(1, end);
+                statement.executeUpdateDelete();
+                statement.close();
+                statement = null;
+            }
+
+            long expiredThrough;
+            try {
+                expiredThrough = DatabaseUtils.longForQuery(mDatabase, SQL_SELECT_EXPIRED_THROUGH,
+                        new String[]{String.valueOf(now - RETENTION_MS)});
+            } catch (SQLiteDoneException e) {
+                expiredThrough = 0;
+            }
+            if (expiredThrough > 0) {
+                statement = mDatabase.compileStatement(SQL_DELETE_EXPIRED);
+                statement.bindLong(1, expiredThrough);
+                deleted = statement.executeUpdateDelete();
+                more |= deleted == MAX_MOVEMENTS_PER_COMPACTION;
+            }
+            mDatabase.setTransactionSuccessful();
+        } finally {
+            mDatabase.endTransaction();
+            if (statement != null) {
+                statement.close();
+            }
+        }
+
+        Log.v(LOG_TAG, "Snapshotted " + snapshotted + " products, deleted " + deleted + " movements");
+        Bundle result = new Bundle();
+        result.putBoolean(MovementEntry.EXTRA_MORE, more);
+        return result;
+    }
+}
@@ -0,0 +1,160 @@
+package com.example.android.inventoryapp.data;
+
+import android.content.ContentValues;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteDoneException;
+import android.database.sqlite.SQLiteStatement;
+
+import com.example.android.inventoryapp.data.ProductContract.ProductEntry;
+import com.example.android.inventoryapp.data.ProductContract.SupplierEntry;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Turns the supplier name and phone written with a product into the id of a row of
+ * {@link SupplierEntry#TABLE_NAME}, creating the supplier if there is none of that name yet.
+ * The statements are compiled once and ids are remembered, so a bulk insert looks up each
+ * supplier only once. Use inside the transaction of the product write, then {@link #close}.
+ */
+class SupplierResolver {
+
+    private static final String SQL_SELECT_SUPPLIER = "SELECT " + SupplierEntry._ID + " FROM "
+            + SupplierEntry.TABLE_NAME + " WHERE " + SupplierEntry.COLUMN_SUPPLIER_NAME + " = ?";
+
+    private static final String SQL_INSERT_SUPPLIER = "INSERT INTO " + SupplierEntry.TABLE_NAME + " ("
+            + SupplierEntry.COLUMN_SUPPLIER_NAME + ", " + SupplierEntry.COLUMN_SUPPLIER_PHONE + ") VALUES (?, ?)";
+
+    /** Changes the phone number only if it's different, so the result tells if anything changed. */
+    private static final String SQL_UPDATE_PHONE = "UPDATE " + SupplierEntry.TABLE_NAME + " SET "
+            + SupplierEntry.COLUMN_SUPPLIER_PHONE + " = ? WHERE " + SupplierEntry._ID + " = ? AND "
+            + SupplierEntry.COLUMN_SUPPLIER_PHONE + " IS NOT ?";
+
+    private final SQLiteDatabase mDatabase;
+    private SQLiteStatement mSelect;
+    private SQLiteStatement mInsert;
+    private SQLiteStatement mUpdatePhone;
+    /** Ids of the suppliers resolved so far, by trimmed name. */
+    private final Map<String, Long> mIds = new HashMap<>();
+    private boolean mSuppliersCreated;
+    private boolean mPhonesChanged;
+
+    SupplierResolver(SQLiteDatabase database) {
+        mDatabase = database;
+    }
+
+    /**
+     * Return the id of the supplier with the given name, ignoring case and surrounding blanks.
+     * A missing supplier is created with the given phone number; an existing one gets the given
+     * number if it isn't null.
+     */
+    long resolve(String name, String phone) {
+        name = name.trim();
+        Long id = mIds.get(name);
+        if (id == null) {
+            id = find(name);
+            if (id == null) {
+                id = insert(name, phone);
+                mSuppliersCreated = true;
+                mIds.put(name, id);
+                return id;
+            }
+            mIds.put(name, id);
+        }
+        if (phone != null) {
+            updatePhone(id, phone);
+        }
+        return id;
+    }
+
+    /**
+     * Return the product values to write to the products table: the supplier name and phone
+     * number are replaced by the id of the supplier. A phone number without a name is dropped,
+     * it's up to the caller to apply it to the supplier the product already has.
+     */
+    ContentValues toProductRow(ContentValues values) {
+        if (!values.containsKey(ProductEntry.COLUMN_SUPPLIER_NAME)
+                && !values.containsKey(ProductEntry.COLUMN_SUPPLIER_PHONE)) {
+            return values;
+        }
+        ContentValues row = new ContentValues(values);
+        row.remove(ProductEntry.COLUMN_SUPPLIER_NAME);
+        row.remove(ProductEntry.COLUMN_SUPPLIER_PHONE);
+        String name = values.getAsString(ProductEntry.COLUMN_SUPPLIER_NAME);
+        if (name != null) {
+            row.put(ProductEntry.COLUMN_SUPPLIER_ID,
+                    resolve(name, values.getAsString(ProductEntry.COLUMN_SUPPLIER_PHONE)));
+        }
+        return row;
+    }
+
+    /**
+     * Set the phone number of the given supplier.
+     */
+    private void updatePhone(long id, String phone) {
+        if (mUpdatePhone == null) {
+            mUpdatePhone = mDatabase.compileStatement(SQL_UPDATE_PHONE);
+        }
+        bindStringOrNull(mUpdatePhone, 1, phone);
+        mUpdatePhone.bindLong(2, id);
+        bindStringOrNull(mUpdatePhone, 3, phone);
+        if (mUpdatePhone.executeUpdateDelete() != 0) {
+            mPhonesChanged = true;
+        }
+    }
+
+    /**
+     * Return true if a supplier was created, so listeners of the suppliers need to be notified.
+     */
+    boolean suppliersCreated() {
+        return mSuppliersCreated;
+    }
+
+    /**
+     * Return true if the phone number of a supplier changed, and so that of all its products.
+     */
+    boolean phonesChanged() {
+        return mPhonesChanged;
+    }
+
+    void close() {
+        if (mSelect != null) {
+            mSelect.close();
+        }
+        if (mInsert != null) {
+            mInsert.close();
+        }
+        if (mUpdatePhone != null) {
+            mUpdatePhone.close();
+        }
+    }
+
+    private Long find(String name) {
+        if (mSelect == null) {
+            mSelect = mDatabase.compileStatement(SQL_SELECT_SUPPLIER);
+        }
+        mSelect.bindString(1, name);
+        try {
+            return mSelect.simpleQueryForLong();
+        } catch (SQLiteDoneException e) {
+            return null;
+        }
+    }
+
+    private long insert(String name, String phone) {
+        if (mInsert == null) {
+            mInsert = mDatabase.compileStatement(SQL_INSERT_SUPPLIER);
+        }
+        mInsert.bindString(1, name);
+        bindStringOrNull(mInsert, 2, phone);
+        return mInsert.executeInsert();
+    }
+
+    private static void bindStringOrNull(SQLiteStatement statement, int index, String value) {
+        if (value == null) {
+            statement.bindNull(index);
+        } else {
+            statement.bindString(index, value);
+        }
+    }
+}
@@ -0,0 +1,310 @@
+package com.example.android.inventoryapp.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteDoneException;
+import android.database.sqlite.SQLiteStatement;
+import android.os.Bundle;
+import android.util.Log;
+
+import com.example.android.inventoryapp.data.ProductContract.ProductEntry;
+import com.example.android.inventoryapp.data.ProductContract.SupplierEntry;
+import com.example.android.inventoryapp.data.ProductContract.SyncEntry;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * The database side of a {@link ProductSync}, behind the provider methods of {@link SyncEntry}.
+ * Requests are built from the change log, merged per product, and only ever cover a bounded
+ * number of log entries: their size depends on what changed, never on the size of the catalog.
+ * See {@link ProductSync} for the format of requests and responses.
+ */
+class SyncStore {
+
+    private static final String LOG_TAG = SyncStore.class.getSimpleName();
+
+    /** Most log entries sent with one request. */
+    private static final int MAX_LOG_ENTRIES = 500;
+
+    // Keys of the JSON requests and responses, besides the product columns
+    static final String KEY_DEVICE = "device";
+    static final String KEY_REQUEST_ID = "request_id";
+    static final String KEY_SINCE = "since";
+    static final String KEY_CHANGES = "changes";
+    static final String KEY_CURSOR = "cursor";
+    static final String KEY_MORE = "more";
+    static final String KEY_PRODUCTS = "products";
+    static final String KEY_CREATED = "created";
+    static final String KEY_DELETED = "deleted";
+
+    private static final String SQL_SELECT_STATE = "SELECT " + SyncEntry.COLUMN_DEVICE_ID + ", "
+            + SyncEntry.COLUMN_SERVER_CURSOR + ", " + SyncEntry.COLUMN_SENT_THROUGH + " FROM "
+            + SyncEntry.STATE_TABLE_NAME;
+
+    /** Id of the last log entry of a full request, if there are that many. */
+    private static final String SQL_SELECT_PAGE_END = "SELECT " + SyncEntry._ID + " FROM "
+            + SyncEntry.TABLE_NAME + " ORDER BY " + SyncEntry._ID + " LIMIT 1 OFFSET " + (MAX_LOG_ENTRIES - 1);
+
+    private static final String SQL_SELECT_LAST_ENTRY = "SELECT IFNULL(MAX(" + SyncEntry._ID + "), 0) FROM "
+            + SyncEntry.TABLE_NAME;
+
+    /**
+     * The logged changes up to a log id, one row per product with its current values. A deleted
+     * product has no values. The log is read as a range of row ids and grouped in a small temp
+     * tree: through the sync id index SQLite would skip the sort, but read the whole log for
+     * every request. And it joins the tables rather than the products view, since SQLite would
+     * read all of a view on the right of a LEFT JOIN instead of looking up the logged products.
+     */
+    private static final String SQL_SELECT_CHANGES = "SELECT "
+            + SyncEntry.TABLE_NAME + "." + SyncEntry.COLUMN_SYNC_ID + ", "
+            + "SUM(" + SyncEntry.COLUMN_QUANTITY_DELTA + "), "
+            + "MAX(" + SyncEntry.COLUMN_OPERATION + " = " + SyncEntry.OPERATION_INSERT + "), "
+            + ProductEntry.TABLE_NAME + "." + ProductEntry._ID + ", "
+            + ProductEntry.COLUMN_PRODUCT_NAME + ", " + ProductEntry.COLUMN_PRICE + ", "
+            + SupplierEntry.COLUMN_SUPPLIER_NAME + ", " + SupplierEntry.COLUMN_SUPPLIER_PHONE + ", "
+            + ProductEntry.COLUMN_REORDER_LEVEL
+            + " FROM " + SyncEntry.TABLE_NAME + " NOT INDEXED"
+            + " LEFT JOIN " + ProductEntry.TABLE_NAME + " ON " + ProductEntry.TABLE_NAME + "."
+            + ProductEntry.COLUMN_SYNC_ID + " = " + SyncEntry.TABLE_NAME + "." + SyncEntry.COLUMN_SYNC_ID
+            + " LEFT JOIN " + SupplierEntry.TABLE_NAME + " ON " + SupplierEntry.TABLE_NAME + "."
+            + SupplierEntry._ID + " = " + ProductEntry.TABLE_NAME + "." + ProductEntry.COLUMN_SUPPLIER_ID
+            + " WHERE " + SyncEntry.TABLE_NAME + "." + SyncEntry._ID + " <= ?"
+            + " GROUP BY " + SyncEntry.TABLE_NAME + "." + SyncEntry.COLUMN_SYNC_ID;
+    private static final int CHANGE_SYNC_ID = 0;
+    private static final int CHANGE_QUANTITY_DELTA = 1;
+    private static final int CHANGE_CREATED = 2;
+    private static final int CHANGE_PRODUCT_ID = 3;
+    private static final int CHANGE_PRODUCT_NAME = 4;
+    private static final int CHANGE_PRICE = 5;
+    private static final int CHANGE_SUPPLIER_NAME = 6;
+    private static final int CHANGE_SUPPLIER_PHONE = 7;
+    private static final int CHANGE_REORDER_LEVEL = 8;
+
+    /** Local changes of a product made after a log id: number, sum of quantity changes, deleted. */
+    private static final String SQL_SELECT_PENDING = "SELECT COUNT(*), IFNULL(SUM("
+            + SyncEntry.COLUMN_QUANTITY_DELTA + "), 0), IFNULL(MAX(" + SyncEntry.COLUMN_OPERATION + " = "
+            + SyncEntry.OPERATION_DELETE + "), 0) FROM " + SyncEntry.TABLE_NAME + " WHERE "
+            + SyncEntry.COLUMN_SYNC_ID + " = ? AND " + SyncEntry._ID + " > ?";
+
+    private static final String SQL_SELECT_PRODUCT_ID = "SELECT " + ProductEntry._ID + " FROM "
+            + ProductEntry.TABLE_NAME + " WHERE " + ProductEntry.COLUMN_SYNC_ID + " = ?";
+
+    private static final String SQL_SET_APPLYING = "UPDATE " + SyncEntry.STATE_TABLE_NAME + " SET "
+            + SyncEntry.COLUMN_APPLYING + " = ?";
+
+    private final SQLiteDatabase mDatabase;
+
+    SyncStore(SQLiteDatabase database) {
+        mDatabase = database;
+    }
+
+    /**
+     * Return the next request for the server, see {@link SyncEntry#METHOD_COLLECT_CHANGES}.
+     * Always returns a request, with no changes if nothing changed, so the server's changes
+     * can be fetched with it. A request with changes has an id, the device and its last log
+     * entry; log ids are never reused, so the id is only ever repeated with the same entries.
+     */
+    Bundle collect() {
+        String device;
+        long since;
+        long through;
+        Cursor state = mDatabase.rawQuery(SQL_SELECT_STATE, null);
+        try {
+            state.moveToFirst();
+            device = state.getString(0);
+            since = state.getLong(1);
+            through = state.getLong(2);
+        } finally {
+            state.close();
+        }
+        if (through == 0) {
+            try {
+                through = DatabaseUtils.longForQuery(mDatabase, SQL_SELECT_PAGE_END, null);
+            } catch (SQLiteDoneException e) {
+                through = DatabaseUtils.longForQuery(mDatabase, SQL_SELECT_LAST_ENTRY, null);
+            }
+            if (through != 0) {
+                // Until the server answers, this request is the one to send
+                ContentValues sent = new ContentValues();
+                sent.put(SyncEntry.COLUMN_SENT_THROUGH, through);
+                mDatabase.update(SyncEntry.STATE_TABLE_NAME, sent, null, null);
+            }
+        }
+
+        JSONObject request = new JSONObject();
+        JSONArray changes = new JSONArray();
+        try {
+            request.put(KEY_DEVICE, device);
+            if (through != 0) {
+                request.put(KEY_REQUEST_ID, device + ":" + through);
+            }
+            request.put(KEY_SINCE, since);
+
+            Cursor cursor = mDatabase.rawQuery(SQL_SELECT_CHANGES, new String[]{String.valueOf(through)});
+            try {
+                while (cursor.moveToNext()) {
+                    changes.put(toChange(cursor));
+                }
+            } finally {
+                cursor.close();
+            }
+            request.put(KEY_CHANGES, changes);
+        } catch (JSONException e) {
+            // Only thrown for numbers that aren't finite, and all of ours are integers
+            throw new AssertionError(e);
+        }
+
+        Bundle result = new Bundle();
+        result.putString(SyncEntry.EXTRA_REQUEST, request.toString());
+        result.putLong(SyncEntry.EXTRA_THROUGH, through);
+        result.putInt(SyncEntry.EXTRA_CHANGE_COUNT, changes.length());
+        result.putBoolean(SyncEntry.EXTRA_MORE, DatabaseUtils.longForQuery(mDatabase,
+                SQL_SELECT_LAST_ENTRY, null) > through);
+        return result;
+    }
+
+    /**
+     * Return the change of the current row of a {@link #SQL_SELECT_CHANGES} cursor. Null values
+     * are left out.
+     */
+    private static JSONObject toChange(Cursor cursor) throws JSONException {
+        JSONObject change = new JSONObject();
+        change.put(ProductEntry.COLUMN_SYNC_ID, cursor.getString(CHANGE_SYNC_ID));
+        if (cursor.isNull(CHANGE_PRODUCT_ID)) {
+            change.put(KEY_DELETED, true);
+            return change;
+        }
+        if (cursor.getInt(CHANGE_CREATED) != 0) {
+            change.put(KEY_CREATED, true);
+        }
+        change.put(ProductEntry.COLUMN_PRODUCT_NAME, cursor.getString(CHANGE_PRODUCT_NAME));
+        change.put(ProductEntry.COLUMN_PRICE, cursor.getLong(CHANGE_PRICE));
+        change.put(SyncEntry.COLUMN_QUANTITY_DELTA, cursor.getLong(CHANGE_QUANTITY_DELTA));
+        change.put(ProductEntry.COLUMN_SUPPLIER_NAME, cursor.getString(CHANGE_SUPPLIER_NAME));
+        change.putOpt(ProductEntry.COLUMN_SUPPLIER_PHONE, cursor.getString(CHANGE_SUPPLIER_PHONE));
+        change.put(ProductEntry.COLUMN_REORDER_LEVEL, cursor.getLong(CHANGE_REORDER_LEVEL));
+        return change;
+    }
+
+    /**
+     * Apply the server's response to the request that sent the log entries up to the given id,
+     * see {@link SyncEntry#METHOD_APPLY_CHANGES}. Throws an {@link IllegalArgumentException} if
+     * the response can't be read; then nothing is changed.
+     */
+    Bundle apply(String response, long through) {
+        JSONObject json;
+        JSONArray products;
+        try {
+            json = new JSONObject(response);
+            products = json.optJSONArray(KEY_PRODUCTS);
+        } catch (JSONException e) {
+            throw new IllegalArgumentException("Malformed sync response", e);
+        }
+        int changed = 0;
+
+        SupplierResolver suppliers = new SupplierResolver(mDatabase);
+        SQLiteStatement setApplying = mDatabase.compileStatement(SQL_SET_APPLYING);
+        SQLiteStatement selectId = mDatabase.compileStatement(SQL_SELECT_PRODUCT_ID);
+        mDatabase.beginTransaction();
+        try {
+            // Keeps the triggers from logging the server's changes, which would send them back
+            setApplying.bindLong(1, 1);
+            setApplying.execute();
+            for (int i = 0; products != null && i < products.length(); i++) {
+                changed += applyProduct(products.getJSONObject(i), through, suppliers, selectId);
+            }
+            setApplying.bindLong(1, 0);
+            setApplying.execute();
+
+            // The server has the sent changes now
+            mDatabase.delete(SyncEntry.TABLE_NAME, SyncEntry._ID + " <= ?", new String[]{String.valueOf(through)});
+            ContentValues state = new ContentValues();
+            state.put(SyncEntry.COLUMN_SERVER_CURSOR, json.getLong(KEY_CURSOR));
+            state.put(SyncEntry.COLUMN_SENT_THROUGH, 0);
+            mDatabase.update(SyncEntry.STATE_TABLE_NAME, state, null, null);
+            mDatabase.setTransactionSuccessful();
+        } catch (JSONException e) {
+            throw new IllegalArgumentException("Malformed sync response", e);
+        } finally {
+            mDatabase.endTransaction();
+            suppliers.close();
+            setApplying.close();
+            selectId.close();
+        }
+
+        Bundle result = new Bundle();
+        result.putInt(SyncEntry.EXTRA_CHANGE_COUNT, changed);
+        result.putBoolean(SyncEntry.EXTRA_MORE, json.optBoolean(KEY_MORE));
+        return result;
+    }
+
+    /**
+     * Write one product of the server's response. Quantities are merged: local changes that the
+     * server hasn't seen yet are added to the server's quantity. Other values are taken from the
+     * server, unless the product has unsent local changes; those win and are sent next time.
+     * A product deleted on either side stays deleted. Return the number of products changed.
+     */
+    private int applyProduct(JSONObject product, long through, SupplierResolver suppliers,
+                             SQLiteStatement selectId) throws JSONException {
+        String syncId = product.getString(ProductEntry.COLUMN_SYNC_ID);
+        String[] syncIdArg = {syncId};
+        if (product.optBoolean(KEY_DELETED)) {
+            return mDatabase.delete(ProductEntry.TABLE_NAME, ProductEntry.COLUMN_SYNC_ID + " = ?", syncIdArg);
+        }
+
+        ContentValues values = new ContentValues();
+        values.put(ProductEntry.COLUMN_PRODUCT_NAME, product.getString(ProductEntry.COLUMN_PRODUCT_NAME));
+        values.put(ProductEntry.COLUMN_PRICE, product.getInt(ProductEntry.COLUMN_PRICE));
+        values.put(ProductEntry.COLUMN_QUANTITY, product.getInt(ProductEntry.COLUMN_QUANTITY));
+        values.put(ProductEntry.COLUMN_SUPPLIER_NAME, product.getString(ProductEntry.COLUMN_SUPPLIER_NAME));
+        if (!product.isNull(ProductEntry.COLUMN_SUPPLIER_PHONE)) {
+            values.put(ProductEntry.COLUMN_SUPPLIER_PHONE, product.getString(ProductEntry.COLUMN_SUPPLIER_PHONE));
+        }
+        values.put(ProductEntry.COLUMN_REORDER_LEVEL, product.optInt(ProductEntry.COLUMN_REORDER_LEVEL));
+        // The server is trusted no more than any other client
+        if (ProductValidator.validate(values, true) != ProductValidator.VALID) {
+            Log.w(LOG_TAG, "Skipped invalid product " + syncId + " from the server");
+            return 0;
+        }
+
+        int pendingChanges;
+        long pendingDelta;
+        boolean pendingDelete;
+        Cursor pending = mDatabase.rawQuery(SQL_SELECT_PENDING, new String[]{syncId, String.valueOf(through)});
+        try {
+            pending.moveToFirst();
+            pendingChanges = pending.getInt(0);
+            pendingDelta = pending.getLong(1);
+            pendingDelete = pending.getInt(2) != 0;
+        } finally {
+            pending.close();
+        }
+        values.put(ProductEntry.COLUMN_QUANTITY, values.getAsInteger(ProductEntry.COLUMN_QUANTITY) + pendingDelta);
+
+        Long id;
+        selectId.bindString(1, syncId);
+        try {
+            id = selectId.simpleQueryForLong();
+        } catch (SQLiteDoneException e) {
+            id = null;
+        }
+        if (id == null) {
+            if (pendingDelete) {
+                return 0;
+            }
+            values.put(ProductEntry.COLUMN_SYNC_ID, syncId);
+            return mDatabase.insert(ProductEntry.TABLE_NAME, null, suppliers.toProductRow(values)) == -1 ? 0 : 1;
+        }
+        if (pendingChanges > 0) {
+            ContentValues quantity = new ContentValues();
+            quantity.put(ProductEntry.COLUMN_QUANTITY, values.getAsLong(ProductEntry.COLUMN_QUANTITY));
+            values = quantity;
+        }
+        return mDatabase.update(ProductEntry.TABLE_NAME, suppliers.toProductRow(values),
+                ProductEntry._ID + " = ?", new String[]{String.valueOf(id)});
+    }
+}
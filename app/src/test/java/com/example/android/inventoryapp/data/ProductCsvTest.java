@@ -0,0 +1,122 @@
+package com.example.android.inventoryapp.data;
+
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Parsing and writing of catalog files, see {@link ProductCsv}.
+ */
+public class ProductCsvTest {
+
+    @Test
+    public void readsPlainRecords() throws IOException {
+        ProductCsv.RecordReader reader = reader("Dune,12,4\nEmma,8,0\n", ',');
+        assertEquals(Arrays.asList("Dune", "12", "4"), copy(reader.readRecord()));
+        assertEquals(1, reader.getLineNumber());
+        assertEquals(Arrays.asList("Emma", "8", "0"), copy(reader.readRecord()));
+        assertEquals(2, reader.getLineNumber());
+        assertNull(reader.readRecord());
+    }
+
+    @Test
+    public void readsQuotedFields() throws IOException {
+        ProductCsv.RecordReader reader = reader("\"Smith, Jones\",\"Say \"\"hi\"\"\",\"\"\n", ',');
+        assertEquals(Arrays.asList("Smith, Jones", "Say \"hi\"", ""), copy(reader.readRecord()));
+        assertNull(reader.readRecord());
+    }
+
+    @Test
+    public void readsLineBreaksInQuotedFields() throws IOException {
+        ProductCsv.RecordReader reader = reader("\"Two\nlines\",1\nNext,2\n", ',');
+        assertEquals(Arrays.asList("Two\nlines", "1"), copy(reader.readRecord()));
+        // The record ends on the second line of the file
+        assertEquals(2, reader.getLineNumber());
+        assertEquals(Arrays.asList("Next", "2"), copy(reader.readRecord()));
+        assertEquals(3, reader.getLineNumber());
+    }
+
+    @Test
+    public void readsWindowsLineBreaksBlankLinesAndNoFinalBreak() throws IOException {
+        ProductCsv.RecordReader reader = reader("a,1\r\n\r\n\nb,2", ',');
+        assertEquals(Arrays.asList("a", "1"), copy(reader.readRecord()));
+        assertEquals(Arrays.asList("b", "2"), copy(reader.readRecord()));
+        assertEquals(4, reader.getLineNumber());
+        assertNull(reader.readRecord());
+    }
+
+    @Test
+    public void readsTabSeparatedRecords() throws IOException {
+        ProductCsv.RecordReader reader = reader("Smith, Jones\t12\n", '\t');
+        assertEquals(Arrays.asList("Smith, Jones", "12"), copy(reader.readRecord()));
+    }
+
+    @Test
+    public void keepsShortAndEmptyFields() throws IOException {
+        ProductCsv.RecordReader reader = reader("only\n,,\n", ',');
+        assertEquals(Arrays.asList("only"), copy(reader.readRecord()));
+        assertEquals(Arrays.asList("", "", ""), copy(reader.readRecord()));
+    }
+
+    @Test
+    public void unterminatedQuoteRunsToTheEnd() throws IOException {
+        ProductCsv.RecordReader reader = reader("\"open,1\nnext,2\n", ',');
+        assertEquals(Arrays.asList("open,1\nnext,2\n"), copy(reader.readRecord()));
+        assertNull(reader.readRecord());
+    }
+
+    @Test
+    public void detectsDelimiterWithoutConsuming() throws IOException {
+        BufferedReader tabs = new BufferedReader(new StringReader("a\tb\tc,d\n"));
+        assertEquals('\t', ProductCsv.detectDelimiter(tabs));
+        assertEquals('a', tabs.read());
+
+        BufferedReader commas = new BufferedReader(new StringReader("a,b\tc\nx\ty\tz\n"));
+        assertEquals(',', ProductCsv.detectDelimiter(commas));
+    }
+
+    @Test
+    public void mapsHeaderColumns() {
+        int[] columns = ProductCsv.mapColumns(Arrays.asList(" Quantity", "ignored", "PRODUCT_NAME"));
+        int[] expected = new int[ProductCsv.COLUMNS.length];
+        Arrays.fill(expected, -1);
+        expected[Arrays.asList(ProductCsv.COLUMNS).indexOf("quantity")] = 0;
+        expected[Arrays.asList(ProductCsv.COLUMNS).indexOf("product_name")] = 2;
+        assertArrayEquals(expected, columns);
+
+        assertNull(ProductCsv.mapColumns(Arrays.asList("Dune", "12", "4")));
+    }
+
+    @Test
+    public void writtenFieldsReadBack() throws IOException {
+        String[] values = {"plain", "with, comma", "with \"quotes\"", "two\nlines", ""};
+        StringWriter out = new StringWriter();
+        for (int i = 0; i < values.length; i++) {
+            if (i > 0) {
+                out.write(',');
+            }
+            ProductCsv.writeField(out, values[i]);
+        }
+        out.write('\n');
+        assertEquals(Arrays.asList(values), copy(reader(out.toString(), ',').readRecord()));
+    }
+
+    private static ProductCsv.RecordReader reader(String text, char delimiter) {
+        return new ProductCsv.RecordReader(new BufferedReader(new StringReader(text)), delimiter);
+    }
+
+    /** The reader reuses its list, so compare a copy. */
+    private static List<String> copy(List<String> record) {
+        return record == null ? null : new ArrayList<>(record);
+    }
+}
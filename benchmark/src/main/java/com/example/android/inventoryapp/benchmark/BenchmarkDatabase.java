@@ -0,0 +1,398 @@
+package com.example.android.inventoryapp.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * A products database on the JVM, through the SQLite JDBC driver. The schema, connection
+ * settings and statements are copies of the ones in ProductDbHelper and ProductProvider, which
+ * can't run outside Android. Keep them in step when the schema changes.
+ */
+class BenchmarkDatabase {
+
+    /** Same as ProductDbHelper.DATABASE_VERSION at the time of the copy. */
+    static final int SCHEMA_VERSION = 13;
+
+    static final String SQL_NOW_MILLIS = "CAST((julianday('now') - 2440587.5) * 86400000 AS INTEGER)";
+
+    private static final String[] SCHEMA = {
+            // ProductDbHelper.onCreate
+            "CREATE TABLE books (_id INTEGER PRIMARY KEY AUTOINCREMENT, product_name TEXT NOT NULL, "
+                    + "price INTEGER NOT NULL, quantity INTEGER NOT NULL DEFAULT 0, "
+                    + "supplier_name TEXT NOT NULL, supplier_phone TEXT)",
+            // Version 2
+            "CREATE INDEX idx_books_name ON books (product_name)",
+            "CREATE INDEX idx_books_supplier ON books (supplier_name, quantity, price)",
+            "CREATE INDEX idx_books_quantity ON books (quantity)",
+            // Version 3
+            "CREATE VIRTUAL TABLE books_fts USING fts4(product_name, supplier_name)",
+            "CREATE TRIGGER books_fts_insert AFTER INSERT ON books BEGIN"
+                    + " INSERT INTO books_fts (docid, product_name, supplier_name)"
+                    + " VALUES (NEW._id, NEW.product_name, NEW.supplier_name); END",
+            "CREATE TRIGGER books_fts_update AFTER UPDATE OF product_name, supplier_name ON books BEGIN"
+                    + " UPDATE books_fts SET product_name = NEW.product_name, supplier_name = NEW.supplier_name"
+                    + " WHERE docid = NEW._id; END",
+            "CREATE TRIGGER books_fts_delete AFTER DELETE ON books BEGIN"
+                    + " DELETE FROM books_fts WHERE docid = OLD._id; END",
+            // Version 4
+            "ALTER TABLE books ADD COLUMN last_modified INTEGER NOT NULL DEFAULT 0",
+            "CREATE INDEX idx_books_last_modified ON books (last_modified)",
+            "CREATE TRIGGER books_stamp_insert AFTER INSERT ON books BEGIN"
+                    + " UPDATE books SET last_modified = " + SQL_NOW_MILLIS + " WHERE _id = NEW._id; END",
+            "CREATE TRIGGER books_stamp_update AFTER UPDATE OF product_name, price, quantity, supplier_name,"
+                    + " supplier_phone ON books BEGIN"
+                    + " UPDATE books SET last_modified = " + SQL_NOW_MILLIS + " WHERE _id = NEW._id; END",
+            // Version 5
+            "CREATE TABLE quantity_batches (token TEXT PRIMARY KEY, applied INTEGER NOT NULL)",
+            // Version 6
+            "ALTER TABLE books ADD COLUMN reorder_level INTEGER NOT NULL DEFAULT 0",
+            "CREATE INDEX idx_books_low_stock ON books (_id) WHERE quantity <= reorder_level",
+            "DROP TRIGGER books_stamp_update",
+            "CREATE TRIGGER books_stamp_update AFTER UPDATE OF product_name, price, quantity, supplier_name,"
+                    + " supplier_phone, reorder_level ON books BEGIN"
+                    + " UPDATE books SET last_modified = " + SQL_NOW_MILLIS + " WHERE _id = NEW._id; END",
+            "CREATE TABLE inventory_stats (_id INTEGER PRIMARY KEY CHECK (_id = 1), "
+                    + "low_stock_count INTEGER NOT NULL DEFAULT 0)",
+            "INSERT INTO inventory_stats (_id, low_stock_count) SELECT 1, COUNT(*) FROM books"
+                    + " WHERE quantity <= reorder_level",
+            "CREATE TRIGGER books_low_stock_insert AFTER INSERT ON books BEGIN"
+                    + " UPDATE inventory_stats SET low_stock_count = low_stock_count"
+                    + " + (NEW.quantity <= NEW.reorder_level); END",
+            "CREATE TRIGGER books_low_stock_update AFTER UPDATE OF quantity, reorder_level ON books BEGIN"
+                    + " UPDATE inventory_stats SET low_stock_count = low_stock_count"
+                    + " + (NEW.quantity <= NEW.reorder_level) - (OLD.quantity <= OLD.reorder_level); END",
+            "CREATE TRIGGER books_low_stock_delete AFTER DELETE ON books BEGIN"
+                    + " UPDATE inventory_stats SET low_stock_count = low_stock_count"
+                    + " - (OLD.quantity <= OLD.reorder_level); END",
+            // Version 7
+            "ALTER TABLE inventory_stats ADD COLUMN product_count INTEGER NOT NULL DEFAULT 0",
+            "ALTER TABLE inventory_stats ADD COLUMN total_units INTEGER NOT NULL DEFAULT 0",
+            "ALTER TABLE inventory_stats ADD COLUMN stock_value INTEGER NOT NULL DEFAULT 0",
+            "CREATE TABLE supplier_stats (_id INTEGER PRIMARY KEY, supplier_name TEXT NOT NULL UNIQUE, "
+                    + "product_count INTEGER NOT NULL DEFAULT 0, total_units INTEGER NOT NULL DEFAULT 0, "
+                    + "stock_value INTEGER NOT NULL DEFAULT 0)",
+            "DROP TRIGGER books_low_stock_insert",
+            "DROP TRIGGER books_low_stock_update",
+            "DROP TRIGGER books_low_stock_delete",
+            "CREATE TRIGGER books_stats_insert AFTER INSERT ON books BEGIN"
+                    + " UPDATE inventory_stats SET product_count = product_count + 1,"
+                    + " total_units = total_units + NEW.quantity,"
+                    + " stock_value = stock_value + (NEW.price * NEW.quantity),"
+                    + " low_stock_count = low_stock_count + (NEW.quantity <= NEW.reorder_level);"
+                    + " INSERT OR IGNORE INTO supplier_stats (supplier_name) VALUES (NEW.supplier_name);"
+                    + " UPDATE supplier_stats SET product_count = product_count + 1,"
+                    + " total_units = total_units + NEW.quantity,"
+                    + " stock_value = stock_value + (NEW.price * NEW.quantity)"
+                    + " WHERE supplier_name = NEW.supplier_name; END",
+            "CREATE TRIGGER books_stats_update AFTER UPDATE OF price, quantity, supplier_name, reorder_level"
+                    + " ON books BEGIN"
+                    + " UPDATE inventory_stats SET total_units = total_units + NEW.quantity - OLD.quantity,"
+                    + " stock_value = stock_value + (NEW.price * NEW.quantity) - (OLD.price * OLD.quantity),"
+                    + " low_stock_count = low_stock_count + (NEW.quantity <= NEW.reorder_level)"
+                    + " - (OLD.quantity <= OLD.reorder_level);"
+                    + " UPDATE supplier_stats SET product_count = product_count - 1,"
+                    + " total_units = total_units - OLD.quantity,"
+                    + " stock_value = stock_value - (OLD.price * OLD.quantity)"
+                    + " WHERE supplier_name = OLD.supplier_name;"
+                    + " INSERT OR IGNORE INTO supplier_stats (supplier_name) VALUES (NEW.supplier_name);"
+                    + " UPDATE supplier_stats SET product_count = product_count + 1,"
+                    + " total_units = total_units + NEW.quantity,"
+                    + " stock_value = stock_value + (NEW.price * NEW.quantity)"
+                    + " WHERE supplier_name = NEW.supplier_name;"
+                    + " DELETE FROM supplier_stats WHERE supplier_name = OLD.supplier_name AND product_count = 0;"
+                    + " END",
+            "CREATE TRIGGER books_stats_delete AFTER DELETE ON books BEGIN"
+                    + " UPDATE inventory_stats SET product_count = product_count - 1,"
+                    + " total_units = total_units - OLD.quantity,"
+                    + " stock_value = stock_value - (OLD.price * OLD.quantity),"
+                    + " low_stock_count = low_stock_count - (OLD.quantity <= OLD.reorder_level);"
+                    + " UPDATE supplier_stats SET product_count = product_count - 1,"
+                    + " total_units = total_units - OLD.quantity,"
+                    + " stock_value = stock_value - (OLD.price * OLD.quantity)"
+                    + " WHERE supplier_name = OLD.supplier_name;"
+                    + " DELETE FROM supplier_stats WHERE supplier_name = OLD.supplier_name AND product_count = 0;"
+                    + " END",
+            // Version 8
+            "CREATE TABLE suppliers (_id INTEGER PRIMARY KEY AUTOINCREMENT,"
+                    + " supplier_name TEXT NOT NULL UNIQUE COLLATE NOCASE, supplier_phone TEXT)",
+            "INSERT OR IGNORE INTO suppliers (supplier_name, supplier_phone)"
+                    + " SELECT TRIM(supplier_name), supplier_phone FROM books ORDER BY last_modified DESC",
+            "UPDATE suppliers SET supplier_phone = (SELECT supplier_phone FROM books"
+                    + " WHERE TRIM(supplier_name) = suppliers.supplier_name AND supplier_phone IS NOT NULL"
+                    + " ORDER BY last_modified DESC LIMIT 1)"
+                    + " WHERE supplier_phone IS NULL",
+            "CREATE TABLE books_new (_id INTEGER PRIMARY KEY AUTOINCREMENT,"
+                    + " product_name TEXT NOT NULL, price INTEGER NOT NULL,"
+                    + " quantity INTEGER NOT NULL DEFAULT 0,"
+                    + " supplier_id INTEGER NOT NULL REFERENCES suppliers (_id),"
+                    + " reorder_level INTEGER NOT NULL DEFAULT 0, last_modified INTEGER NOT NULL DEFAULT 0)",
+            "INSERT INTO books_new (_id, product_name, price, quantity, supplier_id, reorder_level,"
+                    + " last_modified) SELECT _id, product_name, price, quantity, (SELECT _id FROM suppliers"
+                    + " WHERE supplier_name = TRIM(books.supplier_name)), reorder_level, last_modified"
+                    + " FROM books",
+            "INSERT INTO sqlite_sequence (name, seq) SELECT * FROM (SELECT 'books_new', MAX(seq) AS seq"
+                    + " FROM sqlite_sequence WHERE name IN ('books', 'books_new')) WHERE seq IS NOT NULL",
+            "DELETE FROM sqlite_sequence WHERE name = 'books_new' AND rowid < (SELECT MAX(rowid)"
+                    + " FROM sqlite_sequence WHERE name = 'books_new')",
+            "DROP TABLE books",
+            "ALTER TABLE books_new RENAME TO books",
+            "CREATE INDEX idx_books_name ON books (product_name)",
+            "CREATE INDEX idx_books_supplier ON books (supplier_id, quantity, price)",
+            "CREATE INDEX idx_books_quantity ON books (quantity)",
+            "CREATE INDEX idx_books_last_modified ON books (last_modified)",
+            "CREATE INDEX idx_books_low_stock ON books (_id) WHERE quantity <= reorder_level",
+            "CREATE TRIGGER books_fts_insert AFTER INSERT ON books"
+                    + " BEGIN INSERT INTO books_fts (docid, product_name, supplier_name) VALUES (NEW._id,"
+                    + " NEW.product_name, (SELECT supplier_name FROM suppliers WHERE _id = NEW.supplier_id));"
+                    + " END",
+            "CREATE TRIGGER books_fts_update AFTER UPDATE OF product_name, supplier_id ON books"
+                    + " BEGIN UPDATE books_fts SET product_name = NEW.product_name,"
+                    + " supplier_name = (SELECT supplier_name FROM suppliers WHERE _id = NEW.supplier_id)"
+                    + " WHERE docid = NEW._id; END",
+            "CREATE TRIGGER books_fts_delete AFTER DELETE ON books BEGIN DELETE FROM books_fts"
+                    + " WHERE docid = OLD._id; END",
+            "CREATE TRIGGER suppliers_fts_update AFTER UPDATE OF supplier_name ON suppliers"
+                    + " BEGIN UPDATE books_fts SET supplier_name = NEW.supplier_name WHERE docid IN (SELECT _id"
+                    + " FROM books WHERE supplier_id = NEW._id); END",
+            "CREATE TRIGGER books_stamp_insert AFTER INSERT ON books"
+                    + " BEGIN UPDATE books SET last_modified = " + SQL_NOW_MILLIS
+                    + " WHERE _id = NEW._id; END",
+            "CREATE TRIGGER books_stamp_update AFTER UPDATE OF product_name, price, quantity,"
+                    + " supplier_id, reorder_level ON books"
+                    + " BEGIN UPDATE books SET last_modified = " + SQL_NOW_MILLIS
+                    + " WHERE _id = NEW._id; END",
+            "DROP TABLE supplier_stats",
+            "CREATE TABLE supplier_stats (_id INTEGER PRIMARY KEY,"
+                    + " product_count INTEGER NOT NULL DEFAULT 0, total_units INTEGER NOT NULL DEFAULT 0,"
+                    + " stock_value INTEGER NOT NULL DEFAULT 0)",
+            "INSERT INTO supplier_stats (_id, product_count, total_units, stock_value)"
+                    + " SELECT supplier_id, COUNT(*), SUM(quantity), SUM(price * quantity)"
+                    + " FROM books GROUP BY supplier_id",
+            "CREATE TRIGGER books_stats_insert AFTER INSERT ON books"
+                    + " BEGIN UPDATE inventory_stats SET product_count = product_count + 1,"
+                    + " total_units = total_units + NEW.quantity,"
+                    + " stock_value = stock_value + (NEW.price * NEW.quantity),"
+                    + " low_stock_count = low_stock_count + (NEW.quantity <= NEW.reorder_level);"
+                    + " INSERT OR IGNORE INTO supplier_stats (_id) VALUES (NEW.supplier_id);"
+                    + " UPDATE supplier_stats SET product_count = product_count + 1,"
+                    + " total_units = total_units + NEW.quantity,"
+                    + " stock_value = stock_value + (NEW.price * NEW.quantity) WHERE _id = NEW.supplier_id; END",
+            "CREATE TRIGGER books_stats_update AFTER UPDATE OF price, quantity, supplier_id,"
+                    + " reorder_level ON books"
+                    + " BEGIN UPDATE inventory_stats SET total_units = total_units + NEW.quantity - OLD.quantity,"
+                    + " stock_value = stock_value + (NEW.price * NEW.quantity) - (OLD.price * OLD.quantity),"
+                    + " low_stock_count = low_stock_count + (NEW.quantity <= NEW.reorder_level)"
+                    + " - (OLD.quantity <= OLD.reorder_level);"
+                    + " UPDATE supplier_stats SET product_count = product_count - 1,"
+                    + " total_units = total_units - OLD.quantity,"
+                    + " stock_value = stock_value - (OLD.price * OLD.quantity) WHERE _id = OLD.supplier_id;"
+                    + " INSERT OR IGNORE INTO supplier_stats (_id) VALUES (NEW.supplier_id);"
+                    + " UPDATE supplier_stats SET product_count = product_count + 1,"
+                    + " total_units = total_units + NEW.quantity,"
+                    + " stock_value = stock_value + (NEW.price * NEW.quantity) WHERE _id = NEW.supplier_id;"
+                    + " DELETE FROM supplier_stats WHERE _id = OLD.supplier_id AND product_count = 0; END",
+            "CREATE TRIGGER books_stats_delete AFTER DELETE ON books"
+                    + " BEGIN UPDATE inventory_stats SET product_count = product_count - 1,"
+                    + " total_units = total_units - OLD.quantity,"
+                    + " stock_value = stock_value - (OLD.price * OLD.quantity),"
+                    + " low_stock_count = low_stock_count - (OLD.quantity <= OLD.reorder_level);"
+                    + " UPDATE supplier_stats SET product_count = product_count - 1,"
+                    + " total_units = total_units - OLD.quantity,"
+                    + " stock_value = stock_value - (OLD.price * OLD.quantity) WHERE _id = OLD.supplier_id;"
+                    + " DELETE FROM supplier_stats WHERE _id = OLD.supplier_id AND product_count = 0; END",
+            "CREATE VIEW books_view AS SELECT books._id AS _id, product_name, price, quantity,"
+                    + " supplier_id, suppliers.supplier_name AS supplier_name,"
+                    + " suppliers.supplier_phone AS supplier_phone, reorder_level, last_modified FROM books"
+                    + " JOIN suppliers ON suppliers._id = books.supplier_id",
+            "CREATE VIEW supplier_stats_view AS SELECT supplier_stats._id AS _id,"
+                    + " suppliers.supplier_name AS supplier_name, product_count, total_units, stock_value"
+                    + " FROM supplier_stats JOIN suppliers ON suppliers._id = supplier_stats._id",
+            // Version 9
+            "ALTER TABLE books ADD COLUMN sync_id TEXT",
+            "UPDATE books SET sync_id = lower(hex(randomblob(16)))",
+            "CREATE UNIQUE INDEX idx_books_sync_id ON books (sync_id)",
+            "CREATE TABLE sync_state (_id INTEGER PRIMARY KEY CHECK (_id = 1),"
+                    + " device_id TEXT NOT NULL, server_cursor INTEGER NOT NULL DEFAULT 0,"
+                    + " applying INTEGER NOT NULL DEFAULT 0)",
+            "INSERT INTO sync_state (_id, device_id) VALUES (1, lower(hex(randomblob(16))))",
+            "CREATE TABLE change_log (_id INTEGER PRIMARY KEY AUTOINCREMENT, sync_id TEXT NOT NULL,"
+                    + " operation INTEGER NOT NULL, quantity_delta INTEGER NOT NULL DEFAULT 0)",
+            "CREATE INDEX idx_change_log_sync_id ON change_log (sync_id)",
+            "INSERT INTO change_log (sync_id, operation, quantity_delta) SELECT sync_id, 1, quantity"
+                    + " FROM books ORDER BY _id",
+            "CREATE TRIGGER books_sync_insert AFTER INSERT ON books"
+                    + " BEGIN UPDATE books SET sync_id = lower(hex(randomblob(16)))"
+                    + " WHERE _id = NEW._id AND NEW.sync_id IS NULL; INSERT INTO change_log (sync_id,"
+                    + " operation, quantity_delta) SELECT sync_id, 1, NEW.quantity FROM books"
+                    + " WHERE _id = NEW._id AND (SELECT applying FROM sync_state) = 0; END",
+            "CREATE TRIGGER books_sync_update AFTER UPDATE OF product_name, price, quantity,"
+                    + " supplier_id, reorder_level ON books WHEN (SELECT applying"
+                    + " FROM sync_state) = 0 AND (NEW.product_name IS NOT OLD.product_name OR NEW.price IS NOT OLD.price OR NEW.quantity IS NOT OLD.quantity OR NEW.supplier_id IS NOT OLD.supplier_id OR NEW.reorder_level IS NOT OLD.reorder_level)"
+                    + " BEGIN INSERT INTO change_log (sync_id, operation, quantity_delta) VALUES (NEW.sync_id,"
+                    + " 2, NEW.quantity - OLD.quantity); END",
+            "CREATE TRIGGER books_sync_delete AFTER DELETE ON books WHEN (SELECT applying"
+                    + " FROM sync_state) = 0 BEGIN INSERT INTO change_log (sync_id, operation,"
+                    + " quantity_delta) VALUES (OLD.sync_id, 3, -OLD.quantity); END",
+            "CREATE TRIGGER suppliers_sync_update AFTER UPDATE OF supplier_name,"
+                    + " supplier_phone ON suppliers WHEN (SELECT applying"
+                    + " FROM sync_state) = 0 AND (NEW.supplier_name IS NOT OLD.supplier_name OR NEW.supplier_phone IS NOT OLD.supplier_phone)"
+                    + " BEGIN INSERT INTO change_log (sync_id, operation) SELECT sync_id, 2 FROM books"
+                    + " WHERE supplier_id = NEW._id; END",
+            "DROP VIEW books_view",
+            "CREATE VIEW books_view AS SELECT books._id AS _id, product_name, price, quantity,"
+                    + " supplier_id, suppliers.supplier_name AS supplier_name,"
+                    + " suppliers.supplier_phone AS supplier_phone, reorder_level, last_modified, sync_id"
+                    + " FROM books JOIN suppliers ON suppliers._id = books.supplier_id",
+            // Version 10
+            "CREATE TABLE stock_movements (_id INTEGER PRIMARY KEY AUTOINCREMENT,"
+                    + " product_id INTEGER NOT NULL, movement_type INTEGER NOT NULL,"
+                    + " quantity_delta INTEGER NOT NULL, created INTEGER NOT NULL)",
+            "CREATE INDEX idx_stock_movements_product ON stock_movements (product_id, created,"
+                    + " quantity_delta)",
+            "CREATE TABLE stock_snapshots (product_id INTEGER NOT NULL, created INTEGER NOT NULL,"
+                    + " movement_id INTEGER NOT NULL, quantity INTEGER NOT NULL, PRIMARY KEY (product_id,"
+                    + " created, movement_id)) WITHOUT ROWID",
+            "CREATE INDEX idx_stock_snapshots_created ON stock_snapshots (created, movement_id)",
+            "CREATE TABLE ledger_state (_id INTEGER PRIMARY KEY CHECK (_id = 1),"
+                    + " movement_type INTEGER, snapshot_through INTEGER NOT NULL DEFAULT 0)",
+            "INSERT INTO ledger_state (_id) VALUES (1)",
+            "INSERT INTO stock_snapshots (product_id, created, movement_id, quantity) SELECT _id, 0,"
+                    + " 0, quantity FROM books",
+            "CREATE TRIGGER books_movement_insert AFTER INSERT ON books WHEN NEW.quantity <> 0"
+                    + " BEGIN INSERT INTO stock_movements (product_id, movement_type, quantity_delta,"
+                    + " created) VALUES (NEW._id, IFNULL((SELECT movement_type FROM ledger_state), 2),"
+                    + " NEW.quantity, MAX(" + SQL_NOW_MILLIS + ","
+                    + " IFNULL((SELECT created FROM stock_movements ORDER BY _id DESC LIMIT 1), 0))); END",
+            "CREATE TRIGGER books_movement_update AFTER UPDATE OF quantity ON books WHEN NEW.quantity <> OLD.quantity"
+                    + " BEGIN INSERT INTO stock_movements (product_id, movement_type, quantity_delta,"
+                    + " created) VALUES (NEW._id, IFNULL((SELECT movement_type FROM ledger_state), 3),"
+                    + " NEW.quantity - OLD.quantity,"
+                    + " MAX(" + SQL_NOW_MILLIS + ", IFNULL((SELECT created"
+                    + " FROM stock_movements ORDER BY _id DESC LIMIT 1), 0))); END",
+            "CREATE TRIGGER books_movement_delete AFTER DELETE ON books WHEN OLD.quantity <> 0"
+                    + " BEGIN INSERT INTO stock_movements (product_id, movement_type, quantity_delta,"
+                    + " created) VALUES (OLD._id, IFNULL((SELECT movement_type FROM ledger_state), 3),"
+                    + " -OLD.quantity, MAX(" + SQL_NOW_MILLIS + ","
+                    + " IFNULL((SELECT created FROM stock_movements ORDER BY _id DESC LIMIT 1), 0))); END",
+            // Version 11
+            "CREATE TABLE books_deleted (_id INTEGER PRIMARY KEY, last_modified INTEGER NOT NULL)",
+            "CREATE INDEX idx_books_deleted_last_modified ON books_deleted (last_modified)",
+            "CREATE TRIGGER books_deleted AFTER DELETE ON books BEGIN INSERT OR REPLACE INTO books_deleted"
+                    + " (_id, last_modified) VALUES (OLD._id, " + SQL_NOW_MILLIS + "); END",
+            "CREATE TRIGGER books_undeleted AFTER INSERT ON books BEGIN"
+                    + " DELETE FROM books_deleted WHERE _id = NEW._id; END",
+            // Version 12
+            "ALTER TABLE sync_state ADD COLUMN sent_through INTEGER NOT NULL DEFAULT 0",
+            // Version 13
+            "CREATE TRIGGER suppliers_stamp_update AFTER UPDATE OF supplier_name, supplier_phone ON suppliers"
+                    + " WHEN NEW.supplier_name IS NOT OLD.supplier_name OR NEW.supplier_phone IS NOT OLD.supplier_phone"
+                    + " BEGIN UPDATE books SET last_modified = " + SQL_NOW_MILLIS
+                    + " WHERE supplier_id = NEW._id; END"
+    };
+
+    /** ProductDbHelper.onConfigure, in the same order. */
+    private static final String[] PRAGMAS = {
+            "PRAGMA page_size = 4096",
+            "PRAGMA journal_mode = WAL",
+            "PRAGMA synchronous = NORMAL",
+            "PRAGMA cache_size = -8192",
+            "PRAGMA mmap_size = 33554432",
+            "PRAGMA foreign_keys = ON"
+    };
+
+    /** ProductProvider.SQL_INSERT_PRODUCT */
+    static final String SQL_INSERT_PRODUCT = "INSERT INTO books (product_name, price, quantity, "
+            + "supplier_id, reorder_level) VALUES (?, ?, ?, ?, ?)";
+
+    /** Number of made up suppliers, with ids 1 to SUPPLIERS. */
+    static final int SUPPLIERS = 200;
+
+    private final File mFile;
+    private final Connection mConnection;
+
+    /**
+     * Create a new database in a temporary file, filled with the given number of products with
+     * ids 1 to rows.
+     */
+    BenchmarkDatabase(int rows) throws IOException, SQLException {
+        mFile = File.createTempFile("products", ".db");
+        mFile.delete();
+        mConnection = DriverManager.getConnection("jdbc:sqlite:" + mFile.getPath());
+        try (Statement statement = mConnection.createStatement()) {
+            for (String pragma : PRAGMAS) {
+                statement.execute(pragma);
+            }
+            for (String sql : SCHEMA) {
+                statement.execute(sql);
+            }
+        }
+        insertSuppliers();
+        insertProducts(0, rows);
+    }
+
+    Connection connection() {
+        return mConnection;
+    }
+
+    /**
+     * Insert the suppliers the made up products refer to.
+     */
+    private void insertSuppliers() throws SQLException {
+        mConnection.setAutoCommit(false);
+        try (PreparedStatement insert = mConnection.prepareStatement(
+                "INSERT INTO suppliers (supplier_name, supplier_phone) VALUES (?, ?)")) {
+            for (int i = 1; i <= SUPPLIERS; i++) {
+                insert.setString(1, "Supplier " + i);
+                insert.setString(2, "+48" + (100000000 + i));
+                insert.executeUpdate();
+            }
+            mConnection.commit();
+        } finally {
+            mConnection.setAutoCommit(true);
+        }
+    }
+
+    /**
+     * Insert products number first + 1 to first + count in one transaction, the way
+     * ProductProvider.bulkInsert does.
+     */
+    void insertProducts(int first, int count) throws SQLException {
+        mConnection.setAutoCommit(false);
+        try (PreparedStatement insert = mConnection.prepareStatement(SQL_INSERT_PRODUCT)) {
+            for (int i = first + 1; i <= first + count; i++) {
+                bindProduct(insert, i);
+                insert.executeUpdate();
+            }
+            mConnection.commit();
+        } catch (SQLException e) {
+            mConnection.rollback();
+            throw e;
+        } finally {
+            mConnection.setAutoCommit(true);
+        }
+    }
+
+    /**
+     * Bind the made up product number n to {@link #SQL_INSERT_PRODUCT}. The provider looks up
+     * each supplier once per write with a SupplierResolver; here the id is bound directly.
+     */
+    static void bindProduct(PreparedStatement insert, int n) throws SQLException {
+        insert.setString(1, "Book " + n);
+        insert.setInt(2, 1 + n % 100);
+        insert.setInt(3, n % 50);
+        insert.setInt(4, 1 + n % SUPPLIERS);
+        insert.setInt(5, 5);
+    }
+
+    void close() throws SQLException {
+        mConnection.close();
+        mFile.delete();
+        new File(mFile.getPath() + "-wal").delete();
+        new File(mFile.getPath() + "-shm").delete();
+    }
+}
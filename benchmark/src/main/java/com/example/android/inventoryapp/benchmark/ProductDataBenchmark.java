@@ -0,0 +1,147 @@
+package com.example.android.inventoryapp.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The basic operations of ProductProvider against tables of different sizes. Every operation
+ * runs the same SQL as the provider does for it.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ProductDataBenchmark {
+
+    /** Rows written per bulk insert, as one import chunk. */
+    private static final int BULK_SIZE = 1000;
+
+    @Param({"1000", "100000", "1000000"})
+    public int rows;
+
+    private BenchmarkDatabase mDatabase;
+    private final Random mRandom = new Random(42);
+    /** Number of the next made up product to insert. */
+    private int mNextProduct;
+
+    private PreparedStatement mInsert;
+    private PreparedStatement mSelectById;
+    private PreparedStatement mSelectAll;
+    private PreparedStatement mUpdateById;
+    private PreparedStatement mDeleteById;
+    private PreparedStatement mInsertWithId;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException, SQLException {
+        mDatabase = new BenchmarkDatabase(rows);
+        mNextProduct = rows;
+        mInsert = mDatabase.connection().prepareStatement(BenchmarkDatabase.SQL_INSERT_PRODUCT);
+        mSelectById = mDatabase.connection().prepareStatement("SELECT _id, product_name, price, quantity, "
+                + "supplier_name, supplier_phone FROM books_view WHERE _id=?");
+        mSelectAll = mDatabase.connection().prepareStatement(
+                "SELECT _id, product_name, price, quantity FROM books");
+        mUpdateById = mDatabase.connection().prepareStatement(
+                "UPDATE books SET price=?, quantity=? WHERE _id=?");
+        mDeleteById = mDatabase.connection().prepareStatement("DELETE FROM books WHERE _id=?");
+        mInsertWithId = mDatabase.connection().prepareStatement("INSERT INTO books (_id, product_name, price, "
+                + "quantity, supplier_id) VALUES (?, ?, ?, ?, ?)");
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws SQLException {
+        mDatabase.close();
+    }
+
+    /** ProductProvider.insert: one product in its own transaction. */
+    @Benchmark
+    public int singleInsert() throws SQLException {
+        BenchmarkDatabase.bindProduct(mInsert, ++mNextProduct);
+        return mInsert.executeUpdate();
+    }
+
+    /** ProductProvider.bulkInsert: a chunk of products in one transaction. */
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public void bulkInsert() throws SQLException {
+        mDatabase.insertProducts(mNextProduct, BULK_SIZE);
+        mNextProduct += BULK_SIZE;
+    }
+
+    /** ProductProvider.query on a product URI, bypassing the product cache. */
+    @Benchmark
+    public void pointQuery(Blackhole blackhole) throws SQLException {
+        mSelectById.setLong(1, randomId());
+        try (ResultSet row = mSelectById.executeQuery()) {
+            if (row.next()) {
+                blackhole.consume(row.getString(2));
+                blackhole.consume(row.getInt(4));
+            }
+        }
+    }
+
+    /** ProductProvider.query on the products URI with the list's projection, read to the end. */
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public long fullScan() throws SQLException {
+        long total = 0;
+        try (ResultSet rows = mSelectAll.executeQuery()) {
+            while (rows.next()) {
+                total += rows.getLong(1) + rows.getInt(3) + rows.getInt(4) + rows.getString(2).length();
+            }
+        }
+        return total;
+    }
+
+    /** ProductProvider.update on a product URI. */
+    @Benchmark
+    public int updateById() throws SQLException {
+        mUpdateById.setInt(1, 1 + mRandom.nextInt(100));
+        mUpdateById.setInt(2, mRandom.nextInt(50));
+        mUpdateById.setLong(3, randomId());
+        return mUpdateById.executeUpdate();
+    }
+
+    /**
+     * ProductProvider.delete on a product URI. The product is put back afterwards so the table
+     * keeps its size; subtract {@link #singleInsert} to get the cost of the delete alone.
+     */
+    @Benchmark
+    public int deleteById() throws SQLException {
+        long id = randomId();
+        mDeleteById.setLong(1, id);
+        int deleted = mDeleteById.executeUpdate();
+        mInsertWithId.setLong(1, id);
+        mInsertWithId.setString(2, "Book " + id);
+        mInsertWithId.setInt(3, 1);
+        mInsertWithId.setInt(4, 1);
+        mInsertWithId.setInt(5, 1);
+        mInsertWithId.executeUpdate();
+        return deleted;
+    }
+
+    /** A random id among the rows the table started with. */
+    private long randomId() {
+        return 1 + mRandom.nextInt(rows);
+    }
+}
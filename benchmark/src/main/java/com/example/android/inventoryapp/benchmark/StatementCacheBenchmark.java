@@ -0,0 +1,225 @@
+package com.example.android.inventoryapp.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The single product operations of ProductProvider with the statements of ProductStatements,
+ * compiled once and bound with longs, against the way they ran before: SQL built per call like
+ * SQLiteDatabase.query and delete do, the id as a String, and a statement compiled per call.
+ * The point lookup is the exception: its cursor owns its query, so ProductStatements compiles
+ * it per call too, and saves only building the SQL and the String of the id.
+ * <p>
+ * Run with {@code -PjmhProfiler=gc} for the allocations per operation. On Android a statement
+ * compiled per call is found in the connection's statement cache instead of being parsed again,
+ * so the time saved there is less than here; the allocations are the same.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class StatementCacheBenchmark {
+
+    private static final int ROWS = 100000;
+
+    /** ProductCache.COLUMNS */
+    private static final String[] PRODUCT_COLUMNS = {"_id", "product_name", "price", "quantity",
+            "supplier_name", "supplier_phone", "reorder_level", "last_modified"};
+
+    /** ProductStatements.SQL_SELECT_PRODUCT */
+    private static final String SQL_SELECT_PRODUCT = "SELECT _id, product_name, price, quantity, supplier_name,"
+            + " supplier_phone, reorder_level, last_modified FROM books_view WHERE _id = ?";
+
+    /** ProductStatements.SQL_DELETE_PRODUCT */
+    private static final String SQL_DELETE_PRODUCT = "DELETE FROM books WHERE _id = ?";
+
+    /** ProductProvider.SQL_ADJUST_QUANTITY */
+    private static final String SQL_ADJUST_QUANTITY = "UPDATE books SET quantity = quantity + ?"
+            + " WHERE _id = ? AND quantity + ? >= 0";
+
+    /** ProductProvider.SQL_SELECT_QUANTITY */
+    private static final String SQL_SELECT_QUANTITY = "SELECT quantity FROM books WHERE _id = ?";
+
+    /** StockLedger.SQL_SET_MOVEMENT_TYPE */
+    private static final String SQL_SET_MOVEMENT_TYPE = "UPDATE ledger_state SET movement_type = ?";
+
+    private static final String SQL_INSERT_WITH_ID = "INSERT INTO books (_id, product_name, price, quantity,"
+            + " supplier_id) VALUES (?, ?, ?, ?, ?)";
+
+    private BenchmarkDatabase mDatabase;
+    private Connection mConnection;
+    private final Random mRandom = new Random(42);
+    /** Sign of the next quantity change, alternating so the stock stays where it is. */
+    private int mDelta = 1;
+
+    private PreparedStatement mDeleteProduct;
+    private PreparedStatement mAdjustQuantity;
+    private PreparedStatement mSelectQuantity;
+    private PreparedStatement mSetMovementType;
+    private PreparedStatement mInsertWithId;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException, SQLException {
+        mDatabase = new BenchmarkDatabase(ROWS);
+        mConnection = mDatabase.connection();
+        mDeleteProduct = mConnection.prepareStatement(SQL_DELETE_PRODUCT);
+        mAdjustQuantity = mConnection.prepareStatement(SQL_ADJUST_QUANTITY);
+        mSelectQuantity = mConnection.prepareStatement(SQL_SELECT_QUANTITY);
+        mSetMovementType = mConnection.prepareStatement(SQL_SET_MOVEMENT_TYPE);
+        mInsertWithId = mConnection.prepareStatement(SQL_INSERT_WITH_ID);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws SQLException {
+        mDatabase.close();
+    }
+
+    /** Cache miss of a product URI query, SQL built by SQLiteQueryBuilder and a String argument. */
+    @Benchmark
+    public void pointLookupPerCall(Blackhole blackhole) throws SQLException {
+        String[] selectionArgs = new String[]{String.valueOf(randomId())};
+        StringBuilder sql = new StringBuilder(120).append("SELECT ");
+        for (int i = 0; i < PRODUCT_COLUMNS.length; i++) {
+            sql.append(i == 0 ? "" : ", ").append(PRODUCT_COLUMNS[i]);
+        }
+        sql.append(" FROM books_view WHERE (_id=?)");
+        try (PreparedStatement select = mConnection.prepareStatement(sql.toString())) {
+            select.setString(1, selectionArgs[0]);
+            readProduct(select, blackhole);
+        }
+    }
+
+    /**
+     * Cache miss of a product URI query, with ProductStatements: constant SQL and a long
+     * argument, compiled per call like rawQueryWithFactory does.
+     */
+    @Benchmark
+    public void pointLookupConstantSql(Blackhole blackhole) throws SQLException {
+        try (PreparedStatement select = mConnection.prepareStatement(SQL_SELECT_PRODUCT)) {
+            select.setLong(1, randomId());
+            readProduct(select, blackhole);
+        }
+    }
+
+    /** ProductEntry.METHOD_ADJUST_QUANTITY with its three statements compiled per call. */
+    @Benchmark
+    public long adjustQuantityPerCall() throws SQLException {
+        try (PreparedStatement setType = mConnection.prepareStatement(SQL_SET_MOVEMENT_TYPE);
+             PreparedStatement adjust = mConnection.prepareStatement(SQL_ADJUST_QUANTITY);
+             PreparedStatement select = mConnection.prepareStatement(SQL_SELECT_QUANTITY)) {
+            return adjustQuantity(setType, adjust, select);
+        }
+    }
+
+    /** ProductEntry.METHOD_ADJUST_QUANTITY with ProductStatements. */
+    @Benchmark
+    public long adjustQuantityCached() throws SQLException {
+        return adjustQuantity(mSetMovementType, mAdjustQuantity, mSelectQuantity);
+    }
+
+    /**
+     * Delete on a product URI, SQL built by SQLiteDatabase.delete and a String argument. The
+     * product is put back afterwards so the table keeps its size, the same way in both variants.
+     */
+    @Benchmark
+    public int deleteByIdPerCall() throws SQLException {
+        long id = randomId();
+        String[] whereArgs = new String[]{String.valueOf(id)};
+        int deleted;
+        try (PreparedStatement delete = mConnection.prepareStatement(deleteSql("books", "_id=?"))) {
+            delete.setString(1, whereArgs[0]);
+            deleted = delete.executeUpdate();
+        }
+        putBack(id);
+        return deleted;
+    }
+
+    /** Delete on a product URI, with ProductStatements. */
+    @Benchmark
+    public int deleteByIdCached() throws SQLException {
+        long id = randomId();
+        mDeleteProduct.setLong(1, id);
+        int deleted = mDeleteProduct.executeUpdate();
+        putBack(id);
+        return deleted;
+    }
+
+    /** The SQL of SQLiteDatabase.delete. */
+    private static String deleteSql(String table, String whereClause) {
+        return "DELETE FROM " + table + (whereClause != null && !whereClause.isEmpty() ? " WHERE " + whereClause : "");
+    }
+
+    private static void readProduct(PreparedStatement select, Blackhole blackhole) throws SQLException {
+        try (ResultSet row = select.executeQuery()) {
+            if (row.next()) {
+                for (int i = 1; i <= PRODUCT_COLUMNS.length; i++) {
+                    blackhole.consume(row.getObject(i));
+                }
+            }
+        }
+    }
+
+    /** The statements of ProductProvider.adjustQuantity, in one transaction. */
+    private long adjustQuantity(PreparedStatement setType, PreparedStatement adjust, PreparedStatement select)
+            throws SQLException {
+        long id = randomId();
+        mDelta = -mDelta;
+        mConnection.setAutoCommit(false);
+        try {
+            setType.setInt(1, 3);
+            setType.executeUpdate();
+            adjust.setLong(1, mDelta);
+            adjust.setLong(2, id);
+            adjust.setLong(3, mDelta);
+            adjust.executeUpdate();
+            select.setLong(1, id);
+            long quantity;
+            try (ResultSet row = select.executeQuery()) {
+                row.next();
+                quantity = row.getLong(1);
+            }
+            setType.setNull(1, Types.INTEGER);
+            setType.executeUpdate();
+            mConnection.commit();
+            return quantity;
+        } finally {
+            mConnection.setAutoCommit(true);
+        }
+    }
+
+    private void putBack(long id) throws SQLException {
+        mInsertWithId.setLong(1, id);
+        mInsertWithId.setString(2, "Book " + id);
+        mInsertWithId.setInt(3, 1);
+        mInsertWithId.setInt(4, 1);
+        mInsertWithId.setInt(5, 1);
+        mInsertWithId.executeUpdate();
+    }
+
+    /** A random id among the rows the table started with. */
+    private long randomId() {
+        return 1 + mRandom.nextInt(ROWS);
+    }
+}
@@ -0,0 +1,144 @@
+package com.example.android.inventoryapp.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Point in time stock queries of StockLedger against ledgers of different sizes. The ledger is
+ * left the way the daily compaction leaves it: a snapshot per day, and the movements of the last
+ * 90 days.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class StockLedgerBenchmark {
+
+    private static final int PRODUCTS = 10000;
+    private static final int MOVEMENTS_PER_DAY = 20000;
+    private static final int RETENTION_DAYS = 90;
+    private static final long DAY_MS = TimeUnit.DAYS.toMillis(1);
+
+    /** StockLedger.SQL_STOCK_AT */
+    private static final String SQL_STOCK_AT = "SELECT IFNULL(s.quantity, 0) + IFNULL((SELECT"
+            + " SUM(quantity_delta) FROM stock_movements m WHERE m.product_id = ?1"
+            + " AND m.created >= IFNULL(s.created, 0) AND m.created <= ?2"
+            + " AND m._id > IFNULL(s.movement_id, 0)), 0) FROM (SELECT 1) LEFT JOIN"
+            + " (SELECT quantity, created, movement_id FROM stock_snapshots WHERE product_id = ?1"
+            + " AND created <= ?2 ORDER BY created DESC, movement_id DESC LIMIT 1) s";
+
+    /** StockLedger.SQL_INSERT_SNAPSHOTS */
+    private static final String SQL_INSERT_SNAPSHOTS = "INSERT INTO stock_snapshots (product_id,"
+            + " created, movement_id, quantity) SELECT product_id, (SELECT created FROM stock_movements"
+            + " WHERE _id = ?2), ?2, IFNULL((SELECT quantity FROM stock_snapshots s"
+            + " WHERE s.product_id = m.product_id ORDER BY created DESC, movement_id DESC LIMIT 1), 0)"
+            + " + SUM(quantity_delta) FROM stock_movements m WHERE _id > ?1 AND _id <= ?2"
+            + " GROUP BY product_id";
+
+    /** Movements ever written, most of them compacted. */
+    @Param({"100000", "1000000", "10000000"})
+    public int movements;
+
+    private BenchmarkDatabase mDatabase;
+    private final Random mRandom = new Random(42);
+    private PreparedStatement mStockAt;
+    /** Time of the first and the last movement. */
+    private long mFirstTime;
+    private long mLastTime;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException, SQLException {
+        mDatabase = new BenchmarkDatabase(PRODUCTS);
+        long lastReceipt;
+        try (Statement statement = mDatabase.connection().createStatement();
+             ResultSet row = statement.executeQuery("SELECT MAX(_id), MAX(created) FROM stock_movements")) {
+            row.next();
+            lastReceipt = row.getLong(1);
+            mFirstTime = row.getLong(2) + 1;
+        }
+        mLastTime = mFirstTime + (movements - 1) * DAY_MS / MOVEMENTS_PER_DAY;
+
+        mDatabase.connection().setAutoCommit(false);
+        try (PreparedStatement fill = mDatabase.connection().prepareStatement("WITH RECURSIVE n(x) AS"
+                + " (SELECT 0 UNION ALL SELECT x + 1 FROM n WHERE x < ? - 1) INSERT INTO stock_movements"
+                + " (product_id, movement_type, quantity_delta, created) SELECT x * 7919 % ? + 1, 1, -1,"
+                + " ? + x * ? / ? FROM n")) {
+            fill.setInt(1, movements);
+            fill.setInt(2, PRODUCTS);
+            fill.setLong(3, mFirstTime);
+            fill.setLong(4, DAY_MS);
+            fill.setInt(5, MOVEMENTS_PER_DAY);
+            fill.executeUpdate();
+            mDatabase.connection().commit();
+        } finally {
+            mDatabase.connection().setAutoCommit(true);
+        }
+
+        // One compaction per day, then the movements before the retention go
+        int days = movements / MOVEMENTS_PER_DAY;
+        mDatabase.connection().setAutoCommit(false);
+        try (PreparedStatement snapshot = mDatabase.connection().prepareStatement(SQL_INSERT_SNAPSHOTS);
+             PreparedStatement delete = mDatabase.connection().prepareStatement(
+                     "DELETE FROM stock_movements WHERE _id <= ?")) {
+            for (int day = 1; day <= days; day++) {
+                snapshot.setLong(1, lastReceipt + (long) (day - 1) * MOVEMENTS_PER_DAY);
+                snapshot.setLong(2, lastReceipt + (long) day * MOVEMENTS_PER_DAY);
+                snapshot.executeUpdate();
+            }
+            delete.setLong(1, lastReceipt + (long) Math.max(0, days - RETENTION_DAYS) * MOVEMENTS_PER_DAY);
+            delete.executeUpdate();
+            mDatabase.connection().commit();
+        } finally {
+            mDatabase.connection().setAutoCommit(true);
+        }
+
+        mStockAt = mDatabase.connection().prepareStatement(SQL_STOCK_AT);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws SQLException {
+        mDatabase.close();
+    }
+
+    /** The current stock of a product: its last snapshot and at most a day of movements. */
+    @Benchmark
+    public long stockNow() throws SQLException {
+        return stockAt(mLastTime);
+    }
+
+    /** The stock of a product at any time of the ledger's history. */
+    @Benchmark
+    public long stockInThePast() throws SQLException {
+        return stockAt(mFirstTime + (long) (mRandom.nextDouble() * (mLastTime - mFirstTime)));
+    }
+
+    private long stockAt(long time) throws SQLException {
+        mStockAt.setLong(1, 1 + mRandom.nextInt(PRODUCTS));
+        mStockAt.setLong(2, time);
+        try (ResultSet row = mStockAt.executeQuery()) {
+            row.next();
+            return row.getLong(1);
+        }
+    }
+}
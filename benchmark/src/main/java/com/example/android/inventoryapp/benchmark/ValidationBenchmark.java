@@ -0,0 +1,48 @@
+package com.example.android.inventoryapp.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per row cost of the phone number check, the expensive part of validating a product: the old
+ * ProductProvider.isPhoneValid compiled the pattern on every call, ProductValidator compiles it
+ * once.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ValidationBenchmark {
+
+    private static final String PHONE_REGEX = "[+]?[0-9]{7,13}$";
+    private static final Pattern PHONE_PATTERN = Pattern.compile(PHONE_REGEX);
+
+    public String phone = "+48123456789";
+
+    /** Before: ProductProvider.isPhoneValid. */
+    @Benchmark
+    public boolean compilePerCall() {
+        Pattern pattern = Pattern.compile(PHONE_REGEX);
+        Matcher match = pattern.matcher(phone);
+        return match.matches();
+    }
+
+    /** After: ProductValidator. */
+    @Benchmark
+    public boolean precompiled() {
+        return PHONE_PATTERN.matcher(phone).matches();
+    }
+}